@@ -0,0 +1,790 @@
+package org.blackbeanbag.recipe.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.poi.hwpf.HWPFDocument;
+import org.apache.poi.hwpf.usermodel.Paragraph;
+import org.apache.poi.hwpf.usermodel.Range;
+
+/**
+ * CorpusGenerator writes a synthetic recipe corpus for load tests,
+ * benchmarks and memory profiling. Generation is deterministic: the same
+ * seed and settings always produce the same files, and each recipe only
+ * depends on the seed and its number, so a corpus of any size is a prefix
+ * of every larger one.
+ * <p>
+ * Recipes have a title, a list of ingredients and instructions. Terms are
+ * drawn from a {@link RecipeVocabulary} with a {@link ZipfDistribution},
+ * so term frequencies follow the long tail of real text. Recipes are
+ * spread over a directory tree of configurable depth and fan-out whose top
+ * level directories are named after recipe categories. A configurable
+ * fraction of the recipes is written as Word documents, a few plain text
+ * recipes use the windows-1252 encoding instead of UTF-8, and a
+ * configurable fraction of the files is malformed: empty, truncated,
+ * random bytes, or text disguised as a Word document.
+ * <p>
+ * Word documents are written with POI from a template whose first three
+ * paragraphs receive the title, the ingredients and the instructions.
+ * The ingredient and instruction lines are separated by line breaks
+ * within their paragraph, as a Word user pressing Shift+Enter would
+ * write them.
+ * <p>
+ * Run {@code java -cp target/benchmarks.jar
+ * org.blackbeanbag.recipe.bench.CorpusGenerator} for the command line
+ * options.
+ */
+public class CorpusGenerator {
+    /**
+     * Default random seed.
+     */
+    public static final long DEFAULT_SEED = 42L;
+
+    /**
+     * Default number of directory levels below the corpus directory.
+     */
+    public static final int DEFAULT_DEPTH = 2;
+
+    /**
+     * Default number of subdirectories per directory.
+     */
+    public static final int DEFAULT_FAN_OUT = 10;
+
+    /**
+     * Default fraction of recipes written as Word documents.
+     */
+    public static final double DEFAULT_DOC_FRACTION = 0.1;
+
+    /**
+     * Default fraction of malformed files.
+     */
+    public static final double DEFAULT_MALFORMED_FRACTION = 0.001;
+
+    /**
+     * Default exponent of the term frequency distribution.
+     */
+    public static final double DEFAULT_ZIPF_EXPONENT = 1.0;
+
+    /**
+     * Fraction of plain text recipes written in windows-1252.
+     */
+    private static final double LEGACY_CHARSET_FRACTION = 0.05;
+
+    /**
+     * Classpath resource of the Word template.
+     */
+    private static final String TEMPLATE = "/recipe-template.doc";
+
+    /**
+     * Number of template paragraphs that are kept and filled.
+     */
+    private static final int TEMPLATE_PARAGRAPHS = 3;
+
+    /**
+     * Number of common ingredients, such as salt and water, that are not
+     * used as the main ingredient of a title.
+     */
+    private static final int STAPLES = 8;
+
+    /**
+     * Line break within a Word paragraph.
+     */
+    private static final char LINE_BREAK = '\u000B';
+
+    /**
+     * Character set of most plain text recipes.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Character set of the remaining plain text recipes.
+     */
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    /**
+     * The random seed.
+     */
+    private final long m_seed;
+
+    /**
+     * Number of directory levels below the corpus directory.
+     */
+    private int m_depth = DEFAULT_DEPTH;
+
+    /**
+     * Number of subdirectories per directory.
+     */
+    private int m_fanOut = DEFAULT_FAN_OUT;
+
+    /**
+     * Fraction of recipes written as Word documents.
+     */
+    private double m_docFraction = DEFAULT_DOC_FRACTION;
+
+    /**
+     * Fraction of malformed files.
+     */
+    private double m_malformedFraction = DEFAULT_MALFORMED_FRACTION;
+
+    /**
+     * Distribution of ingredients.
+     */
+    private ZipfDistribution m_ingredients;
+
+    /**
+     * Distribution of main ingredients, offset by {@link #STAPLES}.
+     */
+    private ZipfDistribution m_mains;
+
+    /**
+     * Distribution of title adjectives.
+     */
+    private ZipfDistribution m_adjectives;
+
+    /**
+     * Distribution of dishes.
+     */
+    private ZipfDistribution m_dishes;
+
+    /**
+     * Distribution of cooking verbs.
+     */
+    private ZipfDistribution m_verbs;
+
+    /**
+     * Distribution of units.
+     */
+    private ZipfDistribution m_units;
+
+    /**
+     * The Word template; loaded on first use.
+     */
+    private byte[] m_template;
+
+    /**
+     * Number of files of each kind written by a call to
+     * {@link #generate(File, int)}.
+     */
+    public static class Stats {
+        /**
+         * Number of plain text recipes.
+         */
+        private int m_textFiles;
+
+        /**
+         * Number of Word recipes.
+         */
+        private int m_wordFiles;
+
+        /**
+         * Number of malformed files.
+         */
+        private int m_malformedFiles;
+
+        /**
+         * Total size of the written files.
+         */
+        private long m_bytes;
+
+        /**
+         * Return the number of plain text recipes.
+         *
+         * @return the number of text files
+         */
+        public int getTextFiles() {
+            return m_textFiles;
+        }
+
+        /**
+         * Return the number of Word recipes.
+         *
+         * @return the number of Word files
+         */
+        public int getWordFiles() {
+            return m_wordFiles;
+        }
+
+        /**
+         * Return the number of malformed files.
+         *
+         * @return the number of malformed files
+         */
+        public int getMalformedFiles() {
+            return m_malformedFiles;
+        }
+
+        /**
+         * Return the total size of the written files.
+         *
+         * @return the size in bytes
+         */
+        public long getBytes() {
+            return m_bytes;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return m_textFiles + " text, " + m_wordFiles + " Word and " + m_malformedFiles
+                    + " malformed files, " + m_bytes + " bytes";
+        }
+    }
+
+    /**
+     * Construct a CorpusGenerator with the default seed.
+     */
+    public CorpusGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    /**
+     * Construct a CorpusGenerator.
+     *
+     * @param seed the random seed
+     */
+    public CorpusGenerator(long seed) {
+        m_seed = seed;
+        setZipfExponent(DEFAULT_ZIPF_EXPONENT);
+    }
+
+    /**
+     * Set the number of directory levels below the corpus directory.
+     * With a depth of zero all files are written to the corpus directory.
+     *
+     * @param depth number of directory levels
+     */
+    public void setDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Depth must not be negative: " + depth);
+        }
+        m_depth = depth;
+    }
+
+    /**
+     * Set the number of subdirectories per directory.
+     *
+     * @param fanOut number of subdirectories
+     */
+    public void setFanOut(int fanOut) {
+        if (fanOut < 1) {
+            throw new IllegalArgumentException("Fan-out must be positive: " + fanOut);
+        }
+        m_fanOut = fanOut;
+    }
+
+    /**
+     * Set the fraction of recipes written as Word documents.
+     *
+     * @param docFraction fraction between 0 and 1
+     */
+    public void setDocFraction(double docFraction) {
+        m_docFraction = checkFraction(docFraction);
+    }
+
+    /**
+     * Set the fraction of malformed files.
+     *
+     * @param malformedFraction fraction between 0 and 1
+     */
+    public void setMalformedFraction(double malformedFraction) {
+        m_malformedFraction = checkFraction(malformedFraction);
+    }
+
+    /**
+     * Set the exponent of the term frequency distribution. One
+     * approximates natural language; zero makes all terms equally likely.
+     *
+     * @param exponent the exponent
+     */
+    public void setZipfExponent(double exponent) {
+        m_ingredients = new ZipfDistribution(RecipeVocabulary.INGREDIENTS.length, exponent);
+        m_mains = new ZipfDistribution(RecipeVocabulary.INGREDIENTS.length - STAPLES, exponent);
+        m_adjectives = new ZipfDistribution(RecipeVocabulary.ADJECTIVES.length, exponent);
+        m_dishes = new ZipfDistribution(RecipeVocabulary.DISHES.length, exponent);
+        m_verbs = new ZipfDistribution(RecipeVocabulary.VERBS.length, exponent);
+        m_units = new ZipfDistribution(RecipeVocabulary.UNITS.length, exponent);
+    }
+
+    /**
+     * Write recipes {@code 0..count-1} below a directory.
+     *
+     * @param dir    the corpus directory
+     * @param count  number of files to write
+     *
+     * @return the number of files of each kind
+     *
+     * @throws IOException if a file cannot be written
+     */
+    public Stats generate(File dir, int count) throws IOException {
+        Stats stats = new Stats();
+        for (int n = 0; n < count; n++) {
+            Random random = random(n);
+            Recipe recipe = recipe(random);
+            File parent = directory(dir, n);
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            String name = slug(recipe.m_title) + "-" + n;
+
+            byte[] content;
+            String extension;
+            if (random.nextDouble() < m_malformedFraction) {
+                extension = random.nextBoolean() ? ".doc" : ".txt";
+                content = malformed(recipe, random);
+                stats.m_malformedFiles++;
+            }
+            else if (random.nextDouble() < m_docFraction) {
+                extension = ".doc";
+                content = word(recipe);
+                stats.m_wordFiles++;
+            }
+            else {
+                extension = ".txt";
+                content = text(recipe).getBytes(random.nextDouble() < LEGACY_CHARSET_FRACTION
+                        ? WINDOWS_1252 : UTF8);
+                stats.m_textFiles++;
+            }
+
+            Files.write(new File(parent, name + extension).toPath(), content);
+            stats.m_bytes += content.length;
+        }
+        return stats;
+    }
+
+    /**
+     * Create queries of the given type for terms of the generated recipes.
+     * Queries follow the term distribution of the corpus, so common terms
+     * are queried more often.
+     *
+     * @param type   one of {@code single}, {@code multi}, {@code phrase}
+     *               or {@code wildcard}
+     * @param count  number of queries
+     *
+     * @return the query strings
+     */
+    public String[] queries(String type, int count) {
+        Random random = new Random(m_seed + type.hashCode());
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            switch (type) {
+                case "single":
+                    queries[i] = word(random);
+                    break;
+                case "multi":
+                    queries[i] = word(random) + " " + word(random);
+                    break;
+                case "phrase":
+                    String phrase = ingredient(random);
+                    while (phrase.indexOf(' ') < 0) {
+                        phrase = ingredient(random);
+                    }
+                    queries[i] = '"' + phrase + '"';
+                    break;
+                case "wildcard":
+                    String word = word(random);
+                    queries[i] = word.substring(0, Math.min(3, word.length())) + "*";
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown query type: " + type);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Create a temporary directory.
+     *
+     * @param prefix prefix of the directory name
+     *
+     * @return the directory
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public static File createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * Delete a directory and everything below it.
+     *
+     * @param file the directory or file to delete
+     */
+    public static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Generate a corpus from the command line.
+     *
+     * @param args the corpus directory, the number of files and options
+     *
+     * @throws IOException if a file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CorpusGenerator <dir> <count> [--seed n] [--depth n] [--fan-out n]"
+                    + " [--doc-fraction f] [--malformed-fraction f] [--zipf s]");
+            System.exit(1);
+        }
+
+        File dir = new File(args[0]);
+        int count = Integer.parseInt(args[1]);
+        long seed = DEFAULT_SEED;
+        List<String[]> options = new ArrayList<String[]>();
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[i + 1]);
+            }
+            else {
+                options.add(new String[] {args[i], args[i + 1]});
+            }
+        }
+
+        CorpusGenerator generator = new CorpusGenerator(seed);
+        for (String[] option : options) {
+            switch (option[0]) {
+                case "--depth":
+                    generator.setDepth(Integer.parseInt(option[1]));
+                    break;
+                case "--fan-out":
+                    generator.setFanOut(Integer.parseInt(option[1]));
+                    break;
+                case "--doc-fraction":
+                    generator.setDocFraction(Double.parseDouble(option[1]));
+                    break;
+                case "--malformed-fraction":
+                    generator.setMalformedFraction(Double.parseDouble(option[1]));
+                    break;
+                case "--zipf":
+                    generator.setZipfExponent(Double.parseDouble(option[1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        Stats stats = generator.generate(dir, count);
+        System.out.println("Wrote " + stats + " to " + dir + " in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Return the random source of a recipe.
+     *
+     * @param n number of the recipe
+     *
+     * @return a random source that only depends on the seed and n
+     */
+    private Random random(int n) {
+        return new Random(m_seed * 0x9E3779B97F4A7C15L + n);
+    }
+
+    /**
+     * Return the directory of a recipe. Recipes are distributed round
+     * robin over the leaf directories, so every directory fills evenly.
+     *
+     * @param root  the corpus directory
+     * @param n     number of the recipe
+     *
+     * @return the directory
+     */
+    private File directory(File root, int n) {
+        File dir = root;
+        int leaf = n;
+        for (int level = 0; level < m_depth; level++) {
+            int index = leaf % m_fanOut;
+            leaf /= m_fanOut;
+            String name = level == 0 && m_fanOut <= RecipeVocabulary.CATEGORIES.length
+                    ? RecipeVocabulary.CATEGORIES[index]
+                    : (level == 0 ? "category" : "d") + index;
+            dir = new File(dir, name);
+        }
+        return dir;
+    }
+
+    /**
+     * Create a recipe.
+     *
+     * @param random random source of the recipe
+     *
+     * @return the recipe
+     */
+    private Recipe recipe(Random random) {
+        Recipe recipe = new Recipe();
+        String main = RecipeVocabulary.INGREDIENTS[STAPLES + m_mains.sample(random)];
+        recipe.m_title = RecipeVocabulary.ADJECTIVES[m_adjectives.sample(random)] + " "
+                + capitalize(main) + " " + RecipeVocabulary.DISHES[m_dishes.sample(random)];
+
+        int ingredients = 4 + random.nextInt(12);
+        recipe.m_ingredients.add(line(random, main));
+        for (int i = 1; i < ingredients; i++) {
+            recipe.m_ingredients.add(line(random, ingredient(random)));
+        }
+
+        int steps = 3 + random.nextInt(6);
+        for (int i = 0; i < steps; i++) {
+            recipe.m_instructions.add(RecipeVocabulary.VERBS[m_verbs.sample(random)] + " the "
+                    + ingredient(random) + " " + pick(random, RecipeVocabulary.ENDINGS));
+        }
+        recipe.m_instructions.add("Serves " + (2 + random.nextInt(7)));
+        return recipe;
+    }
+
+    /**
+     * Create an ingredient line.
+     *
+     * @param random      random source
+     * @param ingredient  the ingredient
+     *
+     * @return the line
+     */
+    private String line(Random random, String ingredient) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(pick(random, RecipeVocabulary.QUANTITIES)).append(' ')
+                .append(RecipeVocabulary.UNITS[m_units.sample(random)]).append(' ')
+                .append(ingredient);
+        if (random.nextInt(3) == 0) {
+            sb.append(", ").append(pick(random, RecipeVocabulary.PREPARATIONS));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the text of a plain text recipe; the title is on the first
+     * line.
+     *
+     * @param recipe the recipe
+     *
+     * @return the text
+     */
+    private static String text(Recipe recipe) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(recipe.m_title).append("\n\nIngredients\n");
+        for (String line : recipe.m_ingredients) {
+            sb.append(line).append('\n');
+        }
+        sb.append("\nInstructions\n");
+        for (String line : recipe.m_instructions) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return a Word document containing a recipe.
+     *
+     * @param recipe the recipe
+     *
+     * @return the document
+     *
+     * @throws IOException if the document cannot be written
+     */
+    private byte[] word(Recipe recipe) throws IOException {
+        HWPFDocument doc = new HWPFDocument(new ByteArrayInputStream(template()));
+        Range range = doc.getRange();
+        for (int i = range.numParagraphs() - 1; i >= TEMPLATE_PARAGRAPHS; i--) {
+            range.getParagraph(i).delete();
+            range = doc.getRange();
+        }
+
+        String[] texts = {recipe.m_title, join(recipe.m_ingredients), join(recipe.m_instructions)};
+        // fill the paragraphs from the end so that earlier offsets stay valid
+        for (int i = texts.length - 1; i >= 0; i--) {
+            Paragraph paragraph = doc.getRange().getParagraph(i);
+            String text = paragraph.text();
+            paragraph.replaceText(text.substring(0, text.length() - 1), texts[i], 0);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        doc.write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the content of a malformed file.
+     *
+     * @param recipe  the recipe the file was meant to contain
+     * @param random  random source
+     *
+     * @return the content
+     *
+     * @throws IOException if a Word document cannot be created
+     */
+    private byte[] malformed(Recipe recipe, Random random) throws IOException {
+        switch (random.nextInt(4)) {
+            case 0:
+                return new byte[0];
+            case 1:
+                byte[] doc = word(recipe);
+                byte[] truncated = new byte[1 + random.nextInt(doc.length - 1)];
+                System.arraycopy(doc, 0, truncated, 0, truncated.length);
+                return truncated;
+            case 2:
+                byte[] garbage = new byte[1 + random.nextInt(16384)];
+                random.nextBytes(garbage);
+                return garbage;
+            default:
+                // plain text, whichever extension the file is given
+                return text(recipe).getBytes(UTF8);
+        }
+    }
+
+    /**
+     * Return the Word template.
+     *
+     * @return the template bytes
+     *
+     * @throws IOException if the template cannot be read
+     */
+    private byte[] template() throws IOException {
+        if (m_template == null) {
+            try (InputStream in = CorpusGenerator.class.getResourceAsStream(TEMPLATE)) {
+                if (in == null) {
+                    throw new IOException("Template " + TEMPLATE + " not found");
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                m_template = out.toByteArray();
+            }
+        }
+        return m_template;
+    }
+
+    /**
+     * Return a random ingredient.
+     *
+     * @param random random source
+     *
+     * @return the ingredient
+     */
+    private String ingredient(Random random) {
+        return RecipeVocabulary.INGREDIENTS[m_ingredients.sample(random)];
+    }
+
+    /**
+     * Return a random word of an ingredient, lowercased.
+     *
+     * @param random random source
+     *
+     * @return the word
+     */
+    private String word(Random random) {
+        String[] words = ingredient(random).split(" ");
+        return words[random.nextInt(words.length)].toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Return a uniformly chosen element.
+     *
+     * @param random  random source
+     * @param values  the values
+     *
+     * @return one of the values
+     */
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Join lines with Word line breaks.
+     *
+     * @param lines the lines
+     *
+     * @return the joined lines
+     */
+    private static String join(List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            if (sb.length() > 0) {
+                sb.append(LINE_BREAK);
+            }
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Capitalize the words of a string.
+     *
+     * @param s the string
+     *
+     * @return the capitalized string
+     */
+    private static String capitalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean start = true;
+        for (char c : s.toCharArray()) {
+            sb.append(start ? Character.toUpperCase(c) : c);
+            start = c == ' ';
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Turn a title into a file name.
+     *
+     * @param title the title
+     *
+     * @return the title in lowercase with non-alphanumeric characters
+     *         replaced by dashes
+     */
+    private static String slug(String title) {
+        return title.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", "-");
+    }
+
+    /**
+     * Check that a value is a fraction.
+     *
+     * @param fraction the value
+     *
+     * @return the value
+     */
+    private static double checkFraction(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Fraction must be between 0 and 1: " + fraction);
+        }
+        return fraction;
+    }
+
+    /**
+     * A generated recipe.
+     */
+    private static class Recipe {
+        /**
+         * The title.
+         */
+        private String m_title;
+
+        /**
+         * Ingredient lines.
+         */
+        private final List<String> m_ingredients = new ArrayList<String>();
+
+        /**
+         * Instruction lines.
+         */
+        private final List<String> m_instructions = new ArrayList<String>();
+    }
+}
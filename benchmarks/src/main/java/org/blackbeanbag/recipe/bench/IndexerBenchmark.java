@@ -0,0 +1,129 @@
+package org.blackbeanbag.recipe.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.blackbeanbag.recipe.IndexProfile;
+import org.blackbeanbag.recipe.Indexer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link Indexer#createIndex()} for several corpus sizes,
+ * scanner thread counts and writer profiles used for the build. Besides
+ * the number of complete index builds per second, the {@code docs}
+ * counter reports the number of documents indexed per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class IndexerBenchmark {
+    /**
+     * Number of recipes in the corpus.
+     */
+    @Param({"1000", "10000"})
+    public int docs;
+
+    /**
+     * Number of scanner threads.
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    /**
+     * Writer profile used for the build: {@code bulk} for
+     * {@link IndexProfile#BULK_LOAD}, {@code incremental} for
+     * {@link IndexProfile#INCREMENTAL}.
+     */
+    @Param({"bulk", "incremental"})
+    public String profile;
+
+    /**
+     * Directory containing the corpus and the index.
+     */
+    private File m_dir;
+
+    /**
+     * Directory containing the corpus.
+     */
+    private File m_docDir;
+
+    /**
+     * Directory containing the index.
+     */
+    private File m_indexDir;
+
+    /**
+     * Number of documents indexed, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        /**
+         * Documents indexed in the current iteration.
+         */
+        public long docs;
+
+        /**
+         * Reset the counter before each iteration.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            docs = 0;
+        }
+    }
+
+    /**
+     * Write the corpus.
+     *
+     * @throws IOException if the corpus cannot be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        m_dir = CorpusGenerator.createTempDir("recipe-index");
+        m_docDir = new File(m_dir, "docs");
+        m_indexDir = new File(m_dir, "index");
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setDocFraction(0);
+        generator.setMalformedFraction(0);
+        generator.generate(m_docDir, docs);
+    }
+
+    /**
+     * Delete the corpus and the index.
+     */
+    @TearDown
+    public void tearDown() {
+        CorpusGenerator.deleteTree(m_dir);
+    }
+
+    /**
+     * Rebuild the index from scratch.
+     *
+     * @param counters receives the number of indexed documents
+     */
+    @Benchmark
+    public void createIndex(Counters counters) {
+        Indexer indexer = new Indexer(m_docDir.getPath(), m_indexDir.getPath());
+        indexer.setThreadCount(threads);
+        indexer.setBulkProfile("bulk".equals(profile) ? IndexProfile.BULK_LOAD : IndexProfile.INCREMENTAL);
+        indexer.createIndex();
+        counters.docs += docs;
+    }
+}
@@ -0,0 +1,119 @@
+package org.blackbeanbag.recipe.bench;
+
+/**
+ * Word lists used by the {@link CorpusGenerator}. Lists that are sampled
+ * with a {@link ZipfDistribution} are ordered from the most to the least
+ * common entry.
+ */
+final class RecipeVocabulary {
+    /**
+     * Ingredients, most common first. Some consist of several words and
+     * some contain characters outside of ASCII.
+     */
+    static final String[] INGREDIENTS = {
+        "salt", "olive oil", "garlic", "onion", "butter", "black pepper", "water", "sugar",
+        "flour", "eggs", "milk", "lemon juice", "tomatoes", "chicken broth", "parsley",
+        "brown sugar", "vanilla extract", "baking powder", "cilantro", "green onions",
+        "carrots", "celery", "potatoes", "rice", "chicken breasts", "ground beef", "cumin",
+        "paprika", "oregano", "thyme", "basil", "bay leaves", "red pepper flakes",
+        "soy sauce", "vegetable oil", "heavy cream", "sour cream", "parmesan cheese",
+        "cheddar cheese", "mozzarella", "honey", "lime juice", "ginger", "bell pepper",
+        "jalapeño", "spinach", "mushrooms", "white wine", "red wine", "vinegar",
+        "baking soda", "cinnamon", "nutmeg", "chili powder", "black beans", "corn",
+        "zucchini", "eggplant", "cabbage", "kale", "sweet potatoes", "shallots", "leeks",
+        "pork shoulder", "bacon", "chorizo", "ham", "shrimp", "salmon", "cod", "tuna",
+        "tofu", "chickpeas", "lentils", "pigeon peas", "plantains", "avocado",
+        "coconut milk", "sesame oil", "fish sauce", "rice vinegar", "dijon mustard",
+        "mayonnaise", "ketchup", "worcestershire sauce", "maple syrup", "cocoa powder",
+        "chocolate chips", "walnuts", "almonds", "pecans", "raisins", "oats", "yogurt",
+        "buttermilk", "cream cheese", "feta", "ricotta", "goat cheese", "crème fraîche",
+        "capers", "olives", "anchovies", "sofrito", "achiote", "sazón", "culantro",
+        "tomatillos", "poblano peppers", "chipotle peppers", "smoked paprika", "turmeric",
+        "coriander", "cardamom", "cloves", "star anise", "saffron", "fennel", "dill",
+        "mint", "rosemary", "sage", "tarragon", "chives", "lemongrass", "galangal",
+        "miso", "tahini", "harissa", "gochujang", "kimchi", "bok choy", "daikon",
+        "edamame", "quinoa", "couscous", "bulgur", "polenta", "arborio rice",
+        "wild rice", "phyllo dough", "puff pastry", "yeast", "cornmeal", "molasses",
+        "lard", "duck fat", "lamb shanks", "veal", "venison", "quail", "mussels",
+        "clams", "scallops", "octopus", "squid", "crab meat", "lobster", "crawfish",
+        "okra", "collard greens", "rutabaga", "parsnips", "celeriac", "jicama",
+        "yuca", "malanga", "calabaza", "guava paste", "tamarind", "piloncillo",
+    };
+
+    /**
+     * Ingredient preparations.
+     */
+    static final String[] PREPARATIONS = {
+        "chopped", "minced", "diced", "sliced", "grated", "crushed", "peeled",
+        "rinsed", "shredded", "softened", "melted", "beaten", "toasted", "julienned",
+    };
+
+    /**
+     * Units of measure, most common first.
+     */
+    static final String[] UNITS = {
+        "cup", "tablespoons", "teaspoon", "cups", "pound", "ounces", "cloves", "pinch",
+        "can", "bunch", "quart", "sprigs", "slices", "stalks", "dash",
+    };
+
+    /**
+     * Quantities.
+     */
+    static final String[] QUANTITIES = {
+        "1", "2", "1/2", "3", "1/4", "4", "1 1/2", "3/4", "6", "2 1/2", "8", "1/3",
+    };
+
+    /**
+     * Title adjectives, most common first.
+     */
+    static final String[] ADJECTIVES = {
+        "Easy", "Classic", "Spicy", "Creamy", "Roasted", "Grandma's", "Quick", "Smoky",
+        "Crispy", "Slow Cooker", "Grilled", "Baked", "Hearty", "Homemade", "Lemony",
+        "Garlicky", "Caribbean", "Southern", "Rustic", "Sweet and Sour", "Braised",
+        "One-Pot", "Stuffed", "Pan-Seared", "Herbed", "Festive", "Weeknight",
+    };
+
+    /**
+     * Kinds of dishes, most common first.
+     */
+    static final String[] DISHES = {
+        "Soup", "Stew", "Salad", "Casserole", "Pasta", "Curry", "Tacos", "Pie", "Cake",
+        "Bread", "Rice", "Fritters", "Roast", "Skillet", "Chili", "Sandwiches", "Bowl",
+        "Frittata", "Gratin", "Empanadas", "Risotto", "Dumplings", "Muffins", "Cookies",
+        "Pudding", "Sauce", "Dip", "Tart", "Kebabs", "Noodles",
+    };
+
+    /**
+     * Cooking verbs used in instructions, most common first.
+     */
+    static final String[] VERBS = {
+        "Add", "Stir in", "Combine", "Heat", "Mix", "Cook", "Whisk", "Season", "Pour",
+        "Simmer", "Bake", "Fold in", "Toss", "Saute", "Roast", "Blend", "Drain",
+        "Sprinkle", "Marinate", "Garnish with",
+    };
+
+    /**
+     * Instruction endings.
+     */
+    static final String[] ENDINGS = {
+        "and cook for 5 minutes.", "over medium heat until fragrant.",
+        "until golden brown.", "and simmer for 20 minutes.", "until well combined.",
+        "and season to taste.", "until tender.", "and let rest for 10 minutes.",
+        "until the liquid is absorbed.", "and bake at 350 degrees for 30 minutes.",
+        "until thickened, stirring occasionally.", "and serve immediately.",
+    };
+
+    /**
+     * Names of the top level directories, used as recipe categories.
+     */
+    static final String[] CATEGORIES = {
+        "mains", "soups", "desserts", "salads", "sides", "breakfast", "breads",
+        "appetizers", "sauces", "drinks", "snacks", "vegetarian",
+    };
+
+    /**
+     * Not to be instantiated.
+     */
+    private RecipeVocabulary() {
+    }
+}
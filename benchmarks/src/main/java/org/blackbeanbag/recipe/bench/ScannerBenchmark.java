@@ -0,0 +1,197 @@
+package org.blackbeanbag.recipe.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.blackbeanbag.recipe.DocumentSchema;
+import org.blackbeanbag.recipe.scanners.TextScanner;
+import org.blackbeanbag.recipe.scanners.WordScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse throughput of the text and Word scanners, measured on the sample
+ * recipe in the {@code data} directory. The text recipe is repeated
+ * {@code copies} times so that both the buffered and the memory mapped
+ * code paths of {@link TextScanner} are covered.
+ * <p>
+ * The {@code data} directory is looked up in the directory given by the
+ * {@code recipe.data} system property, then in {@code ../data} and
+ * {@code data}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class ScannerBenchmark {
+    /**
+     * Name of the sample recipe files, without extension.
+     */
+    private static final String SAMPLE = "Arroz con Gandules Recipe";
+
+    /**
+     * Scanner for text files.
+     */
+    private final TextScanner m_textScanner = new TextScanner();
+
+    /**
+     * Scanner for Word files.
+     */
+    private final WordScanner m_wordScanner = new WordScanner();
+
+    /**
+     * The scanned Word file.
+     */
+    private Path m_wordFile;
+
+    /**
+     * The text file scanned by the text benchmarks.
+     */
+    @State(Scope.Benchmark)
+    public static class TextFile {
+        /**
+         * Number of times the sample text is repeated in the file.
+         */
+        @Param({"1", "1000"})
+        public int copies;
+
+        /**
+         * Temporary directory holding the file.
+         */
+        private File m_dir;
+
+        /**
+         * The file.
+         */
+        private Path m_file;
+
+        /**
+         * Write the file.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        @Setup
+        public void setUp() throws IOException {
+            byte[] sample = Files.readAllBytes(new File(findDataDir(), SAMPLE + ".txt").toPath());
+
+            m_dir = CorpusGenerator.createTempDir("recipe-scan");
+            File text = new File(m_dir, "sample.txt");
+            try (FileOutputStream out = new FileOutputStream(text)) {
+                for (int i = 0; i < copies; i++) {
+                    out.write(sample);
+                }
+            }
+            m_file = text.toPath();
+        }
+
+        /**
+         * Delete the file.
+         */
+        @TearDown
+        public void tearDown() {
+            CorpusGenerator.deleteTree(m_dir);
+        }
+    }
+
+    /**
+     * Locate the Word file.
+     */
+    @Setup
+    public void setUp() {
+        m_wordFile = new File(findDataDir(), SAMPLE + ".doc").toPath();
+    }
+
+    /**
+     * Scan the text file into a document with a string body.
+     *
+     * @param text the text file
+     *
+     * @return the document
+     */
+    @Benchmark
+    public Document textScan(TextFile text) {
+        return m_textScanner.scan(text.m_file.toString());
+    }
+
+    /**
+     * Scan the text file into a document with a streamed body and read
+     * the body, as the index writer does.
+     *
+     * @param text the text file
+     *
+     * @return the number of characters in the body
+     *
+     * @throws IOException if the file cannot be read
+     */
+    @Benchmark
+    public long textScanStreaming(TextFile text) throws IOException {
+        try (FileChannel channel = FileChannel.open(text.m_file, StandardOpenOption.READ)) {
+            Document doc = m_textScanner.scan(text.m_file, channel, channel.size());
+            return drain(doc.getField(DocumentSchema.FIELD_BODY).readerValue());
+        }
+    }
+
+    /**
+     * Scan the Word file.
+     *
+     * @return the document
+     */
+    @Benchmark
+    public Document wordScan() {
+        return m_wordScanner.scan(m_wordFile.toString());
+    }
+
+    /**
+     * Read a reader to the end.
+     *
+     * @param reader the reader
+     *
+     * @return the number of characters read
+     *
+     * @throws IOException if the reader fails
+     */
+    private static long drain(Reader reader) throws IOException {
+        char[] buffer = new char[4096];
+        long total = 0;
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Locate the directory containing the sample recipes.
+     *
+     * @return the data directory
+     */
+    static File findDataDir() {
+        String[] candidates = {System.getProperty("recipe.data"), "../data", "data"};
+        for (String candidate : candidates) {
+            if (candidate != null && new File(candidate, SAMPLE + ".txt").isFile()) {
+                return new File(candidate);
+            }
+        }
+        throw new IllegalStateException("Sample recipes not found; set -Drecipe.data");
+    }
+}
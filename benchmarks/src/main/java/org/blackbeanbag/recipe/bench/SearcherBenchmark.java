@@ -0,0 +1,137 @@
+package org.blackbeanbag.recipe.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.blackbeanbag.recipe.IndexProfile;
+import org.blackbeanbag.recipe.Indexer;
+import org.blackbeanbag.recipe.SearchResult;
+import org.blackbeanbag.recipe.Searcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of {@link Searcher#doSearch(String)} for single term, multi
+ * term, phrase and wildcard queries. The queries cycle through a pool
+ * of randomly chosen ingredients; the searcher's query cache is cleared
+ * before every search so that each search runs against the index. The
+ * index is built with the writer profile given by {@code profile}, so that
+ * the latency after a bulk load, which leaves a few large segments, can
+ * be compared with that of an index built incrementally.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class SearcherBenchmark {
+    /**
+     * Number of distinct queries of each type.
+     */
+    private static final int QUERY_COUNT = 1024;
+
+    /**
+     * Number of recipes in the index.
+     */
+    @Param({"10000"})
+    public int docs;
+
+    /**
+     * Type of query.
+     */
+    @Param({"single", "multi", "phrase", "wildcard"})
+    public String query;
+
+    /**
+     * Writer profile used to build the index: {@code bulk} for
+     * {@link IndexProfile#BULK_LOAD}, {@code incremental} for
+     * {@link IndexProfile#INCREMENTAL}.
+     */
+    @Param({"bulk", "incremental"})
+    public String profile;
+
+    /**
+     * Directory containing the corpus and the index.
+     */
+    private File m_dir;
+
+    /**
+     * The searcher.
+     */
+    private Searcher m_searcher;
+
+    /**
+     * The queries.
+     */
+    private String[] m_queries;
+
+    /**
+     * Position of each benchmark thread in the query pool.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        /**
+         * Index of the next query.
+         */
+        private int m_next;
+    }
+
+    /**
+     * Write the corpus, index it and open the searcher.
+     *
+     * @throws IOException if the corpus cannot be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        m_dir = CorpusGenerator.createTempDir("recipe-search");
+        File docDir = new File(m_dir, "docs");
+        File indexDir = new File(m_dir, "index");
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setDocFraction(0);
+        generator.setMalformedFraction(0);
+        generator.generate(docDir, docs);
+        Indexer indexer = new Indexer(docDir.getPath(), indexDir.getPath());
+        indexer.setBulkProfile("bulk".equals(profile) ? IndexProfile.BULK_LOAD : IndexProfile.INCREMENTAL);
+        indexer.createIndex();
+
+        m_searcher = new Searcher(indexDir.getPath());
+        m_queries = generator.queries(query, QUERY_COUNT);
+    }
+
+    /**
+     * Close the searcher and delete the corpus and the index.
+     */
+    @TearDown
+    public void tearDown() {
+        m_searcher.close();
+        CorpusGenerator.deleteTree(m_dir);
+    }
+
+    /**
+     * Run the next query.
+     *
+     * @param cursor position in the query pool
+     *
+     * @return the results
+     */
+    @Benchmark
+    public List<SearchResult> doSearch(Cursor cursor) {
+        String criteria = m_queries[cursor.m_next];
+        cursor.m_next = (cursor.m_next + 1) % m_queries.length;
+        m_searcher.getQueryCache().clear();
+        return m_searcher.doSearch(criteria);
+    }
+}
@@ -0,0 +1,63 @@
+package org.blackbeanbag.recipe.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ZipfDistribution samples ranks {@code 0..n-1} so that the probability of
+ * rank {@code k} is proportional to {@code 1 / (k + 1)^s}. With an exponent
+ * of about one this matches the term frequencies of natural language: a
+ * few terms occur in most documents and most terms are rare.
+ * <p>
+ * Sampling is a binary search over the cumulative distribution, so it
+ * takes logarithmic time and allocates nothing.
+ */
+public class ZipfDistribution {
+    /**
+     * Cumulative probabilities of the ranks.
+     */
+    private final double[] m_cdf;
+
+    /**
+     * Construct a ZipfDistribution.
+     *
+     * @param n         number of ranks
+     * @param exponent  the exponent s; zero gives a uniform distribution
+     */
+    public ZipfDistribution(int n, double exponent) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of ranks must be positive: " + n);
+        }
+        m_cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            m_cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            m_cdf[k] /= sum;
+        }
+    }
+
+    /**
+     * Return the number of ranks.
+     *
+     * @return the number of ranks
+     */
+    public int size() {
+        return m_cdf.length;
+    }
+
+    /**
+     * Return a random rank.
+     *
+     * @param random random source
+     *
+     * @return a rank between 0 (the most frequent) and {@code size() - 1}
+     */
+    public int sample(Random random) {
+        int i = Arrays.binarySearch(m_cdf, random.nextDouble());
+        int rank = i < 0 ? -i - 1 : i;
+        return Math.min(rank, m_cdf.length - 1);
+    }
+}
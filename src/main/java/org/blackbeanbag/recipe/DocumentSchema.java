@@ -0,0 +1,316 @@
+package org.blackbeanbag.recipe;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+
+/**
+ * DocumentSchema defines the fields of a recipe document in the index.
+ * Each recipe is indexed as:
+ * <ul>
+ *     <li>{@code file}: the file name; an untokenized, stored key field</li>
+ *     <li>{@code title}: the recipe title; an untokenized, stored field</li>
+ *     <li>{@code ingredient}: the full recipe text (including the title) as
+ *         a single analyzed field which is not stored by default</li>
+ * </ul>
+ * In addition, each recipe has two facets, indexed as
+ * {@code SortedSetDocValues} so that they can be counted for any set of
+ * search results without loading documents:
+ * <ul>
+ *     <li>{@value #FACET_INGREDIENT}: the ingredients found by the
+ *         {@link IngredientParser}; a recipe has many</li>
+ *     <li>{@value #FACET_CATEGORY}: the folder below the document
+ *         directory that contains the recipe, set by the {@link Indexer}
+ *         (see {@link #setCategory(Document, String)})</li>
+ * </ul>
+ * The body field can optionally be stored; stored fields are compressed
+ * by the default Lucene codec. Positions are indexed by default in order
+ * to support phrase queries; offsets can be enabled for highlighting.
+ * <p>
+ * The schema is recorded in the commit data of the index (see
+ * {@link #getSignature()}). If an existing index was built with a different
+ * schema, the {@link Indexer} rebuilds it on the next update.
+ */
+public class DocumentSchema {
+    /**
+     * Document field containing the file name. This field uniquely
+     * identifies a document in the index.
+     */
+    public static final String FIELD_FILE = "file";
+
+    /**
+     * Document field containing the recipe title.
+     */
+    public static final String FIELD_TITLE = "title";
+
+    /**
+     * Document field containing the recipe text. This is the default
+     * field for searches.
+     */
+    public static final String FIELD_BODY = "ingredient";
+
+    /**
+     * Facet dimension of the ingredients of a recipe.
+     */
+    public static final String FACET_INGREDIENT = "ingredient";
+
+    /**
+     * Facet dimension of the category of a recipe.
+     */
+    public static final String FACET_CATEGORY = "category";
+
+    /**
+     * Number of characters at the start of a streamed recipe that are
+     * searched for ingredients.
+     */
+    public static final int INGREDIENT_SCAN_LIMIT = 16 * 1024;
+
+    /**
+     * Commit data key under which the schema signature is stored.
+     */
+    public static final String COMMIT_KEY = "recipe.schema";
+
+    /**
+     * Version of the document layout; increment whenever the fields
+     * produced by this class change.
+     */
+    public static final int VERSION = 3;
+
+    /**
+     * Schema with the default options: unstored body with positions.
+     */
+    public static final DocumentSchema DEFAULT = new DocumentSchema(false, true, false);
+
+    /**
+     * True if the body field is stored.
+     */
+    private final boolean m_storeBody;
+
+    /**
+     * True if term positions are indexed for the body field.
+     */
+    private final boolean m_positions;
+
+    /**
+     * True if term offsets are indexed for the body field.
+     */
+    private final boolean m_offsets;
+
+    /**
+     * Field type for the body field.
+     */
+    private final FieldType m_bodyType;
+
+    /**
+     * Configuration of the facet dimensions.
+     */
+    private final FacetsConfig m_facetsConfig = createFacetsConfig();
+
+    /**
+     * Construct a DocumentSchema.
+     *
+     * @param storeBody  true to store the body field
+     * @param positions  true to index term positions for the body field
+     * @param offsets    true to index term offsets for the body field;
+     *                   requires positions
+     */
+    public DocumentSchema(boolean storeBody, boolean positions, boolean offsets) {
+        if (offsets && !positions) {
+            throw new IllegalArgumentException("Offsets require positions to be indexed");
+        }
+        m_storeBody = storeBody;
+        m_positions = positions;
+        m_offsets = offsets;
+
+        FieldType type = new FieldType();
+        type.setIndexed(true);
+        type.setTokenized(true);
+        type.setStored(storeBody);
+        type.setOmitNorms(false);
+        type.setIndexOptions(offsets
+                ? IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS
+                : positions
+                        ? IndexOptions.DOCS_AND_FREQS_AND_POSITIONS
+                        : IndexOptions.DOCS_AND_FREQS);
+        type.freeze();
+        m_bodyType = type;
+    }
+
+    /**
+     * Return true if the body field is stored.
+     *
+     * @return true if the body field is stored
+     */
+    public boolean isStoreBody() {
+        return m_storeBody;
+    }
+
+    /**
+     * Return true if term positions are indexed for the body field.
+     *
+     * @return true if positions are indexed
+     */
+    public boolean isPositions() {
+        return m_positions;
+    }
+
+    /**
+     * Return true if term offsets are indexed for the body field.
+     *
+     * @return true if offsets are indexed
+     */
+    public boolean isOffsets() {
+        return m_offsets;
+    }
+
+    /**
+     * Return the field type used for the body field.
+     *
+     * @return the body field type
+     */
+    public FieldType getBodyType() {
+        return m_bodyType;
+    }
+
+    /**
+     * Return the configuration of the facet dimensions.
+     *
+     * @return the facets configuration
+     */
+    public FacetsConfig getFacetsConfig() {
+        return m_facetsConfig;
+    }
+
+    /**
+     * Create the configuration of the facet dimensions of recipe
+     * documents, as needed to search and count facets.
+     *
+     * @return a new facets configuration
+     */
+    public static FacetsConfig createFacetsConfig() {
+        FacetsConfig config = new FacetsConfig();
+        config.setMultiValued(FACET_INGREDIENT, true);
+        return config;
+    }
+
+    /**
+     * Return a string identifying the document layout and field options
+     * of this schema. Indexes built with a different signature must be
+     * rebuilt.
+     *
+     * @return the schema signature
+     */
+    public String getSignature() {
+        return VERSION
+                + (m_storeBody ? ";stored" : "")
+                + (m_positions ? ";positions" : "")
+                + (m_offsets ? ";offsets" : "");
+    }
+
+    /**
+     * Create a document for a recipe.
+     *
+     * @param file   file name
+     * @param title  recipe title
+     * @param body   full recipe text
+     *
+     * @return a Lucene document for indexing
+     */
+    public Document createDocument(String file, String title, String body) {
+        Document doc = new Document();
+        doc.add(new StringField(FIELD_FILE, file, Field.Store.YES));
+        doc.add(new StringField(FIELD_TITLE, title == null ? "" : title, Field.Store.YES));
+        doc.add(new Field(FIELD_BODY, body, m_bodyType));
+        return addIngredients(doc, body);
+    }
+
+    /**
+     * Create a document for a recipe whose text is read from a reader.
+     * Unless the body is stored, the reader is consumed by the analyzer
+     * while the document is indexed, so it must remain open until then.
+     * A stored body is read into memory immediately; otherwise only the
+     * first {@value #INGREDIENT_SCAN_LIMIT} characters are read ahead to
+     * find the ingredients.
+     *
+     * @param file   file name
+     * @param title  recipe title
+     * @param body   reader for the full recipe text
+     *
+     * @return a Lucene document for indexing
+     *
+     * @throws IOException if the body cannot be read
+     */
+    public Document createDocument(String file, String title, Reader body) throws IOException {
+        if (m_storeBody) {
+            // stored fields cannot be streamed
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                sb.append(buffer, 0, n);
+            }
+            return createDocument(file, title, sb.toString());
+        }
+
+        // read ahead to find the ingredients, then push the text back
+        // so the analyzer sees all of it
+        PushbackReader reader = new PushbackReader(body, INGREDIENT_SCAN_LIMIT);
+        char[] prefix = new char[INGREDIENT_SCAN_LIMIT];
+        int length = 0;
+        int n;
+        while (length < prefix.length && (n = reader.read(prefix, length, prefix.length - length)) != -1) {
+            length += n;
+        }
+        reader.unread(prefix, 0, length);
+
+        Document doc = new Document();
+        doc.add(new StringField(FIELD_FILE, file, Field.Store.YES));
+        doc.add(new StringField(FIELD_TITLE, title == null ? "" : title, Field.Store.YES));
+        doc.add(new Field(FIELD_BODY, reader, m_bodyType));
+        return addIngredients(doc, new String(prefix, 0, length));
+    }
+
+    /**
+     * Set the category facet of a document created by this schema.
+     *
+     * @param doc       the document
+     * @param category  the category
+     *
+     * @return the document to index
+     *
+     * @throws IOException if the facets cannot be encoded
+     */
+    public Document setCategory(Document doc, String category) throws IOException {
+        doc.add(new SortedSetDocValuesFacetField(FACET_CATEGORY, category));
+        return m_facetsConfig.build(doc);
+    }
+
+    /**
+     * Add the ingredient facets of a recipe to its document.
+     *
+     * @param doc   the document
+     * @param text  the recipe text
+     *
+     * @return the document to index
+     */
+    private Document addIngredients(Document doc, String text) {
+        for (String ingredient : IngredientParser.parse(text)) {
+            doc.add(new SortedSetDocValuesFacetField(FACET_INGREDIENT, ingredient));
+        }
+        try {
+            return m_facetsConfig.build(doc);
+        }
+        catch (IOException e) {
+            // only taxonomy facets perform I/O while building
+            throw new IllegalStateException(e);
+        }
+    }
+}
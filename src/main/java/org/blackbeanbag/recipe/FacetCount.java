@@ -0,0 +1,54 @@
+package org.blackbeanbag.recipe;
+
+/**
+ * FacetCount is the number of search results that have a given value
+ * of a facet, such as the number of results containing an ingredient.
+ */
+public class FacetCount {
+    /**
+     * The facet value.
+     */
+    private final String m_value;
+
+    /**
+     * Number of results with the value.
+     */
+    private final int m_count;
+
+    /**
+     * Construct a FacetCount.
+     *
+     * @param value  the facet value
+     * @param count  number of results with the value
+     */
+    public FacetCount(String value, int count) {
+        m_value = value;
+        m_count = count;
+    }
+
+    /**
+     * Return the facet value.
+     *
+     * @return the value
+     */
+    public String getValue() {
+        return m_value;
+    }
+
+    /**
+     * Return the number of results with the value.
+     *
+     * @return the count
+     */
+    public int getCount() {
+        return m_count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return m_value + " (" + m_count + ")";
+    }
+}
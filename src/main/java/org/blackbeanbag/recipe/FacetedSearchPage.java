@@ -0,0 +1,56 @@
+package org.blackbeanbag.recipe;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.ScoreDoc;
+
+/**
+ * FacetedSearchPage is a page of search results along with the most
+ * common values of each facet among all results, as returned by
+ * {@link Searcher#facetedSearch(String, Map, int, ScoreDoc, int)}.
+ */
+public class FacetedSearchPage extends SearchPage {
+    /**
+     * Most common values of each facet dimension, most common first.
+     */
+    private final Map<String, List<FacetCount>> m_facets;
+
+    /**
+     * Construct a FacetedSearchPage.
+     *
+     * @param results    results on this page
+     * @param totalHits  total number of matching documents
+     * @param cursor     last hit on this page, or null if the page is empty
+     * @param facets     most common values of each facet dimension
+     */
+    public FacetedSearchPage(List<SearchResult> results, int totalHits, ScoreDoc cursor,
+            Map<String, List<FacetCount>> facets) {
+        super(results, totalHits, cursor);
+        m_facets = Collections.unmodifiableMap(facets);
+    }
+
+    /**
+     * Return the most common values of each facet dimension.
+     *
+     * @return an unmodifiable map from dimension to values, most common
+     *         first
+     */
+    public Map<String, List<FacetCount>> getFacets() {
+        return m_facets;
+    }
+
+    /**
+     * Return the most common values of a facet dimension.
+     *
+     * @param dimension the dimension, such as
+     *                  {@link DocumentSchema#FACET_INGREDIENT}
+     *
+     * @return the values, most common first; empty if there are none
+     */
+    public List<FacetCount> getFacet(String dimension) {
+        List<FacetCount> counts = m_facets.get(dimension);
+        return counts == null ? Collections.<FacetCount>emptyList() : counts;
+    }
+}
@@ -0,0 +1,331 @@
+package org.blackbeanbag.recipe;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * FileDiscovery walks a document directory tree and reports every regular
+ * file it finds. The walk is performed with {@link Files#walkFileTree}, so
+ * file attributes are read once per entry and the depth of the tree is not
+ * limited by the call stack.
+ * <p>
+ * Files can be filtered with include and exclude glob patterns (see
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}). A pattern matches
+ * an entry if it matches either the path relative to the root directory or
+ * the file name alone, so {@code *.tmp} excludes temporary files anywhere in
+ * the tree and {@code archive/**} excludes a top level directory. Exclude
+ * patterns are also applied to directories, which are skipped entirely.
+ * Other criteria can be added as {@link PathFilter}s.
+ * <p>
+ * Symbolic links are followed by default; links that would lead back into
+ * a directory already being walked are detected and skipped.
+ */
+public class FileDiscovery {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(FileDiscovery.class);
+
+    /**
+     * Root of the directory tree.
+     */
+    private final Path m_root;
+
+    /**
+     * Include patterns; if empty, all files are included.
+     */
+    private final List<PathMatcher> m_includes = new ArrayList<PathMatcher>();
+
+    /**
+     * Exclude patterns.
+     */
+    private final List<PathMatcher> m_excludes = new ArrayList<PathMatcher>();
+
+    /**
+     * Additional filters.
+     */
+    private final List<PathFilter> m_filters = new ArrayList<PathFilter>();
+
+    /**
+     * True if symbolic links should be followed.
+     */
+    private boolean m_followLinks = true;
+
+    /**
+     * Callback invoked for each discovered file.
+     */
+    public interface Listener {
+        /**
+         * Invoked for each regular file found during the walk.
+         *
+         * @param file   absolute path of the file
+         * @param attrs  attributes of the file
+         */
+        void onFile(Path file, BasicFileAttributes attrs);
+    }
+
+    /**
+     * Filter deciding which files and directories are walked, in addition
+     * to the include and exclude patterns.
+     */
+    public interface PathFilter {
+        /**
+         * Determine if a directory below the root should be walked.
+         *
+         * @param relative path of the directory relative to the root
+         *
+         * @return false to skip the directory and everything below it
+         */
+        boolean acceptDirectory(Path relative);
+
+        /**
+         * Determine if a file should be reported.
+         *
+         * @param relative path of the file relative to the root
+         *
+         * @return false to skip the file
+         */
+        boolean acceptFile(Path relative);
+    }
+
+    /**
+     * Construct a FileDiscovery for the given directory.
+     *
+     * @param root root of the directory tree to walk
+     */
+    public FileDiscovery(Path root) {
+        m_root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Return the root of the directory tree.
+     *
+     * @return the root directory
+     */
+    public Path getRoot() {
+        return m_root;
+    }
+
+    /**
+     * Add glob patterns for files to include. If no include patterns are
+     * configured, all files that are not excluded are reported.
+     *
+     * @param globs glob patterns
+     *
+     * @return this FileDiscovery
+     */
+    public FileDiscovery include(Collection<String> globs) {
+        for (String glob : globs) {
+            m_includes.add(m_root.getFileSystem().getPathMatcher("glob:" + glob));
+        }
+        return this;
+    }
+
+    /**
+     * Add glob patterns for files and directories to exclude.
+     *
+     * @param globs glob patterns
+     *
+     * @return this FileDiscovery
+     */
+    public FileDiscovery exclude(Collection<String> globs) {
+        for (String glob : globs) {
+            m_excludes.add(m_root.getFileSystem().getPathMatcher("glob:" + glob));
+        }
+        return this;
+    }
+
+    /**
+     * Add a filter. Files and directories are only walked if all filters
+     * accept them.
+     *
+     * @param filter the filter
+     *
+     * @return this FileDiscovery
+     */
+    public FileDiscovery filter(PathFilter filter) {
+        m_filters.add(filter);
+        return this;
+    }
+
+    /**
+     * Return true if symbolic links are followed.
+     *
+     * @return true if symbolic links are followed
+     */
+    public boolean isFollowLinks() {
+        return m_followLinks;
+    }
+
+    /**
+     * Set whether symbolic links are followed.
+     *
+     * @param followLinks true to follow symbolic links
+     */
+    public void setFollowLinks(boolean followLinks) {
+        m_followLinks = followLinks;
+    }
+
+    /**
+     * Walk the directory tree, reporting each included file to the listener.
+     * Entries that cannot be read are logged and skipped.
+     *
+     * @param listener listener for discovered files
+     *
+     * @throws IllegalArgumentException if the root is not a directory
+     */
+    public void walk(Listener listener) {
+        walk(m_root, listener);
+    }
+
+    /**
+     * Walk part of the directory tree, reporting each included file to the
+     * listener. Patterns are still matched relative to the root directory.
+     * Entries that cannot be read are logged and skipped.
+     *
+     * @param start     directory to start from; must be the root or a
+     *                  directory below it
+     * @param listener  listener for discovered files
+     *
+     * @throws IllegalArgumentException if start is not a directory
+     */
+    public void walk(final Path start, final Listener listener) {
+        if (!Files.isDirectory(start)) {
+            throw new IllegalArgumentException(start + " must be a directory");
+        }
+
+        Set<FileVisitOption> options = m_followLinks
+                ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+                : Collections.<FileVisitOption>emptySet();
+
+        try {
+            Files.walkFileTree(start, options, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(start) && isExcludedDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Scanning directory " + dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && isIncluded(file)) {
+                        listener.onFile(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    if (e instanceof FileSystemLoopException) {
+                        LOG.warn("Skipping symbolic link loop at " + file);
+                    }
+                    else {
+                        LOG.warn("Could not read " + file, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    if (e != null) {
+                        LOG.warn("Error reading directory " + dir, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Determine if a directory matches an exclude pattern.
+     *
+     * @param dir directory to check
+     *
+     * @return true if the directory should be skipped
+     */
+    public boolean isExcludedDirectory(Path dir) {
+        if (dir.equals(m_root)) {
+            return false;
+        }
+        if (matches(m_excludes, dir)) {
+            return true;
+        }
+        if (!m_filters.isEmpty()) {
+            Path relative = m_root.relativize(dir);
+            for (PathFilter filter : m_filters) {
+                if (!filter.acceptDirectory(relative)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if a file passes the include and exclude patterns.
+     *
+     * @param file file to check
+     *
+     * @return true if the file should be reported
+     */
+    public boolean isIncluded(Path file) {
+        if ((!m_includes.isEmpty() && !matches(m_includes, file)) || matches(m_excludes, file)) {
+            return false;
+        }
+        if (!m_filters.isEmpty()) {
+            Path relative = m_root.relativize(file);
+            for (PathFilter filter : m_filters) {
+                if (!filter.acceptFile(relative)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine if any of the matchers match the path relative to the root
+     * or the file name.
+     *
+     * @param matchers  path matchers
+     * @param path      path to check
+     *
+     * @return true if any of the matchers match
+     */
+    private boolean matches(List<PathMatcher> matchers, Path path) {
+        if (matchers.isEmpty()) {
+            return false;
+        }
+        Path relative = m_root.relativize(path);
+        Path name = path.getFileName();
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relative) || (name != null && matcher.matches(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
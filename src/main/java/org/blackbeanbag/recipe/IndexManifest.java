@@ -0,0 +1,343 @@
+package org.blackbeanbag.recipe;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * IndexManifest records the state of every indexed file (path, size,
+ * modification time and content hash) as of the last index commit.
+ * The {@link Indexer} uses the manifest to determine which files have
+ * been added, changed or removed since the previous run so that only
+ * those files have to be scanned again.
+ * <p>
+ * The manifest is persisted as a UTF-8 text file with one tab separated
+ * entry per line. A manifest may carry a token, written as a first line
+ * starting with {@code #}, that is also recorded in the commit it was
+ * stored for; this allows the indexer to detect a manifest that does not
+ * describe the index it is stored next to.
+ */
+public class IndexManifest {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(IndexManifest.class);
+
+    /**
+     * Name of the manifest file inside the index directory.
+     */
+    public static final String FILE_NAME = "recipe-index.manifest";
+
+    /**
+     * Key of the manifest token in the index commit data.
+     */
+    public static final String COMMIT_KEY = "recipe.manifest";
+
+    /**
+     * Character set used for the manifest file.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Manifest entries keyed by file path.
+     */
+    private final Map<String, Entry> m_entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Token identifying the commit this manifest was stored for; null if
+     * the manifest predates tokens.
+     */
+    private String m_token;
+
+    /**
+     * Return the entry for the given file, or null if the file is not
+     * in the manifest.
+     *
+     * @param path file path
+     *
+     * @return the manifest entry for the file
+     */
+    public Entry get(String path) {
+        return m_entries.get(path);
+    }
+
+    /**
+     * Add or replace an entry.
+     *
+     * @param entry manifest entry
+     */
+    public void put(Entry entry) {
+        m_entries.put(entry.getPath(), entry);
+    }
+
+    /**
+     * Remove the entry for the given file.
+     *
+     * @param path file path
+     *
+     * @return the removed entry, or null if the file was not in the manifest
+     */
+    public Entry remove(String path) {
+        return m_entries.remove(path);
+    }
+
+    /**
+     * Return all entries in this manifest.
+     *
+     * @return manifest entries
+     */
+    public Collection<Entry> getEntries() {
+        return m_entries.values();
+    }
+
+    /**
+     * Return the number of entries in this manifest.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * Return the token identifying the commit this manifest was stored for.
+     *
+     * @return the token, or null if the manifest has no token
+     */
+    public String getToken() {
+        return m_token;
+    }
+
+    /**
+     * Load a manifest from the given file. An empty manifest is returned
+     * if the file does not exist or cannot be read; this simply results
+     * in all files being scanned again.
+     *
+     * @param file manifest file
+     *
+     * @return the loaded manifest
+     */
+    public static IndexManifest load(File file) {
+        IndexManifest manifest = new IndexManifest();
+        if (!file.exists()) {
+            return manifest;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    manifest.m_token = line.substring(1);
+                    continue;
+                }
+                String[] parts = line.split("\t", 4);
+                if (parts.length == 4) {
+                    manifest.put(new Entry(parts[3], Long.parseLong(parts[1]),
+                            Long.parseLong(parts[2]), parts[0]));
+                }
+            }
+        }
+        catch (Exception e) {
+            LOG.warn("Could not read manifest " + file + "; all files will be scanned", e);
+            return new IndexManifest();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded " + manifest.size() + " manifest entries from " + file);
+        }
+        return manifest;
+    }
+
+    /**
+     * Store this manifest to the given file. The manifest is written to a
+     * temporary file first which then replaces the existing manifest.
+     *
+     * @param file manifest file
+     *
+     * @throws IOException if the manifest cannot be written
+     */
+    public void store(File file) throws IOException {
+        store(file, m_token);
+    }
+
+    /**
+     * Store this manifest to the given file with a new token.
+     *
+     * @param file   manifest file
+     * @param token  token identifying the commit the manifest describes,
+     *               or null
+     *
+     * @throws IOException if the manifest cannot be written
+     *
+     * @see #store(File)
+     */
+    public void store(File file, String token) throws IOException {
+        m_token = token;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tmp), UTF8))) {
+            if (token != null) {
+                writer.write('#');
+                writer.write(token);
+                writer.write('\n');
+            }
+            for (Entry entry : m_entries.values()) {
+                writer.write(entry.getHash());
+                writer.write('\t');
+                writer.write(Long.toString(entry.getSize()));
+                writer.write('\t');
+                writer.write(Long.toString(entry.getLastModified()));
+                writer.write('\t');
+                writer.write(entry.getPath());
+                writer.write('\n');
+            }
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace manifest " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Compute the content hash for a file.
+     *
+     * @param file file to hash
+     *
+     * @return hex encoded SHA-1 digest of the file contents
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(40);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A single manifest entry.
+     */
+    public static class Entry {
+        /**
+         * File path.
+         */
+        private final String m_path;
+
+        /**
+         * File size in bytes.
+         */
+        private final long m_size;
+
+        /**
+         * File modification time in milliseconds.
+         */
+        private final long m_lastModified;
+
+        /**
+         * Hex encoded content hash.
+         */
+        private final String m_hash;
+
+        /**
+         * Construct a manifest entry.
+         *
+         * @param path          file path
+         * @param size          file size in bytes
+         * @param lastModified  file modification time in milliseconds
+         * @param hash          hex encoded content hash
+         */
+        public Entry(String path, long size, long lastModified, String hash) {
+            m_path = path;
+            m_size = size;
+            m_lastModified = lastModified;
+            m_hash = hash;
+        }
+
+        /**
+         * Return the file path.
+         *
+         * @return file path
+         */
+        public String getPath() {
+            return m_path;
+        }
+
+        /**
+         * Return the file size.
+         *
+         * @return file size in bytes
+         */
+        public long getSize() {
+            return m_size;
+        }
+
+        /**
+         * Return the file modification time.
+         *
+         * @return modification time in milliseconds
+         */
+        public long getLastModified() {
+            return m_lastModified;
+        }
+
+        /**
+         * Return the content hash.
+         *
+         * @return hex encoded content hash
+         */
+        public String getHash() {
+            return m_hash;
+        }
+
+        /**
+         * Determine if the given size and modification time match this entry.
+         *
+         * @param size          file size in bytes
+         * @param lastModified  file modification time in milliseconds
+         *
+         * @return true if the file appears to be unchanged
+         */
+        public boolean matches(long size, long lastModified) {
+            return m_size == size && m_lastModified == lastModified;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package org.blackbeanbag.recipe;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.blackbeanbag.recipe.metrics.Histogram;
+import org.blackbeanbag.recipe.metrics.Meter;
+import org.blackbeanbag.recipe.metrics.Reportable;
+
+/**
+ * IndexMetrics records where an {@link Indexer} spends its time: how long
+ * each scanner takes per file, how many documents and bytes are indexed
+ * per second, how many files fail, how many files are waiting for a
+ * scanner thread, and how long commits and merges take.
+ * <p>
+ * An Indexer creates its own metrics; a single instance can be shared by
+ * successive indexers via {@link Indexer#setMetrics(IndexMetrics)} so
+ * that it only needs to be registered with JMX once. All methods are
+ * thread safe.
+ */
+public class IndexMetrics implements IndexMetricsMXBean, Reportable {
+    /**
+     * Documents added to the index.
+     */
+    private final Meter m_documents = new Meter();
+
+    /**
+     * Bytes of file contents added to the index.
+     */
+    private final Meter m_bytes = new Meter();
+
+    /**
+     * Files that could not be scanned.
+     */
+    private final Meter m_failures = new Meter();
+
+    /**
+     * Files whose scan was aborted and that were quarantined.
+     */
+    private final Meter m_quarantined = new Meter();
+
+    /**
+     * Scan times in microseconds, by scanner name.
+     */
+    private final ConcurrentMap<String, Histogram> m_scanTimes = new ConcurrentHashMap<String, Histogram>();
+
+    /**
+     * Commit times in milliseconds.
+     */
+    private final Histogram m_commitTimes = new Histogram();
+
+    /**
+     * Merge times in milliseconds.
+     */
+    private final Histogram m_mergeTimes = new Histogram();
+
+    /**
+     * Pipeline of the scan in progress; null if there is none.
+     */
+    private volatile IndexPipeline m_pipeline;
+
+    /**
+     * Time of the previous report; guarded by this.
+     */
+    private long m_lastReportNanos = System.nanoTime();
+
+    /**
+     * Document count at the previous report; guarded by this.
+     */
+    private long m_lastDocuments;
+
+    /**
+     * Byte count at the previous report; guarded by this.
+     */
+    private long m_lastBytes;
+
+    /**
+     * Failure count at the previous report; guarded by this.
+     */
+    private long m_lastFailures;
+
+    /**
+     * Quarantine count at the previous report; guarded by this.
+     */
+    private long m_lastQuarantined;
+
+    /**
+     * Commit times at the previous report; guarded by this.
+     */
+    private Histogram.Snapshot m_lastCommits;
+
+    /**
+     * Merge times at the previous report; guarded by this.
+     */
+    private Histogram.Snapshot m_lastMerges;
+
+    /**
+     * Scan times at the previous report; guarded by this.
+     */
+    private Map<String, Histogram.Snapshot> m_lastScans = new TreeMap<String, Histogram.Snapshot>();
+
+    /**
+     * Record a file that was scanned and added to the index.
+     *
+     * @param scanner  name of the scanner
+     * @param nanos    time taken to parse the file, excluding the time
+     *                 the index writer spent adding it
+     * @param bytes    size of the file
+     */
+    public void scanned(String scanner, long nanos, long bytes) {
+        scanTimes(scanner).update(TimeUnit.NANOSECONDS.toMicros(nanos));
+        m_documents.mark();
+        m_bytes.mark(bytes);
+    }
+
+    /**
+     * Record a file that could not be scanned.
+     *
+     * @param scanner  name of the scanner
+     * @param nanos    time taken until the scan failed
+     */
+    public void failed(String scanner, long nanos) {
+        scanTimes(scanner).update(TimeUnit.NANOSECONDS.toMicros(nanos));
+        m_failures.mark();
+    }
+
+    /**
+     * Record a file whose scan was aborted by the watchdog and that was
+     * quarantined. The file also counts as a failure.
+     *
+     * @param scanner  name of the scanner
+     * @param nanos    time taken until the scan was aborted
+     */
+    public void quarantined(String scanner, long nanos) {
+        failed(scanner, nanos);
+        m_quarantined.mark();
+    }
+
+    /**
+     * Record an index commit.
+     *
+     * @param nanos time taken by the commit
+     */
+    public void committed(long nanos) {
+        m_commitTimes.update(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * Record a segment merge.
+     *
+     * @param nanos time taken by the merge
+     */
+    public void merged(long nanos) {
+        m_mergeTimes.update(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * Set the pipeline whose queue depth is reported.
+     *
+     * @param pipeline the pipeline of the scan in progress, or null
+     */
+    void setPipeline(IndexPipeline pipeline) {
+        m_pipeline = pipeline;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDocumentCount() {
+        return m_documents.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getDocumentRate() {
+        return m_documents.getRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getByteCount() {
+        return m_bytes.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getByteRate() {
+        return m_bytes.getRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFailureCount() {
+        return m_failures.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getQuarantineCount() {
+        return m_quarantined.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getQueueDepth() {
+        IndexPipeline pipeline = m_pipeline;
+        return pipeline == null ? 0 : pipeline.getQueueSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Histogram.Snapshot> getScanTimeMicros() {
+        Map<String, Histogram.Snapshot> snapshots = new TreeMap<String, Histogram.Snapshot>();
+        for (Map.Entry<String, Histogram> entry : m_scanTimes.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Histogram.Snapshot getCommitTimeMillis() {
+        return m_commitTimes.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Histogram.Snapshot getMergeTimeMillis() {
+        return m_mergeTimes.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String report() {
+        long documents = getDocumentCount();
+        long bytes = getByteCount();
+        long failures = getFailureCount();
+        long quarantined = getQuarantineCount();
+        Histogram.Snapshot commits = getCommitTimeMillis();
+        Histogram.Snapshot merges = getMergeTimeMillis();
+        Map<String, Histogram.Snapshot> scans = getScanTimeMicros();
+        long now = System.nanoTime();
+        double seconds = Math.max(now - m_lastReportNanos, 1) / 1e9;
+
+        Histogram.Snapshot newCommits = commits.minus(m_lastCommits);
+        Histogram.Snapshot newMerges = merges.minus(m_lastMerges);
+        StringBuilder sb = new StringBuilder();
+        sb.append(documents - m_lastDocuments).append(" documents")
+                .append(String.format(" (%.1f/s), ", (documents - m_lastDocuments) / seconds))
+                .append(bytes - m_lastBytes).append(" bytes")
+                .append(String.format(" (%.0f/s), ", (bytes - m_lastBytes) / seconds))
+                .append(failures - m_lastFailures).append(" failures (")
+                .append(quarantined - m_lastQuarantined).append(" quarantined), queue depth ")
+                .append(getQueueDepth());
+        for (Map.Entry<String, Histogram.Snapshot> entry : scans.entrySet()) {
+            Histogram.Snapshot newScans = entry.getValue().minus(m_lastScans.get(entry.getKey()));
+            if (newScans.getCount() > 0) {
+                sb.append("; ").append(entry.getKey()).append(" (us) ").append(newScans);
+            }
+        }
+        if (newCommits.getCount() > 0) {
+            sb.append("; commit (ms) ").append(newCommits);
+        }
+        if (newMerges.getCount() > 0) {
+            sb.append("; merge (ms) ").append(newMerges);
+        }
+
+        boolean idle = documents == m_lastDocuments && failures == m_lastFailures
+                && newCommits.getCount() == 0 && newMerges.getCount() == 0;
+        m_lastReportNanos = now;
+        m_lastDocuments = documents;
+        m_lastBytes = bytes;
+        m_lastFailures = failures;
+        m_lastQuarantined = quarantined;
+        m_lastCommits = commits;
+        m_lastMerges = merges;
+        m_lastScans = scans;
+        return idle ? null : sb.toString();
+    }
+
+    /**
+     * Return the histogram of scan times for a scanner.
+     *
+     * @param scanner name of the scanner
+     *
+     * @return the histogram
+     */
+    private Histogram scanTimes(String scanner) {
+        Histogram histogram = m_scanTimes.get(scanner);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = m_scanTimes.putIfAbsent(scanner, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+}
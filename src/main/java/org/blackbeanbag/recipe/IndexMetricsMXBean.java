@@ -0,0 +1,84 @@
+package org.blackbeanbag.recipe;
+
+import java.util.Map;
+
+import org.blackbeanbag.recipe.metrics.Histogram;
+
+/**
+ * JMX view of the {@link IndexMetrics} of an {@link Indexer}. Counts and
+ * distributions cover the lifetime of the metrics; rates are moving
+ * averages over about one minute.
+ */
+public interface IndexMetricsMXBean {
+    /**
+     * Return the number of documents added to the index.
+     *
+     * @return the document count
+     */
+    long getDocumentCount();
+
+    /**
+     * Return the rate at which documents are added to the index.
+     *
+     * @return documents per second
+     */
+    double getDocumentRate();
+
+    /**
+     * Return the total size of the files added to the index.
+     *
+     * @return the size in bytes
+     */
+    long getByteCount();
+
+    /**
+     * Return the rate at which file contents are added to the index.
+     *
+     * @return bytes per second
+     */
+    double getByteRate();
+
+    /**
+     * Return the number of files that could not be scanned.
+     *
+     * @return the failure count
+     */
+    long getFailureCount();
+
+    /**
+     * Return the number of files whose scan was aborted by the watchdog
+     * and that were quarantined. These are included in the failure count.
+     *
+     * @return the quarantine count
+     */
+    long getQuarantineCount();
+
+    /**
+     * Return the number of files waiting for a scanner thread.
+     *
+     * @return the queue depth, or zero if no scan is in progress
+     */
+    int getQueueDepth();
+
+    /**
+     * Return the time taken to scan a file and add its document to the
+     * index, by scanner.
+     *
+     * @return the scan times in microseconds, keyed by scanner name
+     */
+    Map<String, Histogram.Snapshot> getScanTimeMicros();
+
+    /**
+     * Return the time taken by index commits.
+     *
+     * @return the commit times in milliseconds
+     */
+    Histogram.Snapshot getCommitTimeMillis();
+
+    /**
+     * Return the time taken by segment merges.
+     *
+     * @return the merge times in milliseconds
+     */
+    Histogram.Snapshot getMergeTimeMillis();
+}
@@ -0,0 +1,267 @@
+package org.blackbeanbag.recipe;
+
+import org.apache.log4j.Logger;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * IndexPipeline hands files discovered by a directory walker to a pool
+ * of worker threads that scan and index them. Files are passed through
+ * a bounded queue; once the queue is full, {@link #submit} blocks
+ * until a worker catches up, which keeps the walker from running too far
+ * ahead of the scanners.
+ * <p>
+ * A pipeline is used once: {@link #start()} it, {@link #submit} the
+ * files and then either {@link #finish()} it to wait for all submitted
+ * files to be processed or {@link #abort()} it to discard pending files.
+ */
+public class IndexPipeline {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(IndexPipeline.class);
+
+    /**
+     * Marker placed on the queue to signal a worker to exit.
+     */
+    private static final Task END = new Task(null, null);
+
+    /**
+     * Queue of files waiting to be processed.
+     */
+    private final BlockingQueue<Task> m_queue;
+
+    /**
+     * Worker threads.
+     */
+    private final Thread[] m_workers;
+
+    /**
+     * Handler invoked by the workers for each file.
+     */
+    private final FileHandler m_handler;
+
+    /**
+     * First failure thrown by a file handler.
+     */
+    private final AtomicReference<Throwable> m_failure = new AtomicReference<Throwable>();
+
+    /**
+     * Set once the pipeline has been aborted; pending files are skipped.
+     */
+    private volatile boolean m_aborted;
+
+    /**
+     * Set once the workers have been signalled to exit.
+     */
+    private boolean m_shutdown;
+
+    /**
+     * Callback used by the worker threads to process a file. Implementations
+     * must be thread safe.
+     */
+    public interface FileHandler {
+        /**
+         * Process the given file.
+         *
+         * @param file   file to process
+         * @param attrs  file attributes read while discovering the file
+         */
+        void handle(Path file, BasicFileAttributes attrs);
+    }
+
+    /**
+     * Construct an IndexPipeline.
+     *
+     * @param threads   number of worker threads
+     * @param capacity  maximum number of files waiting in the queue
+     * @param handler   handler invoked for each file
+     */
+    public IndexPipeline(int threads, int capacity, FileHandler handler) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        m_queue = new ArrayBlockingQueue<Task>(Math.max(capacity, 1));
+        m_workers = new Thread[threads];
+        m_handler = handler;
+    }
+
+    /**
+     * Start the worker threads.
+     */
+    public void start() {
+        for (int i = 0; i < m_workers.length; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "recipe-indexer-" + i);
+            worker.setDaemon(true);
+            m_workers[i] = worker;
+            worker.start();
+        }
+    }
+
+    /**
+     * Submit a file for processing. This method blocks while the queue is full.
+     *
+     * @param file   file to process
+     * @param attrs  file attributes
+     *
+     * @throws RuntimeException if a worker has failed or the calling thread
+     *                          was interrupted
+     */
+    public void submit(Path file, BasicFileAttributes attrs) {
+        checkFailure();
+        try {
+            m_queue.put(new Task(file, attrs));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new RuntimeException("Interrupted while submitting " + file, e);
+        }
+    }
+
+    /**
+     * Wait for all submitted files to be processed and stop the workers.
+     *
+     * @throws RuntimeException if a worker failed while processing a file
+     */
+    public void finish() {
+        shutdown();
+        checkFailure();
+    }
+
+    /**
+     * Discard all files that have not been processed yet and stop the
+     * workers. Files that are being processed when this method is called
+     * are allowed to complete.
+     */
+    public void abort() {
+        m_aborted = true;
+        m_queue.clear();
+        shutdown();
+    }
+
+    /**
+     * Return the number of files waiting to be processed.
+     *
+     * @return the queue depth
+     */
+    public int getQueueSize() {
+        return m_queue.size();
+    }
+
+    /**
+     * Signal the workers to exit and wait for them to do so.
+     */
+    private synchronized void shutdown() {
+        if (m_shutdown) {
+            return;
+        }
+        m_shutdown = true;
+
+        boolean interrupted = false;
+        for (int i = 0; i < m_workers.length; i++) {
+            while (true) {
+                try {
+                    m_queue.put(END);
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        for (Thread worker : m_workers) {
+            while (worker != null && worker.isAlive()) {
+                try {
+                    worker.join();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Worker loop: process files until the end marker is received.
+     */
+    private void work() {
+        while (true) {
+            Task task;
+            try {
+                task = m_queue.take();
+            }
+            catch (InterruptedException e) {
+                // workers are only stopped via the end marker
+                continue;
+            }
+
+            if (task == END) {
+                return;
+            }
+            if (m_aborted) {
+                continue;
+            }
+
+            try {
+                m_handler.handle(task.m_file, task.m_attrs);
+            }
+            catch (Throwable t) {
+                LOG.error("Indexing failed while processing " + task.m_file, t);
+                m_failure.compareAndSet(null, t);
+                m_aborted = true;
+            }
+        }
+    }
+
+    /**
+     * Throw an exception if a worker has failed.
+     */
+    private void checkFailure() {
+        Throwable t = m_failure.get();
+        if (t != null) {
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * A file waiting to be processed.
+     */
+    private static class Task {
+        /**
+         * File to process.
+         */
+        private final Path m_file;
+
+        /**
+         * Attributes of the file.
+         */
+        private final BasicFileAttributes m_attrs;
+
+        /**
+         * Construct a Task.
+         *
+         * @param file   file to process
+         * @param attrs  attributes of the file
+         */
+        private Task(Path file, BasicFileAttributes attrs) {
+            m_file = file;
+            m_attrs = attrs;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.blackbeanbag.recipe;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LiveIndexWriterConfig;
+import org.apache.lucene.index.MergeScheduler;
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ * IndexProfile holds the index writer settings the {@link Indexer} uses
+ * for a kind of work:
+ * <ul>
+ *     <li>{@link #INCREMENTAL}: the writer settings between full builds.
+ *     Small flushes, merges run one at a time in the background so they
+ *     compete little with searches, and compound files keep the number of
+ *     open files low as near real-time readers are reopened.</li>
+ *     <li>{@link #BULK_LOAD}: the settings while the index is rebuilt from
+ *     scratch. A large RAM buffer produces fewer, larger segments, several
+ *     merge threads run concurrently, and segments are not packed into
+ *     compound files. The index is not merged down at the end: the few
+ *     segments the large buffer produces searched as fast as a single one
+ *     in the benchmarks, and merging them rewrote the whole index.</li>
+ * </ul>
+ * Profiles are applied to an open writer, so an indexer can switch to the
+ * bulk load profile for a rebuild and back afterwards without reopening
+ * its writer. The writer must use a {@link TieredMergePolicy} and a
+ * {@link ConcurrentMergeScheduler}, as the indexer does.
+ * <p>
+ * IndexProfile instances are immutable.
+ */
+public class IndexProfile {
+    /**
+     * Number of segments per tier, and segments merged at once, of the
+     * predefined profiles.
+     */
+    private static final int SEGMENTS_PER_TIER = 10;
+
+    /**
+     * Largest RAM buffer in MB of the bulk load profile.
+     */
+    private static final double MAX_BULK_RAM_BUFFER_MB = 256;
+
+    /**
+     * Profile for incremental updates, tuned for low latency.
+     */
+    public static final IndexProfile INCREMENTAL = new IndexProfile(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB,
+            SEGMENTS_PER_TIER, 1, true, 0);
+
+    /**
+     * Profile for full builds, tuned for throughput. The RAM buffer is an
+     * eighth of the maximum heap size, between the incremental buffer
+     * size and 256 MB; half the processors merge, up to four.
+     */
+    public static final IndexProfile BULK_LOAD = new IndexProfile(
+            Math.max(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB, Math.min(MAX_BULK_RAM_BUFFER_MB,
+                    Runtime.getRuntime().maxMemory() / 8.0 / 1024 / 1024)),
+            SEGMENTS_PER_TIER, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)),
+            false, 0);
+
+    /**
+     * Size in MB of the buffer holding added documents before they are
+     * flushed to a new segment.
+     */
+    private final double m_ramBufferSizeMB;
+
+    /**
+     * Number of segments allowed per tier before they are merged, which
+     * is also the number of segments merged at once.
+     */
+    private final int m_segmentsPerTier;
+
+    /**
+     * Number of threads merging segments concurrently.
+     */
+    private final int m_mergeThreads;
+
+    /**
+     * True if new segments are packed into compound files.
+     */
+    private final boolean m_compoundFile;
+
+    /**
+     * Number of segments the index is merged down to after a build, or
+     * zero to leave the segments as they are.
+     */
+    private final int m_forceMergeSegments;
+
+    /**
+     * Construct an IndexProfile.
+     *
+     * @param ramBufferSizeMB     size in MB of the buffer holding added
+     *                            documents before they are flushed
+     * @param segmentsPerTier     number of segments allowed per tier, and
+     *                            merged at once
+     * @param mergeThreads        number of threads merging concurrently
+     * @param compoundFile        true to pack new segments into compound
+     *                            files
+     * @param forceMergeSegments  number of segments to merge the index
+     *                            down to after a build, or zero not to
+     *                            merge it
+     */
+    public IndexProfile(double ramBufferSizeMB, int segmentsPerTier, int mergeThreads, boolean compoundFile,
+            int forceMergeSegments) {
+        if (ramBufferSizeMB <= 0) {
+            throw new IllegalArgumentException("RAM buffer size must be positive: " + ramBufferSizeMB);
+        }
+        if (segmentsPerTier < 2) {
+            throw new IllegalArgumentException("Segments per tier must be at least 2: " + segmentsPerTier);
+        }
+        if (mergeThreads < 1) {
+            throw new IllegalArgumentException("Merge thread count must be positive: " + mergeThreads);
+        }
+        if (forceMergeSegments < 0) {
+            throw new IllegalArgumentException("Segment count must not be negative: " + forceMergeSegments);
+        }
+        m_ramBufferSizeMB = ramBufferSizeMB;
+        m_segmentsPerTier = segmentsPerTier;
+        m_mergeThreads = mergeThreads;
+        m_compoundFile = compoundFile;
+        m_forceMergeSegments = forceMergeSegments;
+    }
+
+    /**
+     * Return the size of the buffer holding added documents before they
+     * are flushed to a new segment.
+     *
+     * @return the buffer size in MB
+     */
+    public double getRAMBufferSizeMB() {
+        return m_ramBufferSizeMB;
+    }
+
+    /**
+     * Return the number of segments allowed per tier before they are
+     * merged.
+     *
+     * @return segments per tier
+     */
+    public int getSegmentsPerTier() {
+        return m_segmentsPerTier;
+    }
+
+    /**
+     * Return the number of threads merging segments concurrently.
+     *
+     * @return number of merge threads
+     */
+    public int getMergeThreads() {
+        return m_mergeThreads;
+    }
+
+    /**
+     * Determine if new segments are packed into compound files.
+     *
+     * @return true if compound files are used
+     */
+    public boolean isCompoundFile() {
+        return m_compoundFile;
+    }
+
+    /**
+     * Return the number of segments the index is merged down to after a
+     * build.
+     *
+     * @return the segment count, or zero if the index is not merged
+     */
+    public int getForceMergeSegments() {
+        return m_forceMergeSegments;
+    }
+
+    /**
+     * Return a copy of this profile for one of several writers that run
+     * concurrently: the RAM buffer and the merge threads are divided among
+     * the writers, so that together they use about as much as one writer
+     * with this profile.
+     *
+     * @param writers number of writers
+     *
+     * @return the profile of each writer
+     */
+    public IndexProfile divide(int writers) {
+        return new IndexProfile(Math.max(m_ramBufferSizeMB / writers,
+                Math.min(m_ramBufferSizeMB, IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB)),
+                m_segmentsPerTier, Math.max(1, m_mergeThreads / writers), m_compoundFile, m_forceMergeSegments);
+    }
+
+    /**
+     * Apply this profile to the configuration of a writer that is about to
+     * be opened. The merge scheduler, if given, replaces the configured
+     * one.
+     *
+     * @param config     the writer configuration
+     * @param scheduler  the merge scheduler, or null to keep the
+     *                   configured one
+     */
+    public void configure(IndexWriterConfig config, ConcurrentMergeScheduler scheduler) {
+        config.setMergePolicy(new TieredMergePolicy());
+        if (scheduler != null) {
+            config.setMergeScheduler(scheduler);
+        }
+        apply(config);
+    }
+
+    /**
+     * Apply this profile to an open writer. Merges that are already
+     * running are not affected.
+     *
+     * @param writer the writer
+     */
+    public void apply(IndexWriter writer) {
+        apply(writer.getConfig());
+    }
+
+    /**
+     * Apply this profile to the live settings of a writer.
+     *
+     * @param config the writer settings
+     */
+    private void apply(LiveIndexWriterConfig config) {
+        config.setRAMBufferSizeMB(m_ramBufferSizeMB);
+        config.setUseCompoundFile(m_compoundFile);
+
+        TieredMergePolicy policy = (TieredMergePolicy) config.getMergePolicy();
+        policy.setSegmentsPerTier(m_segmentsPerTier);
+        policy.setMaxMergeAtOnce(m_segmentsPerTier);
+        policy.setNoCFSRatio(m_compoundFile ? TieredMergePolicy.DEFAULT_NO_CFS_RATIO : 0.0);
+
+        MergeScheduler scheduler = config.getMergeScheduler();
+        if (scheduler instanceof ConcurrentMergeScheduler) {
+            // allow a backlog of merges before indexing threads are stalled
+            ((ConcurrentMergeScheduler) scheduler).setMaxMergesAndThreads(m_mergeThreads + 2, m_mergeThreads);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ramBuffer=" + Math.round(m_ramBufferSizeMB) + "MB, segmentsPerTier=" + m_segmentsPerTier
+                + ", mergeThreads=" + m_mergeThreads + ", compoundFile=" + m_compoundFile
+                + ", forceMerge=" + m_forceMergeSegments;
+    }
+}
@@ -0,0 +1,288 @@
+package org.blackbeanbag.recipe;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * IndexStorage determines how the {@link Indexer} and the {@link Searcher}
+ * access the index files:
+ * <ul>
+ *     <li>{@link Type#DEFAULT}: the directory chosen by
+ *     {@link FSDirectory#open(File)} for the platform</li>
+ *     <li>{@link Type#MMAP}: files are memory mapped; reads are served from
+ *     the operating system page cache without copying</li>
+ *     <li>{@link Type#NIO}: files are read with positional reads through a
+ *     {@link FileChannel}, copying into heap buffers</li>
+ *     <li>{@link Type#RAM}: the whole index is loaded into the heap at
+ *     startup; an index opened for writing is persisted to disk
+ *     periodically and when it is closed (see
+ *     {@link PersistentRAMDirectory})</li>
+ * </ul>
+ * Optionally the index files are read once when the index is opened so
+ * that the first searches do not have to wait for the disk.
+ * <p>
+ * IndexStorage instances are immutable.
+ */
+public class IndexStorage {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(IndexStorage.class);
+
+    /**
+     * Default interval in milliseconds at which a RAM index is persisted.
+     */
+    public static final long DEFAULT_PERSIST_INTERVAL = 60000L;
+
+    /**
+     * Size of the buffer used to warm the page cache.
+     */
+    private static final int WARM_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Storage as chosen by Lucene for the platform, without warming.
+     */
+    public static final IndexStorage DEFAULT = new IndexStorage(Type.DEFAULT);
+
+    /**
+     * The kinds of index storage.
+     */
+    public enum Type {
+        /**
+         * Storage chosen by Lucene for the platform.
+         */
+        DEFAULT,
+
+        /**
+         * Memory mapped files.
+         */
+        MMAP,
+
+        /**
+         * Positional reads through file channels.
+         */
+        NIO,
+
+        /**
+         * Heap resident index, persisted to disk.
+         */
+        RAM
+    }
+
+    /**
+     * The kind of storage.
+     */
+    private final Type m_type;
+
+    /**
+     * True if the page cache is warmed when the index is opened.
+     */
+    private final boolean m_warm;
+
+    /**
+     * Interval in milliseconds at which a RAM index is persisted.
+     */
+    private final long m_persistInterval;
+
+    /**
+     * Construct an IndexStorage that does not warm the page cache.
+     *
+     * @param type the kind of storage
+     */
+    public IndexStorage(Type type) {
+        this(type, false, DEFAULT_PERSIST_INTERVAL);
+    }
+
+    /**
+     * Construct an IndexStorage.
+     *
+     * @param type             the kind of storage
+     * @param warm             true to read all index files when the
+     *                         index is opened
+     * @param persistInterval  interval in milliseconds at which a RAM
+     *                         index opened for writing is persisted
+     */
+    public IndexStorage(Type type, boolean warm, long persistInterval) {
+        if (persistInterval <= 0) {
+            throw new IllegalArgumentException("Persist interval must be positive: " + persistInterval);
+        }
+        m_type = type;
+        m_warm = warm;
+        m_persistInterval = persistInterval;
+    }
+
+    /**
+     * Return the storage described by a settings value: the name of a
+     * {@link Type}, in any case. An empty or null value selects the
+     * default storage.
+     *
+     * @param type  the storage type name, or null
+     * @param warm  true to warm the page cache when the index is opened
+     *
+     * @return the storage
+     */
+    public static IndexStorage valueOf(String type, boolean warm) {
+        Type t = type == null || type.trim().isEmpty()
+                ? Type.DEFAULT
+                : Type.valueOf(type.trim().toUpperCase(Locale.ROOT));
+        return new IndexStorage(t, warm, DEFAULT_PERSIST_INTERVAL);
+    }
+
+    /**
+     * Return the kind of storage.
+     *
+     * @return the storage type
+     */
+    public Type getType() {
+        return m_type;
+    }
+
+    /**
+     * Determine if the page cache is warmed when the index is opened.
+     *
+     * @return true if index files are read when the index is opened
+     */
+    public boolean isWarm() {
+        return m_warm;
+    }
+
+    /**
+     * Return the interval at which a RAM index is persisted.
+     *
+     * @return the interval in milliseconds
+     */
+    public long getPersistInterval() {
+        return m_persistInterval;
+    }
+
+    /**
+     * Open an index directory for writing. A RAM index is loaded from
+     * disk and persisted periodically until the returned directory is
+     * closed.
+     *
+     * @param dir the index directory
+     *
+     * @return the Lucene directory
+     *
+     * @throws IOException if the directory cannot be opened
+     */
+    public Directory open(File dir) throws IOException {
+        if (m_type == Type.RAM) {
+            PersistentRAMDirectory directory = new PersistentRAMDirectory(FSDirectory.open(dir));
+            directory.startPersist(m_persistInterval, TimeUnit.MILLISECONDS);
+            return directory;
+        }
+        return openFS(dir);
+    }
+
+    /**
+     * Open an index directory for searching only. A RAM index is a copy
+     * of the index as last committed on disk and is never persisted.
+     *
+     * @param dir the index directory
+     *
+     * @return the Lucene directory
+     *
+     * @throws IOException if the directory cannot be opened
+     */
+    public Directory openReadOnly(File dir) throws IOException {
+        if (m_type == Type.RAM) {
+            FSDirectory disk = FSDirectory.open(dir);
+            try {
+                return new RAMDirectory(disk, IOContext.READONCE);
+            }
+            finally {
+                disk.close();
+            }
+        }
+        return openFS(dir);
+    }
+
+    /**
+     * Open a directory on disk, warming the page cache if configured.
+     *
+     * @param dir the index directory
+     *
+     * @return the Lucene directory
+     *
+     * @throws IOException if the directory cannot be opened
+     */
+    private Directory openFS(File dir) throws IOException {
+        FSDirectory directory;
+        switch (m_type) {
+            case MMAP:
+                directory = new MMapDirectory(dir);
+                break;
+            case NIO:
+                directory = new NIOFSDirectory(dir);
+                break;
+            default:
+                directory = FSDirectory.open(dir);
+        }
+        if (m_warm) {
+            warm(dir);
+        }
+        return directory;
+    }
+
+    /**
+     * Read all files in a directory so that their pages are held in the
+     * operating system page cache. Files that cannot be read are skipped.
+     *
+     * @param dir the directory
+     *
+     * @return the number of bytes read
+     */
+    public static long warm(File dir) {
+        long start = System.currentTimeMillis();
+        long total = 0;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WARM_BUFFER_SIZE);
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                int n;
+                while ((n = channel.read(buffer)) != -1) {
+                    total += n;
+                    buffer.clear();
+                }
+            }
+            catch (IOException e) {
+                LOG.warn("Could not read " + file, e);
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Warmed " + total + " bytes in " + dir + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return m_type.name().toLowerCase(Locale.ROOT) + (m_warm ? " (warm)" : "");
+    }
+}
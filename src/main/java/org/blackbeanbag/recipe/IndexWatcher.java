@@ -0,0 +1,537 @@
+package org.blackbeanbag.recipe;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IndexWatcher keeps an index up to date while the application runs by
+ * watching the document directory tree with a {@link WatchService}.
+ * <p>
+ * Events are coalesced: a path is only processed once no further events
+ * have been received for it for the configured quiet period, so a file
+ * that an editor saves several times in a row is scanned once. Changed
+ * files are passed to {@link Indexer#indexFile(Path)}, deleted files and
+ * directories to {@link Indexer#removeFile(Path)}, and each batch of
+ * changes is committed. Directories created after the watcher started are
+ * registered and scanned. If the watch service reports that events were
+ * lost (an overflow), the affected directory is rescanned.
+ * <p>
+ * A single watcher keeps all shards of a {@link ShardedIndexer} up to
+ * date: each directory is registered once, each change is applied to the
+ * shards that own the path, and only shards that changed are committed.
+ * <p>
+ * The watcher uses the indexers' writers for its whole lifetime; the
+ * indexers must not be closed before the watcher.
+ */
+public class IndexWatcher implements Closeable {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(IndexWatcher.class);
+
+    /**
+     * Default quiet period in milliseconds.
+     */
+    public static final long DEFAULT_QUIET_PERIOD = 1000L;
+
+    /**
+     * Maximum time to wait for events when nothing is pending.
+     */
+    private static final long IDLE_WAIT = 60000L;
+
+    /**
+     * The indexers used to apply changes, one per shard.
+     */
+    private final List<Indexer> m_indexers;
+
+    /**
+     * The sharded indexer the indexers belong to; null if there is a
+     * single index.
+     */
+    private final ShardedIndexer m_sharded;
+
+    /**
+     * Watch service for the document tree.
+     */
+    private final WatchService m_watchService;
+
+    /**
+     * Registered directories by watch key.
+     */
+    private final Map<WatchKey, Path> m_keys = new HashMap<WatchKey, Path>();
+
+    /**
+     * Paths with pending events mapped to the time of the last event.
+     */
+    private final Map<Path, Long> m_pending = new LinkedHashMap<Path, Long>();
+
+    /**
+     * Pending paths that were created or moved into the tree. Only such
+     * directories are registered and rescanned: some watch services also
+     * report a directory as modified whenever its contents change, and
+     * those changes are reported for the directory's own key.
+     */
+    private final Set<Path> m_created = new HashSet<Path>();
+
+    /**
+     * Directories to rescan mapped to the time the rescan was requested.
+     */
+    private final Map<Path, Long> m_rescans = new LinkedHashMap<Path, Long>();
+
+    /**
+     * Time in milliseconds without events before a path is processed.
+     */
+    private volatile long m_quietPeriod = DEFAULT_QUIET_PERIOD;
+
+    /**
+     * Listener notified after changes have been committed; may be null.
+     */
+    private volatile Listener m_listener;
+
+    /**
+     * Thread processing watch events.
+     */
+    private Thread m_thread;
+
+    /**
+     * True once the watcher has been started.
+     */
+    private boolean m_started;
+
+    /**
+     * True from the time the watcher is started until it is closed.
+     */
+    private volatile boolean m_running;
+
+    /**
+     * Callback invoked after the watcher has committed changes to the index.
+     */
+    public interface Listener {
+        /**
+         * Invoked on the watcher thread after changes have been committed.
+         */
+        void indexChanged();
+    }
+
+    /**
+     * Construct an IndexWatcher.
+     *
+     * @param indexer indexer for the document directory to watch
+     */
+    public IndexWatcher(Indexer indexer) {
+        this(Collections.singletonList(indexer), null);
+    }
+
+    /**
+     * Construct an IndexWatcher for all shards of a sharded index.
+     *
+     * @param sharded sharded indexer for the document directory to watch
+     */
+    public IndexWatcher(ShardedIndexer sharded) {
+        this(sharded.getShards(), sharded);
+    }
+
+    /**
+     * Construct an IndexWatcher.
+     *
+     * @param indexers  indexers for the document directory, one per shard
+     * @param sharded   the sharded indexer they belong to, or null
+     */
+    private IndexWatcher(List<Indexer> indexers, ShardedIndexer sharded) {
+        m_indexers = indexers;
+        m_sharded = sharded;
+        try {
+            m_watchService = getRoot().getFileSystem().newWatchService();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Return the quiet period.
+     *
+     * @return the quiet period in milliseconds
+     */
+    public long getQuietPeriod() {
+        return m_quietPeriod;
+    }
+
+    /**
+     * Set the time without further events after which a changed path
+     * is processed.
+     *
+     * @param quietPeriod the quiet period in milliseconds
+     */
+    public void setQuietPeriod(long quietPeriod) {
+        m_quietPeriod = quietPeriod;
+    }
+
+    /**
+     * Set the listener notified after changes have been committed.
+     *
+     * @param listener the listener, or null
+     */
+    public void setListener(Listener listener) {
+        m_listener = listener;
+    }
+
+    /**
+     * Register the document tree, bring the index up to date and start
+     * processing events on a background thread. Directories are registered
+     * before the index is synchronized, so changes made while synchronizing
+     * are not missed. This method returns once the index has been
+     * synchronized; if the watcher is closed in the meantime, no events
+     * are processed.
+     */
+    public void start() {
+        synchronized (this) {
+            if (m_started) {
+                throw new IllegalStateException("Watcher already started");
+            }
+            m_started = true;
+            m_running = true;
+        }
+
+        Path root = getRoot();
+        LOG.info("Watching " + root);
+        register(root);
+        if (m_sharded == null) {
+            m_indexers.get(0).synchronize();
+        }
+        else {
+            m_sharded.synchronize();
+        }
+        notifyListener();
+
+        synchronized (this) {
+            if (!m_running) {
+                return;
+            }
+            m_thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watch();
+                }
+            }, "recipe-index-watcher");
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+    }
+
+    /**
+     * Stop watching. Pending events that have not been processed yet are
+     * discarded; they will be picked up by the next synchronization.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            m_running = false;
+            thread = m_thread;
+        }
+        try {
+            m_watchService.close();
+        }
+        catch (IOException e) {
+            LOG.warn("Error closing watch service", e);
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Event loop: collect events and process paths once they are quiet.
+     */
+    private void watch() {
+        while (m_running) {
+            try {
+                WatchKey key = m_watchService.poll(nextWait(), TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    collect(key);
+                    key = m_watchService.poll();
+                }
+                processQuietPaths();
+            }
+            catch (ClosedWatchServiceException e) {
+                break;
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            catch (RuntimeException e) {
+                LOG.error("Error updating index", e);
+            }
+        }
+        LOG.debug("Index watcher stopped");
+    }
+
+    /**
+     * Return how long to wait for the next event before pending paths
+     * are due to be processed.
+     *
+     * @return time to wait in milliseconds
+     */
+    private long nextWait() {
+        long next = Long.MAX_VALUE;
+        for (Long time : m_pending.values()) {
+            next = Math.min(next, time);
+        }
+        for (Long time : m_rescans.values()) {
+            next = Math.min(next, time);
+        }
+        if (next == Long.MAX_VALUE) {
+            return IDLE_WAIT;
+        }
+        return Math.max(1L, next + m_quietPeriod - System.currentTimeMillis());
+    }
+
+    /**
+     * Record the events of a watch key.
+     *
+     * @param key a signalled watch key
+     */
+    private void collect(WatchKey key) {
+        Path dir = m_keys.get(key);
+        long now = System.currentTimeMillis();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOG.warn("Watch events lost for " + dir + "; scheduling rescan");
+                m_rescans.put(dir, now);
+                continue;
+            }
+
+            Path child = dir.resolve((Path) event.context());
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(event.kind().name() + " " + child);
+            }
+            // re-insert so that the map stays ordered by last event
+            m_pending.remove(child);
+            m_pending.put(child, now);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                m_created.add(child);
+            }
+        }
+
+        if (!key.reset()) {
+            m_keys.remove(key);
+        }
+    }
+
+    /**
+     * Apply all paths and rescans that have been quiet for the quiet
+     * period to the index, then commit the indexes that changed.
+     */
+    private void processQuietPaths() {
+        long due = System.currentTimeMillis() - m_quietPeriod;
+        List<Path> paths = removeDue(m_pending, due);
+        List<Path> rescans = removeDue(m_rescans, due);
+        if (paths.isEmpty() && rescans.isEmpty()) {
+            return;
+        }
+
+        for (Path path : paths) {
+            boolean created = m_created.remove(path);
+            try {
+                if (Files.isDirectory(path)) {
+                    // a directory was created or moved into the tree
+                    if (created && !isExcludedDirectory(path)) {
+                        register(path);
+                        rescan(path);
+                    }
+                }
+                else if (Files.exists(path)) {
+                    for (Indexer indexer : m_indexers) {
+                        if (indexer.getFileDiscovery().isIncluded(path)) {
+                            indexer.indexFile(path);
+                        }
+                    }
+                }
+                else {
+                    for (Indexer indexer : m_indexers) {
+                        indexer.removeFile(path);
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Could not update index for " + path, e);
+            }
+        }
+
+        for (Path dir : rescans) {
+            try {
+                if (Files.isDirectory(dir)) {
+                    register(dir);
+                }
+                rescan(dir);
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Could not rescan " + dir, e);
+            }
+        }
+
+        int committed = 0;
+        for (Indexer indexer : m_indexers) {
+            if (indexer.getWriter().hasUncommittedChanges()) {
+                indexer.commit();
+                committed++;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Applied " + paths.size() + " changes and " + rescans.size() + " rescans to "
+                    + committed + " of " + m_indexers.size() + " indexes");
+        }
+        if (committed > 0) {
+            notifyListener();
+        }
+    }
+
+    /**
+     * Rescan a directory in each index that may contain files below it.
+     *
+     * @param dir the directory
+     */
+    private void rescan(Path dir) {
+        for (Indexer indexer : m_indexers) {
+            if (!indexer.getFileDiscovery().isExcludedDirectory(dir)) {
+                indexer.rescan(dir);
+            }
+        }
+    }
+
+    /**
+     * Return the document directory.
+     *
+     * @return the root of the watched tree
+     */
+    private Path getRoot() {
+        return m_indexers.get(0).getFileDiscovery().getRoot();
+    }
+
+    /**
+     * Determine if a directory is excluded from every index.
+     *
+     * @param dir the directory
+     *
+     * @return true if no index contains files below the directory
+     */
+    private boolean isExcludedDirectory(Path dir) {
+        for (Indexer indexer : m_indexers) {
+            if (!indexer.getFileDiscovery().isExcludedDirectory(dir)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove and return the entries of a map whose time is at or
+     * before the given time.
+     *
+     * @param map   paths mapped to times
+     * @param due   cutoff time
+     *
+     * @return the removed paths
+     */
+    private static List<Path> removeDue(Map<Path, Long> map, long due) {
+        List<Path> paths = new ArrayList<Path>();
+        for (Iterator<Map.Entry<Path, Long>> iter = map.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry<Path, Long> entry = iter.next();
+            if (entry.getValue() <= due) {
+                paths.add(entry.getKey());
+                iter.remove();
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Register a directory and all directories below it with the watch
+     * service, skipping excluded directories.
+     *
+     * @param start directory to register
+     */
+    private void register(Path start) {
+        Set<FileVisitOption> options = m_indexers.get(0).getFileDiscovery().isFollowLinks()
+                ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+                : Collections.<FileVisitOption>emptySet();
+        try {
+            Files.walkFileTree(start, options, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                        throws IOException {
+                    if (isExcludedDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    WatchKey key = dir.register(m_watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    m_keys.put(key, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    if (!(e instanceof FileSystemLoopException)) {
+                        LOG.warn("Could not watch " + file, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e) {
+            LOG.warn("Could not watch " + start, e);
+        }
+    }
+
+    /**
+     * Notify the listener, if any, that the index has changed.
+     */
+    private void notifyListener() {
+        Listener listener = m_listener;
+        if (listener != null) {
+            try {
+                listener.indexChanged();
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Index change listener failed", e);
+            }
+        }
+    }
+}
@@ -5,28 +5,69 @@ import org.apache.log4j.Logger;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import org.blackbeanbag.recipe.scanners.Scanner;
-import org.blackbeanbag.recipe.scanners.TextScanner;
-import org.blackbeanbag.recipe.scanners.WordScanner;
+import org.blackbeanbag.recipe.scanners.ScannerRegistry;
+import org.blackbeanbag.recipe.scanners.StreamingScanner;
 
 import java.io.File;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.channels.FileChannel;
 import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Indexer class creates a Lucene index for supported documents.
  * New document types are supported via the {@link Scanner} interface
  * and can be provided via the Indexer constructor.
+ * <p>
+ * The index can either be rebuilt from scratch ({@link #createIndex()})
+ * or updated incrementally ({@link #updateIndex()}). Incremental updates
+ * use an {@link IndexManifest} stored in the index directory to only scan
+ * files that have been added or changed since the last run, and to remove
+ * documents for files that no longer exist.
+ * <p>
+ * How the index files are accessed (memory mapped, through file channels
+ * or held in memory) is determined by the {@link IndexStorage} given to
+ * the constructor.
+ * <p>
+ * Full builds use the {@link IndexProfile#BULK_LOAD} writer settings,
+ * optionally ending with the index merged down to a few segments; between
+ * builds the writer uses the {@link IndexProfile#INCREMENTAL} settings. Both can be
+ * replaced through {@link #setBulkProfile(IndexProfile)} and
+ * {@link #setIncrementalProfile(IndexProfile)}.
+ * <p>
+ * Each file is scanned within the time and memory budget of the
+ * {@link ScanWatchdog} returned by {@link #getScanWatchdog()}. Files whose
+ * scan is aborted are recorded in a {@link Quarantine} stored next to the
+ * manifest and skipped by later runs until they change.
+ * <p>
+ * Scan times per scanner, indexing rates, failures, queue depths and
+ * commit and merge times are recorded in the {@link IndexMetrics}
+ * returned by {@link #getMetrics()}.
  */
 public class Indexer {
     /**
@@ -34,6 +75,12 @@ public class Indexer {
      */
     private static final Logger LOG = Logger.getLogger(Indexer.class);
 
+    /**
+     * Number of queued files per worker thread before the directory
+     * walker blocks.
+     */
+    private static final int QUEUE_CAPACITY_PER_THREAD = 16;
+
     /**
      * Directory containing documents to index.
      */
@@ -50,9 +97,85 @@ public class Indexer {
     private IndexWriter m_writer;
 
     /**
-     * A collection of supported document scanners.
+     * Registry selecting the scanner of each document.
+     */
+    private ScannerRegistry m_registry;
+
+    /**
+     * Schema of the documents created by the scanners.
+     */
+    private DocumentSchema m_schema;
+
+    /**
+     * Manifest entries from the previous run that have not been
+     * encountered yet during the current scan.
+     */
+    private IndexManifest m_previous = new IndexManifest();
+
+    /**
+     * Manifest describing the index contents after the current scan.
+     */
+    private IndexManifest m_manifest = new IndexManifest();
+
+    /**
+     * Discovers the files in the document directory.
+     */
+    private FileDiscovery m_discovery;
+
+    /**
+     * Number of threads used to scan documents.
+     */
+    private int m_threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Writer settings used while the index is built from scratch.
      */
-    private Collection<Scanner> m_scanners;
+    private IndexProfile m_bulkProfile = IndexProfile.BULK_LOAD;
+
+    /**
+     * Writer settings used between full builds.
+     */
+    private IndexProfile m_incrementalProfile = IndexProfile.INCREMENTAL;
+
+    /**
+     * Watchdog enforcing the budget of each scan.
+     */
+    private final ScanWatchdog m_watchdog = new ScanWatchdog();
+
+    /**
+     * Files whose scan was aborted.
+     */
+    private final Quarantine m_quarantine;
+
+    /**
+     * Listener notified of scan progress; may be null.
+     */
+    private volatile ProgressListener m_progressListener;
+
+    /**
+     * Number of files checked during the current scan.
+     */
+    private final AtomicInteger m_checked = new AtomicInteger();
+
+    /**
+     * Metrics of this indexer.
+     */
+    private volatile IndexMetrics m_metrics = new IndexMetrics();
+
+    /**
+     * Callback notified as files are checked during a scan of the
+     * document directory.
+     */
+    public interface ProgressListener {
+        /**
+         * Invoked after a file found while scanning the document directory
+         * has been checked and, if it changed, indexed. May be invoked
+         * concurrently by several scanning threads.
+         *
+         * @param count number of files checked so far during this scan
+         */
+        void filesChecked(int count);
+    }
 
     /**
      * Construct an Indexer that supports Word and text files.
@@ -61,7 +184,32 @@ public class Indexer {
      * @param indexDir  directory containing the index
      */
     public Indexer(String docDir, String indexDir) {
-        this(docDir, indexDir, Arrays.asList(new WordScanner(), new TextScanner()));
+        this(docDir, indexDir, DocumentSchema.DEFAULT);
+    }
+
+    /**
+     * Construct an Indexer that supports Word and text files using
+     * the given document schema.
+     *
+     * @param docDir    directory containing documents to index
+     * @param indexDir  directory containing the index
+     * @param schema    schema of the indexed documents
+     */
+    public Indexer(String docDir, String indexDir, DocumentSchema schema) {
+        this(docDir, indexDir, ScannerRegistry.createDefault(schema), schema, IndexStorage.DEFAULT);
+    }
+
+    /**
+     * Construct an Indexer that supports Word and text files and accesses
+     * the index files through the given storage.
+     *
+     * @param docDir    directory containing documents to index
+     * @param indexDir  directory containing the index
+     * @param storage   storage of the index files
+     */
+    public Indexer(String docDir, String indexDir, IndexStorage storage) {
+        this(docDir, indexDir, ScannerRegistry.createDefault(DocumentSchema.DEFAULT), DocumentSchema.DEFAULT,
+                storage);
     }
 
     /**
@@ -73,16 +221,69 @@ public class Indexer {
      * @param scanners  a collection of {@link Scanner} objects
      */
     public Indexer(String docDir, String indexDir, Collection<Scanner> scanners) {
+        this(docDir, indexDir, scanners, DocumentSchema.DEFAULT);
+    }
+
+    /**
+     * Construct an Indexer. This constructor requires a non null collection
+     * of {@link Scanner}s in order to support scanning of documents. The
+     * scanners must create documents that conform to the given schema.
+     * Scanners that also implement {@link StreamingScanner} are used as
+     * such; documents are then streamed into the index. Each file is
+     * scanned by the first scanner that supports it.
+     *
+     * @param docDir    directory containing documents to index
+     * @param indexDir  directory containing the index
+     * @param scanners  a collection of {@link Scanner} objects
+     * @param schema    schema of the documents created by the scanners
+     */
+    public Indexer(String docDir, String indexDir, Collection<Scanner> scanners,
+            DocumentSchema schema) {
+        this(docDir, indexDir, scanners, schema, IndexStorage.DEFAULT);
+    }
+
+    /**
+     * Construct an Indexer that accesses the index files through the
+     * given storage. See {@link #Indexer(String, String, Collection,
+     * DocumentSchema)} for the other parameters.
+     *
+     * @param docDir    directory containing documents to index
+     * @param indexDir  directory containing the index
+     * @param scanners  a collection of {@link Scanner} objects
+     * @param schema    schema of the documents created by the scanners
+     * @param storage   storage of the index files
+     */
+    public Indexer(String docDir, String indexDir, Collection<Scanner> scanners,
+            DocumentSchema schema, IndexStorage storage) {
+        this(docDir, indexDir, ScannerRegistry.of(scanners), schema, storage);
+    }
+
+    /**
+     * Construct an Indexer that selects the scanner of each document from
+     * a registry. See {@link #Indexer(String, String, Collection,
+     * DocumentSchema)} for the other parameters.
+     *
+     * @param docDir    directory containing documents to index
+     * @param indexDir  directory containing the index
+     * @param registry  registry of the scanners
+     * @param schema    schema of the documents created by the scanners
+     * @param storage   storage of the index files
+     */
+    public Indexer(String docDir, String indexDir, ScannerRegistry registry,
+            DocumentSchema schema, IndexStorage storage) {
         this.m_docDir = docDir;
         this.m_indexDir = indexDir;
-        this.m_scanners = scanners;
+        this.m_registry = registry;
+        this.m_schema = schema;
+        this.m_discovery = new FileDiscovery(Paths.get(docDir));
+        this.m_quarantine = Quarantine.load(new File(indexDir, Quarantine.FILE_NAME));
 
         try {
             Analyzer analyzer = new EnglishAnalyzer(Version.LUCENE_47);
             IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_47, analyzer);
-            Directory directory = FSDirectory.open(new File(indexDir));
+            m_incrementalProfile.configure(config, new MeteredMergeScheduler());
+            Directory directory = storage.open(new File(indexDir));
             this.m_writer = new IndexWriter(directory, config);
-            this.m_writer.deleteAll();
         }
         catch (Exception e) {
             throw new RuntimeException(e);
@@ -122,31 +323,353 @@ public class Indexer {
      * @return scanners used by this indexer
      */
     public Collection<Scanner> getScanners() {
-        return m_scanners;
+        return m_registry.getScanners();
     }
 
     /**
-     * Create the index.
+     * Return the registry selecting the scanner of each document.
+     *
+     * @return the scanner registry
+     */
+    public ScannerRegistry getScannerRegistry() {
+        return m_registry;
+    }
+
+    /**
+     * Return the schema of the indexed documents.
+     *
+     * @return the document schema
+     */
+    public DocumentSchema getSchema() {
+        return m_schema;
+    }
+
+    /**
+     * Return the file discovery used to walk the document directory.
+     * Include and exclude patterns can be configured on the returned
+     * object before the index is created or updated.
+     *
+     * @return the file discovery for the document directory
+     */
+    public FileDiscovery getFileDiscovery() {
+        return m_discovery;
+    }
+
+    /**
+     * Return the number of threads used to scan documents.
+     *
+     * @return number of scanner threads
+     */
+    public int getThreadCount() {
+        return m_threadCount;
+    }
+
+    /**
+     * Set the number of threads used to scan documents. A value of
+     * one scans documents on the thread that creates or updates the index.
+     *
+     * @param threadCount number of scanner threads
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threadCount);
+        }
+        m_threadCount = threadCount;
+    }
+
+    /**
+     * Return the writer settings used while the index is built from
+     * scratch.
+     *
+     * @return the bulk load profile
+     */
+    public IndexProfile getBulkProfile() {
+        return m_bulkProfile;
+    }
+
+    /**
+     * Set the writer settings used while the index is built from scratch,
+     * either by {@link #createIndex()} and {@link #rebuild()} or by an
+     * update that finds no usable manifest.
+     *
+     * @param profile the bulk load profile
+     */
+    public void setBulkProfile(IndexProfile profile) {
+        m_bulkProfile = profile;
+    }
+
+    /**
+     * Return the writer settings used between full builds.
+     *
+     * @return the incremental profile
+     */
+    public IndexProfile getIncrementalProfile() {
+        return m_incrementalProfile;
+    }
+
+    /**
+     * Set the writer settings used between full builds. The settings are
+     * applied to the writer immediately.
+     *
+     * @param profile the incremental profile
+     */
+    public void setIncrementalProfile(IndexProfile profile) {
+        m_incrementalProfile = profile;
+        profile.apply(getWriter());
+    }
+
+    /**
+     * Set the listener notified as files are checked during
+     * {@link #createIndex()}, {@link #updateIndex()} and
+     * {@link #synchronize()}.
+     *
+     * @param listener the listener, or null
+     */
+    public void setProgressListener(ProgressListener listener) {
+        m_progressListener = listener;
+    }
+
+    /**
+     * Return the metrics of this indexer.
+     *
+     * @return the index metrics
+     */
+    public IndexMetrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Record the metrics of this indexer in the given instance, for
+     * example to keep a single instance registered with JMX across
+     * successive indexers.
+     *
+     * @param metrics the index metrics
+     */
+    public void setMetrics(IndexMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * Return the watchdog enforcing the time and memory budget of each
+     * scan. The budget can be configured on the returned object.
+     *
+     * @return the scan watchdog
+     */
+    public ScanWatchdog getScanWatchdog() {
+        return m_watchdog;
+    }
+
+    /**
+     * Return the files whose scan was aborted. Removing an entry makes the
+     * next update scan the file again.
+     *
+     * @return the quarantine
+     */
+    public Quarantine getQuarantine() {
+        return m_quarantine;
+    }
+
+    /**
+     * Return the file containing the manifest for this index.
+     *
+     * @return the manifest file
+     */
+    public File getManifestFile() {
+        return new File(getIndexDir(), IndexManifest.FILE_NAME);
+    }
+
+    /**
+     * Create the index. Any existing index contents are discarded
+     * and all documents are scanned.
      */
     public void createIndex() {
+        rebuild();
+        close();
+    }
+
+    /**
+     * Rebuild the index in the same way as {@link #createIndex()}, but
+     * keep the index writer open afterwards. Readers opened on the writer
+     * keep seeing the previous contents until they are refreshed after
+     * the commit.
+     */
+    public void rebuild() {
         LOG.debug("Creating index");
 
-        scanDirectory();
+        m_previous = new IndexManifest();
+        m_manifest = new IndexManifest();
+        m_quarantine.prune();
 
+        bulkLoad();
+        commit();
+    }
+
+    /**
+     * Update the index. Only documents that have been added or modified
+     * since the index was last created or updated are scanned; documents
+     * that have been deleted are removed from the index. If no manifest
+     * exists for the index, or if the index was built with a different
+     * {@link DocumentSchema}, the index is rebuilt.
+     */
+    public void updateIndex() {
+        synchronize();
+        close();
+    }
+
+    /**
+     * Update the index in the same way as {@link #updateIndex()}, but
+     * keep the index writer open afterwards so that individual files can
+     * be indexed or removed via {@link #indexFile(Path)} and
+     * {@link #removeFile(Path)}.
+     */
+    public void synchronize() {
+        LOG.debug("Updating index");
+
+        m_previous = loadManifest();
+        m_manifest = new IndexManifest();
+        m_quarantine.prune();
+
+        if (m_previous != null && !getSchema().getSignature().equals(
+                getWriter().getCommitData().get(DocumentSchema.COMMIT_KEY))) {
+            LOG.info("Index was built with a different document schema; rebuilding index");
+            m_previous = null;
+        }
+
+        if (m_previous == null) {
+            // without a manifest the index contents are unknown; start over
+            LOG.debug("No usable manifest found; rebuilding index");
+            m_previous = new IndexManifest();
+            bulkLoad();
+        }
+        else {
+            scanDirectory();
+        }
+
+        try {
+            for (IndexManifest.Entry entry : m_previous.getEntries()) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Removing file " + entry.getPath());
+                }
+                getWriter().deleteDocuments(new Term(DocumentSchema.FIELD_FILE, entry.getPath()));
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        commit();
+    }
+
+    /**
+     * Discard the index contents and scan all documents with the bulk load
+     * profile, then merge the new index down to the profile's segment
+     * count, if it has one. The writer returns to the incremental profile
+     * afterwards, even if the scan fails.
+     */
+    private void bulkLoad() {
+        IndexProfile profile = m_bulkProfile;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Bulk loading with " + profile);
+        }
+        profile.apply(getWriter());
+        try {
+            getWriter().deleteAll();
+            scanDirectory();
+            if (profile.getForceMergeSegments() > 0) {
+                long start = System.currentTimeMillis();
+                getWriter().forceMerge(profile.getForceMergeSegments());
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Merged index down to " + profile.getForceMergeSegments() + " segments in "
+                            + (System.currentTimeMillis() - start) + "ms");
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            m_incrementalProfile.apply(getWriter());
+        }
+    }
+
+    /**
+     * Commit the index and store the manifest. The manifest is stored
+     * after the commit succeeds; if the manifest cannot be stored, the
+     * next update rebuilds the index. The commit and the manifest share a
+     * token, so a manifest that is newer than the index on disk (such as
+     * after a RAM index could not be persisted) is not used either.
+     */
+    public void commit() {
         try {
-            getWriter().close();
+            String token = UUID.randomUUID().toString();
+            Map<String, String> data = new HashMap<String, String>();
+            data.put(DocumentSchema.COMMIT_KEY, getSchema().getSignature());
+            data.put(IndexManifest.COMMIT_KEY, token);
+            getWriter().setCommitData(data);
+            long start = System.nanoTime();
+            getWriter().commit();
+            m_metrics.committed(System.nanoTime() - start);
+            m_manifest.store(getManifestFile(), token);
         }
         catch (Exception e) {
             throw new RuntimeException(e);
         }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Committed index with " + m_manifest.size() + " files");
+        }
+    }
+
+    /**
+     * Load the manifest for the existing index.
+     *
+     * @return the manifest for the existing index, or null if either the
+     *         index or the manifest does not exist, or if the manifest was
+     *         not stored for the last commit of the index
+     */
+    protected IndexManifest loadManifest() {
+        try {
+            if (!DirectoryReader.indexExists(getWriter().getDirectory())
+                    || !getManifestFile().exists()) {
+                return null;
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        IndexManifest manifest = IndexManifest.load(getManifestFile());
+        String token = getWriter().getCommitData().get(IndexManifest.COMMIT_KEY);
+        if (token == null ? manifest.getToken() != null : !token.equals(manifest.getToken())) {
+            LOG.info("Manifest does not match the last index commit");
+            return null;
+        }
+        return manifest;
     }
 
     /**
      * Close the indexer.
      */
     public void close() {
+        m_watchdog.close();
         try {
             m_writer.close();
+            m_writer.getDirectory().close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Close the indexer, discarding all changes made since the last
+     * commit. The index and its manifest are left as last committed.
+     */
+    public void rollback() {
+        m_watchdog.close();
+        try {
+            m_writer.rollback();
+            m_writer.getDirectory().close();
         }
         catch (IOException e) {
             throw new RuntimeException(e);
@@ -158,53 +681,324 @@ public class Indexer {
      * documents.
      */
     protected void scanDirectory() {
-        scanDirectory(new File(getDocDir()));
+        m_checked.set(0);
+        if (getThreadCount() == 1) {
+            getFileDiscovery().walk(new FileDiscovery.Listener() {
+                @Override
+                public void onFile(Path file, BasicFileAttributes attrs) {
+                    scanFile(file, attrs);
+                }
+            });
+            return;
+        }
+
+        final IndexPipeline pipeline = new IndexPipeline(getThreadCount(),
+                getThreadCount() * QUEUE_CAPACITY_PER_THREAD,
+                new IndexPipeline.FileHandler() {
+                    @Override
+                    public void handle(Path file, BasicFileAttributes attrs) {
+                        scanFile(file, attrs);
+                    }
+                });
+        IndexMetrics metrics = m_metrics;
+        pipeline.start();
+        metrics.setPipeline(pipeline);
+        try {
+            try {
+                getFileDiscovery().walk(new FileDiscovery.Listener() {
+                    @Override
+                    public void onFile(Path file, BasicFileAttributes attrs) {
+                        pipeline.submit(file, attrs);
+                    }
+                });
+            }
+            catch (RuntimeException e) {
+                pipeline.abort();
+                throw e;
+            }
+            pipeline.finish();
+        }
+        finally {
+            metrics.setPipeline(null);
+        }
     }
 
     /**
-     * Scan the given directory file for supported documents.
+     * Index a single file that has been created or modified. If the file
+     * no longer exists, its document is removed instead. Changes become
+     * visible to readers after the next {@link #commit()}.
      *
-     * @param fileDir directory to search
+     * @param file absolute path of the file
      */
-    protected void scanDirectory(File fileDir) {
-        List<File> dirList = new LinkedList<File>();
+    public void indexFile(Path file) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        }
+        catch (IOException e) {
+            removeFile(file);
+            return;
+        }
+        if (attrs.isRegularFile() && getFileDiscovery().isIncluded(file)) {
+            scanFile(file, attrs, m_manifest.get(file.toString()));
+        }
+    }
 
-        if (!fileDir.isDirectory()) {
-            throw new IllegalArgumentException(fileDir + " must be a directory");
+    /**
+     * Remove the document for a file that has been deleted. If the path
+     * denotes a directory that has been deleted, the documents for all
+     * files below it are removed. Changes become visible to readers after
+     * the next {@link #commit()}.
+     *
+     * @param path absolute path of the deleted file or directory
+     */
+    public void removeFile(Path path) {
+        String fileName = path.toString();
+        String prefix = fileName.endsWith(File.separator) ? fileName : fileName + File.separator;
+        try {
+            for (IndexManifest.Entry entry : m_manifest.getEntries()) {
+                if (entry.getPath().equals(fileName) || entry.getPath().startsWith(prefix)) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Removing file " + entry.getPath());
+                    }
+                    getWriter().deleteDocuments(new Term(DocumentSchema.FIELD_FILE, entry.getPath()));
+                    m_manifest.remove(entry.getPath());
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
         }
+    }
 
+    /**
+     * Bring the index up to date for all files below the given directory:
+     * new and changed files are indexed and documents for files that no
+     * longer exist are removed. Changes become visible to readers after
+     * the next {@link #commit()}.
+     *
+     * @param dir absolute path of a directory below the document directory
+     */
+    public void rescan(Path dir) {
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Scanning directory " + fileDir);
+            LOG.debug("Rescanning " + dir);
+        }
+
+        String prefix = dir.toString() + File.separator;
+        final Set<String> unseen = new HashSet<String>();
+        for (IndexManifest.Entry entry : m_manifest.getEntries()) {
+            if (entry.getPath().startsWith(prefix)) {
+                unseen.add(entry.getPath());
+            }
+        }
+
+        if (Files.isDirectory(dir)) {
+            getFileDiscovery().walk(dir, new FileDiscovery.Listener() {
+                @Override
+                public void onFile(Path file, BasicFileAttributes attrs) {
+                    unseen.remove(file.toString());
+                    scanFile(file, attrs, m_manifest.get(file.toString()));
+                }
+            });
+        }
+
+        for (String fileName : unseen) {
+            removeFile(Paths.get(fileName));
+        }
+    }
+
+    /**
+     * Scan the given file during a directory scan. This method may be
+     * called concurrently by multiple scanner threads.
+     *
+     * @param file   absolute path of the file to scan
+     * @param attrs  attributes of the file
+     */
+    protected void scanFile(Path file, BasicFileAttributes attrs) {
+        scanFile(file, attrs, m_previous.remove(file.toString()));
+
+        ProgressListener listener = m_progressListener;
+        if (listener != null) {
+            listener.filesChecked(m_checked.incrementAndGet());
         }
+    }
+
+    /**
+     * Scan the given file if it is supported by a scanner, has changed
+     * since it was last indexed and is not quarantined. The manifest is
+     * updated to reflect the result; a file whose scan is aborted by the
+     * watchdog is quarantined.
+     *
+     * @param file   absolute path of the file to scan
+     * @param attrs  attributes of the file
+     * @param entry  manifest entry recorded when the file was last
+     *               indexed, or null if it has not been indexed
+     */
+    protected void scanFile(final Path file, BasicFileAttributes attrs, IndexManifest.Entry entry) {
+        String fileName = file.toString();
 
-        File[] files = fileDir.listFiles();
-        if (files == null) {
-            throw new IllegalArgumentException(fileDir + " does not contain any files");
+        final ScannerRegistry.Registration registration = m_registry.find(file);
+        if (registration == null) {
+            return;
         }
-        for (File file : files) {
-            if (file.isDirectory()) {
-                dirList.add(file);
+
+        final long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        Term term = new Term(DocumentSchema.FIELD_FILE, fileName);
+        String hash = null;
+        boolean indexed = false;
+
+        Quarantine.Entry quarantined = m_quarantine.get(fileName);
+        if (quarantined != null && quarantined.matches(size, lastModified)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Skipping quarantined file " + fileName);
+            }
+        }
+        else {
+            if (entry != null && entry.matches(size, lastModified)) {
+                m_manifest.put(entry);
+                return;
             }
-            else {
-                String fileName = file.getAbsolutePath();
 
-                for (Scanner scanner : getScanners()) {
-                    if (scanner.supportsFile(fileName)) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Scanning file " + fileName);
+            try {
+                hash = IndexManifest.hash(file);
+            }
+            catch (IOException e) {
+                LOG.warn("Could not read file " + fileName, e);
+                return;
+            }
+
+            if (entry != null && entry.getHash().equals(hash)) {
+                // the file was touched but the contents did not change
+                m_manifest.put(new IndexManifest.Entry(fileName, size, lastModified, hash));
+                return;
+            }
+
+            if (quarantined != null && quarantined.getHash().equals(hash)) {
+                // the file was touched but is still the one that failed
+                m_quarantine.put(new Quarantine.Entry(fileName, size, lastModified, hash, quarantined.getTime(),
+                        quarantined.getReason()));
+            }
+            else {
+                if (quarantined != null) {
+                    LOG.info("Releasing changed file " + fileName + " from quarantine");
+                    m_quarantine.remove(fileName);
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Scanning file " + fileName);
+                }
+                // the document may read from the channel, so it stays open
+                // until the document has been added to the index
+                String name = registration.getName();
+                long start = System.nanoTime();
+                ScanWatchdog.Scan scan = null;
+                String aborted = null;
+                try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    scan = m_watchdog.start(fileName, channel);
+                    Document doc = scan.call(new Callable<Document>() {
+                        @Override
+                        public Document call() throws Exception {
+                            return registration.getStreamingScanner().scan(file, channel, size);
                         }
-                        try {
-                            getWriter().addDocument(scanner.scan(fileName));
-                        } catch (Exception e) {
-                            LOG.warn("Could not process file " + fileName, e);
+                    });
+                    if (doc != null) {
+                        String category = category(file);
+                        if (category != null) {
+                            doc = getSchema().setCategory(doc, category);
                         }
+                        supervise(doc, scan);
+                        getWriter().updateDocument(term, doc);
+                        indexed = true;
+                        m_metrics.scanned(name, scan.getElapsedNanos(), size);
+                    }
+                    else {
+                        m_metrics.failed(name, scan.getElapsedNanos());
                     }
                 }
+                catch (ScanAbortedException e) {
+                    aborted = e.getMessage();
+                }
+                catch (Exception e) {
+                    LOG.warn("Could not process file " + fileName, e);
+                    m_metrics.failed(name, scan == null ? System.nanoTime() - start : scan.getElapsedNanos());
+                }
+                finally {
+                    if (scan != null) {
+                        scan.finish();
+                    }
+                }
+
+                if (aborted != null) {
+                    LOG.warn("Quarantining file " + fileName + ": " + aborted);
+                    m_quarantine.put(new Quarantine.Entry(fileName, size, lastModified, hash,
+                            System.currentTimeMillis(), aborted));
+                    m_metrics.quarantined(name, scan.getElapsedNanos());
+                }
+            }
+        }
+
+        try {
+            if (indexed) {
+                m_manifest.put(new IndexManifest.Entry(fileName, size, lastModified, hash));
             }
+            else if (entry != null) {
+                // the file could not be scanned; remove the stale document
+                // and leave it out of the manifest so it is retried next time
+                getWriter().deleteDocuments(term);
+                m_manifest.remove(fileName);
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read the body of a document within the budget of its scan, so that a
+     * body parsed while the document is indexed can neither stall nor
+     * exhaust the index writer.
+     *
+     * @param doc   the document
+     * @param scan  the scan that created the document
+     */
+    private static void supervise(Document doc, ScanWatchdog.Scan scan) {
+        IndexableField body = doc.getField(DocumentSchema.FIELD_BODY);
+        if (body instanceof Field && body.readerValue() != null) {
+            ((Field) body).setReaderValue(scan.supervise(body.readerValue()));
         }
+    }
+
+    /**
+     * Return the category of a file: the name of the folder directly
+     * below the document directory that contains it.
+     *
+     * @param file a file below the document directory
+     *
+     * @return the category, or null if the file is not in a folder
+     */
+    protected String category(Path file) {
+        Path root = getFileDiscovery().getRoot().toAbsolutePath().normalize();
+        Path path = file.toAbsolutePath().normalize();
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        Path relative = root.relativize(path);
+        return relative.getNameCount() < 2 ? null : relative.getName(0).toString();
+    }
 
-        for (File dir : dirList) {
-            scanDirectory(dir);
+    /**
+     * Merge scheduler that records the duration of each merge in the
+     * metrics of the indexer.
+     */
+    private class MeteredMergeScheduler extends ConcurrentMergeScheduler {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doMerge(MergePolicy.OneMerge merge) throws IOException {
+            long start = System.nanoTime();
+            super.doMerge(merge);
+            m_metrics.merged(System.nanoTime() - start);
         }
     }
 }
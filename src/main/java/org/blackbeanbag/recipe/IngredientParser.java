@@ -0,0 +1,106 @@
+package org.blackbeanbag.recipe;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * IngredientParser finds the ingredients of a recipe in its text. Recipes
+ * list their ingredients one per line, starting with a quantity and
+ * usually a unit, such as {@code 2 cups of rice (rinsed)} or
+ * {@code 1 1/2 pound red pepper flakes, crushed}. The ingredient is the
+ * rest of the line up to the first comma or parenthesis, in lowercase:
+ * {@code rice} and {@code red pepper flakes}. Lines that do not start
+ * with a quantity are ignored, as are remainders too long to be the name
+ * of an ingredient.
+ */
+public final class IngredientParser {
+    /**
+     * Maximum number of words in an ingredient.
+     */
+    private static final int MAX_WORDS = 5;
+
+    /**
+     * Maximum length of an ingredient.
+     */
+    private static final int MAX_LENGTH = 40;
+
+    /**
+     * Line separators, including the line and paragraph marks of Word
+     * documents.
+     */
+    private static final Pattern LINES = Pattern.compile("[\r\n\u000B\f]+");
+
+    /**
+     * An optional bullet, a quantity, an optional unit and an optional
+     * "of", followed by the ingredient.
+     */
+    private static final Pattern LINE = Pattern.compile(
+            "^(?:[-*\u2022]\\s*)?"
+            + "(?:\\d+(?:[.,]\\d+)?(?:\\s*[-/]\\s*\\d+)?(?:\\s+\\d+/\\d+)?|[\u00BC-\u00BE\u2153-\u215E])"
+            + "\\s*(?:(?:cups?|c|tablespoons?|tbsps?|tbs|teaspoons?|teaspoonfuls?|tsps?|pounds?|lbs?"
+            + "|ounces?|oz|cloves?|cans?|packets?|packages?|pinch(?:es)?|dash(?:es)?|bunch(?:es)?"
+            + "|quarts?|pints?|sprigs?|slices?|stalks?|sticks?|heads?|grams?|g|kg|ml|liters?|litres?|l)"
+            + "\\.?\\s+)?(?:of\\s+)?(\\p{L}.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+    /**
+     * Not to be instantiated.
+     */
+    private IngredientParser() {
+    }
+
+    /**
+     * Return the ingredients listed in a recipe.
+     *
+     * @param text the recipe text
+     *
+     * @return the distinct ingredients in the order they are listed
+     */
+    public static Set<String> parse(CharSequence text) {
+        Set<String> ingredients = new LinkedHashSet<String>();
+        for (String line : LINES.split(text)) {
+            String ingredient = parseLine(line.trim());
+            if (ingredient != null) {
+                ingredients.add(ingredient);
+            }
+        }
+        return ingredients;
+    }
+
+    /**
+     * Return the ingredient on a line of a recipe.
+     *
+     * @param line the line, without surrounding whitespace
+     *
+     * @return the ingredient, or null if the line does not list one
+     */
+    static String parseLine(String line) {
+        Matcher matcher = LINE.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        String ingredient = matcher.group(1);
+        int end = ingredient.length();
+        for (char c : new char[] {',', '(', ';', ':'}) {
+            int i = ingredient.indexOf(c);
+            if (i >= 0 && i < end) {
+                end = i;
+            }
+        }
+        ingredient = ingredient.substring(0, end).trim().replaceAll("\\s+", " ");
+        if (ingredient.endsWith(".")) {
+            ingredient = ingredient.substring(0, ingredient.length() - 1);
+        }
+        ingredient = ingredient.toLowerCase(Locale.ROOT);
+
+        if (ingredient.isEmpty() || ingredient.length() > MAX_LENGTH
+                || ingredient.split(" ").length > MAX_WORDS) {
+            return null;
+        }
+        return ingredient;
+    }
+}
@@ -0,0 +1,40 @@
+package org.blackbeanbag.recipe;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory creating daemon threads with a common name prefix. The
+ * background threads of the application use it, so that they never keep
+ * the JVM from exiting and can be told apart in a thread dump.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    /**
+     * Thread name prefix.
+     */
+    private final String m_name;
+
+    /**
+     * Number of threads created so far.
+     */
+    private final AtomicInteger m_count = new AtomicInteger();
+
+    /**
+     * Construct a NamedThreadFactory.
+     *
+     * @param name thread name prefix
+     */
+    public NamedThreadFactory(String name) {
+        m_name = name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, m_name + "-" + m_count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
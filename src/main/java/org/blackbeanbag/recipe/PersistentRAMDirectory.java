@@ -0,0 +1,293 @@
+package org.blackbeanbag.recipe;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * PersistentRAMDirectory holds an index in memory and keeps a copy of it
+ * on disk. The last commit found on disk is loaded when the directory is
+ * created; {@link #persist()} copies the latest commit back, either when
+ * called explicitly, periodically (see {@link #startPersist(long, TimeUnit)})
+ * or when the directory is closed.
+ * <p>
+ * Index files are written once and never modified, so persisting only
+ * copies the files that are not on disk yet, followed by the segments file
+ * that makes them visible, and then deletes the files of older commits.
+ * If the process stops between two persists, the index on disk is left as
+ * of the previous persist; changes made since then are lost.
+ * <p>
+ * The disk directory is locked with the index write lock for the lifetime
+ * of this directory, so it cannot be modified by another writer.
+ */
+public class PersistentRAMDirectory extends RAMDirectory {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(PersistentRAMDirectory.class);
+
+    /**
+     * Number of attempts made to copy a commit that is deleted by a newer
+     * commit while it is being copied.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Directory the index is persisted to.
+     */
+    private final Directory m_disk;
+
+    /**
+     * Write lock held on the disk directory.
+     */
+    private final Lock m_lock;
+
+    /**
+     * Generation of the commit last persisted; -1 if none.
+     */
+    private long m_persistedGeneration = -1;
+
+    /**
+     * Executor running periodic persists; null if not started.
+     */
+    private ScheduledExecutorService m_persister;
+
+    /**
+     * Construct a PersistentRAMDirectory and load the last commit of the
+     * index in the given directory, if there is one.
+     *
+     * @param disk directory the index is loaded from and persisted to
+     *
+     * @throws IOException if the index cannot be loaded or the directory
+     *                     is locked by another writer
+     */
+    public PersistentRAMDirectory(Directory disk) throws IOException {
+        m_disk = disk;
+        m_lock = disk.makeLock(IndexWriter.WRITE_LOCK_NAME);
+        if (!m_lock.obtain()) {
+            throw new LockObtainFailedException("Index directory is locked: " + disk);
+        }
+
+        try {
+            load();
+        }
+        catch (IOException e) {
+            m_lock.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the directory the index is persisted to.
+     *
+     * @return the disk directory
+     */
+    public Directory getDiskDirectory() {
+        return m_disk;
+    }
+
+    /**
+     * Start persisting the latest commit in the background at a fixed
+     * interval. Has no effect if periodic persists are already running.
+     *
+     * @param interval  time between persists
+     * @param unit      unit of the interval
+     */
+    public synchronized void startPersist(long interval, TimeUnit unit) {
+        if (m_persister != null) {
+            return;
+        }
+        m_persister = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("recipe-index-persist"));
+        m_persister.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    persist();
+                }
+                catch (Exception e) {
+                    LOG.warn("Could not persist index to " + m_disk, e);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Copy the latest commit to disk, unless it has already been persisted.
+     *
+     * @return true if a commit was copied
+     *
+     * @throws IOException if the commit cannot be copied
+     */
+    public synchronized boolean persist() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return persistLatest();
+            }
+            catch (FileNotFoundException | NoSuchFileException e) {
+                // a newer commit deleted files of the one being copied
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop periodic persists, persist the latest commit and release the
+     * disk directory.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (m_persister != null) {
+                m_persister.shutdownNow();
+                m_persister = null;
+            }
+        }
+        try {
+            persist();
+        }
+        catch (IOException e) {
+            LOG.error("Could not persist index to " + m_disk, e);
+        }
+        finally {
+            try {
+                m_lock.close();
+                m_disk.close();
+            }
+            catch (IOException e) {
+                LOG.warn("Could not release " + m_disk, e);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Load the files of the last commit on disk.
+     *
+     * @throws IOException if the files cannot be read
+     */
+    private void load() throws IOException {
+        if (!DirectoryReader.indexExists(m_disk)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        IndexCommit commit = lastCommit(m_disk);
+        for (String file : commit.getFileNames()) {
+            m_disk.copy(this, file, file, IOContext.READONCE);
+        }
+        m_persistedGeneration = commit.getGeneration();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded " + sizeInBytes() + " bytes from " + m_disk + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * Copy the latest commit to disk and delete the files of older commits.
+     *
+     * @return true if a commit was copied
+     *
+     * @throws IOException if the commit cannot be copied
+     */
+    private boolean persistLatest() throws IOException {
+        if (!DirectoryReader.indexExists(this)) {
+            return false;
+        }
+        IndexCommit commit = lastCommit(this);
+        if (commit.getGeneration() == m_persistedGeneration) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        String segments = commit.getSegmentsFileName();
+        Collection<String> files = commit.getFileNames();
+        Set<String> existing = new HashSet<String>(Arrays.asList(m_disk.listAll()));
+
+        // copy the segment files first so that the commit only becomes
+        // visible on disk once all of its files are in place
+        List<String> copied = new ArrayList<String>();
+        for (String file : files) {
+            if (file.equals(segments)) {
+                continue;
+            }
+            if (!existing.contains(file) || m_disk.fileLength(file) != fileLength(file)) {
+                copy(m_disk, file, file, IOContext.DEFAULT);
+                copied.add(file);
+            }
+        }
+        m_disk.sync(copied);
+        copy(m_disk, segments, segments, IOContext.DEFAULT);
+        m_disk.sync(Arrays.asList(segments));
+        SegmentInfos.writeSegmentsGen(m_disk, commit.getGeneration());
+        m_persistedGeneration = commit.getGeneration();
+
+        for (String file : existing) {
+            if (!files.contains(file) && isIndexFile(file)) {
+                try {
+                    m_disk.deleteFile(file);
+                }
+                catch (IOException e) {
+                    LOG.warn("Could not delete obsolete index file " + file, e);
+                }
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Persisted commit " + commit.getGeneration() + " (" + copied.size()
+                    + " new files) to " + m_disk + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return true;
+    }
+
+    /**
+     * Return the last commit of an index.
+     *
+     * @param dir directory containing the index
+     *
+     * @return the last commit
+     *
+     * @throws IOException if the commits cannot be listed
+     */
+    private static IndexCommit lastCommit(Directory dir) throws IOException {
+        List<IndexCommit> commits = DirectoryReader.listCommits(dir);
+        return commits.get(commits.size() - 1);
+    }
+
+    /**
+     * Determine if a file belongs to an index commit, as opposed to the
+     * write lock, the segments generation file or files stored next to
+     * the index such as the manifest.
+     *
+     * @param file file name
+     *
+     * @return true if the file is a segments file or a segment file
+     */
+    private static boolean isIndexFile(String file) {
+        return (file.startsWith(IndexFileNames.SEGMENTS) && !file.equals(IndexFileNames.SEGMENTS_GEN))
+                || IndexFileNames.CODEC_FILE_PATTERN.matcher(file).matches();
+    }
+}
@@ -0,0 +1,363 @@
+package org.blackbeanbag.recipe;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Quarantine lists the files whose scan was aborted by the
+ * {@link ScanWatchdog}, because it overran its time or memory budget or
+ * crashed the scanner. The {@link Indexer} skips quarantined files until
+ * their contents change, so that a bad file is not retried on every run.
+ * <p>
+ * The quarantine is stored next to the {@link IndexManifest} in the index
+ * directory, as a UTF-8 text file with one tab separated entry per line,
+ * and is written as soon as it changes so that it survives a run that
+ * does not complete. Files can be released from the quarantine by
+ * removing their entries, or by deleting the file.
+ */
+public class Quarantine {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(Quarantine.class);
+
+    /**
+     * Name of the quarantine file inside the index directory.
+     */
+    public static final String FILE_NAME = "recipe-index.quarantine";
+
+    /**
+     * Character set used for the quarantine file.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * File the quarantine is stored in.
+     */
+    private final File m_file;
+
+    /**
+     * Quarantine entries keyed by file path.
+     */
+    private final Map<String, Entry> m_entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Construct an empty Quarantine.
+     *
+     * @param file file the quarantine is stored in
+     */
+    public Quarantine(File file) {
+        m_file = file;
+    }
+
+    /**
+     * Return the file the quarantine is stored in.
+     *
+     * @return the quarantine file
+     */
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Return the entry for the given file, or null if the file is not
+     * quarantined.
+     *
+     * @param path file path
+     *
+     * @return the quarantine entry for the file
+     */
+    public Entry get(String path) {
+        return m_entries.get(path);
+    }
+
+    /**
+     * Return all entries in this quarantine.
+     *
+     * @return quarantine entries
+     */
+    public Collection<Entry> getEntries() {
+        return m_entries.values();
+    }
+
+    /**
+     * Return the number of quarantined files.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * Add or replace an entry and store the quarantine.
+     *
+     * @param entry quarantine entry
+     */
+    public void put(Entry entry) {
+        m_entries.put(entry.getPath(), entry);
+        storeQuietly();
+    }
+
+    /**
+     * Release a file from the quarantine and store the quarantine.
+     *
+     * @param path file path
+     *
+     * @return the removed entry, or null if the file was not quarantined
+     */
+    public Entry remove(String path) {
+        Entry entry = m_entries.remove(path);
+        if (entry != null) {
+            storeQuietly();
+        }
+        return entry;
+    }
+
+    /**
+     * Release the files that no longer exist from the quarantine.
+     */
+    public void prune() {
+        boolean changed = false;
+        for (Entry entry : m_entries.values()) {
+            if (!new File(entry.getPath()).exists()) {
+                m_entries.remove(entry.getPath());
+                changed = true;
+            }
+        }
+        if (changed) {
+            storeQuietly();
+        }
+    }
+
+    /**
+     * Load a quarantine from the given file. An empty quarantine is
+     * returned if the file does not exist or cannot be read; quarantined
+     * files are then simply scanned again.
+     *
+     * @param file quarantine file
+     *
+     * @return the loaded quarantine
+     */
+    public static Quarantine load(File file) {
+        Quarantine quarantine = new Quarantine(file);
+        if (!file.exists()) {
+            return quarantine;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 6);
+                if (parts.length == 6) {
+                    Entry entry = new Entry(parts[5], Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                            parts[0], Long.parseLong(parts[3]), parts[4]);
+                    quarantine.m_entries.put(entry.getPath(), entry);
+                }
+            }
+        }
+        catch (Exception e) {
+            LOG.warn("Could not read quarantine " + file + "; quarantined files will be scanned", e);
+            return new Quarantine(file);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded " + quarantine.size() + " quarantined files from " + file);
+        }
+        return quarantine;
+    }
+
+    /**
+     * Store this quarantine. The quarantine is written to a temporary file
+     * first which then replaces the existing file; if the quarantine is
+     * empty, the file is deleted.
+     *
+     * @throws IOException if the quarantine cannot be written
+     */
+    public synchronized void store() throws IOException {
+        if (m_entries.isEmpty()) {
+            if (m_file.exists() && !m_file.delete()) {
+                throw new IOException("Could not delete quarantine " + m_file);
+            }
+            return;
+        }
+
+        File dir = m_file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        File tmp = new File(m_file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tmp), UTF8))) {
+            for (Entry entry : m_entries.values()) {
+                writer.write(entry.getHash());
+                writer.write('\t');
+                writer.write(Long.toString(entry.getSize()));
+                writer.write('\t');
+                writer.write(Long.toString(entry.getLastModified()));
+                writer.write('\t');
+                writer.write(Long.toString(entry.getTime()));
+                writer.write('\t');
+                writer.write(entry.getReason().replaceAll("\\s+", " "));
+                writer.write('\t');
+                writer.write(entry.getPath());
+                writer.write('\n');
+            }
+        }
+
+        if (m_file.exists() && !m_file.delete()) {
+            throw new IOException("Could not replace quarantine " + m_file);
+        }
+        if (!tmp.renameTo(m_file)) {
+            throw new IOException("Could not rename " + tmp + " to " + m_file);
+        }
+    }
+
+    /**
+     * Store this quarantine, logging rather than throwing a failure: the
+     * quarantine then only holds until the process ends.
+     */
+    private void storeQuietly() {
+        try {
+            store();
+        }
+        catch (IOException e) {
+            LOG.warn("Could not store quarantine " + m_file, e);
+        }
+    }
+
+    /**
+     * A single quarantine entry.
+     */
+    public static class Entry {
+        /**
+         * File path.
+         */
+        private final String m_path;
+
+        /**
+         * File size in bytes.
+         */
+        private final long m_size;
+
+        /**
+         * File modification time in milliseconds.
+         */
+        private final long m_lastModified;
+
+        /**
+         * Hex encoded content hash.
+         */
+        private final String m_hash;
+
+        /**
+         * Time the file was quarantined in milliseconds.
+         */
+        private final long m_time;
+
+        /**
+         * Why the file was quarantined.
+         */
+        private final String m_reason;
+
+        /**
+         * Construct a quarantine entry.
+         *
+         * @param path          file path
+         * @param size          file size in bytes
+         * @param lastModified  file modification time in milliseconds
+         * @param hash          hex encoded content hash
+         * @param time          time the file was quarantined in
+         *                      milliseconds
+         * @param reason        why the file was quarantined
+         */
+        public Entry(String path, long size, long lastModified, String hash, long time, String reason) {
+            m_path = path;
+            m_size = size;
+            m_lastModified = lastModified;
+            m_hash = hash;
+            m_time = time;
+            m_reason = reason;
+        }
+
+        /**
+         * Return the file path.
+         *
+         * @return file path
+         */
+        public String getPath() {
+            return m_path;
+        }
+
+        /**
+         * Return the file size.
+         *
+         * @return file size in bytes
+         */
+        public long getSize() {
+            return m_size;
+        }
+
+        /**
+         * Return the file modification time.
+         *
+         * @return modification time in milliseconds
+         */
+        public long getLastModified() {
+            return m_lastModified;
+        }
+
+        /**
+         * Return the content hash.
+         *
+         * @return hex encoded content hash
+         */
+        public String getHash() {
+            return m_hash;
+        }
+
+        /**
+         * Return the time the file was quarantined.
+         *
+         * @return the time in milliseconds
+         */
+        public long getTime() {
+            return m_time;
+        }
+
+        /**
+         * Return why the file was quarantined.
+         *
+         * @return the reason
+         */
+        public String getReason() {
+            return m_reason;
+        }
+
+        /**
+         * Determine if the given size and modification time match this entry.
+         *
+         * @param size          file size in bytes
+         * @param lastModified  file modification time in milliseconds
+         *
+         * @return true if the file appears to be unchanged
+         */
+        public boolean matches(long size, long lastModified) {
+            return m_size == size && m_lastModified == lastModified;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.blackbeanbag.recipe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * QueryCache is a bounded, least recently used cache of search results.
+ * Every lookup is made against a <i>generation</i>, a number that
+ * increases each time the index reader the results are computed with is
+ * reopened. When a lookup or insert is made with a newer generation than
+ * the current one, the cache is cleared, so results computed against a
+ * reader that has since been reopened are never returned. Lookups and
+ * inserts with an older generation, made by searches that started before
+ * the reader was reopened, miss and are dropped, so they cannot clear the
+ * results of the current generation.
+ * <p>
+ * Hit, miss and eviction counts are tracked for monitoring. All methods
+ * are thread safe.
+ *
+ * @param <V> type of the cached values
+ */
+public class QueryCache<V> {
+    /**
+     * Maximum number of entries.
+     */
+    private final int m_capacity;
+
+    /**
+     * Cached values in access order.
+     */
+    private final LinkedHashMap<String, V> m_entries;
+
+    /**
+     * Generation the cached values belong to, or -1 before the first
+     * lookup.
+     */
+    private long m_generation = -1;
+
+    /**
+     * Number of lookups that found a cached value.
+     */
+    private long m_hits;
+
+    /**
+     * Number of lookups that did not find a cached value.
+     */
+    private long m_misses;
+
+    /**
+     * Number of entries removed to make room for new entries.
+     */
+    private long m_evictions;
+
+    /**
+     * Number of times the cache was cleared due to a new generation.
+     */
+    private long m_invalidations;
+
+    /**
+     * Construct a QueryCache.
+     *
+     * @param capacity maximum number of cached entries
+     */
+    public QueryCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        m_capacity = capacity;
+        m_entries = new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                if (size() > m_capacity) {
+                    m_evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Normalize search criteria for use as a cache key by trimming it
+     * and collapsing runs of whitespace. Case is preserved since query
+     * operators are case sensitive.
+     *
+     * @param criteria search criteria
+     *
+     * @return normalized criteria
+     */
+    public static String normalize(String criteria) {
+        StringBuilder sb = new StringBuilder(criteria.length());
+        boolean space = false;
+        for (int i = 0; i < criteria.length(); i++) {
+            char c = criteria.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            }
+            else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the cached value for a key.
+     *
+     * @param generation  generation the value must belong to
+     * @param key         cache key
+     *
+     * @return the cached value, or null if there is none
+     */
+    public synchronized V get(long generation, String key) {
+        V value = checkGeneration(generation) ? m_entries.get(key) : null;
+        if (value == null) {
+            m_misses++;
+        }
+        else {
+            m_hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Cache a value.
+     *
+     * @param generation  generation the value belongs to
+     * @param key         cache key
+     * @param value       value to cache
+     */
+    public synchronized void put(long generation, String key, V value) {
+        if (checkGeneration(generation)) {
+            m_entries.put(key, value);
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        m_entries.clear();
+    }
+
+    /**
+     * Return the maximum number of entries.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    /**
+     * Return the number of cached entries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * Return the number of lookups that found a cached value.
+     *
+     * @return the hit count
+     */
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    /**
+     * Return the number of lookups that did not find a cached value.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    /**
+     * Return the number of entries evicted to make room for new entries.
+     *
+     * @return the eviction count
+     */
+    public synchronized long getEvictions() {
+        return m_evictions;
+    }
+
+    /**
+     * Return the number of times the cache was cleared because the
+     * generation changed.
+     *
+     * @return the invalidation count
+     */
+    public synchronized long getInvalidations() {
+        return m_invalidations;
+    }
+
+    /**
+     * Return the fraction of lookups that found a cached value.
+     *
+     * @return the hit ratio between 0 and 1
+     */
+    public synchronized double getHitRatio() {
+        long lookups = m_hits + m_misses;
+        return lookups == 0 ? 0.0 : (double) m_hits / lookups;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{size=" + m_entries.size() + ", capacity=" + m_capacity
+                + ", hits=" + m_hits + ", misses=" + m_misses
+                + ", evictions=" + m_evictions + ", invalidations=" + m_invalidations + "}";
+    }
+
+    /**
+     * Clear the cache if the given generation is newer than the current
+     * one.
+     *
+     * @param generation the generation of the current operation
+     *
+     * @return false if the generation is older than the current one
+     */
+    private boolean checkGeneration(long generation) {
+        if (generation < m_generation) {
+            return false;
+        }
+        if (generation > m_generation) {
+            if (m_generation >= 0) {
+                m_invalidations++;
+            }
+            m_entries.clear();
+            m_generation = generation;
+        }
+        return true;
+    }
+}
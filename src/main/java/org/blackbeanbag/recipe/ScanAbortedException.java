@@ -0,0 +1,20 @@
+package org.blackbeanbag.recipe;
+
+/**
+ * ScanAbortedException is thrown when the {@link ScanWatchdog} abandons
+ * the scan of a file, either because the scan exceeded its time or memory
+ * budget or because the scanner failed with an error such as
+ * {@link OutOfMemoryError}. The {@link Indexer} quarantines such files.
+ */
+@SuppressWarnings("serial")
+public class ScanAbortedException extends RuntimeException {
+    /**
+     * Construct a ScanAbortedException.
+     *
+     * @param reason  why the scan was aborted
+     * @param cause   the error raised by the scanner, or null
+     */
+    public ScanAbortedException(String reason, Throwable cause) {
+        super(reason, cause);
+    }
+}
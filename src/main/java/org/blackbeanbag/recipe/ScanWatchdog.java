@@ -0,0 +1,661 @@
+package org.blackbeanbag.recipe;
+
+import java.io.Closeable;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * ScanWatchdog enforces a time and memory budget on the scan of each file,
+ * so that a single corrupt or pathological document cannot stall the
+ * {@link Indexer}.
+ * <p>
+ * The budget covers the scanner parsing the file into a document, and
+ * the reading of a document body that the scanner parses lazily while the
+ * document is indexed. The scanner runs on a separate scan thread while
+ * the indexing thread waits for at most the timeout; a body is read on the
+ * indexing thread through a {@link Scan#supervise(Reader) supervised reader}
+ * that checks the budget on each read. A scan that overruns is cancelled:
+ * its file is closed, the scan thread is interrupted and, if it does not
+ * stop, abandoned, and the next read of the body fails. Time the index
+ * writer spends between reads, flushing or merging segments, is not
+ * charged to the file.
+ * <p>
+ * Memory is measured as the bytes allocated by the thread parsing the
+ * file while it does so, where the JVM supports per-thread allocation
+ * accounting. This counts garbage as well as live objects. Otherwise only
+ * the time budget, and scanners that run out of memory or stack, are
+ * caught.
+ * <p>
+ * A budget of zero disables that check; with both disabled, scans run on
+ * the indexing thread without supervision. All methods are thread safe.
+ */
+public class ScanWatchdog {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(ScanWatchdog.class);
+
+    /**
+     * Default time allowed for the scan of a file, in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 60000;
+
+    /**
+     * Default number of bytes the scan of a file may allocate: a quarter
+     * of the maximum heap size.
+     */
+    public static final long DEFAULT_MEMORY_LIMIT = Runtime.getRuntime().maxMemory() / 4;
+
+    /**
+     * Interval between checks of the running scans, in milliseconds.
+     */
+    private static final long CHECK_INTERVAL = 50;
+
+    /**
+     * The JVM's thread management interface.
+     */
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Method returning the bytes allocated by a thread; null if the JVM
+     * does not support per-thread allocation accounting.
+     */
+    private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+    /**
+     * Time allowed for the scan of a file in milliseconds, or zero for no
+     * limit.
+     */
+    private volatile long m_timeout;
+
+    /**
+     * Number of bytes the scan of a file may allocate, or zero for no
+     * limit.
+     */
+    private volatile long m_memoryLimit;
+
+    /**
+     * Scans in progress.
+     */
+    private final Set<Scan> m_scans = Collections.newSetFromMap(new ConcurrentHashMap<Scan, Boolean>());
+
+    /**
+     * Timer checking the scans in progress; created with the first scan,
+     * guarded by this.
+     */
+    private ScheduledThreadPoolExecutor m_timer;
+
+    /**
+     * Threads parsing files; created with the first scan, guarded by
+     * this.
+     */
+    private ThreadPoolExecutor m_scanners;
+
+    /**
+     * Construct a ScanWatchdog with the default budget.
+     */
+    public ScanWatchdog() {
+        this(DEFAULT_TIMEOUT, DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * Construct a ScanWatchdog.
+     *
+     * @param timeout      time allowed for the scan of a file in
+     *                     milliseconds, or zero for no limit
+     * @param memoryLimit  number of bytes the scan of a file may allocate,
+     *                     or zero for no limit
+     */
+    public ScanWatchdog(long timeout, long memoryLimit) {
+        setTimeout(timeout, TimeUnit.MILLISECONDS);
+        setMemoryLimit(memoryLimit);
+    }
+
+    /**
+     * Return the time allowed for the scan of a file.
+     *
+     * @return the timeout in milliseconds, or zero if there is no limit
+     */
+    public long getTimeout() {
+        return m_timeout;
+    }
+
+    /**
+     * Set the time allowed for the scan of a file. The timeout applies to
+     * scans started afterwards.
+     *
+     * @param timeout  the timeout, or zero for no limit
+     * @param unit     unit of the timeout
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        }
+        m_timeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Return the number of bytes the scan of a file may allocate.
+     *
+     * @return the limit in bytes, or zero if there is no limit
+     */
+    public long getMemoryLimit() {
+        return m_memoryLimit;
+    }
+
+    /**
+     * Set the number of bytes the scan of a file may allocate. The limit
+     * is ignored if the JVM cannot measure allocations per thread.
+     *
+     * @param memoryLimit the limit in bytes, or zero for no limit
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("Memory limit must not be negative: " + memoryLimit);
+        }
+        if (memoryLimit > 0 && ALLOCATED_BYTES == null) {
+            LOG.info("Per-thread allocation accounting is not available; scan memory limit ignored");
+        }
+        m_memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Determine if scans are supervised.
+     *
+     * @return true if a time or memory budget is set
+     */
+    public boolean isEnabled() {
+        return m_timeout > 0 || (m_memoryLimit > 0 && ALLOCATED_BYTES != null);
+    }
+
+    /**
+     * Start supervising the scan of a file. The returned scan must be
+     * finished by the caller.
+     *
+     * @param file    name of the file
+     * @param source  resource the scan reads from, closed if the scan
+     *                overruns its budget
+     *
+     * @return the scan
+     */
+    public Scan start(String file, Closeable source) {
+        Scan scan = new Scan(file, source, m_timeout, ALLOCATED_BYTES == null ? 0 : m_memoryLimit);
+        if (scan.m_timeout > 0 || scan.m_memoryLimit > 0) {
+            startTimer();
+            m_scans.add(scan);
+        }
+        return scan;
+    }
+
+    /**
+     * Stop the watchdog. Scans that have been abandoned are left to end on
+     * their own; the watchdog starts again if another scan is started.
+     */
+    public synchronized void close() {
+        if (m_timer != null) {
+            m_timer.shutdownNow();
+            m_timer = null;
+        }
+        if (m_scanners != null) {
+            m_scanners.shutdown();
+            m_scanners = null;
+        }
+    }
+
+    /**
+     * Start the timer and the scan threads if they are not running.
+     */
+    private synchronized void startTimer() {
+        if (m_timer != null) {
+            return;
+        }
+        m_scanners = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory("recipe-scan"));
+        m_timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("recipe-scan-watchdog"));
+        m_timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Scan scan : m_scans) {
+                    scan.check();
+                }
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submit the parse of a file to a scan thread.
+     *
+     * @param task the task
+     *
+     * @return the future of the task
+     */
+    private synchronized <T> Future<T> submit(Callable<T> task) {
+        if (m_scanners == null) {
+            startTimer();
+        }
+        return m_scanners.submit(task);
+    }
+
+    /**
+     * Return the number of bytes allocated by a thread so far.
+     *
+     * @param thread the thread
+     *
+     * @return the byte count, or -1 if it cannot be determined
+     */
+    private static long allocatedBytes(Thread thread) {
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(THREADS, thread.getId());
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Look up the HotSpot method returning the bytes allocated by a
+     * thread.
+     *
+     * @return the method, or null if allocation accounting is not
+     *         supported or not enabled
+     */
+    private static Method allocatedBytesMethod() {
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (!type.isInstance(THREADS)
+                    || !(Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(THREADS)
+                    || !(Boolean) type.getMethod("isThreadAllocatedMemoryEnabled").invoke(THREADS)) {
+                return null;
+            }
+            return type.getMethod("getThreadAllocatedBytes", long.class);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * The scan of a single file.
+     */
+    public class Scan {
+        /**
+         * Name of the file.
+         */
+        private final String m_file;
+
+        /**
+         * Resource the scan reads from.
+         */
+        private final Closeable m_source;
+
+        /**
+         * Time allowed for this scan in milliseconds, or zero.
+         */
+        private final long m_timeout;
+
+        /**
+         * Bytes this scan may allocate, or zero.
+         */
+        private final long m_memoryLimit;
+
+        /**
+         * Thread currently parsing the file, or null between parses;
+         * guarded by this.
+         */
+        private Thread m_thread;
+
+        /**
+         * Time the current parse started; guarded by this.
+         */
+        private long m_startNanos;
+
+        /**
+         * Bytes allocated by the parsing thread when the current parse
+         * started; guarded by this.
+         */
+        private long m_baseline;
+
+        /**
+         * Time spent parsing the file in completed parses, in
+         * nanoseconds; guarded by this.
+         */
+        private long m_elapsed;
+
+        /**
+         * Bytes allocated in completed parses; guarded by this.
+         */
+        private long m_allocated;
+
+        /**
+         * Parse of the file while it runs on a scan thread; guarded by
+         * this.
+         */
+        private Future<?> m_future;
+
+        /**
+         * True once the scan has been finished; guarded by this.
+         */
+        private boolean m_finished;
+
+        /**
+         * Why the scan was aborted; null while it is within its budget.
+         */
+        private volatile String m_reason;
+
+        /**
+         * Construct a Scan.
+         *
+         * @param file         name of the file
+         * @param source       resource the scan reads from
+         * @param timeout      time allowed in milliseconds, or zero
+         * @param memoryLimit  bytes the scan may allocate, or zero
+         */
+        Scan(String file, Closeable source, long timeout, long memoryLimit) {
+            m_file = file;
+            m_source = source;
+            m_timeout = timeout;
+            m_memoryLimit = memoryLimit;
+        }
+
+        /**
+         * Parse the file within the budget. If the scan is supervised, the
+         * task runs on a scan thread and the current thread waits for it.
+         * The budget is charged only while the task runs, so that the
+         * caller can go on to index the result without being charged for
+         * it.
+         *
+         * @param task the task parsing the file
+         *
+         * @return the result of the task
+         *
+         * @throws ScanAbortedException if the task overran the budget or
+         *         failed with an error
+         * @throws Exception if the task failed
+         */
+        public <T> T call(final Callable<T> task) throws Exception {
+            if (m_timeout == 0 && m_memoryLimit == 0) {
+                attach(Thread.currentThread());
+                try {
+                    return task.call();
+                }
+                finally {
+                    detach();
+                }
+            }
+
+            Future<T> future;
+            synchronized (this) {
+                future = submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        attach(Thread.currentThread());
+                        try {
+                            return task.call();
+                        }
+                        finally {
+                            detach();
+                        }
+                    }
+                });
+                m_future = future;
+            }
+            try {
+                long remaining = m_timeout == 0 ? Long.MAX_VALUE
+                        : m_timeout - TimeUnit.NANOSECONDS.toMillis(getElapsedNanos());
+                return future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e) {
+                abort("timed out after " + m_timeout + "ms");
+                throw new ScanAbortedException(m_reason, null);
+            }
+            catch (CancellationException e) {
+                throw new ScanAbortedException(m_reason, null);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (m_reason != null) {
+                    throw new ScanAbortedException(m_reason, cause);
+                }
+                if (cause instanceof Error) {
+                    throw new ScanAbortedException("scanner failed: " + cause, cause);
+                }
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Scan of " + m_file + " interrupted");
+            }
+            finally {
+                synchronized (this) {
+                    m_future = null;
+                }
+            }
+        }
+
+        /**
+         * Return a reader that reads the body of the document within the
+         * budget of this scan. Scanners that parse the file as its body is
+         * read do so on the thread indexing the document; the budget is
+         * charged for the time and memory spent in the reads, and a read
+         * fails with a {@link ScanAbortedException} once the scan has
+         * overrun it. Time spent between reads is not charged.
+         *
+         * @param body reader for the document body
+         *
+         * @return the supervised reader
+         */
+        public Reader supervise(Reader body) {
+            return new SupervisedReader(body);
+        }
+
+        /**
+         * Return why the scan was aborted.
+         *
+         * @return the reason, or null if the scan is within its budget
+         */
+        public String getReason() {
+            return m_reason;
+        }
+
+        /**
+         * Return the time spent parsing the file so far, including reads
+         * of the document body.
+         *
+         * @return the time in nanoseconds
+         */
+        public synchronized long getElapsedNanos() {
+            return m_elapsed + (m_thread == null ? 0 : System.nanoTime() - m_startNanos);
+        }
+
+        /**
+         * Stop supervising the scan.
+         */
+        public void finish() {
+            synchronized (this) {
+                m_finished = true;
+            }
+            m_scans.remove(this);
+        }
+
+        /**
+         * Abort the scan if it is parsing the file and has overrun its
+         * budget.
+         */
+        void check() {
+            synchronized (this) {
+                if (m_finished || m_reason != null || m_thread == null) {
+                    return;
+                }
+            }
+            String reason = overrun();
+            if (reason != null) {
+                abort(reason);
+            }
+        }
+
+        /**
+         * Determine if the scan has overrun its budget.
+         *
+         * @return why the budget is overrun, or null if it is not
+         */
+        private String overrun() {
+            if (m_timeout > 0 && TimeUnit.NANOSECONDS.toMillis(getElapsedNanos()) > m_timeout) {
+                return "timed out after " + m_timeout + "ms";
+            }
+            if (m_memoryLimit > 0 && allocated() > m_memoryLimit) {
+                return "allocated more than " + m_memoryLimit / 1024 / 1024 + "MB";
+            }
+            return null;
+        }
+
+        /**
+         * Abort the scan: close its source and cancel the parse.
+         *
+         * @param reason why the scan is aborted
+         */
+        private void abort(String reason) {
+            Future<?> future;
+            synchronized (this) {
+                if (m_finished || m_reason != null) {
+                    return;
+                }
+                m_reason = reason;
+                future = m_future;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Aborting scan of " + m_file + ": " + reason);
+            }
+            try {
+                m_source.close();
+            }
+            catch (IOException e) {
+                LOG.debug("Could not close " + m_file, e);
+            }
+            if (future != null) {
+                // a scanner that ignores the interrupt is left to end on
+                // its own; the scan threads are not reused while it runs.
+                // A body read on the indexing thread is not interrupted,
+                // since that would break the index writer; it fails on
+                // the closed source or at its next read instead
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * Record that a thread started parsing the file.
+         *
+         * @param thread the thread
+         */
+        private synchronized void attach(Thread thread) {
+            m_thread = thread;
+            m_startNanos = System.nanoTime();
+            if (m_memoryLimit > 0) {
+                m_baseline = allocatedBytes(thread);
+            }
+        }
+
+        /**
+         * Record that the thread stopped parsing the file.
+         */
+        private synchronized void detach() {
+            if (m_thread == null) {
+                return;
+            }
+            m_elapsed += System.nanoTime() - m_startNanos;
+            if (m_memoryLimit > 0) {
+                m_allocated += Math.max(0, allocatedBytes(m_thread) - m_baseline);
+            }
+            m_thread = null;
+        }
+
+        /**
+         * Return the number of bytes allocated by the parse so far.
+         *
+         * @return the byte count
+         */
+        private synchronized long allocated() {
+            return m_allocated + (m_thread == null ? 0 : Math.max(0, allocatedBytes(m_thread) - m_baseline));
+        }
+
+        /**
+         * Reader charging the reads of a document body to the scan.
+         */
+        private class SupervisedReader extends FilterReader {
+            /**
+             * Construct a SupervisedReader.
+             *
+             * @param body reader for the document body
+             */
+            SupervisedReader(Reader body) {
+                super(body);
+            }
+
+            @Override
+            public int read() throws IOException {
+                char[] c = new char[1];
+                return read(c, 0, 1) == -1 ? -1 : c[0];
+            }
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                if (m_reason != null) {
+                    throw new ScanAbortedException(m_reason, null);
+                }
+                int n;
+                attach(Thread.currentThread());
+                try {
+                    n = in.read(cbuf, off, len);
+                }
+                catch (IOException e) {
+                    if (m_reason != null) {
+                        // the watchdog closed the file under the read
+                        throw new ScanAbortedException(m_reason, e);
+                    }
+                    throw e;
+                }
+                finally {
+                    detach();
+                }
+                String reason = overrun();
+                if (reason != null) {
+                    abort(reason);
+                }
+                if (m_reason != null) {
+                    throw new ScanAbortedException(m_reason, null);
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                char[] buffer = new char[(int) Math.min(n, 4096)];
+                long skipped = 0;
+                int count;
+                while (skipped < n && (count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) != -1) {
+                    skipped += count;
+                }
+                return skipped;
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.blackbeanbag.recipe;
+
+/**
+ * SearchCancelledException is thrown by a search that was cancelled
+ * before it completed.
+ *
+ * @see Searcher#search(String, int, org.apache.lucene.search.ScoreDoc, java.util.concurrent.atomic.AtomicBoolean)
+ */
+@SuppressWarnings("serial")
+public class SearchCancelledException extends RuntimeException {
+    /**
+     * Construct a SearchCancelledException.
+     */
+    public SearchCancelledException() {
+        super("Search cancelled");
+    }
+}
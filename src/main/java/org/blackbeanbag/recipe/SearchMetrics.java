@@ -0,0 +1,255 @@
+package org.blackbeanbag.recipe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.blackbeanbag.recipe.metrics.Histogram;
+import org.blackbeanbag.recipe.metrics.Meter;
+import org.blackbeanbag.recipe.metrics.Reportable;
+
+/**
+ * SearchMetrics records where a {@link Searcher} spends its time: search
+ * latencies, the number of hits per query, the time taken to load the
+ * results from the index, and how many searches are answered from the
+ * query cache. All methods are thread safe.
+ */
+public class SearchMetrics implements SearchMetricsMXBean, Reportable {
+    /**
+     * All searches.
+     */
+    private final Meter m_searches = new Meter();
+
+    /**
+     * Search latencies in microseconds.
+     */
+    private final Histogram m_latencies = new Histogram();
+
+    /**
+     * Total hits of executed searches.
+     */
+    private final Histogram m_hits = new Histogram();
+
+    /**
+     * Result load times in microseconds.
+     */
+    private final Histogram m_loadTimes = new Histogram();
+
+    /**
+     * Searches answered from the query cache.
+     */
+    private final AtomicLong m_cacheHits = new AtomicLong();
+
+    /**
+     * Searches executed against the index.
+     */
+    private final AtomicLong m_cacheMisses = new AtomicLong();
+
+    /**
+     * Cancelled searches.
+     */
+    private final AtomicLong m_cancelled = new AtomicLong();
+
+    /**
+     * Failed searches.
+     */
+    private final AtomicLong m_failures = new AtomicLong();
+
+    /**
+     * Time of the previous report; guarded by this.
+     */
+    private long m_lastReportNanos = System.nanoTime();
+
+    /**
+     * Search count at the previous report; guarded by this.
+     */
+    private long m_lastSearches;
+
+    /**
+     * Cache hit count at the previous report; guarded by this.
+     */
+    private long m_lastCacheHits;
+
+    /**
+     * Cancelled and failed count at the previous report; guarded by this.
+     */
+    private long m_lastErrors;
+
+    /**
+     * Latencies at the previous report; guarded by this.
+     */
+    private Histogram.Snapshot m_lastLatencies;
+
+    /**
+     * Hits at the previous report; guarded by this.
+     */
+    private Histogram.Snapshot m_lastHits;
+
+    /**
+     * Load times at the previous report; guarded by this.
+     */
+    private Histogram.Snapshot m_lastLoadTimes;
+
+    /**
+     * Record a completed search.
+     *
+     * @param nanos   time taken by the search
+     * @param cached  true if the search was answered from the query cache
+     */
+    public void searched(long nanos, boolean cached) {
+        m_searches.mark();
+        m_latencies.update(TimeUnit.NANOSECONDS.toMicros(nanos));
+        (cached ? m_cacheHits : m_cacheMisses).incrementAndGet();
+    }
+
+    /**
+     * Record a query executed against the index.
+     *
+     * @param totalHits  total number of hits of the query
+     * @param loadNanos  time taken to load the page of results
+     */
+    public void executed(long totalHits, long loadNanos) {
+        m_hits.update(totalHits);
+        m_loadTimes.update(TimeUnit.NANOSECONDS.toMicros(loadNanos));
+    }
+
+    /**
+     * Record a cancelled search.
+     */
+    public void cancelled() {
+        m_cancelled.incrementAndGet();
+    }
+
+    /**
+     * Record a failed search.
+     */
+    public void failed() {
+        m_failures.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSearchCount() {
+        return m_searches.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getSearchRate() {
+        return m_searches.getRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Histogram.Snapshot getLatencyMicros() {
+        return m_latencies.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Histogram.Snapshot getHitsPerQuery() {
+        return m_hits.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Histogram.Snapshot getDocumentLoadMicros() {
+        return m_loadTimes.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheHitCount() {
+        return m_cacheHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheMissCount() {
+        return m_cacheMisses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getCacheHitRatio() {
+        return ratio(getCacheHitCount(), getCacheHitCount() + getCacheMissCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCancelledCount() {
+        return m_cancelled.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFailureCount() {
+        return m_failures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String report() {
+        long searches = getSearchCount();
+        long cacheHits = getCacheHitCount();
+        long errors = getCancelledCount() + getFailureCount();
+        Histogram.Snapshot latencies = getLatencyMicros();
+        Histogram.Snapshot hits = getHitsPerQuery();
+        Histogram.Snapshot loadTimes = getDocumentLoadMicros();
+        long now = System.nanoTime();
+        double seconds = Math.max(now - m_lastReportNanos, 1) / 1e9;
+
+        String report = null;
+        if (searches != m_lastSearches || errors != m_lastErrors) {
+            long newSearches = searches - m_lastSearches;
+            report = newSearches + " searches" + String.format(" (%.1f/s)", newSearches / seconds)
+                    + String.format(", cache hit ratio %.2f", ratio(cacheHits - m_lastCacheHits, newSearches))
+                    + ", " + (errors - m_lastErrors) + " cancelled or failed"
+                    + "; latency (us) " + latencies.minus(m_lastLatencies)
+                    + "; hits " + hits.minus(m_lastHits)
+                    + "; load (us) " + loadTimes.minus(m_lastLoadTimes);
+        }
+
+        m_lastReportNanos = now;
+        m_lastSearches = searches;
+        m_lastCacheHits = cacheHits;
+        m_lastErrors = errors;
+        m_lastLatencies = latencies;
+        m_lastHits = hits;
+        m_lastLoadTimes = loadTimes;
+        return report;
+    }
+
+    /**
+     * Divide two counts.
+     *
+     * @param count  the count
+     * @param total  the total
+     *
+     * @return the ratio, or zero if the total is zero
+     */
+    private static double ratio(long count, long total) {
+        return total == 0 ? 0 : (double) count / total;
+    }
+}
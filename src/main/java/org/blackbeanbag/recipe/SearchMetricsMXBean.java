@@ -0,0 +1,85 @@
+package org.blackbeanbag.recipe;
+
+import org.blackbeanbag.recipe.metrics.Histogram;
+
+/**
+ * JMX view of the {@link SearchMetrics} of a {@link Searcher}. Counts and
+ * distributions cover the lifetime of the metrics; rates are moving
+ * averages over about one minute.
+ */
+public interface SearchMetricsMXBean {
+    /**
+     * Return the number of searches, including those answered from the
+     * query cache.
+     *
+     * @return the search count
+     */
+    long getSearchCount();
+
+    /**
+     * Return the rate of searches.
+     *
+     * @return searches per second
+     */
+    double getSearchRate();
+
+    /**
+     * Return the time taken by searches, from parsing the criteria to
+     * loading the results, including searches answered from the cache.
+     *
+     * @return the latencies in microseconds
+     */
+    Histogram.Snapshot getLatencyMicros();
+
+    /**
+     * Return the total number of hits of searches that were executed
+     * against the index.
+     *
+     * @return the hits per query
+     */
+    Histogram.Snapshot getHitsPerQuery();
+
+    /**
+     * Return the time taken to load the stored fields of a page of
+     * results.
+     *
+     * @return the load times in microseconds
+     */
+    Histogram.Snapshot getDocumentLoadMicros();
+
+    /**
+     * Return the number of searches answered from the query cache.
+     *
+     * @return the cache hit count
+     */
+    long getCacheHitCount();
+
+    /**
+     * Return the number of searches executed against the index.
+     *
+     * @return the cache miss count
+     */
+    long getCacheMissCount();
+
+    /**
+     * Return the fraction of searches answered from the query cache.
+     *
+     * @return the hit ratio between 0 and 1
+     */
+    double getCacheHitRatio();
+
+    /**
+     * Return the number of searches that were cancelled.
+     *
+     * @return the cancelled count
+     */
+    long getCancelledCount();
+
+    /**
+     * Return the number of searches that failed, for example because the
+     * criteria could not be parsed.
+     *
+     * @return the failure count
+     */
+    long getFailureCount();
+}
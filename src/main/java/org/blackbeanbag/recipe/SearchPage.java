@@ -0,0 +1,68 @@
+package org.blackbeanbag.recipe;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.search.ScoreDoc;
+
+/**
+ * SearchPage is one page of search results along with the total number
+ * of matching documents and a cursor that can be passed back to
+ * {@link Searcher#search(String, int, ScoreDoc)} to fetch the next page.
+ */
+public class SearchPage {
+    /**
+     * Results on this page.
+     */
+    private final List<SearchResult> m_results;
+
+    /**
+     * Total number of documents matching the query.
+     */
+    private final int m_totalHits;
+
+    /**
+     * Last hit on this page; null if the page is empty.
+     */
+    private final ScoreDoc m_cursor;
+
+    /**
+     * Construct a SearchPage.
+     *
+     * @param results    results on this page
+     * @param totalHits  total number of matching documents
+     * @param cursor     last hit on this page, or null if the page is empty
+     */
+    public SearchPage(List<SearchResult> results, int totalHits, ScoreDoc cursor) {
+        m_results = Collections.unmodifiableList(results);
+        m_totalHits = totalHits;
+        m_cursor = cursor;
+    }
+
+    /**
+     * Return the results on this page.
+     *
+     * @return an unmodifiable list of results
+     */
+    public List<SearchResult> getResults() {
+        return m_results;
+    }
+
+    /**
+     * Return the total number of documents matching the query.
+     *
+     * @return total number of hits
+     */
+    public int getTotalHits() {
+        return m_totalHits;
+    }
+
+    /**
+     * Return the cursor used to request the page following this one.
+     *
+     * @return the last hit on this page, or null if the page is empty
+     */
+    public ScoreDoc getCursor() {
+        return m_cursor;
+    }
+}
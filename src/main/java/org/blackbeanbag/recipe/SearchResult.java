@@ -0,0 +1,70 @@
+package org.blackbeanbag.recipe;
+
+/**
+ * SearchResult is a single immutable search hit: the file containing
+ * the recipe, its title and the relevance score.
+ */
+public class SearchResult {
+    /**
+     * File containing the recipe.
+     */
+    private final String m_file;
+
+    /**
+     * Recipe title.
+     */
+    private final String m_title;
+
+    /**
+     * Relevance score of the hit.
+     */
+    private final float m_score;
+
+    /**
+     * Construct a SearchResult.
+     *
+     * @param file   file containing the recipe
+     * @param title  recipe title
+     * @param score  relevance score
+     */
+    public SearchResult(String file, String title, float score) {
+        m_file = file;
+        m_title = title;
+        m_score = score;
+    }
+
+    /**
+     * Return the file containing the recipe.
+     *
+     * @return the file name
+     */
+    public String getFile() {
+        return m_file;
+    }
+
+    /**
+     * Return the recipe title.
+     *
+     * @return the title
+     */
+    public String getTitle() {
+        return m_title;
+    }
+
+    /**
+     * Return the relevance score of this hit.
+     *
+     * @return the score
+     */
+    public float getScore() {
+        return m_score;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "SearchResult{file=" + m_file + ", title=" + m_title + ", score=" + m_score + "}";
+    }
+}
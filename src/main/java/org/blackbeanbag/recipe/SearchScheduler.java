@@ -0,0 +1,338 @@
+package org.blackbeanbag.recipe;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * SearchScheduler runs searches for search-as-you-type input. Every
+ * search request is numbered; a new request supersedes all earlier ones:
+ * <ul>
+ *     <li>requests are debounced, so a search only starts once the input
+ *     has not changed for the configured delay</li>
+ *     <li>a superseded search that has already started is cancelled
+ *     cooperatively (see {@link Searcher#search(String, int,
+ *     org.apache.lucene.search.ScoreDoc, AtomicBoolean)})</li>
+ *     <li>results of a superseded search are never delivered, even if it
+ *     completes after a newer one</li>
+ *     <li>at most a fixed number of searches run at the same time</li>
+ * </ul>
+ * Callbacks are invoked on a worker thread. Since a newer request may be
+ * made between the callback and the moment its results are displayed,
+ * consumers should check {@link #isCurrent(long)} again before using them.
+ */
+public class SearchScheduler {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(SearchScheduler.class);
+
+    /**
+     * Default debounce delay in milliseconds.
+     */
+    public static final long DEFAULT_DELAY = 250L;
+
+    /**
+     * Default maximum number of concurrent searches.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+
+    /**
+     * Searcher used to run searches.
+     */
+    private final Searcher m_searcher;
+
+    /**
+     * Number of results requested per search.
+     */
+    private final int m_pageSize;
+
+    /**
+     * Debounce delay in milliseconds.
+     */
+    private final long m_delay;
+
+    /**
+     * Timer that starts debounced searches.
+     */
+    private final ScheduledThreadPoolExecutor m_timer;
+
+    /**
+     * Bounded pool running searches.
+     */
+    private final ThreadPoolExecutor m_workers;
+
+    /**
+     * Sequence number of the latest request.
+     */
+    private final AtomicLong m_sequence = new AtomicLong();
+
+    /**
+     * Number of requests that were superseded before completing.
+     */
+    private final AtomicLong m_supersededCount = new AtomicLong();
+
+    /**
+     * The latest request; guarded by this.
+     */
+    private Request m_current;
+
+    /**
+     * Receives the outcome of a search.
+     */
+    public interface Callback {
+        /**
+         * Invoked when the latest search has completed.
+         *
+         * @param sequence  sequence number of the request
+         * @param criteria  the search criteria
+         * @param page      the first page of results
+         */
+        void searchCompleted(long sequence, String criteria, SearchPage page);
+
+        /**
+         * Invoked when the latest search has failed, for instance because
+         * the criteria could not be parsed.
+         *
+         * @param sequence  sequence number of the request
+         * @param criteria  the search criteria
+         * @param e         the failure
+         */
+        void searchFailed(long sequence, String criteria, Exception e);
+    }
+
+    /**
+     * Construct a SearchScheduler with the default delay and concurrency.
+     *
+     * @param searcher  searcher used to run searches
+     * @param pageSize  number of results requested per search
+     */
+    public SearchScheduler(Searcher searcher, int pageSize) {
+        this(searcher, pageSize, DEFAULT_DELAY, DEFAULT_MAX_CONCURRENT);
+    }
+
+    /**
+     * Construct a SearchScheduler.
+     *
+     * @param searcher       searcher used to run searches
+     * @param pageSize       number of results requested per search
+     * @param delay          debounce delay in milliseconds
+     * @param maxConcurrent  maximum number of searches running at once
+     */
+    public SearchScheduler(Searcher searcher, int pageSize, long delay, int maxConcurrent) {
+        m_searcher = searcher;
+        m_pageSize = pageSize;
+        m_delay = delay;
+
+        m_timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("recipe-search-timer"));
+        m_timer.setRemoveOnCancelPolicy(true);
+
+        // only the latest request matters, so when all workers are busy
+        // the oldest queued request is dropped in favour of the new one
+        m_workers = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxConcurrent),
+                new NamedThreadFactory("recipe-search"),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        m_workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedule a search to run once the debounce delay has passed without
+     * another request. All earlier requests are cancelled.
+     *
+     * @param criteria  the search criteria
+     * @param callback  receives the outcome of the search
+     *
+     * @return the sequence number of the request
+     */
+    public long schedule(String criteria, Callback callback) {
+        return submit(criteria, callback, m_delay);
+    }
+
+    /**
+     * Run a search without waiting for the debounce delay. All earlier
+     * requests are cancelled.
+     *
+     * @param criteria  the search criteria
+     * @param callback  receives the outcome of the search
+     *
+     * @return the sequence number of the request
+     */
+    public long searchNow(String criteria, Callback callback) {
+        return submit(criteria, callback, 0L);
+    }
+
+    /**
+     * Cancel all pending and running searches.
+     *
+     * @return the sequence number that supersedes the cancelled requests
+     */
+    public synchronized long cancel() {
+        cancelCurrent();
+        return m_sequence.incrementAndGet();
+    }
+
+    /**
+     * Determine if a sequence number belongs to the latest request.
+     *
+     * @param sequence a sequence number returned by this scheduler
+     *
+     * @return true if no newer request has been made
+     */
+    public boolean isCurrent(long sequence) {
+        return m_sequence.get() == sequence;
+    }
+
+    /**
+     * Return the number of requests that were superseded before their
+     * results were delivered.
+     *
+     * @return the number of superseded requests
+     */
+    public long getSupersededCount() {
+        return m_supersededCount.get();
+    }
+
+    /**
+     * Cancel all searches and stop the scheduler threads.
+     */
+    public void close() {
+        cancel();
+        m_timer.shutdownNow();
+        m_workers.shutdownNow();
+    }
+
+    /**
+     * Supersede the current request with a new one.
+     *
+     * @param criteria  the search criteria
+     * @param callback  receives the outcome of the search
+     * @param delay     delay in milliseconds before the search starts
+     *
+     * @return the sequence number of the new request
+     */
+    private synchronized long submit(String criteria, Callback callback, long delay) {
+        cancelCurrent();
+
+        final Request request = new Request(m_sequence.incrementAndGet(), criteria, callback);
+        m_current = request;
+        request.m_timer = m_timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.m_cancelled.get()) {
+                    m_workers.execute(request);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Scheduled search " + request.m_sequence + " for '" + criteria + "'");
+        }
+        return request.m_sequence;
+    }
+
+    /**
+     * Cancel the current request, if any; must be called while holding
+     * the lock on this scheduler.
+     */
+    private void cancelCurrent() {
+        if (m_current != null) {
+            m_current.cancel();
+            m_current = null;
+        }
+    }
+
+    /**
+     * A numbered search request.
+     */
+    private class Request implements Runnable {
+        /**
+         * Sequence number of the request.
+         */
+        private final long m_sequence;
+
+        /**
+         * The search criteria.
+         */
+        private final String m_criteria;
+
+        /**
+         * Receives the outcome of the search.
+         */
+        private final Callback m_callback;
+
+        /**
+         * Set once the request has been superseded.
+         */
+        private final AtomicBoolean m_cancelled = new AtomicBoolean();
+
+        /**
+         * Pending debounce timer.
+         */
+        private volatile Future<?> m_timer;
+
+        /**
+         * Construct a Request.
+         *
+         * @param sequence  sequence number of the request
+         * @param criteria  the search criteria
+         * @param callback  receives the outcome of the search
+         */
+        Request(long sequence, String criteria, Callback callback) {
+            m_sequence = sequence;
+            m_criteria = criteria;
+            m_callback = callback;
+        }
+
+        /**
+         * Cancel the request: stop the debounce timer if it has not fired
+         * and signal a running search to stop.
+         */
+        void cancel() {
+            if (m_cancelled.compareAndSet(false, true)) {
+                m_supersededCount.incrementAndGet();
+                Future<?> timer = m_timer;
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            if (m_cancelled.get()) {
+                return;
+            }
+
+            try {
+                SearchPage page = m_searcher.search(m_criteria, m_pageSize, null, m_cancelled);
+                if (isCurrent(m_sequence)) {
+                    m_callback.searchCompleted(m_sequence, m_criteria, page);
+                }
+            }
+            catch (SearchCancelledException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Search " + m_sequence + " for '" + m_criteria + "' cancelled");
+                }
+            }
+            catch (RuntimeException e) {
+                if (isCurrent(m_sequence)) {
+                    m_callback.searchFailed(m_sequence, m_criteria, e);
+                }
+            }
+            finally {
+                // a finished request is not counted as superseded
+                m_cancelled.set(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,1058 @@
+package org.blackbeanbag.recipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.blackbeanbag.recipe.metrics.Metrics;
+import org.blackbeanbag.recipe.metrics.MetricsReporter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * SearchServer makes an index searchable over HTTP with the JDK's
+ * built-in server, so that one index can be shared without the desktop
+ * application. All endpoints answer {@code GET} requests with JSON:
+ * <ul>
+ *     <li>{@code /search?q=criteria&size=20&after=cursor} returns a page of
+ *     results and the cursor of the next page; with {@code facets=n} the
+ *     n most common ingredients and categories are returned as well, and
+ *     {@code ingredient=} and {@code category=} narrow the results down
+ *     (see {@link Searcher#facetedSearch(String, Map, int, ScoreDoc, int)})</li>
+ *     <li>{@code /suggest?q=prefix&n=8} returns completions of a prefix</li>
+ *     <li>{@code /status} returns the state of the index and the server</li>
+ * </ul>
+ * Requests are accepted by a single dispatcher thread and run on a
+ * bounded pool of workers that share the {@link Searcher}, and thus its
+ * current index reader and query cache. When all workers are busy and
+ * the queue is full, requests are rejected right away with
+ * {@code 503 Service Unavailable} rather than queued without bound.
+ * A request that has not completed within the timeout is answered with
+ * {@code 504 Gateway Timeout} and its search is cancelled.
+ */
+public class SearchServer implements Closeable {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(SearchServer.class);
+
+    /**
+     * Default port.
+     */
+    public static final int DEFAULT_PORT = 8080;
+
+    /**
+     * Default request timeout in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 2000L;
+
+    /**
+     * Default number of results per page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    /**
+     * Default number of suggestions.
+     */
+    public static final int DEFAULT_SUGGESTIONS = 8;
+
+    /**
+     * Maximum number of results per page and of values per facet.
+     */
+    public static final int MAX_PAGE_SIZE = Searcher.MAX_RESULTS;
+
+    /**
+     * Searcher shared by all requests.
+     */
+    private final Searcher m_searcher;
+
+    /**
+     * Suggester for the suggest endpoint; null if there is none.
+     */
+    private volatile Suggester m_suggester;
+
+    /**
+     * Indexers keeping the index (or each of its shards) up to date;
+     * empty if the index is not updated by this process.
+     */
+    private volatile List<Indexer> m_indexers = Collections.emptyList();
+
+    /**
+     * True while the index is being brought up to date.
+     */
+    private volatile boolean m_updating;
+
+    /**
+     * Endpoints by path.
+     */
+    private final Map<String, Endpoint> m_endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    /**
+     * Number of worker threads.
+     */
+    private int m_threadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Number of requests that may wait for a worker.
+     */
+    private int m_queueCapacity = 4 * m_threadCount;
+
+    /**
+     * Request timeout in milliseconds.
+     */
+    private long m_timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Requests received.
+     */
+    private final AtomicLong m_requestCount = new AtomicLong();
+
+    /**
+     * Requests rejected because the server was saturated.
+     */
+    private final AtomicLong m_rejectedCount = new AtomicLong();
+
+    /**
+     * Requests that timed out.
+     */
+    private final AtomicLong m_timedOutCount = new AtomicLong();
+
+    /**
+     * The HTTP server; null unless started.
+     */
+    private HttpServer m_server;
+
+    /**
+     * Workers running requests; null unless started.
+     */
+    private ThreadPoolExecutor m_workers;
+
+    /**
+     * Timer answering requests that time out; null unless started.
+     */
+    private ScheduledThreadPoolExecutor m_timer;
+
+    /**
+     * Computes the response to a request.
+     */
+    public interface Endpoint {
+        /**
+         * Compute the response to a request. Implementations should stop
+         * early, for instance by throwing {@link SearchCancelledException},
+         * once the cancelled flag is set; the response is discarded then.
+         *
+         * @param params     the query parameters; a parameter may be given
+         *                   more than once
+         * @param cancelled  set when the request has timed out
+         *
+         * @return the response as JSON
+         *
+         * @throws IllegalArgumentException if the parameters are invalid
+         * @throws Exception if the response cannot be computed
+         */
+        String handle(Map<String, List<String>> params, AtomicBoolean cancelled) throws Exception;
+    }
+
+    /**
+     * Construct a SearchServer with the search, suggest and status
+     * endpoints.
+     *
+     * @param searcher searcher shared by all requests
+     */
+    public SearchServer(Searcher searcher) {
+        m_searcher = searcher;
+
+        addEndpoint("/search", new Endpoint() {
+            @Override
+            public String handle(Map<String, List<String>> params, AtomicBoolean cancelled) {
+                return search(params, cancelled);
+            }
+        });
+        addEndpoint("/suggest", new Endpoint() {
+            @Override
+            public String handle(Map<String, List<String>> params, AtomicBoolean cancelled) {
+                return suggest(params);
+            }
+        });
+        addEndpoint("/status", new Endpoint() {
+            @Override
+            public String handle(Map<String, List<String>> params, AtomicBoolean cancelled) throws IOException {
+                return status();
+            }
+        });
+    }
+
+    /**
+     * Add an endpoint, replacing any endpoint with the same path.
+     *
+     * @param path      the path, such as {@code /search}
+     * @param endpoint  the endpoint
+     */
+    public void addEndpoint(String path, Endpoint endpoint) {
+        m_endpoints.put(path, endpoint);
+    }
+
+    /**
+     * Set the suggester used by the suggest endpoint.
+     *
+     * @param suggester the suggester, or null to return no suggestions
+     */
+    public void setSuggester(Suggester suggester) {
+        m_suggester = suggester;
+    }
+
+    /**
+     * Set the indexer keeping the index up to date, whose metrics are
+     * included in the status.
+     *
+     * @param indexer the indexer, or null
+     */
+    public void setIndexer(Indexer indexer) {
+        setIndexers(indexer == null ? Collections.<Indexer>emptyList() : Collections.singletonList(indexer));
+    }
+
+    /**
+     * Set the indexers keeping the shards of a sharded index up to date,
+     * whose metrics are added up in the status.
+     *
+     * @param indexers the indexers of all shards
+     */
+    public void setIndexers(List<Indexer> indexers) {
+        m_indexers = new ArrayList<Indexer>(indexers);
+    }
+
+    /**
+     * Set whether the index is being brought up to date, as reported by
+     * the status endpoint.
+     *
+     * @param updating true while the index is being updated
+     */
+    public void setUpdating(boolean updating) {
+        m_updating = updating;
+    }
+
+    /**
+     * Return the number of worker threads.
+     *
+     * @return the number of worker threads
+     */
+    public int getThreadCount() {
+        return m_threadCount;
+    }
+
+    /**
+     * Set the number of worker threads; takes effect when the server is
+     * started.
+     *
+     * @param threadCount the number of worker threads, at least one
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threadCount);
+        }
+        m_threadCount = threadCount;
+    }
+
+    /**
+     * Return the number of requests that may wait for a worker.
+     *
+     * @return the queue capacity
+     */
+    public int getQueueCapacity() {
+        return m_queueCapacity;
+    }
+
+    /**
+     * Set the number of requests that may wait for a worker before
+     * further requests are rejected; takes effect when the server is
+     * started.
+     *
+     * @param queueCapacity the queue capacity; zero to reject requests
+     *                      as soon as all workers are busy
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Queue capacity must not be negative: " + queueCapacity);
+        }
+        m_queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Return the request timeout.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getTimeout() {
+        return m_timeout;
+    }
+
+    /**
+     * Set the request timeout, measured from the moment a request is
+     * received; includes the time spent waiting for a worker.
+     *
+     * @param timeout  the timeout
+     * @param unit     unit of the timeout
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        m_timeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Return the number of requests received.
+     *
+     * @return the number of requests
+     */
+    public long getRequestCount() {
+        return m_requestCount.get();
+    }
+
+    /**
+     * Return the number of requests rejected because all workers were
+     * busy and the queue was full.
+     *
+     * @return the number of rejected requests
+     */
+    public long getRejectedCount() {
+        return m_rejectedCount.get();
+    }
+
+    /**
+     * Return the number of requests that timed out.
+     *
+     * @return the number of timed out requests
+     */
+    public long getTimedOutCount() {
+        return m_timedOutCount.get();
+    }
+
+    /**
+     * Start accepting requests.
+     *
+     * @param address the address to listen on; port zero picks a free port
+     *
+     * @throws IOException if the server cannot listen on the address
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (m_server != null) {
+            throw new IllegalStateException("Server already started");
+        }
+
+        BlockingQueue<Runnable> queue = m_queueCapacity == 0
+                ? new SynchronousQueue<Runnable>()
+                : new ArrayBlockingQueue<Runnable>(m_queueCapacity);
+        m_workers = new ThreadPoolExecutor(m_threadCount, m_threadCount, 60L, TimeUnit.SECONDS,
+                queue, new NamedThreadFactory("recipe-server"), new ThreadPoolExecutor.AbortPolicy());
+        m_workers.allowCoreThreadTimeOut(true);
+        m_timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("recipe-server-timer"));
+        m_timer.setRemoveOnCancelPolicy(true);
+
+        m_server = HttpServer.create(address, 0);
+        m_server.createContext("/", new Dispatcher());
+        // the dispatcher only hands requests to the workers, so the
+        // server's own thread is enough to accept them
+        m_server.setExecutor(null);
+        m_server.start();
+        LOG.info("Search server listening on " + getAddress() + " with " + m_threadCount
+                + " workers, queue capacity " + m_queueCapacity + ", timeout " + m_timeout + "ms");
+    }
+
+    /**
+     * Return the address the server listens on.
+     *
+     * @return the address, or null if the server is not started
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return m_server == null ? null : m_server.getAddress();
+    }
+
+    /**
+     * Stop accepting requests and stop the workers. Requests in progress
+     * are cancelled. The searcher is not closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (m_server != null) {
+            m_server.stop(0);
+            m_workers.shutdownNow();
+            m_timer.shutdownNow();
+            m_server = null;
+        }
+    }
+
+    /**
+     * Compute the response of the search endpoint.
+     *
+     * @param params     the query parameters
+     * @param cancelled  set when the request has timed out
+     *
+     * @return the response
+     */
+    protected String search(Map<String, List<String>> params, AtomicBoolean cancelled) {
+        String criteria = param(params, "q", "");
+        int size = intParam(params, "size", DEFAULT_PAGE_SIZE, 1, MAX_PAGE_SIZE);
+        ScoreDoc after = parseCursor(param(params, "after", null));
+        int facets = intParam(params, "facets", 0, 0, MAX_PAGE_SIZE);
+
+        Map<String, List<String>> filters = new LinkedHashMap<String, List<String>>();
+        for (String dimension : new String[] {DocumentSchema.FACET_INGREDIENT, DocumentSchema.FACET_CATEGORY}) {
+            List<String> values = params.get(dimension);
+            if (values != null) {
+                filters.put(dimension, values);
+            }
+        }
+
+        SearchPage page;
+        if (facets > 0 || !filters.isEmpty()) {
+            page = m_searcher.facetedSearch(criteria, filters, size, after, facets, cancelled);
+        }
+        else if (criteria.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter 'q'");
+        }
+        else {
+            page = m_searcher.search(criteria, size, after, cancelled);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"query\":");
+        quote(sb, criteria);
+        sb.append(",\"totalHits\":").append(page.getTotalHits());
+        sb.append(",\"results\":[");
+        String separator = "";
+        for (SearchResult result : page.getResults()) {
+            sb.append(separator).append("{\"file\":");
+            quote(sb, result.getFile());
+            sb.append(",\"title\":");
+            quote(sb, result.getTitle());
+            sb.append(",\"score\":").append(number(result.getScore())).append('}');
+            separator = ",";
+        }
+        sb.append(']');
+        if (page.getResults().size() == size) {
+            sb.append(",\"next\":");
+            quote(sb, formatCursor(page.getCursor()));
+        }
+        if (page instanceof FacetedSearchPage) {
+            sb.append(",\"facets\":{");
+            separator = "";
+            for (Map.Entry<String, List<FacetCount>> facet : ((FacetedSearchPage) page).getFacets().entrySet()) {
+                sb.append(separator);
+                quote(sb, facet.getKey());
+                sb.append(":[");
+                String valueSeparator = "";
+                for (FacetCount count : facet.getValue()) {
+                    sb.append(valueSeparator).append("{\"value\":");
+                    quote(sb, count.getValue());
+                    sb.append(",\"count\":").append(count.getCount()).append('}');
+                    valueSeparator = ",";
+                }
+                sb.append(']');
+                separator = ",";
+            }
+            sb.append('}');
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Compute the response of the suggest endpoint.
+     *
+     * @param params the query parameters
+     *
+     * @return the response
+     */
+    protected String suggest(Map<String, List<String>> params) {
+        String prefix = param(params, "q", "");
+        int n = intParam(params, "n", DEFAULT_SUGGESTIONS, 1, MAX_PAGE_SIZE);
+        Suggester suggester = m_suggester;
+
+        StringBuilder sb = new StringBuilder("{\"prefix\":");
+        quote(sb, prefix);
+        sb.append(",\"suggestions\":[");
+        if (suggester != null) {
+            String separator = "";
+            for (String suggestion : suggester.suggest(prefix, n)) {
+                sb.append(separator);
+                quote(sb, suggestion);
+                separator = ",";
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Compute the response of the status endpoint.
+     *
+     * @return the response
+     *
+     * @throws IOException if the index cannot be read
+     */
+    protected String status() throws IOException {
+        StringBuilder sb = new StringBuilder("{\"index\":{");
+        IndexSearcher searcher = m_searcher.acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            sb.append("\"documents\":").append(reader.numDocs());
+            sb.append(",\"deletedDocuments\":").append(reader.numDeletedDocs());
+            if (reader instanceof DirectoryReader) {
+                DirectoryReader directoryReader = (DirectoryReader) reader;
+                sb.append(",\"version\":").append(directoryReader.getVersion());
+                sb.append(",\"current\":").append(directoryReader.isCurrent());
+            }
+            else {
+                boolean current = true;
+                for (IndexReaderContext shard : reader.getContext().children()) {
+                    current &= ((DirectoryReader) shard.reader()).isCurrent();
+                }
+                sb.append(",\"current\":").append(current);
+            }
+        }
+        finally {
+            m_searcher.release(searcher);
+        }
+        sb.append(",\"updating\":").append(m_updating);
+        Suggester suggester = m_suggester;
+        sb.append(",\"suggestions\":").append(suggester == null ? 0 : suggester.getCount());
+        List<Indexer> indexers = m_indexers;
+        if (!indexers.isEmpty()) {
+            long scanned = 0;
+            long failures = 0;
+            int quarantined = 0;
+            int queueDepth = 0;
+            for (Indexer indexer : indexers) {
+                IndexMetrics metrics = indexer.getMetrics();
+                scanned += metrics.getDocumentCount();
+                failures += metrics.getFailureCount();
+                quarantined += indexer.getQuarantine().size();
+                queueDepth += metrics.getQueueDepth();
+            }
+            sb.append(",\"shards\":").append(indexers.size());
+            sb.append(",\"scanned\":").append(scanned);
+            sb.append(",\"failures\":").append(failures);
+            sb.append(",\"quarantined\":").append(quarantined);
+            sb.append(",\"queueDepth\":").append(queueDepth);
+        }
+
+        SearchMetrics metrics = m_searcher.getMetrics();
+        sb.append("},\"search\":{\"searches\":").append(metrics.getSearchCount());
+        sb.append(",\"rate\":").append(number(metrics.getSearchRate()));
+        sb.append(",\"cacheHitRatio\":").append(number(metrics.getCacheHitRatio()));
+        sb.append(",\"latencyMicros\":{\"p50\":").append(metrics.getLatencyMicros().getP50());
+        sb.append(",\"p99\":").append(metrics.getLatencyMicros().getP99()).append('}');
+
+        sb.append("},\"server\":{\"threads\":").append(m_threadCount);
+        ThreadPoolExecutor workers;
+        synchronized (this) {
+            workers = m_workers;
+        }
+        if (workers != null) {
+            sb.append(",\"active\":").append(workers.getActiveCount());
+            sb.append(",\"queued\":").append(workers.getQueue().size());
+        }
+        sb.append(",\"requests\":").append(getRequestCount());
+        sb.append(",\"rejected\":").append(getRejectedCount());
+        sb.append(",\"timedOut\":").append(getTimedOutCount());
+        return sb.append("}}").toString();
+    }
+
+    /**
+     * Format a search cursor for the {@code after} parameter.
+     *
+     * @param cursor the last hit of a page
+     *
+     * @return the cursor as text
+     */
+    protected static String formatCursor(ScoreDoc cursor) {
+        return cursor.doc + ":" + cursor.score;
+    }
+
+    /**
+     * Parse the {@code after} parameter.
+     *
+     * @param cursor the cursor as text, or null
+     *
+     * @return the last hit of the previous page, or null
+     */
+    protected static ScoreDoc parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        int i = cursor.indexOf(':');
+        try {
+            return new ScoreDoc(Integer.parseInt(cursor.substring(0, i)),
+                    Float.parseFloat(cursor.substring(i + 1)));
+        }
+        catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor '" + cursor + "'");
+        }
+    }
+
+    /**
+     * Return the first value of a parameter.
+     *
+     * @param params        the query parameters
+     * @param name          the parameter name
+     * @param defaultValue  value returned if the parameter is missing
+     *
+     * @return the value
+     */
+    private static String param(Map<String, List<String>> params, String name, String defaultValue) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+
+    /**
+     * Return the first value of a numeric parameter.
+     *
+     * @param params        the query parameters
+     * @param name          the parameter name
+     * @param defaultValue  value returned if the parameter is missing
+     * @param min           smallest valid value
+     * @param max           largest valid value
+     *
+     * @return the value
+     *
+     * @throws IllegalArgumentException if the value is not a number
+     *         within the range
+     */
+    private static int intParam(Map<String, List<String>> params, String name, int defaultValue, int min, int max) {
+        String value = param(params, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n >= min && n <= max) {
+                return n;
+            }
+        }
+        catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Parameter '" + name + "' must be a number from "
+                + min + " to " + max + ": " + value);
+    }
+
+    /**
+     * Parse the query string of a request.
+     *
+     * @param query the raw query string, or null
+     *
+     * @return the parameters in the order given
+     */
+    static Map<String, List<String>> parseQuery(String query) {
+        Map<String, List<String>> params = new LinkedHashMap<String, List<String>>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        try {
+            for (String pair : query.split("&")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                int i = pair.indexOf('=');
+                String name = URLDecoder.decode(i < 0 ? pair : pair.substring(0, i), "UTF-8");
+                String value = i < 0 ? "" : URLDecoder.decode(pair.substring(i + 1), "UTF-8");
+                List<String> values = params.get(name);
+                if (values == null) {
+                    values = new ArrayList<String>(1);
+                    params.put(name, values);
+                }
+                values.add(value);
+            }
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return params;
+    }
+
+    /**
+     * Append a string to JSON output as a quoted string.
+     *
+     * @param sb  the output
+     * @param s   the string; null is written as {@code null}
+     */
+    static void quote(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Format a number for JSON output, which has no representation for
+     * NaN and infinity.
+     *
+     * @param d the number
+     *
+     * @return the number as JSON
+     */
+    private static String number(double d) {
+        return Double.isNaN(d) || Double.isInfinite(d) ? "null" : String.valueOf(d);
+    }
+
+    /**
+     * Format an error response.
+     *
+     * @param message the error message
+     *
+     * @return the response
+     */
+    private static String error(String message) {
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        quote(sb, message);
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Send a response and close the exchange. Failures to send, typically
+     * because the client has gone away, are logged.
+     *
+     * @param exchange  the exchange
+     * @param status    the HTTP status
+     * @param body      the response as JSON
+     */
+    private static void respond(HttpExchange exchange, int status, String body) {
+        try {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            if (status == 503) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            }
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            exchange.sendResponseHeaders(status, head ? -1 : bytes.length);
+            if (!head) {
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.flush();
+            }
+        }
+        catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Could not send response to " + exchange.getRemoteAddress(), e);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Handler that routes requests to the endpoints and hands them to the
+     * workers. It runs on the server's dispatcher thread, so it never
+     * blocks.
+     */
+    private class Dispatcher implements HttpHandler {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handle(HttpExchange exchange) {
+            m_requestCount.incrementAndGet();
+            String method = exchange.getRequestMethod();
+            Endpoint endpoint = m_endpoints.get(exchange.getRequestURI().getPath());
+            if (endpoint == null) {
+                respond(exchange, 404, error("Not found: " + exchange.getRequestURI().getPath()));
+                return;
+            }
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                respond(exchange, 405, error("Method not allowed: " + method));
+                return;
+            }
+
+            final Call call = new Call(exchange, endpoint);
+            try {
+                call.m_timeout = m_timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        call.timeout();
+                    }
+                }, m_timeout, TimeUnit.MILLISECONDS);
+                m_workers.execute(call);
+            }
+            catch (RejectedExecutionException e) {
+                m_rejectedCount.incrementAndGet();
+                if (call.complete()) {
+                    respond(exchange, 503, error("Server busy"));
+                }
+            }
+        }
+    }
+
+    /**
+     * A request waiting for or running on a worker.
+     */
+    private class Call implements Runnable {
+        /**
+         * The exchange to answer.
+         */
+        private final HttpExchange m_exchange;
+
+        /**
+         * The endpoint computing the response.
+         */
+        private final Endpoint m_endpoint;
+
+        /**
+         * Set once the request has been answered or has timed out.
+         */
+        private final AtomicBoolean m_done = new AtomicBoolean();
+
+        /**
+         * Set when the request has timed out, to stop its search.
+         */
+        private final AtomicBoolean m_cancelled = new AtomicBoolean();
+
+        /**
+         * Pending timeout.
+         */
+        private volatile Future<?> m_timeout;
+
+        /**
+         * Construct a Call.
+         *
+         * @param exchange  the exchange to answer
+         * @param endpoint  the endpoint computing the response
+         */
+        Call(HttpExchange exchange, Endpoint endpoint) {
+            m_exchange = exchange;
+            m_endpoint = endpoint;
+        }
+
+        /**
+         * Mark the request as answered and stop its timeout.
+         *
+         * @return true if the caller is the one to answer the request
+         */
+        boolean complete() {
+            if (!m_done.compareAndSet(false, true)) {
+                return false;
+            }
+            Future<?> timeout = m_timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            return true;
+        }
+
+        /**
+         * Answer the request with a timeout and cancel its search.
+         */
+        void timeout() {
+            if (m_done.compareAndSet(false, true)) {
+                m_cancelled.set(true);
+                m_timedOutCount.incrementAndGet();
+                respond(m_exchange, 504, error("Request timed out after " + SearchServer.this.m_timeout + "ms"));
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            if (m_done.get()) {
+                // timed out while waiting for a worker
+                return;
+            }
+
+            int status;
+            String body;
+            try {
+                body = m_endpoint.handle(parseQuery(m_exchange.getRequestURI().getRawQuery()), m_cancelled);
+                status = 200;
+            }
+            catch (SearchCancelledException e) {
+                // already answered by the timeout
+                return;
+            }
+            catch (IllegalArgumentException e) {
+                status = 400;
+                body = error(e.getMessage());
+            }
+            catch (Exception e) {
+                if (e.getCause() instanceof ParseException) {
+                    status = 400;
+                    body = error("Invalid query: " + e.getCause().getMessage());
+                }
+                else {
+                    // the details are logged, not sent to the client
+                    LOG.error("Error handling " + m_exchange.getRequestURI(), e);
+                    status = 500;
+                    body = error("Internal error");
+                }
+            }
+
+            if (complete()) {
+                respond(m_exchange, status, body);
+            }
+        }
+    }
+
+    /**
+     * Run the server without a user interface. The index is kept in the
+     * settings directory ({@code $HOME/.recipe-index}), as for
+     * {@link SwingMain}, and brought up to date in the background once the
+     * server has started. Besides the settings used by SwingMain, the
+     * settings file must contain {@code doc.dir}, and may contain
+     * {@code server.port}, {@code server.threads}, {@code server.queue}
+     * and {@code server.timeout} (in milliseconds), and the scan budget
+     * {@code index.scan.timeout} (in milliseconds) and
+     * {@code index.scan.memory} (in MB). The port can also be given as the
+     * only argument.
+     *
+     * @param args optional port
+     */
+    public static void main(String[] args) {
+        Settings settings = new Settings(Settings.ensureDefaultDir());
+        String docDir = settings.getProperty("doc.dir");
+        if (docDir == null) {
+            LOG.error("Property 'doc.dir' is missing from " + settings.getFileName());
+            System.exit(1);
+        }
+        int port = args.length > 0 ? Integer.parseInt(args[0])
+                : (int) settings.getLong("server.port", DEFAULT_PORT);
+
+        // with more than one shard, each shard has its own indexer; one
+        // watcher routes changes to them
+        int shardCount = (int) settings.getLong("index.shards", 1);
+        final List<Indexer> indexers;
+        final Searcher searcher;
+        final IndexWatcher watcher;
+        if (shardCount > 1) {
+            String name = settings.getProperty("index.shard.policy");
+            ShardPolicy policy = null;
+            try {
+                policy = ShardPolicy.parse(name);
+            }
+            catch (IllegalArgumentException e) {
+                LOG.error("Unknown shard policy '" + name + "' in " + settings.getFileName());
+                System.exit(1);
+            }
+            ShardedIndexer sharded = new ShardedIndexer(docDir, settings.getIndexDir(), shardCount, policy,
+                    settings.getIndexStorage());
+            indexers = sharded.getShards();
+            searcher = new Searcher(sharded);
+            watcher = new IndexWatcher(sharded);
+        }
+        else {
+            Indexer indexer = new Indexer(docDir, settings.getIndexDir(), settings.getIndexStorage());
+            indexers = Collections.singletonList(indexer);
+            searcher = new Searcher(indexer.getWriter());
+            watcher = new IndexWatcher(indexer);
+        }
+        for (Indexer indexer : indexers) {
+            ScanWatchdog watchdog = indexer.getScanWatchdog();
+            watchdog.setTimeout(settings.getLong("index.scan.timeout", watchdog.getTimeout()), TimeUnit.MILLISECONDS);
+            watchdog.setMemoryLimit(settings.getLong("index.scan.memory", watchdog.getMemoryLimit() >> 20) << 20);
+        }
+        final SearchServer server = new SearchServer(searcher);
+        server.setIndexers(indexers);
+        server.setThreadCount((int) settings.getLong("server.threads", server.getThreadCount()));
+        server.setQueueCapacity((int) settings.getLong("server.queue", server.getQueueCapacity()));
+        server.setTimeout(settings.getLong("server.timeout", DEFAULT_TIMEOUT), TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < indexers.size(); i++) {
+            Metrics.register("Indexer", indexers.size() > 1 ? "shard-" + i : "main", indexers.get(i).getMetrics());
+        }
+        Metrics.register("Searcher", "main", searcher.getMetrics());
+        long reportInterval = settings.getMetricsReportInterval();
+        if (reportInterval > 0) {
+            MetricsReporter reporter = new MetricsReporter();
+            for (int i = 0; i < indexers.size(); i++) {
+                reporter.add(indexers.size() > 1 ? "Indexer shard-" + i : "Indexer", indexers.get(i).getMetrics());
+            }
+            reporter.add("Searcher", searcher.getMetrics());
+            reporter.start(reportInterval, TimeUnit.SECONDS);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread("recipe-index-shutdown") {
+            @Override
+            public void run() {
+                server.close();
+                // changes are committed in batches; discard any batch in progress
+                watcher.close();
+                for (Indexer indexer : indexers) {
+                    indexer.rollback();
+                }
+            }
+        });
+
+        try {
+            server.setUpdating(true);
+            server.start(new InetSocketAddress(port));
+            server.setSuggester(new Suggester(searcher));
+            watcher.setListener(new IndexWatcher.Listener() {
+                @Override
+                public void indexChanged() {
+                    searcher.refresh();
+                }
+            });
+            watcher.start();
+            server.setUpdating(false);
+        }
+        catch (Exception e) {
+            LOG.error("Unhandled exception", e);
+            System.exit(1);
+        }
+    }
+}
@@ -1,26 +1,95 @@
 package org.blackbeanbag.recipe;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.DrillDownQuery;
+import org.apache.lucene.facet.DrillSideways;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiCollector;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Version;
 
 /**
  * Searcher is used for performing text queries against a
  * Lucene index.
+ * <p>
+ * The index reader is managed by a Lucene {@link SearcherManager}: each
+ * search acquires the current {@link IndexSearcher} and releases it when
+ * done, so the reader can be refreshed while searches are in flight.
+ * Call {@link #refresh()} after the index has changed, or
+ * {@link #startRefresh(long, TimeUnit)} to check for changes periodically
+ * in the background. Refreshing only opens segments that changed.
+ * <p>
+ * A Searcher created with an {@link IndexWriter} sees changes made by
+ * that writer after a refresh even before they are committed.
+ * <p>
+ * A Searcher can also search the shards of a {@link ShardedIndexer} as
+ * one index. Its reader is then managed by a
+ * {@link ShardedSearcherManager}, and searches are run on all shards in
+ * parallel by a {@link ShardedIndexSearcher}.
+ * <p>
+ * Searches can be cancelled cooperatively by passing a flag that is
+ * checked while hits are collected; see
+ * {@link #search(String, int, ScoreDoc, AtomicBoolean)}.
+ * <p>
+ * {@link #facetedSearch(String, Map, int, ScoreDoc, int)} also counts the
+ * ingredients and categories of all results in the same pass over the
+ * index, and narrows results down to chosen facet values.
+ * <p>
+ * Latencies, hits per query, result load times and query cache hits are
+ * recorded in the {@link SearchMetrics} returned by {@link #getMetrics()}.
  */
 public class Searcher {
     /**
@@ -29,15 +98,95 @@ public class Searcher {
     private static final Logger LOG = Logger.getLogger(Searcher.class);
 
     /**
-     * Lucene index searcher.
+     * Maximum number of results returned by {@link #doSearch(String)}.
      */
-    private IndexSearcher m_indexSearcher;
+    public static final int MAX_RESULTS = 1000;
+
+    /**
+     * Number of hits fetched at a time by {@link #iterate(String)}.
+     */
+    private static final int ITERATOR_PAGE_SIZE = 1000;
+
+    /**
+     * Number of collected hits between checks for cancellation; must be
+     * a power of two.
+     */
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    /**
+     * Default number of result pages kept in the query cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /**
+     * Facet dimensions counted by faceted searches.
+     */
+    private static final String[] FACET_DIMENSIONS = {
+        DocumentSchema.FACET_INGREDIENT, DocumentSchema.FACET_CATEGORY
+    };
+
+    /**
+     * Manager for the current index searcher.
+     */
+    private final ReferenceManager<IndexSearcher> m_manager;
+
+    /**
+     * Executor searching the shards in parallel; null unless the index
+     * is sharded.
+     */
+    private final ExecutorService m_shardExecutor;
+
+    /**
+     * Directory opened by this searcher and closed with it; null if the
+     * directory was provided.
+     */
+    private final Directory m_directory;
+
+    /**
+     * Executor running background refreshes; null if not started.
+     */
+    private ScheduledExecutorService m_refresher;
 
     /**
      * Lucene Analyzer.
      */
     private Analyzer m_analyzer;
 
+    /**
+     * Cache of result pages keyed by normalized search criteria.
+     */
+    private final QueryCache<SearchPage> m_cache = new QueryCache<SearchPage>(DEFAULT_CACHE_SIZE);
+
+    /**
+     * Metrics of the searches made by this searcher.
+     */
+    private volatile SearchMetrics m_metrics = new SearchMetrics();
+
+    /**
+     * Configuration of the facet dimensions.
+     */
+    private final FacetsConfig m_facetsConfig = DocumentSchema.createFacetsConfig();
+
+    /**
+     * Facet state of each open index reader; guarded by itself. An entry
+     * is removed when its reader is closed.
+     */
+    private final Map<IndexReader, SortedSetDocValuesReaderState> m_facetStates =
+            new HashMap<IndexReader, SortedSetDocValuesReaderState>();
+
+    /**
+     * Cache generation of each open index reader; guarded by itself. The
+     * generation increases with each reader opened, and an entry is
+     * removed when its reader is closed.
+     */
+    private final Map<IndexReader, Long> m_generations = new HashMap<IndexReader, Long>();
+
+    /**
+     * Cache generation of the most recently opened index reader; guarded
+     * by {@link #m_generations}.
+     */
+    private long m_generation;
+
     /**
      * Construct a Searcher based on an index directory.
      * <b>Note that the index must have been created prior to
@@ -48,9 +197,66 @@ public class Searcher {
      * @param indexDir directory containing existing index
      */
     public Searcher(String indexDir) {
+        this(indexDir, IndexStorage.DEFAULT);
+    }
+
+    /**
+     * Construct a Searcher based on an index directory, accessing the
+     * index files through the given storage. An index in
+     * {@link IndexStorage.Type#RAM RAM} storage is a copy of the index as
+     * committed when the searcher was created; it does not see later
+     * commits.
+     * <b>Note that the index must have been created prior to
+     * creating a Searcher.</b>
+     *
+     * @param indexDir  directory containing existing index
+     * @param storage   storage of the index files
+     */
+    public Searcher(String indexDir, IndexStorage storage) {
+        this(openDirectory(indexDir, storage), true);
+    }
+
+    /**
+     * Construct a Searcher based on an index directory.
+     * <b>Note that the index must have been created prior to
+     * creating a Searcher.</b>
+     *
+     * @param directory directory containing existing index
+     */
+    public Searcher(Directory directory) {
+        this(directory, false);
+    }
+
+    /**
+     * Construct a Searcher based on an index directory.
+     *
+     * @param directory  directory containing existing index
+     * @param owned      true if the directory is closed with the searcher
+     */
+    private Searcher(Directory directory, boolean owned) {
+        try {
+            m_shardExecutor = null;
+            m_manager = new SearcherManager(directory, new FacetWarmer());
+            m_directory = owned ? directory : null;
+            m_analyzer = new EnglishAnalyzer(Version.LUCENE_47);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Construct a near real time Searcher based on an index writer. After
+     * a {@link #refresh()}, searches see all changes made by the writer,
+     * whether or not they have been committed.
+     *
+     * @param writer the index writer
+     */
+    public Searcher(IndexWriter writer) {
         try {
-            DirectoryReader directoryReader = DirectoryReader.open(FSDirectory.open(new File(indexDir)));
-            m_indexSearcher = new IndexSearcher(directoryReader);
+            m_shardExecutor = null;
+            m_manager = new SearcherManager(writer, true, new FacetWarmer());
+            m_directory = null;
             m_analyzer = new EnglishAnalyzer(Version.LUCENE_47);
         }
         catch (Exception e) {
@@ -59,35 +265,1195 @@ public class Searcher {
     }
 
     /**
-     * Execute a search. The search results are a {@link List}. Each list
-     * element consists of a {@link Map} which contains two entries: an
-     * entry containing the file name of the result, and an entry containing
-     * the document title. Keys and values for this map are Strings.
+     * Construct a Searcher for the shards of a sharded index, given by
+     * their directories. <b>Note that the shards must have been created
+     * prior to creating a Searcher.</b>
+     *
+     * @param shards directory of each shard, in shard order
+     */
+    public Searcher(List<? extends Directory> shards) {
+        this(openShards(shards));
+    }
+
+    /**
+     * Construct a near real time Searcher for the shards of a sharded
+     * index. After a {@link #refresh()}, searches see all changes made by
+     * the shards' writers, whether or not they have been committed; only
+     * the shards that changed are reopened.
+     *
+     * @param indexer the sharded indexer
+     */
+    public Searcher(ShardedIndexer indexer) {
+        this(openShards(indexer));
+    }
+
+    /**
+     * Construct a Searcher for the shards of a sharded index.
+     *
+     * @param shards reader of each shard, in shard order
+     */
+    private Searcher(DirectoryReader[] shards) {
+        m_shardExecutor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(shards.length - 1, Runtime.getRuntime().availableProcessors())),
+                new NamedThreadFactory("recipe-shard-searcher"));
+        try {
+            m_manager = new ShardedSearcherManager(Arrays.asList(shards), new FacetWarmer());
+            m_directory = null;
+            m_analyzer = new EnglishAnalyzer(Version.LUCENE_47);
+        }
+        catch (Exception e) {
+            m_shardExecutor.shutdown();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Open a reader for each shard directory.
+     *
+     * @param directories the shard directories
+     *
+     * @return the shard readers
+     */
+    private static DirectoryReader[] openShards(List<? extends Directory> directories) {
+        DirectoryReader[] shards = new DirectoryReader[directories.size()];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = DirectoryReader.open(directories.get(i));
+            }
+            return shards;
+        }
+        catch (IOException e) {
+            closeShards(shards);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Open a near real time reader for each shard of a sharded indexer.
+     *
+     * @param indexer the sharded indexer
+     *
+     * @return the shard readers
+     */
+    private static DirectoryReader[] openShards(ShardedIndexer indexer) {
+        DirectoryReader[] shards = new DirectoryReader[indexer.getShardCount()];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = DirectoryReader.open(indexer.getShard(i).getWriter(), true);
+            }
+            return shards;
+        }
+        catch (IOException e) {
+            closeShards(shards);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Close the shard readers that were opened before a failure.
+     *
+     * @param shards the shard readers, null where not opened
+     */
+    private static void closeShards(DirectoryReader[] shards) {
+        for (DirectoryReader shard : shards) {
+            if (shard != null) {
+                try {
+                    shard.close();
+                }
+                catch (IOException e) {
+                    LOG.warn("Could not close shard reader", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open the index directory at the given path for searching.
+     *
+     * @param indexDir  directory containing the index
+     * @param storage   storage of the index files
+     *
+     * @return the Lucene directory
+     */
+    private static Directory openDirectory(String indexDir, IndexStorage storage) {
+        try {
+            return storage.openReadOnly(new File(indexDir));
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Check for index changes and, if there are any, open a new reader
+     * for subsequent searches. Searches in progress continue to use the
+     * previous reader, which is closed once they complete. If another
+     * thread is already refreshing, this method returns immediately.
+     *
+     * @return true if the searcher is current after this call
+     */
+    public boolean refresh() {
+        try {
+            return m_manager.maybeRefresh() && (m_manager instanceof SearcherManager
+                    ? ((SearcherManager) m_manager).isSearcherCurrent()
+                    : ((ShardedSearcherManager) m_manager).isSearcherCurrent());
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Start refreshing the index reader in the background at a fixed
+     * interval. Has no effect if background refresh is already running.
+     *
+     * @param interval  time between checks for index changes
+     * @param unit      unit of the interval
+     */
+    public synchronized void startRefresh(long interval, TimeUnit unit) {
+        if (m_refresher != null) {
+            return;
+        }
+        m_refresher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("recipe-searcher-refresh"));
+        m_refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    m_manager.maybeRefresh();
+                }
+                catch (Exception e) {
+                    LOG.warn("Could not refresh index reader", e);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Register a listener that is notified whenever the index reader
+     * is refreshed.
+     *
+     * @param listener the listener
+     */
+    public void addRefreshListener(ReferenceManager.RefreshListener listener) {
+        m_manager.addListener(listener);
+    }
+
+    /**
+     * Unregister a listener registered with
+     * {@link #addRefreshListener(ReferenceManager.RefreshListener)}.
+     *
+     * @param listener the listener
+     */
+    public void removeRefreshListener(ReferenceManager.RefreshListener listener) {
+        m_manager.removeListener(listener);
+    }
+
+    /**
+     * Stop background refreshes and close the index reader once all
+     * searches in progress have completed.
+     */
+    public void close() {
+        synchronized (this) {
+            if (m_refresher != null) {
+                m_refresher.shutdownNow();
+                m_refresher = null;
+            }
+        }
+        if (m_shardExecutor != null) {
+            m_shardExecutor.shutdown();
+        }
+        try {
+            m_manager.close();
+            if (m_directory != null) {
+                m_directory.close();
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Acquire the current index searcher. Every searcher acquired must
+     * be returned via {@link #release(IndexSearcher)}.
+     *
+     * @return the current index searcher
+     */
+    public IndexSearcher acquire() {
+        try {
+            return m_manager.acquire();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Release an index searcher obtained from {@link #acquire()}.
+     *
+     * @param searcher the searcher to release
+     */
+    public void release(IndexSearcher searcher) {
+        try {
+            m_manager.release(searcher);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Execute a search and return up to {@link #MAX_RESULTS} results.
+     * Use {@link #search(String, int, ScoreDoc)} to page through results
+     * or {@link #iterate(String)} to visit all results.
      *
      * @param criteria the search criteria
      *
      * @return a list of results
      */
-    public List<Map<String, String>> doSearch(String criteria) {
+    public List<SearchResult> doSearch(String criteria) {
+        return search(criteria, MAX_RESULTS, null).getResults();
+    }
+
+    /**
+     * Return the first page of results for a search.
+     *
+     * @param criteria  the search criteria
+     * @param pageSize  maximum number of results to return
+     *
+     * @return the first page of results
+     */
+    public SearchPage search(String criteria, int pageSize) {
+        return search(criteria, pageSize, null);
+    }
+
+    /**
+     * Return a page of results for a search. Only the file name and
+     * title of each hit on the page are loaded from the index. Pages
+     * are cached, so repeating a search is cheap until the index
+     * reader changes.
+     *
+     * @param criteria  the search criteria
+     * @param pageSize  maximum number of results to return
+     * @param after     cursor of the previous page (see
+     *                  {@link SearchPage#getCursor()}), or null for
+     *                  the first page
+     *
+     * @return a page of results
+     */
+    public SearchPage search(String criteria, int pageSize, ScoreDoc after) {
+        return search(criteria, pageSize, after, null);
+    }
+
+    /**
+     * Return a page of results for a search that can be cancelled from
+     * another thread by setting the given flag. The flag is checked
+     * periodically while hits are collected and while results are loaded;
+     * once it is set the search stops and throws
+     * {@link SearchCancelledException}. Cancellation does not interrupt
+     * the searching thread, so the index reader is never left in a
+     * broken state.
+     *
+     * @param criteria   the search criteria
+     * @param pageSize   maximum number of results to return
+     * @param after      cursor of the previous page, or null for the
+     *                   first page
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return a page of results
+     *
+     * @throws SearchCancelledException if the search was cancelled
+     */
+    public SearchPage search(String criteria, int pageSize, ScoreDoc after, AtomicBoolean cancelled) {
+        long start = System.nanoTime();
+        IndexSearcher searcher = acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            String key = cacheKey(criteria, pageSize, after);
+            long generation = generation(reader);
+
+            SearchPage page = m_cache.get(generation, key);
+            boolean cached = page != null;
+            if (page == null) {
+                checkCancelled(cancelled);
+                page = search(searcher, parse(criteria), pageSize, after, cancelled);
+                m_cache.put(generation, key, page);
+            }
+            else if (LOG.isDebugEnabled()) {
+                LOG.debug("Search for '" + criteria + "' answered from cache");
+            }
+            m_metrics.searched(System.nanoTime() - start, cached);
+            return page;
+        }
+        catch (SearchCancelledException e) {
+            m_metrics.cancelled();
+            throw e;
+        }
+        catch (Exception e) {
+            m_metrics.failed();
+            throw new RuntimeException(e);
+        }
+        finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * Return the first page of results for a search along with the most
+     * common ingredients and categories among all results. See
+     * {@link #facetedSearch(String, Map, int, ScoreDoc, int)}.
+     *
+     * @param criteria  the search criteria; blank to match all recipes
+     * @param filters   facet values to narrow the results down to, by
+     *                  dimension; may be null
+     * @param pageSize  maximum number of results to return
+     * @param topK      maximum number of values returned per dimension
+     *
+     * @return the first page of results with facet counts
+     */
+    public FacetedSearchPage facetedSearch(String criteria, Map<String, ? extends Collection<String>> filters,
+            int pageSize, int topK) {
+        return facetedSearch(criteria, filters, pageSize, null, topK);
+    }
+
+    /**
+     * Return a page of results for a search along with the most common
+     * values of each facet dimension ({@link DocumentSchema#FACET_INGREDIENT}
+     * and {@link DocumentSchema#FACET_CATEGORY}) among all results. Facets
+     * are counted from doc values while hits are collected, so no
+     * documents other than those on the page are loaded.
+     * <p>
+     * Results can be narrowed down to recipes with given facet values.
+     * Values of one dimension are alternatives (any of them matches);
+     * values of different dimensions must all match. The counts of a
+     * dimension that is filtered on are computed as if that filter was
+     * not applied (drill sideways), so that alternatives to the chosen
+     * values remain visible.
+     *
+     * @param criteria  the search criteria; blank to match all recipes
+     * @param filters   facet values to narrow the results down to, by
+     *                  dimension; may be null
+     * @param pageSize  maximum number of results to return
+     * @param after     cursor of the previous page, or null for the first
+     *                  page
+     * @param topK      maximum number of values returned per dimension
+     *
+     * @return a page of results with facet counts
+     */
+    public FacetedSearchPage facetedSearch(String criteria, Map<String, ? extends Collection<String>> filters,
+            int pageSize, ScoreDoc after, int topK) {
+        return facetedSearch(criteria, filters, pageSize, after, topK, null);
+    }
+
+    /**
+     * Return a page of results with facet counts for a search that can be
+     * cancelled from another thread by setting the given flag, in the same
+     * way as {@link #search(String, int, ScoreDoc, AtomicBoolean)}. See
+     * {@link #facetedSearch(String, Map, int, ScoreDoc, int)}.
+     *
+     * @param criteria   the search criteria; blank to match all recipes
+     * @param filters    facet values to narrow the results down to, by
+     *                   dimension; may be null
+     * @param pageSize   maximum number of results to return
+     * @param after      cursor of the previous page, or null for the
+     *                   first page
+     * @param topK       maximum number of values returned per dimension
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return a page of results with facet counts
+     *
+     * @throws SearchCancelledException if the search was cancelled
+     */
+    public FacetedSearchPage facetedSearch(String criteria, Map<String, ? extends Collection<String>> filters,
+            int pageSize, ScoreDoc after, int topK, AtomicBoolean cancelled) {
+        long start = System.nanoTime();
+        IndexSearcher searcher = acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            String key = facetCacheKey(criteria, filters, pageSize, after, topK);
+            long generation = generation(reader);
+
+            SearchPage page = m_cache.get(generation, key);
+            boolean cached = page instanceof FacetedSearchPage;
+            if (!cached) {
+                Query query = criteria == null || criteria.trim().isEmpty()
+                        ? new MatchAllDocsQuery() : parse(criteria);
+                checkCancelled(cancelled);
+                page = facetedSearch(searcher, query, filters, pageSize, after, topK, cancelled);
+                m_cache.put(generation, key, page);
+            }
+            m_metrics.searched(System.nanoTime() - start, cached);
+            return (FacetedSearchPage) page;
+        }
+        catch (SearchCancelledException e) {
+            m_metrics.cancelled();
+            throw e;
+        }
+        catch (Exception e) {
+            m_metrics.failed();
+            throw new RuntimeException(e);
+        }
+        finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * Execute a faceted query and load a page of results.
+     *
+     * @param searcher  the index searcher
+     * @param query     the query
+     * @param filters   facet values to narrow the results down to, or null
+     * @param pageSize  maximum number of results to return
+     * @param after     last hit of the previous page, or null
+     * @param topK      maximum number of values returned per dimension
+     *
+     * @return a page of results with facet counts
+     *
+     * @throws IOException if the index cannot be read
+     */
+    protected FacetedSearchPage facetedSearch(IndexSearcher searcher, Query query,
+            Map<String, ? extends Collection<String>> filters, int pageSize, ScoreDoc after, int topK)
+            throws IOException {
+        return facetedSearch(searcher, query, filters, pageSize, after, topK, null);
+    }
+
+    /**
+     * Execute a faceted query and load a page of results, checking the
+     * given flag for cancellation.
+     *
+     * @param searcher   the index searcher
+     * @param query      the query
+     * @param filters    facet values to narrow the results down to, or
+     *                   null
+     * @param pageSize   maximum number of results to return
+     * @param after      last hit of the previous page, or null
+     * @param topK       maximum number of values returned per dimension
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return a page of results with facet counts
+     *
+     * @throws IOException if the index cannot be read
+     * @throws SearchCancelledException if the search was cancelled
+     */
+    protected FacetedSearchPage facetedSearch(IndexSearcher searcher, Query query,
+            Map<String, ? extends Collection<String>> filters, int pageSize, ScoreDoc after, int topK,
+            AtomicBoolean cancelled) throws IOException {
+        DrillDownQuery drillDown = new DrillDownQuery(m_facetsConfig, query);
+        boolean filtered = false;
+        if (filters != null) {
+            for (Map.Entry<String, ? extends Collection<String>> filter : filters.entrySet()) {
+                if (!filter.getValue().isEmpty()) {
+                    drillDown.add(filter.getKey(), anyOf(filter.getKey(), filter.getValue()));
+                    filtered = true;
+                }
+            }
+        }
+
+        SortedSetDocValuesReaderState state = facetState(searcher.getIndexReader());
+        TopDocs topDocs;
+        Facets facets = null;
+        if (state == null) {
+            // the index has no facets yet; filter, but do not count
+            topDocs = searchAfter(searcher, drillDown, pageSize, after, cancelled);
+        }
+        else if (filtered) {
+            // the sideways counts are collected alongside the hits, so
+            // stopping the hits stops the whole search
+            TopScoreDocCollector hits = hitCollector(searcher, pageSize, after, true);
+            facets = new DrillSideways(searcher, m_facetsConfig, state)
+                    .search(drillDown, cancellable(hits, cancelled)).facets;
+            topDocs = hits.topDocs();
+        }
+        else {
+            TopScoreDocCollector hits = hitCollector(searcher, pageSize, after, false);
+            FacetsCollector collector = new FacetsCollector();
+            searcher.search(drillDown, cancellable(MultiCollector.wrap(hits, collector), cancelled));
+            topDocs = hits.topDocs();
+            facets = new SortedSetDocValuesFacetCounts(state, collector);
+        }
+
+        Map<String, List<FacetCount>> counts = new LinkedHashMap<String, List<FacetCount>>();
+        for (String dimension : FACET_DIMENSIONS) {
+            counts.put(dimension, topValues(facets, dimension, topK));
+        }
+        ScoreDoc[] hits = topDocs.scoreDocs;
+        return new FacetedSearchPage(loadResults(searcher, topDocs, cancelled), topDocs.totalHits,
+                hits.length == 0 ? after : hits[hits.length - 1], counts);
+    }
+
+    /**
+     * Return the cache generation of an index reader. Readers are
+     * numbered in the order they are first seen, normally when they are
+     * opened (see {@link FacetWarmer}), so a reader that replaces another
+     * has a newer generation.
+     *
+     * @param reader the index reader
+     *
+     * @return the generation
+     */
+    private long generation(IndexReader reader) {
+        synchronized (m_generations) {
+            Long generation = m_generations.get(reader);
+            if (generation == null) {
+                generation = ++m_generation;
+                m_generations.put(reader, generation);
+                reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+                    @Override
+                    public void onClose(IndexReader closed) {
+                        synchronized (m_generations) {
+                            m_generations.remove(closed);
+                        }
+                    }
+                });
+            }
+            return generation;
+        }
+    }
+
+    /**
+     * Return the facet state of an index reader, which maps the facet
+     * values of all segments to common ordinals. Creating the state reads
+     * all facet values, so it is done once per reader, normally when the
+     * reader is opened (see {@link FacetWarmer}).
+     *
+     * @param reader the index reader
+     *
+     * @return the facet state, or null if the index has no facets
+     *
+     * @throws IOException if the index cannot be read
+     */
+    protected SortedSetDocValuesReaderState facetState(final IndexReader reader) throws IOException {
+        synchronized (m_facetStates) {
+            if (m_facetStates.containsKey(reader)) {
+                return m_facetStates.get(reader);
+            }
+
+            FieldInfos fieldInfos = MultiFields.getMergedFieldInfos(reader);
+            FieldInfo fieldInfo = fieldInfos.fieldInfo(FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+            SortedSetDocValuesReaderState state = fieldInfo == null || !fieldInfo.hasDocValues()
+                    ? null : new DefaultSortedSetDocValuesReaderState(reader);
+            m_facetStates.put(reader, state);
+            reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+                @Override
+                public void onClose(IndexReader closed) {
+                    synchronized (m_facetStates) {
+                        m_facetStates.remove(closed);
+                    }
+                }
+            });
+            return state;
+        }
+    }
+
+    /**
+     * Return the most common values of a facet dimension.
+     *
+     * @param facets     the facet counts, or null
+     * @param dimension  the dimension
+     * @param topK       maximum number of values
+     *
+     * @return the values, most common first
+     *
+     * @throws IOException if the index cannot be read
+     */
+    private static List<FacetCount> topValues(Facets facets, String dimension, int topK) throws IOException {
+        List<FacetCount> counts = new ArrayList<FacetCount>();
+        if (facets == null || topK <= 0) {
+            return counts;
+        }
+        FacetResult result;
+        try {
+            result = facets.getTopChildren(topK, dimension);
+        }
+        catch (IllegalArgumentException e) {
+            // no document in the index has a value for this dimension
+            return counts;
+        }
+        if (result != null) {
+            for (LabelAndValue value : result.labelValues) {
+                counts.add(new FacetCount(value.label, value.value.intValue()));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Return a query matching documents with any of the given values of a
+     * facet dimension.
+     *
+     * @param dimension  the dimension
+     * @param values     the values
+     *
+     * @return the query
+     */
+    private Query anyOf(String dimension, Collection<String> values) {
+        String field = m_facetsConfig.getDimConfig(dimension).indexFieldName;
+        BooleanQuery query = new BooleanQuery(true);
+        for (String value : values) {
+            query.add(new TermQuery(DrillDownQuery.term(field, dimension, value)), BooleanClause.Occur.SHOULD);
+        }
+        return query;
+    }
+
+    /**
+     * Build the cache key for a page of faceted results. The keys of
+     * faceted pages start with a different prefix than those of plain
+     * pages, which share the cache.
+     *
+     * @param criteria  the search criteria
+     * @param filters   facet values to narrow the results down to, or null
+     * @param pageSize  maximum number of results
+     * @param after     last hit of the previous page, or null
+     * @param topK      maximum number of values per dimension
+     *
+     * @return the cache key
+     */
+    private String facetCacheKey(String criteria, Map<String, ? extends Collection<String>> filters,
+            int pageSize, ScoreDoc after, int topK) {
+        StringBuilder sb = new StringBuilder("facets");
+        appendKey(sb, QueryCache.normalize(criteria == null ? "" : criteria), pageSize, after);
+        sb.append(':').append(topK);
+        if (filters != null) {
+            for (Map.Entry<String, TreeSet<String>> filter : sorted(filters).entrySet()) {
+                appendText(sb, filter.getKey());
+                sb.append(':').append(filter.getValue().size());
+                for (String value : filter.getValue()) {
+                    appendText(sb, value);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return facet filters in a canonical order.
+     *
+     * @param filters the filters
+     *
+     * @return the filters sorted by dimension and value
+     */
+    private static Map<String, TreeSet<String>> sorted(Map<String, ? extends Collection<String>> filters) {
+        Map<String, TreeSet<String>> sorted = new TreeMap<String, TreeSet<String>>();
+        for (Map.Entry<String, ? extends Collection<String>> filter : filters.entrySet()) {
+            if (!filter.getValue().isEmpty()) {
+                sorted.put(filter.getKey(), new TreeSet<String>(filter.getValue()));
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Return an iterator over all results for a search. Results are
+     * fetched lazily a page at a time, so memory use does not depend on
+     * the number of hits. All pages are read from the same index reader;
+     * the reader is released once the iterator is exhausted or closed, so
+     * iterators that are abandoned early must be closed.
+     *
+     * @param criteria the search criteria
+     *
+     * @return an iterator over all results
+     */
+    public ResultIterator iterate(String criteria) {
+        IndexSearcher searcher = acquire();
         try {
-            QueryParser parser = new QueryParser(Version.LUCENE_47, "ingredient", m_analyzer);
-            Query query = parser.parse(criteria);
-            ScoreDoc[] hits = m_indexSearcher.search(query, null, 1000).scoreDocs;
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Search found " + hits.length + " hits");
-            }
-            List<Map<String, String>> results = new ArrayList<Map<String, String>>(hits.length);
-            for (ScoreDoc hit : hits) {
-                Document doc = m_indexSearcher.doc(hit.doc);
-                Map<String, String> map = new HashMap<String, String>();
-                map.put("file", doc.get("file"));
-                map.put("title", doc.get("title"));
-                results.add(map);
-            }
-            return results;
+            return new ResultIterator(searcher, parse(criteria));
         }
         catch (Exception e) {
+            release(searcher);
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Return the cache of result pages. The cache is cleared automatically
+     * whenever the index reader changes.
+     *
+     * @return the query cache
+     */
+    public QueryCache<SearchPage> getQueryCache() {
+        return m_cache;
+    }
+
+    /**
+     * Return the metrics of the searches made by this searcher.
+     *
+     * @return the search metrics
+     */
+    public SearchMetrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Record the metrics of subsequent searches in the given instance,
+     * for example to aggregate the metrics of several searchers.
+     *
+     * @param metrics the search metrics
+     */
+    public void setMetrics(SearchMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * Build the cache key for a page of results.
+     *
+     * @param criteria  the search criteria
+     * @param pageSize  maximum number of results
+     * @param after     last hit of the previous page, or null
+     *
+     * @return the cache key
+     */
+    protected String cacheKey(String criteria, int pageSize, ScoreDoc after) {
+        StringBuilder sb = new StringBuilder("search");
+        appendKey(sb, QueryCache.normalize(criteria), pageSize, after);
+        return sb.toString();
+    }
+
+    /**
+     * Append the criteria and position of a page to a cache key.
+     *
+     * @param sb        the cache key
+     * @param criteria  the normalized search criteria
+     * @param pageSize  maximum number of results
+     * @param after     last hit of the previous page, or null
+     */
+    private static void appendKey(StringBuilder sb, String criteria, int pageSize, ScoreDoc after) {
+        appendText(sb, criteria);
+        sb.append(':').append(pageSize).append(':');
+        if (after == null) {
+            sb.append('-');
+        }
+        else {
+            sb.append(after.doc).append('/').append(after.score);
+        }
+    }
+
+    /**
+     * Append text supplied by a client to a cache key, preceded by its
+     * length so that no text can be mistaken for the rest of a key.
+     * Every part of a key starts with a colon.
+     *
+     * @param sb    the cache key
+     * @param text  the text
+     */
+    private static void appendText(StringBuilder sb, String text) {
+        sb.append(':').append(text.length()).append(':').append(text);
+    }
+
+    /**
+     * Parse search criteria into a query against the recipe body.
+     *
+     * @param criteria the search criteria
+     *
+     * @return the parsed query
+     *
+     * @throws ParseException if the criteria cannot be parsed
+     */
+    protected Query parse(String criteria) throws ParseException {
+        QueryParser parser = new QueryParser(Version.LUCENE_47, DocumentSchema.FIELD_BODY, m_analyzer);
+        return parser.parse(criteria);
+    }
+
+    /**
+     * Execute a query and load a page of results.
+     *
+     * @param searcher  the index searcher
+     * @param query     the query
+     * @param pageSize  maximum number of results to return
+     * @param after     last hit of the previous page, or null
+     *
+     * @return a page of results
+     *
+     * @throws IOException if the index cannot be read
+     */
+    protected SearchPage search(IndexSearcher searcher, Query query, int pageSize, ScoreDoc after)
+            throws IOException {
+        return search(searcher, query, pageSize, after, null);
+    }
+
+    /**
+     * Execute a query and load a page of results, checking the given
+     * flag for cancellation.
+     *
+     * @param searcher   the index searcher
+     * @param query      the query
+     * @param pageSize   maximum number of results to return
+     * @param after      last hit of the previous page, or null
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return a page of results
+     *
+     * @throws IOException if the index cannot be read
+     * @throws SearchCancelledException if the search was cancelled
+     */
+    protected SearchPage search(IndexSearcher searcher, Query query, int pageSize, ScoreDoc after,
+            AtomicBoolean cancelled) throws IOException {
+        TopDocs topDocs = searchAfter(searcher, query, pageSize, after, cancelled);
+        ScoreDoc[] hits = topDocs.scoreDocs;
+        return new SearchPage(loadResults(searcher, topDocs, cancelled), topDocs.totalHits,
+                hits.length == 0 ? after : hits[hits.length - 1]);
+    }
+
+    /**
+     * Find the top hits of a query after the given hit, checking the given
+     * flag for cancellation.
+     *
+     * @param searcher   the index searcher
+     * @param query      the query
+     * @param pageSize   maximum number of hits to return
+     * @param after      last hit of the previous page, or null
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return the hits
+     *
+     * @throws IOException if the index cannot be read
+     * @throws SearchCancelledException if the search was cancelled
+     */
+    private TopDocs searchAfter(IndexSearcher searcher, Query query, int pageSize, ScoreDoc after,
+            AtomicBoolean cancelled) throws IOException {
+        if (searcher instanceof ShardedIndexSearcher) {
+            return ((ShardedIndexSearcher) searcher).searchAfter(after, query, pageSize, cancelled);
+        }
+        if (cancelled == null) {
+            return searcher.searchAfter(after, query, pageSize);
+        }
+        TopScoreDocCollector collector = hitCollector(searcher, pageSize, after, false);
+        searcher.search(query, new CancellableCollector(collector, cancelled));
+        return collector.topDocs();
+    }
+
+    /**
+     * Create a collector for the top hits of a query.
+     *
+     * @param searcher          the index searcher
+     * @param pageSize          maximum number of hits to collect
+     * @param after             last hit of the previous page, or null
+     * @param docsScoredInOrder true if hits are collected in document
+     *                          order
+     *
+     * @return the collector
+     */
+    private static TopScoreDocCollector hitCollector(IndexSearcher searcher, int pageSize, ScoreDoc after,
+            boolean docsScoredInOrder) {
+        // same limit that IndexSearcher.searchAfter applies
+        int limit = Math.max(1, searcher.getIndexReader().maxDoc());
+        return TopScoreDocCollector.create(Math.min(pageSize, limit), after, docsScoredInOrder);
+    }
+
+    /**
+     * Wrap a collector so that it stops the search once the given flag is
+     * set.
+     *
+     * @param collector  the collector
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return the wrapped collector, or the collector itself if the search
+     *         cannot be cancelled
+     */
+    private static Collector cancellable(Collector collector, AtomicBoolean cancelled) {
+        return cancelled == null ? collector : new CancellableCollector(collector, cancelled);
+    }
+
+    /**
+     * Load the results of a query.
+     *
+     * @param searcher   the index searcher
+     * @param topDocs    the hits to load
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return the results
+     *
+     * @throws IOException if the index cannot be read
+     * @throws SearchCancelledException if the search was cancelled
+     */
+    private List<SearchResult> loadResults(IndexSearcher searcher, TopDocs topDocs, AtomicBoolean cancelled)
+            throws IOException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Search found " + topDocs.totalHits + " hits");
+        }
+        long start = System.nanoTime();
+        List<SearchResult> results = new ArrayList<SearchResult>(topDocs.scoreDocs.length);
+        ResultFieldVisitor visitor = new ResultFieldVisitor();
+        for (ScoreDoc hit : topDocs.scoreDocs) {
+            checkCancelled(cancelled);
+            results.add(loadResult(searcher, visitor, hit));
+        }
+        m_metrics.executed(topDocs.totalHits, System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * Throw {@link SearchCancelledException} if the given flag is set.
+     *
+     * @param cancelled cancellation flag, or null
+     */
+    private static void checkCancelled(AtomicBoolean cancelled) {
+        if (cancelled != null && cancelled.get()) {
+            throw new SearchCancelledException();
+        }
+    }
+
+    /**
+     * Load the stored fields required for a search result.
+     *
+     * @param searcher the index searcher
+     * @param visitor  visitor used to read the stored fields
+     * @param hit      the hit to load
+     *
+     * @return the search result
+     *
+     * @throws IOException if the stored fields cannot be read
+     */
+    protected SearchResult loadResult(IndexSearcher searcher, ResultFieldVisitor visitor, ScoreDoc hit)
+            throws IOException {
+        visitor.reset();
+        searcher.doc(hit.doc, visitor);
+        return new SearchResult(visitor.m_file, visitor.m_title, hit.score);
+    }
+
+    /**
+     * StoredFieldVisitor that only reads the file and title fields and
+     * stops reading a document as soon as both have been seen. Instances
+     * are reused for all hits of a search.
+     */
+    protected static class ResultFieldVisitor extends StoredFieldVisitor {
+        /**
+         * File name of the current document.
+         */
+        private String m_file;
+
+        /**
+         * Title of the current document.
+         */
+        private String m_title;
+
+        /**
+         * Clear the values read for the previous document.
+         */
+        public void reset() {
+            m_file = null;
+            m_title = null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (m_file != null && m_title != null) {
+                return Status.STOP;
+            }
+            if (DocumentSchema.FIELD_FILE.equals(fieldInfo.name)
+                    || DocumentSchema.FIELD_TITLE.equals(fieldInfo.name)) {
+                return Status.YES;
+            }
+            return Status.NO;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            if (DocumentSchema.FIELD_FILE.equals(fieldInfo.name)) {
+                m_file = value;
+            }
+            else {
+                m_title = value;
+            }
+        }
+    }
+
+    /**
+     * Searcher factory that numbers each new index reader and creates its
+     * facet state before the reader is used for searches, so that the
+     * first faceted search after a refresh does not pay for it. The searchers
+     * of a sharded index search the shards in parallel.
+     */
+    private class FacetWarmer extends SearcherFactory {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+            generation(reader);
+            facetState(reader);
+            return m_shardExecutor == null
+                    ? super.newSearcher(reader) : new ShardedIndexSearcher(reader, m_shardExecutor);
+        }
+    }
+
+    /**
+     * Collector that delegates to another collector and aborts the search
+     * once a cancellation flag is set. The flag is checked at the start of
+     * each segment and every {@link #CANCEL_CHECK_INTERVAL} hits, which
+     * keeps the cost of checking negligible.
+     */
+    static class CancellableCollector extends Collector {
+        /**
+         * Collector receiving the hits.
+         */
+        private final Collector m_delegate;
+
+        /**
+         * Cancellation flag.
+         */
+        private final AtomicBoolean m_cancelled;
+
+        /**
+         * Number of hits collected so far.
+         */
+        private int m_count;
+
+        /**
+         * Construct a CancellableCollector.
+         *
+         * @param delegate   collector receiving the hits
+         * @param cancelled  cancellation flag
+         */
+        CancellableCollector(Collector delegate, AtomicBoolean cancelled) {
+            m_delegate = delegate;
+            m_cancelled = cancelled;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setScorer(Scorer scorer) throws IOException {
+            m_delegate.setScorer(scorer);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void collect(int doc) throws IOException {
+            if ((++m_count & (CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                checkCancelled(m_cancelled);
+            }
+            m_delegate.collect(doc);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setNextReader(AtomicReaderContext context) throws IOException {
+            checkCancelled(m_cancelled);
+            m_delegate.setNextReader(context);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+            return m_delegate.acceptsDocsOutOfOrder();
+        }
+    }
+
+    /**
+     * Iterator that fetches search results a page at a time using
+     * {@link IndexSearcher#searchAfter}. The iterator holds on to the
+     * index searcher it was created with until it is exhausted or closed.
+     */
+    public class ResultIterator implements Iterator<SearchResult>, Closeable {
+        /**
+         * Searcher used for all pages.
+         */
+        private final IndexSearcher m_searcher;
+
+        /**
+         * The query being iterated.
+         */
+        private final Query m_query;
+
+        /**
+         * Results of the current page.
+         */
+        private Iterator<SearchResult> m_page;
+
+        /**
+         * Cursor of the current page.
+         */
+        private ScoreDoc m_cursor;
+
+        /**
+         * True once the last page has been fetched.
+         */
+        private boolean m_lastPage;
+
+        /**
+         * True once the searcher has been released.
+         */
+        private boolean m_closed;
+
+        /**
+         * Construct a ResultIterator.
+         *
+         * @param searcher  the index searcher
+         * @param query     the query
+         */
+        private ResultIterator(IndexSearcher searcher, Query query) {
+            m_searcher = searcher;
+            m_query = query;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext() {
+            while ((m_page == null || !m_page.hasNext()) && !m_lastPage) {
+                try {
+                    SearchPage page = search(m_searcher, m_query, ITERATOR_PAGE_SIZE, m_cursor);
+                    m_page = page.getResults().iterator();
+                    m_cursor = page.getCursor();
+                    m_lastPage = page.getResults().size() < ITERATOR_PAGE_SIZE;
+                }
+                catch (IOException e) {
+                    close();
+                    throw new RuntimeException(e);
+                }
+            }
+            if (m_page != null && m_page.hasNext()) {
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        /**
+         * Release the index searcher used by this iterator. No further
+         * pages are fetched after this method is called.
+         */
+        @Override
+        public void close() {
+            if (!m_closed) {
+                m_closed = true;
+                m_lastPage = true;
+                release(m_searcher);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public SearchResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return m_page.next();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -0,0 +1,175 @@
+package org.blackbeanbag.recipe;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Settings are read from the file {@code recipe-index.properties} in the
+ * settings directory (typically {@code $HOME/.recipe-index}), which also
+ * holds the index. They are shared by the desktop application
+ * ({@link SwingMain}) and the headless server ({@link SearchServer}).
+ * Missing or invalid values are logged and replaced by defaults.
+ */
+public class Settings {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(Settings.class);
+
+    /**
+     * Name of the settings file within the settings directory.
+     */
+    public static final String FILE_NAME = "recipe-index.properties";
+
+    /**
+     * The settings directory.
+     */
+    private final String m_dir;
+
+    /**
+     * Properties read from the settings file.
+     */
+    private final Properties m_properties;
+
+    /**
+     * Read the settings file of a settings directory. Problems reading
+     * the file are logged.
+     *
+     * @param dir the settings directory
+     */
+    public Settings(String dir) {
+        m_dir = dir;
+        m_properties = new Properties();
+        String fileName = getFileName();
+        try (FileInputStream in = new FileInputStream(fileName)) {
+            m_properties.load(in);
+        }
+        catch (IOException e) {
+            LOG.warn("Could not read settings file " + fileName, e);
+        }
+    }
+
+    /**
+     * Ensure that the default settings directory
+     * {@code ($HOME/.recipe-index)} exists.
+     *
+     * @return the settings directory
+     */
+    public static String ensureDefaultDir() {
+        String settings = System.getProperty("user.home") + File.separator + ".recipe-index";
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Settings directory: " + settings);
+        }
+
+        File settingsDir = new File(settings);
+        if (settingsDir.exists()) {
+            if (!settingsDir.isDirectory()) {
+                throw new IllegalStateException("File " + settings + " must be a directory");
+            }
+        }
+        else {
+            boolean created = settingsDir.mkdir();
+            assert created : String.format("Settings directory %s could not be created", settings);
+        }
+        return settings;
+    }
+
+    /**
+     * Return the settings directory.
+     *
+     * @return the settings directory
+     */
+    public String getDir() {
+        return m_dir;
+    }
+
+    /**
+     * Return the settings file.
+     *
+     * @return the path of the settings file
+     */
+    public String getFileName() {
+        return m_dir + File.separator + FILE_NAME;
+    }
+
+    /**
+     * Return the index directory, {@code index} within the settings
+     * directory.
+     *
+     * @return the index directory
+     */
+    public String getIndexDir() {
+        return m_dir + File.separator + "index";
+    }
+
+    /**
+     * Return a setting.
+     *
+     * @param key the property name
+     *
+     * @return the value, or null if it is not set
+     */
+    public String getProperty(String key) {
+        String value = m_properties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    /**
+     * Return a numeric setting.
+     *
+     * @param key           the property name
+     * @param defaultValue  value returned if the setting is missing or
+     *                      not a number
+     *
+     * @return the value
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+            LOG.warn("Invalid value '" + value + "' for " + key + "; using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Return the storage used for the index. The property
+     * {@code index.storage} selects the {@link IndexStorage.Type}
+     * ({@code default}, {@code mmap}, {@code nio} or {@code ram}); if
+     * {@code index.warm} is {@code true}, the index files are read when
+     * the index is opened.
+     *
+     * @return the index storage
+     */
+    public IndexStorage getIndexStorage() {
+        try {
+            IndexStorage storage = IndexStorage.valueOf(m_properties.getProperty("index.storage"),
+                    Boolean.parseBoolean(m_properties.getProperty("index.warm")));
+            LOG.info("Index storage: " + storage);
+            return storage;
+        }
+        catch (IllegalArgumentException e) {
+            LOG.warn("Unknown index storage '" + m_properties.getProperty("index.storage") + "'; using default", e);
+            return IndexStorage.DEFAULT;
+        }
+    }
+
+    /**
+     * Return the interval at which metrics are written to the log, given
+     * by the property {@code metrics.report.interval} in seconds.
+     *
+     * @return the interval in seconds, or zero if metrics are not logged
+     */
+    public long getMetricsReportInterval() {
+        return Math.max(getLong("metrics.report.interval", 0), 0);
+    }
+}
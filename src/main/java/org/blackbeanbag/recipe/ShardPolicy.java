@@ -0,0 +1,124 @@
+package org.blackbeanbag.recipe;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * ShardPolicy decides which shard of a {@link ShardedIndexer} a document
+ * belongs to, based on its path relative to the document directory.
+ * Assignments only depend on the path and the number of shards, so they
+ * are the same on every run.
+ */
+public enum ShardPolicy {
+    /**
+     * Spread documents evenly by a hash of their path, with its names
+     * joined by {@code /} so that a document is assigned to the same
+     * shard on every platform. Every shard walks the whole document tree.
+     */
+    HASH {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int shard(Path relative, int shardCount) {
+            StringBuilder key = new StringBuilder();
+            for (Path name : relative) {
+                if (key.length() > 0) {
+                    key.append('/');
+                }
+                key.append(name.toString());
+            }
+            return index(key.toString(), shardCount);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean acceptDirectory(Path relative, int shard, int shardCount) {
+            return true;
+        }
+    },
+
+    /**
+     * Keep the documents of each top level folder (the recipe category)
+     * together, so that a shard only walks its own folders. Shards are
+     * only balanced if there are many more folders than shards. Files
+     * directly in the document directory are spread by name.
+     */
+    FOLDER {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int shard(Path relative, int shardCount) {
+            return index(relative.getName(0).toString(), shardCount);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean acceptDirectory(Path relative, int shard, int shardCount) {
+            // only top level folders decide; below them, all is accepted
+            return relative.getNameCount() > 1 || shard(relative, shardCount) == shard;
+        }
+    };
+
+    /**
+     * Return the shard of a document.
+     *
+     * @param relative    path of the document relative to the document
+     *                    directory
+     * @param shardCount  number of shards
+     *
+     * @return the shard, from zero to {@code shardCount - 1}
+     */
+    public abstract int shard(Path relative, int shardCount);
+
+    /**
+     * Determine if a directory may contain documents of a shard.
+     *
+     * @param relative    path of the directory relative to the document
+     *                    directory
+     * @param shard       the shard
+     * @param shardCount  number of shards
+     *
+     * @return false if no document below the directory belongs to the
+     *         shard
+     */
+    public abstract boolean acceptDirectory(Path relative, int shard, int shardCount);
+
+    /**
+     * Return the policy with the given name. Case and surrounding
+     * whitespace are ignored.
+     *
+     * @param name  the policy name, or null
+     *
+     * @return the policy, or {@link #HASH} if no name is given
+     *
+     * @throws IllegalArgumentException if there is no policy with the
+     *         given name
+     */
+    public static ShardPolicy parse(String name) {
+        return name == null || name.trim().isEmpty()
+                ? HASH
+                : valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Map a key to a shard.
+     *
+     * @param key         the key
+     * @param shardCount  number of shards
+     *
+     * @return the shard
+     */
+    private static int index(String key, int shardCount) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % shardCount;
+    }
+}
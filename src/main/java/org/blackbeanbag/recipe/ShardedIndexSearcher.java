@@ -0,0 +1,192 @@
+package org.blackbeanbag.recipe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+
+/**
+ * ShardedIndexSearcher searches an index made of several shards, such as
+ * a {@link org.apache.lucene.index.MultiReader} over the shards of a
+ * {@link ShardedIndexer}, one shard per thread. The query is weighted
+ * once against the statistics of all shards, so scores are the same as
+ * if all documents were in one index; each shard then collects its own
+ * top hits and the pages are merged.
+ * <p>
+ * Searches through the {@link IndexSearcher} methods that return
+ * {@link TopDocs} are run in parallel by Lucene, one slice per shard.
+ * {@link #searchAfter(ScoreDoc, Query, int, AtomicBoolean)} does the same
+ * for searches that can be cancelled. Searches with a caller supplied
+ * collector visit the shards one after the other.
+ */
+public class ShardedIndexSearcher extends IndexSearcher {
+    /**
+     * Executor searching the shards.
+     */
+    private final ExecutorService m_executor;
+
+    /**
+     * Segments of each shard.
+     */
+    private final List<List<AtomicReaderContext>> m_shards;
+
+    /**
+     * Construct a ShardedIndexSearcher. Each top level sub-reader of the
+     * reader is a shard.
+     *
+     * @param reader    the reader of all shards
+     * @param executor  executor searching the shards
+     */
+    public ShardedIndexSearcher(IndexReader reader, ExecutorService executor) {
+        super(reader, executor);
+        m_executor = executor;
+        m_shards = shards(leafContexts);
+    }
+
+    /**
+     * Return the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return m_shards.size();
+    }
+
+    /**
+     * Find the top hits of a query after a given hit, searching all shards
+     * in parallel and checking the given flag for cancellation. The
+     * calling thread searches one of the shards itself.
+     *
+     * @param after      last hit of the previous page, or null
+     * @param query      the query
+     * @param n          maximum number of hits
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return the top hits of all shards
+     *
+     * @throws IOException if the index cannot be read
+     * @throws SearchCancelledException if the search was cancelled
+     */
+    public TopDocs searchAfter(final ScoreDoc after, Query query, int n, final AtomicBoolean cancelled)
+            throws IOException {
+        final Weight weight = createNormalizedWeight(query);
+        final int limit = Math.max(1, Math.min(n, getIndexReader().maxDoc()));
+        if (m_shards.size() < 2) {
+            return searchShard(leafContexts, weight, after, limit, cancelled);
+        }
+
+        List<Future<TopDocs>> futures = new ArrayList<Future<TopDocs>>(m_shards.size() - 1);
+        TopDocs[] shardHits = new TopDocs[m_shards.size()];
+        try {
+            for (final List<AtomicReaderContext> shard : m_shards.subList(1, m_shards.size())) {
+                futures.add(m_executor.submit(new Callable<TopDocs>() {
+                    @Override
+                    public TopDocs call() throws IOException {
+                        return searchShard(shard, weight, after, limit, cancelled);
+                    }
+                }));
+            }
+            shardHits[0] = searchShard(m_shards.get(0), weight, after, limit, cancelled);
+            for (int i = 0; i < futures.size(); i++) {
+                shardHits[i + 1] = futures.get(i).get();
+            }
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SearchCancelledException();
+        }
+        finally {
+            for (Future<TopDocs> future : futures) {
+                future.cancel(false);
+            }
+        }
+
+        // hits are ordered by score, then by shard and document; since the
+        // documents of a shard follow those of the shards before it, this
+        // is the same order as for a single index
+        return TopDocs.merge(null, limit, shardHits);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All segments of a shard form one slice.
+     */
+    @Override
+    protected LeafSlice[] slices(List<AtomicReaderContext> leaves) {
+        List<List<AtomicReaderContext>> shards = shards(leaves);
+        LeafSlice[] slices = new LeafSlice[shards.size()];
+        for (int i = 0; i < slices.length; i++) {
+            List<AtomicReaderContext> shard = shards.get(i);
+            slices[i] = new LeafSlice(shard.toArray(new AtomicReaderContext[shard.size()]));
+        }
+        return slices;
+    }
+
+    /**
+     * Collect the top hits of one shard.
+     *
+     * @param leaves     segments of the shard
+     * @param weight     the weighted query
+     * @param after      last hit of the previous page, or null
+     * @param n          maximum number of hits
+     * @param cancelled  flag that is set to cancel the search, or null
+     *
+     * @return the top hits of the shard
+     *
+     * @throws IOException if the index cannot be read
+     */
+    private TopDocs searchShard(List<AtomicReaderContext> leaves, Weight weight, ScoreDoc after, int n,
+            AtomicBoolean cancelled) throws IOException {
+        TopScoreDocCollector collector = TopScoreDocCollector.create(n, after, !weight.scoresDocsOutOfOrder());
+        search(leaves, weight, cancelled == null ? collector : new Searcher.CancellableCollector(collector, cancelled));
+        return collector.topDocs();
+    }
+
+    /**
+     * Group segments by shard. The parent of a segment is the reader of
+     * its shard, unless the reader has no shards, in which case each
+     * segment is a shard of its own.
+     *
+     * @param leaves the segments, in document order
+     *
+     * @return the segments of each shard, in document order
+     */
+    private static List<List<AtomicReaderContext>> shards(List<AtomicReaderContext> leaves) {
+        List<List<AtomicReaderContext>> shards = new ArrayList<List<AtomicReaderContext>>();
+        IndexReaderContext previous = null;
+        for (AtomicReaderContext leaf : leaves) {
+            IndexReaderContext shard = leaf.parent == null || leaf.parent.isTopLevel ? leaf : leaf.parent;
+            if (shard != previous) {
+                shards.add(new ArrayList<AtomicReaderContext>());
+                previous = shard;
+            }
+            shards.get(shards.size() - 1).add(leaf);
+        }
+        return shards;
+    }
+}
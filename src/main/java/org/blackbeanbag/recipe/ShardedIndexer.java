@@ -0,0 +1,380 @@
+package org.blackbeanbag.recipe;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * ShardedIndexer partitions the documents of a directory across several
+ * indexes (shards), each maintained by its own {@link Indexer} in a
+ * {@code shard-n} directory below the index directory. Which shard a
+ * document belongs to is decided by a {@link ShardPolicy}; each shard's
+ * {@link FileDiscovery} only reports the files of that shard.
+ * <p>
+ * Shards are created and updated concurrently, each with its own writer,
+ * manifest, quarantine and share of the scanning threads, and a single
+ * shard can be rebuilt without touching the others
+ * ({@link #rebuildShard(int)}). Use
+ * {@link Searcher#Searcher(ShardedIndexer)} or
+ * {@link Searcher#Searcher(List)} to search all shards at once.
+ * <p>
+ * Since the shard of a document only depends on its path, changing the
+ * number of shards or the policy moves documents on the next update:
+ * each shard removes the documents it no longer owns and indexes the ones
+ * it gained. Shard directories beyond the new number of shards are left
+ * on disk and no longer searched.
+ */
+public class ShardedIndexer {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(ShardedIndexer.class);
+
+    /**
+     * Indexers of the shards.
+     */
+    private final List<Indexer> m_shards;
+
+    /**
+     * Policy assigning documents to shards.
+     */
+    private final ShardPolicy m_policy;
+
+    /**
+     * Construct a ShardedIndexer for Word and text files that assigns
+     * documents to shards by a hash of their path.
+     *
+     * @param docDir      directory containing documents to index
+     * @param indexDir    directory containing the shard directories
+     * @param shardCount  number of shards
+     */
+    public ShardedIndexer(String docDir, String indexDir, int shardCount) {
+        this(docDir, indexDir, shardCount, ShardPolicy.HASH, IndexStorage.DEFAULT);
+    }
+
+    /**
+     * Construct a ShardedIndexer for Word and text files. The scanning
+     * threads, and the RAM buffer and merge threads of full builds, are
+     * divided among the shards, since all shards are typically updated at
+     * the same time.
+     *
+     * @param docDir      directory containing documents to index
+     * @param indexDir    directory containing the shard directories
+     * @param shardCount  number of shards
+     * @param policy      policy assigning documents to shards
+     * @param storage     storage of the index files
+     */
+    public ShardedIndexer(String docDir, String indexDir, int shardCount, ShardPolicy policy,
+            IndexStorage storage) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        m_policy = policy;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Indexer> shards = new ArrayList<Indexer>(shardCount);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                Indexer shard = new Indexer(docDir, getShardDir(indexDir, i).getPath(), storage);
+                shards.add(shard);
+                shard.getFileDiscovery().filter(new ShardFilter(i, shardCount));
+                shard.setThreadCount(Math.max(1, (threads + shardCount - 1) / shardCount));
+                shard.setBulkProfile(IndexProfile.BULK_LOAD.divide(shardCount));
+            }
+        }
+        catch (RuntimeException e) {
+            for (Indexer shard : shards) {
+                shard.rollback();
+            }
+            throw e;
+        }
+        m_shards = Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Return the directory of a shard.
+     *
+     * @param indexDir  directory containing the shard directories
+     * @param shard     the shard
+     *
+     * @return the shard directory
+     */
+    public static File getShardDir(String indexDir, int shard) {
+        return new File(indexDir, "shard-" + shard);
+    }
+
+    /**
+     * Return the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return m_shards.size();
+    }
+
+    /**
+     * Return the indexer of a shard.
+     *
+     * @param shard the shard
+     *
+     * @return the indexer
+     */
+    public Indexer getShard(int shard) {
+        return m_shards.get(shard);
+    }
+
+    /**
+     * Return the indexers of all shards.
+     *
+     * @return an unmodifiable list of indexers, in shard order
+     */
+    public List<Indexer> getShards() {
+        return m_shards;
+    }
+
+    /**
+     * Return the index writers of all shards.
+     *
+     * @return the writers, in shard order
+     */
+    public List<IndexWriter> getWriters() {
+        List<IndexWriter> writers = new ArrayList<IndexWriter>(m_shards.size());
+        for (Indexer shard : m_shards) {
+            writers.add(shard.getWriter());
+        }
+        return writers;
+    }
+
+    /**
+     * Return the policy assigning documents to shards.
+     *
+     * @return the policy
+     */
+    public ShardPolicy getPolicy() {
+        return m_policy;
+    }
+
+    /**
+     * Return the shard a file belongs to.
+     *
+     * @param file absolute path of a file in the document directory
+     *
+     * @return the shard
+     */
+    public int getShardOf(Path file) {
+        Path root = m_shards.get(0).getFileDiscovery().getRoot();
+        return m_policy.shard(root.relativize(file.toAbsolutePath().normalize()), m_shards.size());
+    }
+
+    /**
+     * Create all shards concurrently and close them, as
+     * {@link Indexer#createIndex()}.
+     */
+    public void createIndex() {
+        forEachShard(new ShardTask() {
+            @Override
+            public void run(Indexer shard) {
+                shard.createIndex();
+            }
+        });
+    }
+
+    /**
+     * Update all shards concurrently and close them, as
+     * {@link Indexer#updateIndex()}.
+     */
+    public void updateIndex() {
+        forEachShard(new ShardTask() {
+            @Override
+            public void run(Indexer shard) {
+                shard.updateIndex();
+            }
+        });
+    }
+
+    /**
+     * Update all shards concurrently and keep them open, as
+     * {@link Indexer#synchronize()}.
+     */
+    public void synchronize() {
+        forEachShard(new ShardTask() {
+            @Override
+            public void run(Indexer shard) {
+                shard.synchronize();
+            }
+        });
+    }
+
+    /**
+     * Rebuild one shard from scratch and keep it open, as
+     * {@link Indexer#rebuild()}. The other shards are not touched and can
+     * be searched meanwhile.
+     *
+     * @param shard the shard to rebuild
+     */
+    public void rebuildShard(int shard) {
+        LOG.info("Rebuilding shard " + shard);
+        m_shards.get(shard).rebuild();
+    }
+
+    /**
+     * Commit all shards.
+     */
+    public void commit() {
+        for (Indexer shard : m_shards) {
+            shard.commit();
+        }
+    }
+
+    /**
+     * Close all shards.
+     */
+    public void close() {
+        RuntimeException failure = null;
+        for (Indexer shard : m_shards) {
+            try {
+                shard.close();
+            }
+            catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Close all shards, discarding all changes made since the last
+     * commit.
+     */
+    public void rollback() {
+        RuntimeException failure = null;
+        for (Indexer shard : m_shards) {
+            try {
+                shard.rollback();
+            }
+            catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Run a task for every shard, each on its own thread, and wait until
+     * all have completed. A shard that fails does not stop the others.
+     *
+     * @param task the task
+     *
+     * @throws RuntimeException the failure of the first shard that failed
+     */
+    private void forEachShard(final ShardTask task) {
+        if (m_shards.size() == 1) {
+            task.run(m_shards.get(0));
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(m_shards.size(), new NamedThreadFactory("recipe-shard-indexer"));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(m_shards.size());
+            for (final Indexer shard : m_shards) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        task.run(shard);
+                    }
+                }));
+            }
+
+            RuntimeException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    LOG.error("Shard " + i + " failed", e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException
+                                ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Operation applied to every shard.
+     */
+    private interface ShardTask {
+        /**
+         * Apply the operation to a shard.
+         *
+         * @param shard the shard's indexer
+         */
+        void run(Indexer shard);
+    }
+
+    /**
+     * Filter reporting only the files of one shard.
+     */
+    private class ShardFilter implements FileDiscovery.PathFilter {
+        /**
+         * The shard.
+         */
+        private final int m_shard;
+
+        /**
+         * Number of shards.
+         */
+        private final int m_shardCount;
+
+        /**
+         * Construct a ShardFilter.
+         *
+         * @param shard       the shard
+         * @param shardCount  number of shards
+         */
+        ShardFilter(int shard, int shardCount) {
+            m_shard = shard;
+            m_shardCount = shardCount;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean acceptDirectory(Path relative) {
+            return m_policy.acceptDirectory(relative, m_shard, m_shardCount);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean acceptFile(Path relative) {
+            return m_policy.shard(relative, m_shardCount) == m_shard;
+        }
+    }
+}
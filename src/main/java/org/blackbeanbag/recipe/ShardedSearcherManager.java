@@ -0,0 +1,170 @@
+package org.blackbeanbag.recipe;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+
+/**
+ * ShardedSearcherManager is the counterpart of {@link SearcherManager}
+ * for an index made of several shards: it manages searchers over a
+ * {@link MultiReader} of one {@link DirectoryReader} per shard. On
+ * refresh, only the shards that have changed are reopened; the readers of
+ * the other shards are shared with the previous searcher. Shard readers
+ * opened on an index writer see its uncommitted changes, as with
+ * {@link SearcherManager#SearcherManager(org.apache.lucene.index.IndexWriter,
+ * boolean, SearcherFactory)}.
+ */
+public class ShardedSearcherManager extends ReferenceManager<IndexSearcher> {
+    /**
+     * Factory creating the searchers.
+     */
+    private final SearcherFactory m_factory;
+
+    /**
+     * Construct a ShardedSearcherManager. The manager takes ownership of
+     * the shard readers, which are closed when no searcher uses them
+     * anymore.
+     *
+     * @param shards   a reader for each shard, in shard order
+     * @param factory  factory creating the searchers, or null for plain
+     *                 index searchers
+     *
+     * @throws IOException if the searcher cannot be created
+     */
+    public ShardedSearcherManager(List<DirectoryReader> shards, SearcherFactory factory) throws IOException {
+        m_factory = factory == null ? new SearcherFactory() : factory;
+        DirectoryReader[] readers = shards.toArray(new DirectoryReader[shards.size()]);
+        current = newSearcher(readers, readers);
+    }
+
+    /**
+     * Determine if all shards of the current searcher are current, i.e.
+     * if no shard has changed since its reader was opened.
+     *
+     * @return true if the searcher is current
+     *
+     * @throws IOException if an index cannot be read
+     */
+    public boolean isSearcherCurrent() throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            for (DirectoryReader shard : shards(searcher)) {
+                if (!shard.isCurrent()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void decRef(IndexSearcher searcher) throws IOException {
+        searcher.getIndexReader().decRef();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher searcher) throws IOException {
+        DirectoryReader[] shards = shards(searcher);
+        DirectoryReader[] opened = new DirectoryReader[shards.length];
+        boolean changed = false;
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                opened[i] = DirectoryReader.openIfChanged(shards[i]);
+                if (opened[i] != null) {
+                    shards[i] = opened[i];
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                return null;
+            }
+            DirectoryReader[] newReaders = opened;
+            opened = null;
+            return newSearcher(shards, newReaders);
+        }
+        finally {
+            if (opened != null) {
+                for (DirectoryReader reader : opened) {
+                    if (reader != null) {
+                        reader.decRef();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean tryIncRef(IndexSearcher searcher) {
+        return searcher.getIndexReader().tryIncRef();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getRefCount(IndexSearcher searcher) {
+        return searcher.getIndexReader().getRefCount();
+    }
+
+    /**
+     * Create a searcher over the shards. The new reader holds its own
+     * reference to each shard; the references to newly opened shards
+     * are handed over to it.
+     *
+     * @param shards  reader of each shard
+     * @param opened  readers that were newly opened, null elsewhere; these
+     *                are released whether or not the searcher is created
+     *
+     * @return the searcher
+     *
+     * @throws IOException if the searcher cannot be created
+     */
+    private IndexSearcher newSearcher(DirectoryReader[] shards, DirectoryReader[] opened) throws IOException {
+        try {
+            return SearcherManager.getSearcher(m_factory, new MultiReader(shards, false));
+        }
+        finally {
+            for (DirectoryReader reader : opened) {
+                if (reader != null) {
+                    reader.decRef();
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the shard readers of a searcher.
+     *
+     * @param searcher a searcher created by this manager
+     *
+     * @return the reader of each shard
+     */
+    private static DirectoryReader[] shards(IndexSearcher searcher) {
+        List<IndexReaderContext> children = searcher.getTopReaderContext().children();
+        DirectoryReader[] shards = new DirectoryReader[children.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = (DirectoryReader) children.get(i).reader();
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,556 @@
+package org.blackbeanbag.recipe;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.fst.WFSTCompletionLookup;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+/**
+ * Suggester provides prefix completion for the search field. Suggestions
+ * are recipe titles, ingredients and the words of the recipe body, held
+ * in a weighted finite state transducer ({@link WFSTCompletionLookup}).
+ * Each suggestion is weighted by the number of documents containing it,
+ * so the most common completions are returned first.
+ * <p>
+ * Lookups only walk the transducer, so they take microseconds and the
+ * whole vocabulary typically fits in a few bytes per term. A Suggester
+ * created for a {@link Searcher} is rebuilt in the background whenever
+ * the searcher's reader is refreshed; lookups made during a rebuild use
+ * the previous suggestions.
+ * <p>
+ * The body is indexed stemmed, and stems such as {@code vinaigrett} are
+ * not words. Each stem is therefore suggested in the most common form in
+ * which it appears in the unstemmed text of the index, the titles and the
+ * ingredients found by the {@link IngredientParser}; stems that never
+ * appear there are not suggested. Any suggestion can be used as a query,
+ * since queries are stemmed in the same way. All suggestions are
+ * lowercase. Document frequencies include deleted documents until
+ * segments merge.
+ */
+public class Suggester implements ReferenceManager.RefreshListener {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(Suggester.class);
+
+    /**
+     * Separators of the words of titles and ingredients.
+     */
+    private static final Pattern NON_LETTERS = Pattern.compile("[^\\p{L}]+");
+
+    /**
+     * Searcher the suggestions are built from; null if built explicitly.
+     */
+    private final Searcher m_searcher;
+
+    /**
+     * Thread rebuilding the suggestions after a refresh; null if built
+     * explicitly.
+     */
+    private final ExecutorService m_builder;
+
+    /**
+     * True while a rebuild is waiting to start.
+     */
+    private final AtomicBoolean m_rebuildPending = new AtomicBoolean();
+
+    /**
+     * Current lookup; null until the first build.
+     */
+    private volatile Lookup m_lookup;
+
+    /**
+     * Construct an empty Suggester. Call {@link #build(IndexReader)} to
+     * load suggestions.
+     */
+    public Suggester() {
+        m_searcher = null;
+        m_builder = null;
+    }
+
+    /**
+     * Construct a Suggester for the index of a searcher. Suggestions are
+     * built immediately, and rebuilt on a background thread each time the
+     * searcher is refreshed.
+     *
+     * @param searcher the searcher
+     */
+    public Suggester(Searcher searcher) {
+        m_searcher = searcher;
+        m_builder = Executors.newSingleThreadExecutor(new NamedThreadFactory("recipe-suggester"));
+        rebuild();
+        searcher.addRefreshListener(this);
+    }
+
+    /**
+     * Build suggestions from an index reader, replacing the current ones.
+     *
+     * @param reader the index reader
+     */
+    public void build(IndexReader reader) {
+        long start = System.currentTimeMillis();
+        Analyzer analyzer = new EnglishAnalyzer(Version.LUCENE_47);
+        try {
+            Map<String, Long> titles = titles(MultiFields.getTerms(reader, DocumentSchema.FIELD_TITLE));
+            Map<String, Long> ingredients = ingredients(reader);
+            SurfaceForms forms = new SurfaceForms(analyzer);
+            forms.addAll(titles);
+            forms.addAll(ingredients);
+
+            Map<String, Long> suggestions = new HashMap<String, Long>();
+            Terms body = MultiFields.getTerms(reader, DocumentSchema.FIELD_BODY);
+            if (body != null) {
+                TermsEnum terms = body.iterator(null);
+                BytesRef term;
+                while ((term = terms.next()) != null) {
+                    String word = forms.get(term.utf8ToString());
+                    if (word != null) {
+                        put(suggestions, word, terms.docFreq());
+                    }
+                }
+            }
+            for (Map.Entry<String, Long> entry : titles.entrySet()) {
+                put(suggestions, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Long> entry : ingredients.entrySet()) {
+                put(suggestions, entry.getKey(), entry.getValue());
+            }
+
+            WFSTCompletionLookup lookup = new WFSTCompletionLookup(false);
+            lookup.build(new SuggestionIterator(suggestions));
+            m_lookup = lookup;
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Built " + lookup.getCount() + " suggestions (" + lookup.sizeInBytes()
+                        + " bytes) in " + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            analyzer.close();
+        }
+    }
+
+    /**
+     * Return the most frequent completions of a prefix.
+     *
+     * @param prefix  the prefix to complete; case is ignored
+     * @param n       maximum number of suggestions
+     *
+     * @return up to n suggestions, most frequent first
+     */
+    public List<String> suggest(String prefix, int n) {
+        Lookup lookup = m_lookup;
+        if (lookup == null || lookup.getCount() == 0 || prefix.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Lookup.LookupResult> results = lookup.lookup(prefix.toLowerCase(Locale.ROOT), false, n);
+        List<String> suggestions = new ArrayList<String>(results.size());
+        for (Lookup.LookupResult result : results) {
+            suggestions.add(result.key.toString());
+        }
+        return suggestions;
+    }
+
+    /**
+     * Return the number of distinct suggestions.
+     *
+     * @return the number of suggestions
+     */
+    public long getCount() {
+        Lookup lookup = m_lookup;
+        return lookup == null ? 0 : lookup.getCount();
+    }
+
+    /**
+     * Return the heap used by the suggestions.
+     *
+     * @return the size in bytes
+     */
+    public long sizeInBytes() {
+        Lookup lookup = m_lookup;
+        return lookup == null ? 0 : lookup.sizeInBytes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeRefresh() {
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The suggestions are rebuilt on a background thread, so that the
+     * thread refreshing the searcher is not held up. Refreshes made while
+     * a rebuild is waiting to start are covered by that rebuild.
+     */
+    @Override
+    public void afterRefresh(boolean didRefresh) {
+        if (didRefresh && m_rebuildPending.compareAndSet(false, true)) {
+            m_builder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    m_rebuildPending.set(false);
+                    try {
+                        rebuild();
+                    }
+                    catch (RuntimeException e) {
+                        LOG.warn("Could not rebuild suggestions", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop rebuilding the suggestions when the searcher is refreshed. The
+     * current suggestions remain available.
+     */
+    public void close() {
+        if (m_builder != null) {
+            m_searcher.removeRefreshListener(this);
+            m_builder.shutdownNow();
+        }
+    }
+
+    /**
+     * Rebuild the suggestions from the searcher's current reader.
+     */
+    private void rebuild() {
+        IndexSearcher searcher = m_searcher.acquire();
+        try {
+            build(searcher.getIndexReader());
+        }
+        finally {
+            m_searcher.release(searcher);
+        }
+    }
+
+    /**
+     * Return the lowercased titles, weighted by document frequency.
+     * Titles without letters are skipped.
+     *
+     * @param terms terms of the title field, or null
+     *
+     * @return document frequency by title
+     *
+     * @throws IOException if the terms cannot be read
+     */
+    private static Map<String, Long> titles(Terms terms) throws IOException {
+        Map<String, Long> titles = new HashMap<String, Long>();
+        if (terms != null) {
+            TermsEnum titlesEnum = terms.iterator(null);
+            BytesRef term;
+            while ((term = titlesEnum.next()) != null) {
+                String title = term.utf8ToString().trim().toLowerCase(Locale.ROOT);
+                if (hasLetter(title)) {
+                    put(titles, title, titlesEnum.docFreq());
+                }
+            }
+        }
+        return titles;
+    }
+
+    /**
+     * Return the ingredient facet values, weighted by the number of
+     * documents listing them.
+     *
+     * @param reader the index reader
+     *
+     * @return document count by ingredient
+     *
+     * @throws IOException if the index cannot be read
+     */
+    private static Map<String, Long> ingredients(IndexReader reader) throws IOException {
+        Map<String, Long> ingredients = new HashMap<String, Long>();
+        FieldInfo fieldInfo = MultiFields.getMergedFieldInfos(reader).fieldInfo(FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+        if (fieldInfo == null || !fieldInfo.hasDocValues()) {
+            return ingredients;
+        }
+        SortedSetDocValuesReaderState state = new DefaultSortedSetDocValuesReaderState(reader);
+        SortedSetDocValuesReaderState.OrdRange range = state.getOrdRange(DocumentSchema.FACET_INGREDIENT);
+        if (range == null) {
+            return ingredients;
+        }
+        FacetsCollector collector = new FacetsCollector();
+        new IndexSearcher(reader).search(new MatchAllDocsQuery(), collector);
+        FacetResult result = new SortedSetDocValuesFacetCounts(state, collector)
+                .getTopChildren(range.end - range.start + 1, DocumentSchema.FACET_INGREDIENT);
+        if (result != null) {
+            for (LabelAndValue value : result.labelValues) {
+                if (hasLetter(value.label)) {
+                    put(ingredients, value.label, value.value.longValue());
+                }
+            }
+        }
+        return ingredients;
+    }
+
+    /**
+     * Record a weight, keeping the highest weight of a key.
+     *
+     * @param weights  weights by key
+     * @param key      the key
+     * @param weight   the weight
+     */
+    private static void put(Map<String, Long> weights, String key, long weight) {
+        Long existing = weights.get(key);
+        if (existing == null || existing < weight) {
+            weights.put(key, weight);
+        }
+    }
+
+    /**
+     * Determine if a string contains a letter.
+     *
+     * @param s the string
+     *
+     * @return true if s contains at least one letter
+     */
+    private static boolean hasLetter(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isLetter(s.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The words of unstemmed text, by the stem the analyzer produces for
+     * them. The form of a stem is the word weighted highest, across all
+     * words with that stem; ties go to the shorter word, then the first
+     * in alphabetical order.
+     */
+    private static class SurfaceForms {
+        /**
+         * Analyzer producing the stems.
+         */
+        private final Analyzer m_analyzer;
+
+        /**
+         * Stem of each word seen; null for stop words.
+         */
+        private final Map<String, String> m_stems = new HashMap<String, String>();
+
+        /**
+         * Total weight of each word, by stem.
+         */
+        private final Map<String, Map<String, Long>> m_words = new HashMap<String, Map<String, Long>>();
+
+        /**
+         * Construct a SurfaceForms.
+         *
+         * @param analyzer analyzer producing the stems
+         */
+        SurfaceForms(Analyzer analyzer) {
+            m_analyzer = analyzer;
+        }
+
+        /**
+         * Add the words of weighted texts.
+         *
+         * @param texts weight by text
+         *
+         * @throws IOException if a text cannot be analyzed
+         */
+        void addAll(Map<String, Long> texts) throws IOException {
+            for (Map.Entry<String, Long> entry : texts.entrySet()) {
+                for (String word : NON_LETTERS.split(entry.getKey())) {
+                    if (!word.isEmpty()) {
+                        add(word, entry.getValue());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Return the form of a stem.
+         *
+         * @param stem the stem
+         *
+         * @return the word, or null if no word has this stem
+         */
+        String get(String stem) {
+            Map<String, Long> words = m_words.get(stem);
+            if (words == null) {
+                return null;
+            }
+            String best = null;
+            long bestWeight = -1;
+            for (Map.Entry<String, Long> entry : words.entrySet()) {
+                String word = entry.getKey();
+                long weight = entry.getValue();
+                if (weight > bestWeight || (weight == bestWeight && (word.length() < best.length()
+                        || (word.length() == best.length() && word.compareTo(best) < 0)))) {
+                    best = word;
+                    bestWeight = weight;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Add a word.
+         *
+         * @param word    the word, lowercase
+         * @param weight  weight of the text containing it
+         *
+         * @throws IOException if the word cannot be analyzed
+         */
+        private void add(String word, long weight) throws IOException {
+            String stem;
+            if (m_stems.containsKey(word)) {
+                stem = m_stems.get(word);
+            }
+            else {
+                stem = stem(word);
+                m_stems.put(word, stem);
+            }
+            if (stem == null) {
+                return;
+            }
+            Map<String, Long> words = m_words.get(stem);
+            if (words == null) {
+                words = new HashMap<String, Long>();
+                m_words.put(stem, words);
+            }
+            Long total = words.get(word);
+            words.put(word, total == null ? weight : total + weight);
+        }
+
+        /**
+         * Return the stem of a word.
+         *
+         * @param word the word
+         *
+         * @return the stem, or null if the word is a stop word
+         *
+         * @throws IOException if the word cannot be analyzed
+         */
+        private String stem(String word) throws IOException {
+            TokenStream stream = m_analyzer.tokenStream(DocumentSchema.FIELD_BODY, new StringReader(word));
+            try {
+                CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+                stream.reset();
+                String stem = stream.incrementToken() ? term.toString() : null;
+                stream.end();
+                return stem;
+            }
+            finally {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Iterator over weighted suggestions. The lookup sorts its input, so
+     * no ordering is required here.
+     */
+    private static class SuggestionIterator implements InputIterator {
+        /**
+         * The remaining suggestions.
+         */
+        private final Iterator<Map.Entry<String, Long>> m_suggestions;
+
+        /**
+         * Weight of the current suggestion.
+         */
+        private long m_weight;
+
+        /**
+         * Construct a SuggestionIterator.
+         *
+         * @param suggestions weight by suggestion
+         */
+        SuggestionIterator(Map<String, Long> suggestions) {
+            m_suggestions = suggestions.entrySet().iterator();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public BytesRef next() {
+            if (!m_suggestions.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, Long> entry = m_suggestions.next();
+            m_weight = entry.getValue();
+            return new BytesRef(entry.getKey());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long weight() {
+            return m_weight;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public BytesRef payload() {
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasPayloads() {
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Comparator<BytesRef> getComparator() {
+            return null;
+        }
+    }
+}
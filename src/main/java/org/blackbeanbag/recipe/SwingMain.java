@@ -4,9 +4,6 @@ import java.awt.*;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.KeyAdapter;
-import java.awt.event.KeyListener;
-import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
@@ -17,18 +14,25 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.AbstractTableModel;
 
 import org.apache.log4j.Logger;
 
+import org.blackbeanbag.recipe.metrics.Metrics;
+import org.blackbeanbag.recipe.metrics.MetricsReporter;
+
 /**
  * SwingMain is the main entry point for the application. Upon startup
- * the Lucene index will be created before displaying the frame.
+ * the index is opened as it was last committed and the frame is displayed
+ * right away; the index is then brought up to date in the background and
+ * kept up to date while the application runs.
  */
 @SuppressWarnings("serial")
 public class SwingMain extends JFrame {
@@ -37,6 +41,16 @@ public class SwingMain extends JFrame {
      */
     private static final Logger LOG = Logger.getLogger(SwingMain.class);
 
+    /**
+     * Maximum number of search results displayed.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * Maximum number of completions offered for the search field.
+     */
+    private static final int MAX_SUGGESTIONS = 8;
+
     /**
      * Table model for search results.
      */
@@ -47,43 +61,151 @@ public class SwingMain extends JFrame {
      */
     private JTextField m_status;
 
+    /**
+     * Progress bar displayed while the index is being updated.
+     */
+    private JProgressBar m_progress;
+
+    /**
+     * Search criteria field.
+     */
+    private JTextField m_search;
+
+    /**
+     * Indexer for the document directory.
+     */
+    private Indexer m_indexer;
+
+    /**
+     * Watcher keeping the index up to date.
+     */
+    private IndexWatcher m_watcher;
+
     /**
      * Searcher used to perform searches.
      */
     private Searcher m_searcher;
 
+    /**
+     * Scheduler that debounces and cancels searches made while typing.
+     */
+    private SearchScheduler m_scheduler;
+
+    /**
+     * Completions for the search field; null until built.
+     */
+    private volatile Suggester m_suggester;
+
+    /**
+     * Reporter writing metrics to the log; null if not configured.
+     */
+    private MetricsReporter m_reporter;
+
     /**
      * Initialize the search index. The initialization process ensures that:
      * <ul>
      *     <li>the {@code ~/.recipe-index} directory has been created</li>
      *     <li>the {@code ~/.recipe-index/recipe-index.properties} file exists</li>
      *     <li>the property {@code doc.dir} exists and points to a valid directory</li>
-     *     <li>the index is created with the contents of the doc directory</li>
+     *     <li>the index is opened for searching as it was last committed,
+     *     using the storage configured by the optional properties
+     *     {@code index.storage} and {@code index.warm}</li>
+     *     <li>indexing and search metrics are registered with JMX and, if
+     *     the optional property {@code metrics.report.interval} is set,
+     *     written to the log every that many seconds</li>
      * </ul>
+     * The index is not updated here, so this completes quickly regardless
+     * of the number of documents; see {@link #updateIndex()}.
      */
     protected void initializeSearch() {
         String settingsDir = ensureSettingsDir();
         String docDir = getDocumentDir(settingsDir);
-        String indexDir = settingsDir + File.separator + "index";
+        String indexDir = new Settings(settingsDir).getIndexDir();
+
+        m_indexer = new Indexer(docDir, indexDir, getIndexStorage(settingsDir));
+        m_searcher = new Searcher(m_indexer.getWriter());
+        m_scheduler = new SearchScheduler(m_searcher, PAGE_SIZE);
+        m_watcher = new IndexWatcher(m_indexer);
+
+        Metrics.register("Indexer", "main", m_indexer.getMetrics());
+        Metrics.register("Searcher", "main", m_searcher.getMetrics());
+        long reportInterval = getMetricsReportInterval(settingsDir);
+        if (reportInterval > 0) {
+            m_reporter = new MetricsReporter();
+            m_reporter.add("Indexer", m_indexer.getMetrics());
+            m_reporter.add("Searcher", m_searcher.getMetrics());
+            m_reporter.start(reportInterval, TimeUnit.SECONDS);
+        }
 
-        // prior to indexing the documents, display a dialog box indicating
-        // the creation of the index to avoid the appearance of an unresponsive application
-        JDialog dialog = new JDialog(this, false);
-        dialog.setLocationRelativeTo(null);
-        ((JPanel) dialog.getContentPane()).setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        dialog.getContentPane().add(new JLabel("Indexing recipes, please wait..."));
-        dialog.pack();
-        dialog.setVisible(true);
+        Runtime.getRuntime().addShutdownHook(new Thread("recipe-index-shutdown") {
+            @Override
+            public void run() {
+                // changes are committed in batches; discard any batch in progress
+                m_watcher.close();
+                m_indexer.rollback();
+            }
+        });
+    }
 
-        try {
-            new Indexer(docDir, indexDir).createIndex();
-        }
-        finally {
-            dialog.setVisible(false);
-            dialog.dispose();
-        }
+    /**
+     * Bring the index up to date with the document directory in the
+     * background and keep watching the directory for changes. Progress is
+     * shown in the status bar; searches keep using the previous index
+     * contents until the update has been committed, then switch to the
+     * new reader and the current search is repeated.
+     */
+    protected void updateIndex() {
+        m_progress.setVisible(true);
 
-        m_searcher = new Searcher(indexDir);
+        new SwingWorker<Void, Integer>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                m_suggester = new Suggester(m_searcher);
+
+                m_indexer.setProgressListener(new Indexer.ProgressListener() {
+                    @Override
+                    public void filesChecked(int count) {
+                        publish(count);
+                    }
+                });
+                m_watcher.setListener(new IndexWatcher.Listener() {
+                    @Override
+                    public void indexChanged() {
+                        m_searcher.refresh();
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                String s = m_search.getText();
+                                if (s.trim().length() >= 2) {
+                                    onSearch(s, true);
+                                }
+                            }
+                        });
+                    }
+                });
+                m_watcher.start();
+                m_indexer.setProgressListener(null);
+                return null;
+            }
+
+            @Override
+            protected void process(List<Integer> counts) {
+                m_progress.setString("Updating index: "
+                        + counts.get(counts.size() - 1) + " files checked");
+            }
+
+            @Override
+            protected void done() {
+                m_progress.setVisible(false);
+                try {
+                    get();
+                }
+                catch (Exception e) {
+                    LOG.error("Error updating index", e);
+                    m_status.setText("Index could not be updated; see error log for details");
+                }
+            }
+        }.execute();
     }
 
     /**
@@ -92,22 +214,7 @@ public class SwingMain extends JFrame {
      * @return the settings directory
      */
     protected String ensureSettingsDir() {
-        String settings = System.getProperty("user.home") + File.separator + ".recipe-index";
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Settings directory: " + settings);
-        }
-
-        File settingsDir = new File(settings);
-        if (settingsDir.exists()) {
-            if (!settingsDir.isDirectory()) {
-                throw new IllegalStateException("File " + settings + " must be a directory");
-            }
-        }
-        else {
-            boolean created = settingsDir.mkdir();
-            assert created : String.format("Settings directory %s could not be created", settings);
-        }
-        return settings;
+        return Settings.ensureDefaultDir();
     }
 
     /**
@@ -173,6 +280,34 @@ public class SwingMain extends JFrame {
         return docDir;
     }
 
+    /**
+     * Read the settings file and return the storage used for the index.
+     * The property {@code index.storage} selects the
+     * {@link IndexStorage.Type} ({@code default}, {@code mmap}, {@code nio}
+     * or {@code ram}); if {@code index.warm} is {@code true}, the index
+     * files are read when the index is opened.
+     *
+     * @param settingsDir the settings directory (typically {@code $HOME/.recipe-index}).
+     *
+     * @return the index storage
+     */
+    protected IndexStorage getIndexStorage(String settingsDir) {
+        return new Settings(settingsDir).getIndexStorage();
+    }
+
+    /**
+     * Read the settings file and return the interval at which metrics are
+     * written to the log, given by the property
+     * {@code metrics.report.interval} in seconds.
+     *
+     * @param settingsDir the settings directory (typically {@code $HOME/.recipe-index}).
+     *
+     * @return the interval in seconds, or zero if metrics are not logged
+     */
+    protected long getMetricsReportInterval(String settingsDir) {
+        return new Settings(settingsDir).getMetricsReportInterval();
+    }
+
     /**
      * Create UI components and lay them out in the frame.
      */
@@ -182,22 +317,36 @@ public class SwingMain extends JFrame {
 
         // ----- search field and button ---------------------------------
         final JTextField search = new JTextField();
+        m_search = search;
+        final JPopupMenu suggestions = new JPopupMenu();
+        suggestions.setFocusable(false);
 
         ActionListener listener = new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                onSearch(search.getText());
+                onSearch(search.getText(), true);
             }
         };
         search.addActionListener(listener);
 
-        KeyListener keyListener = new KeyAdapter() {
+        search.getDocument().addDocumentListener(new DocumentListener() {
             @Override
-            public void keyTyped(KeyEvent e) {
-                onSearch(search.getText() + e.getKeyChar());
+            public void insertUpdate(DocumentEvent e) {
+                onSearch(search.getText(), false);
+                showSuggestions(search, suggestions);
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                onSearch(search.getText(), false);
+                showSuggestions(search, suggestions);
             }
-        };
-        search.addKeyListener(keyListener);
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // attribute changes do not affect the search text
+            }
+        });
 
         JButton button = new JButton("Search");
         button.addActionListener(listener);
@@ -270,6 +419,17 @@ public class SwingMain extends JFrame {
         m_status = new JTextField("Total Results: 0");
         m_status.setEditable(false);
 
+        m_progress = new JProgressBar();
+        m_progress.setIndeterminate(true);
+        m_progress.setStringPainted(true);
+        m_progress.setString("Updating index");
+        m_progress.setVisible(false);
+
+        JPanel statusPanel = new JPanel();
+        statusPanel.setLayout(new BoxLayout(statusPanel, BoxLayout.LINE_AXIS));
+        statusPanel.add(m_status);
+        statusPanel.add(m_progress);
+
         // ----- set up main panel --------------------------------------
         contentPane.add(searchPanel, new GridBagConstraints(0, 0, 1, 1, 1.0,
                 0.0, GridBagConstraints.NORTH, GridBagConstraints.HORIZONTAL,
@@ -277,7 +437,7 @@ public class SwingMain extends JFrame {
         contentPane.add(tablePanel, new GridBagConstraints(0, 1, 1, 1, 0.0,
                 0.8, GridBagConstraints.NORTH, GridBagConstraints.BOTH,
                 new Insets(2, 2, 2, 2), 2, 2));
-        contentPane.add(m_status, new GridBagConstraints(0, 2, 1, 1, 0.0, 0.0,
+        contentPane.add(statusPanel, new GridBagConstraints(0, 2, 1, 1, 0.0, 0.0,
                 GridBagConstraints.CENTER, GridBagConstraints.BOTH, new Insets(
                         2, 2, 2, 2), 2, 2));
 
@@ -292,42 +452,113 @@ public class SwingMain extends JFrame {
 
     /**
      * Execute search and update UI with results. It is assumed that this will
-     * be invoked via the AWT thread, thus the actual search will be performed
-     * in another thread (using {@link SwingWorker}).
-     * 
-     * @param s search criteria
+     * be invoked via the AWT thread; the search is run by the
+     * {@link SearchScheduler}, which debounces input while typing, cancels
+     * searches that have been superseded and discards their results.
+     *
+     * @param s          search criteria
+     * @param immediate  true to search without waiting for more input
      */
-    private void onSearch(final String s) {
+    private void onSearch(String s, boolean immediate) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Search term: " + s);
         }
 
-        SwingWorker<List<Map<String, String>>, Object> worker = new SwingWorker<List<Map<String, String>>, Object>() {
+        if (s == null || s.trim().length() < 2) {
+            m_scheduler.cancel();
+            showResults(new SearchPage(Collections.<SearchResult>emptyList(), 0, null));
+            return;
+        }
+
+        SearchScheduler.Callback callback = new SearchScheduler.Callback() {
             @Override
-            protected List<Map<String, String>> doInBackground()
-                    throws Exception {
-                if (s == null || s.length() < 2) {
-                    return Collections.emptyList();
-                }
-                else {
-                    return m_searcher.doSearch(s);
-                }
+            public void searchCompleted(final long sequence, String criteria, final SearchPage page) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a newer search may have been started since this one completed
+                        if (m_scheduler.isCurrent(sequence)) {
+                            showResults(page);
+                        }
+                    }
+                });
             }
 
             @Override
-            protected void done() {
-                try {
-                    List<Map<String, String>> results = get();
-                    m_resultsTableModel.setFiles(results);
-                    m_resultsTableModel.fireTableDataChanged();
-                    m_status.setText("Total Results: " + results.size());
-                }
-                catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
+            public void searchFailed(final long sequence, final String criteria, final Exception e) {
+                LOG.debug("Search for '" + criteria + "' failed", e);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (m_scheduler.isCurrent(sequence)) {
+                            m_status.setText("Invalid search: " + criteria);
+                        }
+                    }
+                });
             }
         };
-        worker.execute();
+
+        if (immediate) {
+            m_scheduler.searchNow(s, callback);
+        }
+        else {
+            m_scheduler.schedule(s, callback);
+        }
+    }
+
+    /**
+     * Offer completions for the last word in the search field. Lookups
+     * are cheap enough to run on the AWT thread. Choosing a completion
+     * replaces the word and searches immediately.
+     *
+     * @param field  the search field
+     * @param popup  popup menu listing the completions
+     */
+    private void showSuggestions(final JTextField field, final JPopupMenu popup) {
+        final String text = field.getText();
+        final int start = Math.max(text.lastIndexOf(' '), text.lastIndexOf('\t')) + 1;
+        String prefix = text.substring(start);
+
+        Suggester suggester = m_suggester;
+        List<String> completions = prefix.length() < 2 || suggester == null
+                ? Collections.<String>emptyList()
+                : suggester.suggest(prefix, MAX_SUGGESTIONS);
+
+        popup.setVisible(false);
+        popup.removeAll();
+        if (completions.isEmpty()
+                || (completions.size() == 1 && completions.get(0).equalsIgnoreCase(prefix))) {
+            return;
+        }
+
+        for (final String completion : completions) {
+            JMenuItem item = new JMenuItem(completion);
+            item.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    popup.setVisible(false);
+                    field.setText(text.substring(0, start) + completion);
+                    onSearch(field.getText(), true);
+                }
+            });
+            popup.add(item);
+        }
+        popup.show(field, 0, field.getHeight());
+        field.requestFocusInWindow();
+    }
+
+    /**
+     * Display a page of search results. Must be invoked via the AWT thread.
+     *
+     * @param page the results to display
+     */
+    private void showResults(SearchPage page) {
+        List<SearchResult> results = page.getResults();
+        m_resultsTableModel.setFiles(results);
+        m_resultsTableModel.fireTableDataChanged();
+        m_status.setText(results.size() < page.getTotalHits()
+                ? "Total Results: " + page.getTotalHits() + " (showing first " + results.size() + ")"
+                : "Total Results: " + page.getTotalHits());
     }
 
     /**
@@ -347,7 +578,7 @@ public class SwingMain extends JFrame {
         /**
          * Search results.
          */
-        private List<Map<String, String>> m_files = new ArrayList<Map<String, String>>();
+        private List<SearchResult> m_files = new ArrayList<SearchResult>();
 
         /**
          * Return the search results.
@@ -356,7 +587,7 @@ public class SwingMain extends JFrame {
          *
          * @see Searcher#doSearch(String)
          */
-        public List<Map<String, String>> getFiles() {
+        public List<SearchResult> getFiles() {
             return m_files;
         }
 
@@ -367,7 +598,7 @@ public class SwingMain extends JFrame {
          *
          * @see Searcher#doSearch(String)
          */
-        public void setFiles(List<Map<String, String>> files) {
+        public void setFiles(List<SearchResult> files) {
             this.m_files = files;
         }
 
@@ -406,12 +637,12 @@ public class SwingMain extends JFrame {
          */
         @Override
         public Object getValueAt(int rowIndex, int columnIndex) {
-            Map<String, String> m = m_files.get(rowIndex);
+            SearchResult result = m_files.get(rowIndex);
             switch (columnIndex) {
             case FILE_NAME:
-                return m.get("file");
+                return result.getFile();
             case DESCRIPTION:
-                return m.get("title");
+                return result.getTitle();
             }
             return null;
         }
@@ -430,6 +661,7 @@ public class SwingMain extends JFrame {
             SwingMain window = new SwingMain();
             window.initializeSearch();
             window.buildUI();
+            window.updateIndex();
         }
         catch (Exception e) {
             LOG.error("Unhandled exception", e);
@@ -0,0 +1,265 @@
+package org.blackbeanbag.recipe.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram records the distribution of non-negative values, such as
+ * latencies in microseconds, in a fixed number of buckets. Buckets are
+ * exact for values below {@value #SUB_BUCKETS}; above that every power of
+ * two is divided into {@value #SUB_BUCKETS} buckets, so percentiles are
+ * accurate to within about six percent for any value. Memory use is
+ * constant and recording a value takes a few atomic increments, so a
+ * histogram can be updated from any number of threads on hot paths.
+ * <p>
+ * Statistics are computed from a {@link Snapshot}. The difference of two
+ * snapshots describes the values recorded in between, which is how the
+ * {@link MetricsReporter} reports the last interval rather than the whole
+ * lifetime of the process.
+ */
+public class Histogram {
+    /**
+     * Number of buckets per power of two; must be a power of two.
+     */
+    private static final int SUB_BUCKETS = 16;
+
+    /**
+     * Log2 of {@link #SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Total number of buckets, enough for any positive long.
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * Number of values in each bucket.
+     */
+    private final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Sum of all recorded values.
+     */
+    private final AtomicLong m_sum = new AtomicLong();
+
+    /**
+     * Record a value. Negative values are recorded as zero.
+     *
+     * @param value the value
+     */
+    public void update(long value) {
+        long v = Math.max(value, 0);
+        m_counts.incrementAndGet(bucket(v));
+        m_sum.addAndGet(v);
+    }
+
+    /**
+     * Return the number of recorded values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return snapshot().getCount();
+    }
+
+    /**
+     * Return a copy of the current distribution.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = m_counts.get(i);
+        }
+        return new Snapshot(counts, m_sum.get());
+    }
+
+    /**
+     * Return the bucket of a value.
+     *
+     * @param value a non-negative value
+     *
+     * @return the bucket index
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Return the largest value that falls into a bucket.
+     *
+     * @param bucket the bucket index
+     *
+     * @return the upper bound of the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of the distribution of a {@link Histogram}. The
+     * getters make a snapshot usable as a composite JMX attribute.
+     */
+    public static class Snapshot {
+        /**
+         * Number of values in each bucket.
+         */
+        private final long[] m_counts;
+
+        /**
+         * Sum of the values.
+         */
+        private final long m_sum;
+
+        /**
+         * Number of values.
+         */
+        private final long m_count;
+
+        /**
+         * Construct a Snapshot.
+         *
+         * @param counts  number of values in each bucket
+         * @param sum     sum of the values
+         */
+        private Snapshot(long[] counts, long sum) {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            m_counts = counts;
+            m_sum = sum;
+            m_count = count;
+        }
+
+        /**
+         * Return the distribution of the values recorded after an earlier
+         * snapshot of the same histogram was taken.
+         *
+         * @param earlier the earlier snapshot, or null
+         *
+         * @return the difference of the snapshots
+         */
+        public Snapshot minus(Snapshot earlier) {
+            if (earlier == null) {
+                return this;
+            }
+            long[] counts = new long[m_counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Math.max(0, m_counts[i] - earlier.m_counts[i]);
+            }
+            return new Snapshot(counts, m_sum - earlier.m_sum);
+        }
+
+        /**
+         * Return the number of values.
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return m_count;
+        }
+
+        /**
+         * Return the mean of the values.
+         *
+         * @return the mean, or zero if there are no values
+         */
+        public double getMean() {
+            return m_count == 0 ? 0 : (double) m_sum / m_count;
+        }
+
+        /**
+         * Return the largest value, rounded up to its bucket.
+         *
+         * @return the maximum, or zero if there are no values
+         */
+        public long getMax() {
+            for (int i = m_counts.length - 1; i >= 0; i--) {
+                if (m_counts[i] > 0) {
+                    return upperBound(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Return the median.
+         *
+         * @return the 50th percentile
+         */
+        public long getP50() {
+            return getPercentile(0.5);
+        }
+
+        /**
+         * Return the 95th percentile.
+         *
+         * @return the 95th percentile
+         */
+        public long getP95() {
+            return getPercentile(0.95);
+        }
+
+        /**
+         * Return the 99th percentile.
+         *
+         * @return the 99th percentile
+         */
+        public long getP99() {
+            return getPercentile(0.99);
+        }
+
+        /**
+         * Return the 99.9th percentile.
+         *
+         * @return the 99.9th percentile
+         */
+        public long getP999() {
+            return getPercentile(0.999);
+        }
+
+        /**
+         * Return the value below which the given fraction of the values
+         * fall, rounded up to its bucket.
+         *
+         * @param quantile fraction between 0 and 1
+         *
+         * @return the percentile, or zero if there are no values
+         */
+        public long getPercentile(double quantile) {
+            if (m_count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * m_count));
+            long seen = 0;
+            for (int i = 0; i < m_counts.length; i++) {
+                seen += m_counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "count=" + m_count + String.format(" mean=%.1f", getMean()) + " p50=" + getP50()
+                    + " p95=" + getP95() + " p99=" + getP99() + " max=" + getMax();
+        }
+    }
+}
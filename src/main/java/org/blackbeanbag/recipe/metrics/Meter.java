@@ -0,0 +1,140 @@
+package org.blackbeanbag.recipe.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meter counts events, such as indexed documents or bytes, and measures
+ * their rate. The rate is an exponentially weighted moving average over
+ * about one minute, updated every {@value #TICK_SECONDS} seconds, the
+ * same way the Unix load average is computed. The average is advanced
+ * lazily whenever the meter is marked or read, so a meter needs no
+ * thread of its own.
+ */
+public class Meter {
+    /**
+     * Interval between updates of the moving average.
+     */
+    private static final long TICK_SECONDS = 5;
+
+    /**
+     * Interval between updates of the moving average in nanoseconds.
+     */
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(TICK_SECONDS);
+
+    /**
+     * Weight of the latest tick in the one minute average.
+     */
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    /**
+     * Total number of events.
+     */
+    private final AtomicLong m_count = new AtomicLong();
+
+    /**
+     * Number of events since the last tick.
+     */
+    private final AtomicLong m_uncounted = new AtomicLong();
+
+    /**
+     * Time of the last tick.
+     */
+    private final AtomicLong m_lastTick;
+
+    /**
+     * Time the meter was created.
+     */
+    private final long m_start;
+
+    /**
+     * Moving average in events per nanosecond; guarded by this.
+     */
+    private double m_rate;
+
+    /**
+     * True once the moving average has been initialized; guarded by this.
+     */
+    private boolean m_initialized;
+
+    /**
+     * Construct a Meter.
+     */
+    public Meter() {
+        m_start = System.nanoTime();
+        m_lastTick = new AtomicLong(m_start);
+    }
+
+    /**
+     * Record one event.
+     */
+    public void mark() {
+        mark(1);
+    }
+
+    /**
+     * Record a number of events.
+     *
+     * @param n the number of events
+     */
+    public void mark(long n) {
+        tickIfNecessary();
+        m_count.addAndGet(n);
+        m_uncounted.addAndGet(n);
+    }
+
+    /**
+     * Return the total number of events.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return m_count.get();
+    }
+
+    /**
+     * Return the rate of events over about the last minute.
+     *
+     * @return events per second
+     */
+    public double getRate() {
+        tickIfNecessary();
+        synchronized (this) {
+            return m_rate * TimeUnit.SECONDS.toNanos(1);
+        }
+    }
+
+    /**
+     * Return the mean rate of events since the meter was created.
+     *
+     * @return events per second
+     */
+    public double getMeanRate() {
+        long elapsed = System.nanoTime() - m_start;
+        return elapsed <= 0 ? 0 : (double) getCount() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * Advance the moving average by the number of ticks that have passed.
+     */
+    private void tickIfNecessary() {
+        long last = m_lastTick.get();
+        long now = System.nanoTime();
+        long ticks = (now - last) / TICK_NANOS;
+        if (ticks > 0 && m_lastTick.compareAndSet(last, last + ticks * TICK_NANOS)) {
+            synchronized (this) {
+                double instant = (double) m_uncounted.getAndSet(0) / TICK_NANOS;
+                if (m_initialized) {
+                    m_rate += ALPHA * (instant - m_rate);
+                }
+                else {
+                    m_rate = instant;
+                    m_initialized = true;
+                }
+                for (long i = 1; i < ticks; i++) {
+                    m_rate -= ALPHA * m_rate;
+                }
+            }
+        }
+    }
+}
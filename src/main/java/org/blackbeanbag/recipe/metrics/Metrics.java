@@ -0,0 +1,94 @@
+package org.blackbeanbag.recipe.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registration of metrics with the platform MBean server. Metrics are
+ * registered under the domain {@value #DOMAIN} with a type and a name,
+ * for example {@code org.blackbeanbag.recipe:type=Searcher,name=main},
+ * and can be inspected with JConsole, VisualVM or any other JMX client.
+ */
+public final class Metrics {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(Metrics.class);
+
+    /**
+     * JMX domain of all metrics.
+     */
+    public static final String DOMAIN = "org.blackbeanbag.recipe";
+
+    /**
+     * Not to be instantiated.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Register an MBean or MXBean, replacing any bean registered under
+     * the same type and name. Failures are logged, since monitoring must
+     * never keep the application from running.
+     *
+     * @param type  the type key of the object name
+     * @param name  the name key of the object name
+     * @param bean  the bean to register
+     *
+     * @return the object name, or null if the bean could not be registered
+     */
+    public static ObjectName register(String type, String name, Object bean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + quote(type) + ",name=" + quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(bean, objectName);
+            return objectName;
+        }
+        catch (JMException e) {
+            LOG.warn("Could not register " + type + " metrics " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Quote a value of an object name if it contains special characters.
+     *
+     * @param value the value
+     *
+     * @return the value, quoted if necessary
+     */
+    private static String quote(String value) {
+        for (char c : value.toCharArray()) {
+            if (",=:\"*?\\\n".indexOf(c) >= 0) {
+                return ObjectName.quote(value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Unregister a bean registered via
+     * {@link #register(String, String, Object)}.
+     *
+     * @param objectName the object name, or null
+     */
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (JMException e) {
+            LOG.debug("Could not unregister " + objectName, e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.blackbeanbag.recipe.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.blackbeanbag.recipe.NamedThreadFactory;
+
+/**
+ * MetricsReporter periodically writes a summary of each registered
+ * {@link Reportable} to the log at INFO level, for installations where
+ * no JMX client can be attached. Sets of metrics with nothing to report
+ * for a period are skipped, so an idle application does not fill the
+ * log.
+ */
+public class MetricsReporter {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(MetricsReporter.class);
+
+    /**
+     * Metrics to report, by name.
+     */
+    private final Map<String, Reportable> m_metrics = new ConcurrentHashMap<String, Reportable>();
+
+    /**
+     * Executor running the reports; null if not started.
+     */
+    private ScheduledExecutorService m_executor;
+
+    /**
+     * Add a set of metrics to the report, replacing any set with the same
+     * name.
+     *
+     * @param name     name shown in the report
+     * @param metrics  the metrics
+     */
+    public void add(String name, Reportable metrics) {
+        m_metrics.put(name, metrics);
+    }
+
+    /**
+     * Remove a set of metrics from the report.
+     *
+     * @param name the name the metrics were added with
+     */
+    public void remove(String name) {
+        m_metrics.remove(name);
+    }
+
+    /**
+     * Start reporting at a fixed interval. Has no effect if reporting has
+     * already been started.
+     *
+     * @param interval  time between reports
+     * @param unit      unit of the interval
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (m_executor != null) {
+            return;
+        }
+        m_executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("recipe-metrics-reporter"));
+        m_executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Stop reporting.
+     */
+    public synchronized void stop() {
+        if (m_executor != null) {
+            m_executor.shutdownNow();
+            m_executor = null;
+        }
+    }
+
+    /**
+     * Write a summary of all metrics to the log.
+     */
+    public void report() {
+        for (Map.Entry<String, Reportable> entry : m_metrics.entrySet()) {
+            try {
+                String summary = entry.getValue().report();
+                if (summary != null) {
+                    LOG.info(entry.getKey() + ": " + summary);
+                }
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Could not report metrics " + entry.getKey(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.blackbeanbag.recipe.metrics;
+
+/**
+ * A set of metrics that can be summarized by a {@link MetricsReporter}.
+ */
+public interface Reportable {
+    /**
+     * Return a one line summary of the metrics. Distributions and rates
+     * describe the time since the previous call, so that a periodic
+     * report shows what happened during each period.
+     *
+     * @return the summary, or null if there is nothing to report
+     */
+    String report();
+}
@@ -0,0 +1,110 @@
+package org.blackbeanbag.recipe.scanners;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+
+/**
+ * CharsetDetector determines the character set of a text file from its
+ * first bytes:
+ * <ol>
+ *     <li>a UTF-8 or UTF-16 byte order mark selects that encoding</li>
+ *     <li>otherwise, if the bytes are valid UTF-8 (which includes plain
+ *     ASCII), UTF-8 is used</li>
+ *     <li>otherwise the text is assumed to be Windows-1252, the encoding
+ *     used by most text editors on Windows for western languages</li>
+ * </ol>
+ * Unlike the platform default charset, the result does not depend on the
+ * machine the index is built on.
+ */
+public final class CharsetDetector {
+    /**
+     * Charset used when the text is not valid UTF-8.
+     */
+    public static final Charset FALLBACK = Charset.isSupported("windows-1252")
+            ? Charset.forName("windows-1252")
+            : Charset.forName("ISO-8859-1");
+
+    /**
+     * UTF-8 charset.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Number of bytes examined by {@link #detect(ByteBuffer)}.
+     */
+    public static final int SAMPLE_SIZE = 8192;
+
+    /**
+     * Not instantiable.
+     */
+    private CharsetDetector() {
+    }
+
+    /**
+     * Detect the charset of text starting at the position of the given
+     * buffer. Up to {@link #SAMPLE_SIZE} bytes are examined. If the text
+     * starts with a byte order mark, the position of the buffer is
+     * advanced past it; otherwise the position is unchanged.
+     *
+     * @param bytes the first bytes of the text
+     *
+     * @return the detected charset
+     */
+    public static Charset detect(ByteBuffer bytes) {
+        int pos = bytes.position();
+        int remaining = bytes.remaining();
+
+        if (remaining >= 3 && (bytes.get(pos) & 0xFF) == 0xEF
+                && (bytes.get(pos + 1) & 0xFF) == 0xBB && (bytes.get(pos + 2) & 0xFF) == 0xBF) {
+            bytes.position(pos + 3);
+            return UTF_8;
+        }
+        if (remaining >= 2) {
+            int b0 = bytes.get(pos) & 0xFF;
+            int b1 = bytes.get(pos + 1) & 0xFF;
+            if (b0 == 0xFE && b1 == 0xFF) {
+                bytes.position(pos + 2);
+                return Charset.forName("UTF-16BE");
+            }
+            if (b0 == 0xFF && b1 == 0xFE) {
+                bytes.position(pos + 2);
+                return Charset.forName("UTF-16LE");
+            }
+        }
+
+        ByteBuffer sample = bytes.duplicate();
+        sample.limit(pos + Math.min(remaining, SAMPLE_SIZE));
+        return isUtf8(sample, sample.limit() == bytes.limit()) ? UTF_8 : FALLBACK;
+    }
+
+    /**
+     * Determine if bytes are valid UTF-8.
+     *
+     * @param sample       the bytes to check
+     * @param endOfInput   true if the sample contains the end of the text;
+     *                     if false, an incomplete sequence at the end of
+     *                     the sample is not an error
+     *
+     * @return true if the bytes are valid UTF-8
+     */
+    private static boolean isUtf8(ByteBuffer sample, boolean endOfInput) {
+        CharsetDecoder decoder = UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(1024);
+        while (true) {
+            CoderResult result = decoder.decode(sample, out, endOfInput);
+            if (result.isError()) {
+                return false;
+            }
+            if (result.isUnderflow()) {
+                return true;
+            }
+            out.clear();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.blackbeanbag.recipe.scanners;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reader that decodes bytes from a buffer and, optionally, a channel.
+ * The buffer may be a memory mapped file, in which case no further bytes
+ * are read and no copies are made, or a heap buffer holding the first
+ * bytes of a channel, which is then refilled from the channel as it is
+ * consumed. Malformed input is replaced rather than reported, so a
+ * single bad byte does not prevent a document from being indexed.
+ * <p>
+ * Closing the reader does not close the channel.
+ */
+public class DecodingReader extends Reader {
+    /**
+     * Bytes waiting to be decoded.
+     */
+    private final ByteBuffer m_bytes;
+
+    /**
+     * Channel supplying further bytes, or null.
+     */
+    private final ReadableByteChannel m_channel;
+
+    /**
+     * Decoder for the charset of the text.
+     */
+    private final CharsetDecoder m_decoder;
+
+    /**
+     * True once all bytes have been read from the channel.
+     */
+    private boolean m_endOfInput;
+
+    /**
+     * True once the decoder has been flushed.
+     */
+    private boolean m_flushed;
+
+    /**
+     * Construct a DecodingReader for the bytes remaining in a buffer.
+     *
+     * @param bytes    bytes to decode
+     * @param charset  charset of the bytes
+     */
+    public DecodingReader(ByteBuffer bytes, Charset charset) {
+        this(bytes, null, charset);
+    }
+
+    /**
+     * Construct a DecodingReader for the bytes remaining in a buffer
+     * followed by the bytes read from a channel. The buffer is used to
+     * read from the channel and must therefore be writable.
+     *
+     * @param bytes    bytes to decode first, in read mode
+     * @param channel  channel supplying the remaining bytes, or null
+     * @param charset  charset of the bytes
+     */
+    public DecodingReader(ByteBuffer bytes, ReadableByteChannel channel, Charset charset) {
+        m_bytes = bytes;
+        m_channel = channel;
+        m_endOfInput = channel == null;
+        m_decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off && !m_flushed) {
+            CoderResult result = m_decoder.decode(m_bytes, out, m_endOfInput);
+            if (result.isOverflow()) {
+                break;
+            }
+            if (m_endOfInput) {
+                if (m_decoder.flush(out).isUnderflow()) {
+                    m_flushed = true;
+                }
+            }
+            else {
+                fill();
+            }
+        }
+
+        int n = out.position() - off;
+        return n == 0 && m_flushed ? -1 : n;
+    }
+
+    /**
+     * Read more bytes from the channel, keeping any bytes of an
+     * incomplete character.
+     *
+     * @throws IOException if the channel cannot be read
+     */
+    private void fill() throws IOException {
+        m_bytes.compact();
+        try {
+            if (m_channel.read(m_bytes) < 0) {
+                m_endOfInput = true;
+            }
+        }
+        finally {
+            m_bytes.flip();
+        }
+    }
+
+    /**
+     * Does not close the channel.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,441 @@
+package org.blackbeanbag.recipe.scanners;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.blackbeanbag.recipe.DocumentSchema;
+
+/**
+ * Implementation of {@link Scanner} that supports Microsoft Word
+ * documents in the Office Open XML format (.docx, Word 2007 and later).
+ * <p>
+ * The paragraphs are read with a single StAX pass over the
+ * {@code word/document.xml} part of the package, without building an
+ * object model of the document. The package is read as a stream, so
+ * other parts such as embedded images are skipped without being held in
+ * memory. As with {@link WordScanner}, the first paragraph is the recipe
+ * title; empty paragraphs before it are skipped.
+ * <p>
+ * When used as a {@link StreamingScanner}, only the paragraphs up to the
+ * title are read up front; the body field is backed by a reader that
+ * parses the rest of the document while it is being indexed.
+ */
+public class DocxScanner implements Scanner, StreamingScanner, FileTypes {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(DocxScanner.class);
+
+    /**
+     * MIME type of Word documents in the Office Open XML format.
+     */
+    public static final String MIME_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+    /**
+     * Name of the package part holding the main document.
+     */
+    private static final String DOCUMENT_PART = "word/document.xml";
+
+    /**
+     * Namespace of the WordprocessingML elements.
+     */
+    private static final String NAMESPACE = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    /**
+     * StAX factory of each thread, configured not to resolve DTDs or
+     * external entities. Text is not coalesced, so that a long run of
+     * text reaches the reader in the parser's chunks.
+     */
+    private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+            return factory;
+        }
+    };
+
+    /**
+     * Number of characters of a paragraph after which the text read so
+     * far is returned before the rest of the paragraph is parsed.
+     */
+    static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Schema used to create documents.
+     */
+    private final DocumentSchema m_schema;
+
+    /**
+     * Construct a DocxScanner using the default {@link DocumentSchema}.
+     */
+    public DocxScanner() {
+        this(DocumentSchema.DEFAULT);
+    }
+
+    /**
+     * Construct a DocxScanner.
+     *
+     * @param schema schema used to create documents
+     */
+    public DocxScanner(DocumentSchema schema) {
+        m_schema = schema;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean supportsFile(String file) {
+        return file.toLowerCase(Locale.ROOT).endsWith(".docx");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean supportsFile(Path file) {
+        return supportsFile(file.toString());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getExtensions() {
+        return Collections.singletonList("docx");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getMimeTypes() {
+        return Collections.singletonList(MIME_TYPE);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException if the file is not a Word document or
+     *         cannot be read
+     */
+    @Override
+    public Document scan(String file) {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ParagraphReader reader = open(channel);
+            try {
+                String title = reader.readTitle();
+                StringBuilder body = new StringBuilder();
+                char[] buffer = new char[4096];
+                int n;
+                while ((n = reader.read(buffer)) != -1) {
+                    body.append(buffer, 0, n);
+                }
+                return created(file, m_schema.createDocument(file, title, body.toString()));
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Error parsing file " + file, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Document scan(Path file, ReadableByteChannel channel, long size) throws IOException {
+        ParagraphReader reader = open(channel);
+        try {
+            String title = reader.readTitle();
+            String fileName = file.toString();
+            return created(fileName, m_schema.createDocument(fileName, title, reader));
+        }
+        catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a reader for the paragraphs of a document. The package is read
+     * up to the start of the main document part.
+     *
+     * @param channel channel positioned at the start of the package
+     *
+     * @return a reader for the paragraphs
+     *
+     * @throws IOException if the package cannot be read or has no main
+     *         document part
+     */
+    private static ParagraphReader open(ReadableByteChannel channel) throws IOException {
+        // the channel is owned by the caller; closing the zip stream only
+        // releases the inflater
+        ZipInputStream zip = new ZipInputStream(new FilterInputStream(Channels.newInputStream(channel)) {
+            @Override
+            public void close() {
+            }
+        });
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (DOCUMENT_PART.equals(entry.getName())) {
+                    ParagraphReader reader = new ParagraphReader(FACTORY.get().createXMLStreamReader(zip), zip);
+                    zip = null;
+                    return reader;
+                }
+            }
+            throw new IOException("Not a Word document: " + DOCUMENT_PART + " not found");
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        finally {
+            if (zip != null) {
+                zip.close();
+            }
+        }
+    }
+
+    /**
+     * Log the creation of a document.
+     *
+     * @param file  the scanned file
+     * @param doc   the created document
+     *
+     * @return the document
+     */
+    private static Document created(String file, Document doc) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Scanned file " + file);
+        }
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Created document " + doc);
+        }
+        return doc;
+    }
+
+    /**
+     * Reader returning the text of a document one paragraph at a time,
+     * each followed by a line break. Tabs and line breaks within a
+     * paragraph are returned as such; deleted text and field codes are
+     * left out. A paragraph longer than {@link #CHUNK_SIZE} characters is
+     * returned in chunks of about that size, so that the memory used does
+     * not depend on the length of a paragraph.
+     */
+    static class ParagraphReader extends Reader {
+        /**
+         * Parser positioned within the main document part.
+         */
+        private final XMLStreamReader m_parser;
+
+        /**
+         * Stream the parser reads from, closed with this reader.
+         */
+        private final InputStream m_source;
+
+        /**
+         * Text of the paragraph, or chunk of a paragraph, being returned.
+         */
+        private final StringBuilder m_paragraph = new StringBuilder();
+
+        /**
+         * Position of the next character of the paragraph to return.
+         */
+        private int m_position;
+
+        /**
+         * True while the parser is inside a text element.
+         */
+        private boolean m_text;
+
+        /**
+         * True once the end of the document has been reached.
+         */
+        private boolean m_eof;
+
+        /**
+         * Construct a ParagraphReader.
+         *
+         * @param parser  parser at the start of the main document part
+         * @param source  stream the parser reads from
+         */
+        ParagraphReader(XMLStreamReader parser, InputStream source) {
+            m_parser = parser;
+            m_source = source;
+        }
+
+        /**
+         * Read up to and including the first paragraph that is not blank.
+         * The paragraphs remain available to be read. Of a paragraph
+         * longer than {@link #CHUNK_SIZE} characters, only the first chunk
+         * is read.
+         *
+         * @return the trimmed text of the first paragraph that is not
+         *         blank, or null if there is none
+         *
+         * @throws IOException if the document cannot be parsed
+         */
+        String readTitle() throws IOException {
+            StringBuilder skipped = new StringBuilder();
+            while (nextChunk()) {
+                String text = m_paragraph.toString();
+                skipped.append(text);
+                if (!text.trim().isEmpty()) {
+                    // put back everything read so far
+                    m_paragraph.setLength(0);
+                    m_paragraph.append(skipped);
+                    m_position = 0;
+                    return text.trim();
+                }
+            }
+            m_paragraph.setLength(0);
+            m_paragraph.append(skipped);
+            m_position = 0;
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (m_position == m_paragraph.length()) {
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, m_paragraph.length() - m_position);
+            m_paragraph.getChars(m_position, m_position + n, cbuf, off);
+            m_position += n;
+            return n;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            m_eof = true;
+            try {
+                m_parser.close();
+            }
+            catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            finally {
+                m_source.close();
+            }
+        }
+
+        /**
+         * Replace the buffered text with that of the next paragraph, or
+         * with the next {@link #CHUNK_SIZE} characters of it if the
+         * paragraph is longer.
+         *
+         * @return false if there is no more text
+         *
+         * @throws IOException if the document cannot be parsed
+         */
+        private boolean nextChunk() throws IOException {
+            m_paragraph.setLength(0);
+            m_position = 0;
+            if (m_eof) {
+                return false;
+            }
+
+            try {
+                while (m_parser.hasNext()) {
+                    int event = m_parser.next();
+                    if (event == XMLStreamConstants.START_ELEMENT && NAMESPACE.equals(m_parser.getNamespaceURI())) {
+                        String name = m_parser.getLocalName();
+                        if ("t".equals(name)) {
+                            m_text = true;
+                        }
+                        else if ("pPr".equals(name)) {
+                            // paragraph properties hold no text, but their
+                            // tab stop definitions are also named tab
+                            skipElement();
+                        }
+                        else if ("tab".equals(name)) {
+                            m_paragraph.append('\t');
+                        }
+                        else if ("br".equals(name) || "cr".equals(name)) {
+                            m_paragraph.append('\n');
+                        }
+                    }
+                    else if (m_text && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                            || event == XMLStreamConstants.SPACE)) {
+                        m_paragraph.append(m_parser.getTextCharacters(), m_parser.getTextStart(),
+                                m_parser.getTextLength());
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT && NAMESPACE.equals(m_parser.getNamespaceURI())) {
+                        String name = m_parser.getLocalName();
+                        if ("t".equals(name)) {
+                            m_text = false;
+                        }
+                        else if ("p".equals(name)) {
+                            m_paragraph.append('\n');
+                            return true;
+                        }
+                    }
+                    if (m_paragraph.length() >= CHUNK_SIZE) {
+                        return true;
+                    }
+                }
+            }
+            catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+
+            m_eof = true;
+            return m_paragraph.length() > 0;
+        }
+
+        /**
+         * Skip the current element and everything in it.
+         *
+         * @throws XMLStreamException if the document cannot be parsed
+         */
+        private void skipElement() throws XMLStreamException {
+            int depth = 1;
+            while (depth > 0) {
+                int event = m_parser.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.blackbeanbag.recipe.scanners;
+
+import java.util.Collection;
+
+/**
+ * The FileTypes interface is implemented by {@link Scanner}s that declare
+ * the file types they support, so that a {@link ScannerRegistry} can find
+ * them by file extension or MIME type without asking every scanner.
+ * Scanners that do not implement it are asked through
+ * {@link Scanner#supportsFile(String)} for files no declared type matches.
+ */
+public interface FileTypes {
+    /**
+     * Return the file extensions supported by the scanner, without the
+     * leading dot, in lower case.
+     *
+     * @return the supported extensions
+     */
+    Collection<String> getExtensions();
+
+    /**
+     * Return the MIME types supported by the scanner, used for files
+     * whose extension is unknown when MIME sniffing is enabled.
+     *
+     * @return the supported MIME types; may be empty
+     */
+    Collection<String> getMimeTypes();
+}
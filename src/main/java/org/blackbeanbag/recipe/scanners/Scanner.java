@@ -23,6 +23,8 @@ public interface Scanner {
      * @param file file to index
      *
      * @return a Lucene document for indexing
+     *
+     * @throws RuntimeException if the file cannot be scanned
      */
     Document scan(String file);
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package org.blackbeanbag.recipe.scanners;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * Adapter that allows a {@link Scanner} to be used as a
+ * {@link StreamingScanner}. The adapted scanner opens the file itself,
+ * so the channel passed to {@link #scan(Path, ReadableByteChannel, long)}
+ * is not read.
+ */
+public class ScannerAdapter implements StreamingScanner {
+    /**
+     * The adapted scanner.
+     */
+    private final Scanner m_scanner;
+
+    /**
+     * Construct a ScannerAdapter.
+     *
+     * @param scanner the scanner to adapt
+     */
+    public ScannerAdapter(Scanner scanner) {
+        m_scanner = scanner;
+    }
+
+    /**
+     * Return a streaming scanner for the given scanner: the scanner
+     * itself if it implements {@link StreamingScanner}, otherwise an
+     * adapter.
+     *
+     * @param scanner a scanner
+     *
+     * @return a streaming scanner
+     */
+    public static StreamingScanner adapt(Scanner scanner) {
+        return scanner instanceof StreamingScanner
+                ? (StreamingScanner) scanner
+                : new ScannerAdapter(scanner);
+    }
+
+    /**
+     * Return the adapted scanner.
+     *
+     * @return the adapted scanner
+     */
+    public Scanner getScanner() {
+        return m_scanner;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean supportsFile(Path file) {
+        return m_scanner.supportsFile(file.toString());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Document scan(Path file, ReadableByteChannel channel, long size) {
+        return m_scanner.scan(file.toString());
+    }
+}
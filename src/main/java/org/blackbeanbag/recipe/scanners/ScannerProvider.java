@@ -0,0 +1,34 @@
+package org.blackbeanbag.recipe.scanners;
+
+import org.blackbeanbag.recipe.DocumentSchema;
+
+/**
+ * The ScannerProvider interface allows scanners for additional document
+ * types to be plugged in without changing the indexer. Implementations
+ * are discovered with {@link java.util.ServiceLoader} by
+ * {@link ScannerRegistry#createDefault(DocumentSchema)}: list the
+ * implementation class in a
+ * {@code META-INF/services/org.blackbeanbag.recipe.scanners.ScannerProvider}
+ * file on the class path. Implementations must have a public no argument
+ * constructor.
+ */
+public interface ScannerProvider {
+    /**
+     * Create the scanner. The scanner should implement {@link FileTypes}
+     * so that it can be found by file extension.
+     *
+     * @param schema schema of the documents the scanner must create
+     *
+     * @return the scanner
+     */
+    Scanner createScanner(DocumentSchema schema);
+
+    /**
+     * Return the priority of the scanner. When several scanners support
+     * the same file type, the one with the highest priority is used; the
+     * built-in scanners have priority zero.
+     *
+     * @return the priority
+     */
+    int getPriority();
+}
@@ -0,0 +1,423 @@
+package org.blackbeanbag.recipe.scanners;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.apache.log4j.Logger;
+import org.blackbeanbag.recipe.DocumentSchema;
+
+/**
+ * ScannerRegistry selects the one {@link Scanner} that indexes a file.
+ * Scanners that implement {@link FileTypes} are found by the extension of
+ * the file name with a single map lookup, however many scanners are
+ * registered. If no scanner is registered for the extension and MIME
+ * sniffing is enabled, the file's content type is looked up next. Only
+ * then are the scanners without declared file types asked in turn.
+ * <p>
+ * When several scanners support the same type, the one with the highest
+ * priority wins; among scanners of equal priority, the one registered
+ * first. Either way, a file is scanned by at most one scanner.
+ * <p>
+ * Scanners are registered before the registry is used; lookups may then
+ * be made concurrently.
+ */
+public class ScannerRegistry {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = Logger.getLogger(ScannerRegistry.class);
+
+    /**
+     * MIME type reported by {@link #sniff(Path)} for OLE2 compound
+     * documents, the container of Word 97-2003 files.
+     */
+    public static final String OLE2_MIME_TYPE = "application/x-ole-storage";
+
+    /**
+     * MIME type reported by {@link #sniff(Path)} for ZIP archives, the
+     * container of Office Open XML files.
+     */
+    public static final String ZIP_MIME_TYPE = "application/zip";
+
+    /**
+     * MIME type some file type detectors report for unknown content.
+     */
+    private static final String UNKNOWN_MIME_TYPE = "application/octet-stream";
+
+    /**
+     * Signature at the start of an OLE2 compound document.
+     */
+    private static final byte[] OLE2_MAGIC = {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0,
+            (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1};
+
+    /**
+     * Signature at the start of a ZIP archive.
+     */
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+
+    /**
+     * All registrations, in registration order.
+     */
+    private final List<Registration> m_registrations = new ArrayList<Registration>();
+
+    /**
+     * Scanner to use for each extension.
+     */
+    private final Map<String, Registration> m_extensions = new HashMap<String, Registration>();
+
+    /**
+     * Scanner to use for each MIME type.
+     */
+    private final Map<String, Registration> m_mimeTypes = new HashMap<String, Registration>();
+
+    /**
+     * Scanners without declared file types, by descending priority.
+     */
+    private final List<Registration> m_probes = new ArrayList<Registration>();
+
+    /**
+     * True if the content type of files with an unknown extension is
+     * determined.
+     */
+    private volatile boolean m_sniffing;
+
+    /**
+     * A scanner in the registry.
+     */
+    public static class Registration {
+        /**
+         * The scanner.
+         */
+        private final Scanner m_scanner;
+
+        /**
+         * The scanner as a streaming scanner.
+         */
+        private final StreamingScanner m_streamingScanner;
+
+        /**
+         * Priority of the scanner.
+         */
+        private final int m_priority;
+
+        /**
+         * Construct a Registration.
+         *
+         * @param scanner   the scanner
+         * @param priority  priority of the scanner
+         */
+        Registration(Scanner scanner, int priority) {
+            m_scanner = scanner;
+            m_streamingScanner = ScannerAdapter.adapt(scanner);
+            m_priority = priority;
+        }
+
+        /**
+         * Return the scanner.
+         *
+         * @return the scanner
+         */
+        public Scanner getScanner() {
+            return m_scanner;
+        }
+
+        /**
+         * Return the scanner as a streaming scanner.
+         *
+         * @return the scanner itself if it is a streaming scanner,
+         *         otherwise an adapter
+         */
+        public StreamingScanner getStreamingScanner() {
+            return m_streamingScanner;
+        }
+
+        /**
+         * Return the name of the scanner, as recorded in the metrics.
+         *
+         * @return the simple class name of the scanner
+         */
+        public String getName() {
+            return m_scanner.getClass().getSimpleName();
+        }
+
+        /**
+         * Return the priority of the scanner.
+         *
+         * @return the priority
+         */
+        public int getPriority() {
+            return m_priority;
+        }
+    }
+
+    /**
+     * Create a registry with the built-in scanners for Word (.doc and
+     * .docx) and text files and the scanners of all {@link ScannerProvider}s found on the class
+     * path. Providers that cannot be loaded are logged and skipped.
+     *
+     * @param schema schema of the documents the scanners must create
+     *
+     * @return the registry
+     */
+    public static ScannerRegistry createDefault(DocumentSchema schema) {
+        ScannerRegistry registry = new ScannerRegistry();
+        registry.register(new WordScanner(schema), 0);
+        registry.register(new DocxScanner(schema), 0);
+        registry.register(new TextScanner(schema), 0);
+
+        Iterator<ScannerProvider> providers = ServiceLoader.load(ScannerProvider.class).iterator();
+        while (true) {
+            try {
+                if (!providers.hasNext()) {
+                    break;
+                }
+                ScannerProvider provider = providers.next();
+                registry.register(provider.createScanner(schema), provider.getPriority());
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Registered scanners of " + provider.getClass().getName());
+                }
+            }
+            catch (ServiceConfigurationError e) {
+                LOG.warn("Could not load scanner provider", e);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Create a registry with the given scanners, all with priority zero,
+     * so that a file supported by several of them is scanned by the first.
+     *
+     * @param scanners the scanners
+     *
+     * @return the registry
+     */
+    public static ScannerRegistry of(Collection<? extends Scanner> scanners) {
+        ScannerRegistry registry = new ScannerRegistry();
+        for (Scanner scanner : scanners) {
+            registry.register(scanner, 0);
+        }
+        return registry;
+    }
+
+    /**
+     * Register a scanner. A scanner that implements {@link FileTypes} is
+     * used for its extensions and MIME types unless a scanner with a
+     * higher priority supports them; other scanners are asked about files
+     * whose type no registered scanner declares.
+     *
+     * @param scanner   the scanner
+     * @param priority  priority of the scanner
+     *
+     * @return the registration
+     */
+    public synchronized Registration register(Scanner scanner, int priority) {
+        Registration registration = new Registration(scanner, priority);
+        m_registrations.add(registration);
+
+        if (scanner instanceof FileTypes) {
+            FileTypes types = (FileTypes) scanner;
+            for (String extension : types.getExtensions()) {
+                put(m_extensions, extension.toLowerCase(Locale.ROOT), registration);
+            }
+            for (String mimeType : types.getMimeTypes()) {
+                put(m_mimeTypes, mimeType.toLowerCase(Locale.ROOT), registration);
+            }
+        }
+        else {
+            m_probes.add(registration);
+            // stable, so equal priorities keep their registration order
+            Collections.sort(m_probes, new Comparator<Registration>() {
+                @Override
+                public int compare(Registration r1, Registration r2) {
+                    return r1.m_priority > r2.m_priority ? -1 : r1.m_priority < r2.m_priority ? 1 : 0;
+                }
+            });
+        }
+        return registration;
+    }
+
+    /**
+     * Return all registered scanners.
+     *
+     * @return the scanners, in registration order
+     */
+    public synchronized List<Scanner> getScanners() {
+        List<Scanner> scanners = new ArrayList<Scanner>(m_registrations.size());
+        for (Registration registration : m_registrations) {
+            scanners.add(registration.getScanner());
+        }
+        return scanners;
+    }
+
+    /**
+     * Return all registrations.
+     *
+     * @return the registrations, in registration order
+     */
+    public synchronized List<Registration> getRegistrations() {
+        return new ArrayList<Registration>(m_registrations);
+    }
+
+    /**
+     * Determine if the content type of files is determined when no scanner
+     * is registered for their extension.
+     *
+     * @return true if MIME sniffing is enabled
+     */
+    public boolean isSniffing() {
+        return m_sniffing;
+    }
+
+    /**
+     * Enable or disable MIME sniffing for files whose extension no scanner
+     * is registered for. Sniffing reads the start of such files, so it is
+     * disabled by default.
+     *
+     * @param sniffing true to enable MIME sniffing
+     */
+    public void setSniffing(boolean sniffing) {
+        m_sniffing = sniffing;
+    }
+
+    /**
+     * Find the scanner for a file.
+     *
+     * @param file the file
+     *
+     * @return the registration of the scanner, or null if no scanner
+     *         supports the file
+     */
+    public Registration find(Path file) {
+        Registration registration = m_extensions.get(extension(file));
+        if (registration != null) {
+            return registration;
+        }
+
+        if (m_sniffing && !m_mimeTypes.isEmpty()) {
+            String mimeType = sniff(file);
+            if (mimeType != null) {
+                registration = m_mimeTypes.get(mimeType);
+                if (registration != null) {
+                    return registration;
+                }
+            }
+        }
+
+        for (Registration probe : m_probes) {
+            if (probe.getStreamingScanner().supportsFile(file)) {
+                return probe;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the extension of a file name: the part after the last dot,
+     * in lower case.
+     *
+     * @param file the file
+     *
+     * @return the extension, or an empty string if the name has none
+     */
+    public static String extension(Path file) {
+        Path name = file.getFileName();
+        if (name == null) {
+            return "";
+        }
+        String s = name.toString();
+        int dot = s.lastIndexOf('.');
+        return dot < 0 ? "" : s.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Determine the MIME type of a file. The platform's file type
+     * detectors are tried first; failing those, the start of the file is
+     * compared with the signatures of OLE2 and ZIP containers.
+     *
+     * @param file the file
+     *
+     * @return the MIME type in lower case, or null if it is unknown
+     */
+    public static String sniff(Path file) {
+        try {
+            String type = Files.probeContentType(file);
+            if (type != null && !type.equalsIgnoreCase(UNKNOWN_MIME_TYPE)) {
+                return type.toLowerCase(Locale.ROOT);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(OLE2_MAGIC.length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) <= 0) {
+                        break;
+                    }
+                }
+                byte[] head = buffer.array();
+                if (startsWith(head, buffer.position(), OLE2_MAGIC)) {
+                    return OLE2_MIME_TYPE;
+                }
+                if (startsWith(head, buffer.position(), ZIP_MAGIC)) {
+                    return ZIP_MIME_TYPE;
+                }
+            }
+        }
+        catch (IOException e) {
+            LOG.debug("Could not determine the type of " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * Determine if bytes start with a signature.
+     *
+     * @param bytes      the bytes
+     * @param length     number of valid bytes
+     * @param signature  the signature
+     *
+     * @return true if the bytes start with the signature
+     */
+    private static boolean startsWith(byte[] bytes, int length, byte[] signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (bytes[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Map a key to a registration, unless it is mapped to a registration
+     * of at least the same priority.
+     *
+     * @param map           the map
+     * @param key           the key
+     * @param registration  the registration
+     */
+    private static void put(Map<String, Registration> map, String key, Registration registration) {
+        Registration existing = map.get(key);
+        if (existing == null || existing.m_priority < registration.m_priority) {
+            map.put(key, registration);
+        }
+        else if (LOG.isDebugEnabled()) {
+            LOG.debug(registration.getName() + " does not replace " + existing.getName() + " for " + key);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.blackbeanbag.recipe.scanners;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * The StreamingScanner interface defines methods required to support
+ * indexing of document types without reading whole documents into
+ * memory. The caller opens the file and passes its contents as a
+ * channel; a scanner may return a document whose fields read from that
+ * channel (for instance a field backed by a {@link java.io.Reader}), so
+ * text flows into the analyzer as the document is indexed.
+ * <p>
+ * Existing {@link Scanner} implementations can be used wherever a
+ * StreamingScanner is expected via {@link ScannerAdapter}.
+ */
+public interface StreamingScanner {
+    /**
+     * Determine if a file is supported by this scanner.
+     *
+     * @param file file to determine support for
+     *
+     * @return true if this scanner supports this file
+     */
+    boolean supportsFile(Path file);
+
+    /**
+     * Scan the given file and return a Lucene document for indexing.
+     * The channel is owned by the caller, who must keep it open until
+     * the returned document has been added to the index and close it
+     * afterwards. If the channel is a {@link java.nio.channels.FileChannel}
+     * it is positioned at the start of the file.
+     *
+     * @param file     file to index
+     * @param channel  channel reading the contents of the file
+     * @param size     size of the file in bytes
+     *
+     * @return a Lucene document for indexing
+     *
+     * @throws IOException if the file cannot be read
+     */
+    Document scan(Path file, ReadableByteChannel channel, long size) throws IOException;
+}
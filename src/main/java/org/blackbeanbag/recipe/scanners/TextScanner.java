@@ -2,75 +2,271 @@ package org.blackbeanbag.recipe.scanners;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.TextField;
+import org.blackbeanbag.recipe.DocumentSchema;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.*;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
 
 /**
  * Implementation of {@link Scanner} that supports plain
  * text documents.
+ * <p>
+ * The charset of each file is detected with {@link CharsetDetector}.
+ * When used as a {@link StreamingScanner}, only the first line (the
+ * title) is read up front; the body field is backed by a reader that
+ * decodes the file while it is being indexed. Files of at least
+ * {@link #DEFAULT_MAP_THRESHOLD} bytes are memory mapped instead of
+ * being read through a buffer.
  */
-public class TextScanner implements Scanner {
+public class TextScanner implements Scanner, StreamingScanner, FileTypes {
     private static final Logger LOG = Logger.getLogger(TextScanner.class);
 
+    /**
+     * Default size in bytes from which files are memory mapped.
+     */
+    public static final long DEFAULT_MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Size of the buffer used to read files that are not mapped.
+     */
+    private static final int BUFFER_SIZE = CharsetDetector.SAMPLE_SIZE;
+
+    /**
+     * Smallest buffer used to read files.
+     */
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    /**
+     * Schema used to create documents.
+     */
+    private final DocumentSchema m_schema;
+
+    /**
+     * Size in bytes from which files are memory mapped.
+     */
+    private long m_mapThreshold = DEFAULT_MAP_THRESHOLD;
+
+    /**
+     * Construct a TextScanner using the default {@link DocumentSchema}.
+     */
+    public TextScanner() {
+        this(DocumentSchema.DEFAULT);
+    }
+
+    /**
+     * Construct a TextScanner.
+     *
+     * @param schema schema used to create documents
+     */
+    public TextScanner(DocumentSchema schema) {
+        m_schema = schema;
+    }
+
+    /**
+     * Return the size from which files are memory mapped.
+     *
+     * @return the threshold in bytes
+     */
+    public long getMapThreshold() {
+        return m_mapThreshold;
+    }
+
+    /**
+     * Set the size from which files are memory mapped. Mapping avoids
+     * copying large files through a buffer, but the mapping is only
+     * released once it has been garbage collected.
+     *
+     * @param mapThreshold the threshold in bytes
+     */
+    public void setMapThreshold(long mapThreshold) {
+        m_mapThreshold = mapThreshold;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public boolean supportsFile(String file) {
-        return file.toLowerCase().endsWith("txt");
+        return file.toLowerCase(Locale.ROOT).endsWith(".txt");
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public Document scan(String file) {
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(file));
-            String title = reader.readLine();
-
-            Document doc = new Document();
-            doc.add(new Field("file", file, TextField.TYPE_STORED));
-            doc.add(new Field("title", title, TextField.TYPE_STORED));
+    public boolean supportsFile(Path file) {
+        return supportsFile(file.toString());
+    }
 
-            String line;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getExtensions() {
+        return Collections.singletonList("txt");
+    }
 
-            while ((line = reader.readLine()) != null) {
-                StringTokenizer t = new StringTokenizer(line);
-                while (t.hasMoreTokens()) {
-                    doc.add(new Field("ingredient", t.nextToken().trim(), TextField.TYPE_STORED));
-                }
-            }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getMimeTypes() {
+        return Collections.singletonList("text/plain");
+    }
 
-            reader.close();
-            reader = null;
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned document does not refer to the file, which is
+     * closed before this method returns.
+     */
+    @Override
+    public Document scan(String file) {
+        Path path = Paths.get(file);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            BufferedReader reader = open(channel, channel.size());
+            String title = reader.readLine();
 
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Scanned file " + file);
+            StringBuilder body = new StringBuilder();
+            if (title != null) {
+                body.append(title).append('\n');
             }
-            if (LOG.isTraceEnabled()) {
-                LOG.trace("Created document " + doc);
+            char[] buffer = new char[4096];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, n);
             }
-            return doc;
+
+            return created(file, m_schema.createDocument(file,
+                    title == null ? null : title.trim(), body.toString()));
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
-        finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                }
-                catch (IOException e) {
-                    LOG.warn("Error closing file", e);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Document scan(Path file, ReadableByteChannel channel, long size) throws IOException {
+        BufferedReader reader = open(channel, size);
+        String title = reader.readLine();
+
+        Reader body = title == null
+                ? reader
+                : new ConcatReader(new StringReader(title + '\n'), reader);
+
+        String fileName = file.toString();
+        return created(fileName, m_schema.createDocument(fileName,
+                title == null ? null : title.trim(), body));
+    }
+
+    /**
+     * Open a reader for the contents of a channel, detecting the charset
+     * and memory mapping large files.
+     *
+     * @param channel  channel positioned at the start of the file
+     * @param size     size of the file in bytes
+     *
+     * @return a reader for the text
+     *
+     * @throws IOException if the channel cannot be read
+     */
+    protected BufferedReader open(ReadableByteChannel channel, long size) throws IOException {
+        if (channel instanceof FileChannel && size >= m_mapThreshold && size <= Integer.MAX_VALUE) {
+            ByteBuffer mapped = ((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, 0, size);
+            Charset charset = CharsetDetector.detect(mapped);
+            return new BufferedReader(new DecodingReader(mapped, charset));
+        }
+
+        // small files are read with a single buffer sized to fit
+        int bufferSize = (int) Math.max(MIN_BUFFER_SIZE, Math.min(size + 1, BUFFER_SIZE));
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // fill the buffer so that there is enough text to detect the charset
+        }
+        buffer.flip();
+        Charset charset = CharsetDetector.detect(buffer);
+        return new BufferedReader(new DecodingReader(buffer, channel, charset), bufferSize);
+    }
+
+    /**
+     * Log the creation of a document.
+     *
+     * @param file  the scanned file
+     * @param doc   the created document
+     *
+     * @return the document
+     */
+    private static Document created(String file, Document doc) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Scanned file " + file);
+        }
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Created document " + doc);
+        }
+        return doc;
+    }
+
+    /**
+     * Reader returning the contents of one reader followed by another.
+     */
+    private static class ConcatReader extends Reader {
+        /**
+         * Reader read first; null once exhausted.
+         */
+        private Reader m_first;
+
+        /**
+         * Reader read second.
+         */
+        private final Reader m_second;
+
+        /**
+         * Construct a ConcatReader.
+         *
+         * @param first   reader read first
+         * @param second  reader read second
+         */
+        ConcatReader(Reader first, Reader second) {
+            m_first = first;
+            m_second = second;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (m_first != null) {
+                int n = m_first.read(cbuf, off, len);
+                if (n > 0) {
+                    return n;
                 }
+                m_first = null;
             }
+            return m_second.read(cbuf, off, len);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            m_second.close();
         }
     }
-}
\ No newline at end of file
+}
@@ -2,73 +2,171 @@ package org.blackbeanbag.recipe.scanners;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.TextField;
-import org.apache.poi.hwpf.extractor.WordExtractor;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.blackbeanbag.recipe.DocumentSchema;
 
-import java.io.FileInputStream;
-import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
 
 
 /**
  * Implementation of {@link Scanner} that supports Microsoft
- * word documents (Word 95 through Word 2003).
+ * word documents (Word 97 through Word 2003). Later documents are
+ * supported by {@link DocxScanner}.
+ * <p>
+ * The OLE2 container is read through a file-backed
+ * {@link NPOIFSFileSystem}, which reads blocks from the file as they are
+ * needed, and the text is decoded directly from the piece table of the
+ * document. Embedded pictures and other objects are never read, so the
+ * memory used does not grow with the size of the file. As a
+ * {@link StreamingScanner}, only the text up to the recipe title is read
+ * up front; the body field is backed by a reader that decodes the rest
+ * while it is being indexed, and closing it closes the container.
+ * <p>
+ * Files that are not Word 97-2003 documents, including Word 95 and
+ * encrypted documents, are reported with an exception rather than
+ * indexed.
  */
-public class WordScanner implements Scanner {
+public class WordScanner implements Scanner, StreamingScanner, FileTypes {
     private static final Logger LOG = Logger.getLogger(WordScanner.class);
 
+    /**
+     * Schema used to create documents.
+     */
+    private final DocumentSchema m_schema;
+
+    /**
+     * Construct a WordScanner using the default {@link DocumentSchema}.
+     */
+    public WordScanner() {
+        this(DocumentSchema.DEFAULT);
+    }
+
+    /**
+     * Construct a WordScanner.
+     *
+     * @param schema schema used to create documents
+     */
+    public WordScanner(DocumentSchema schema) {
+        m_schema = schema;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public boolean supportsFile(String file) {
-        return file.toLowerCase().endsWith("doc");
+        return file.toLowerCase(Locale.ROOT).endsWith(".doc");
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public Document scan(String file) {
-        try {
-            POIFSFileSystem fs = new POIFSFileSystem(new FileInputStream(file));
-            WordExtractor extractor = new WordExtractor(fs);
-            String[] paragraphs = extractor.getParagraphText();
+    public boolean supportsFile(Path file) {
+        return supportsFile(file.toString());
+    }
 
-            // assuming the first line is the recipe title
-            String title = paragraphs[0].trim();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getExtensions() {
+        return Collections.singletonList("doc");
+    }
 
-            Document doc = new Document();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getMimeTypes() {
+        return Arrays.asList("application/msword", ScannerRegistry.OLE2_MIME_TYPE);
+    }
 
-            doc.add(new Field("file", file, TextField.TYPE_STORED));
-            doc.add(new Field("title", title, TextField.TYPE_STORED));
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException if the file is not a supported Word
+     *         document or cannot be read
+     */
+    @Override
+    public Document scan(String file) {
+        try {
+            WordTextReader reader = new WordTextReader(new NPOIFSFileSystem(new File(file), true));
+            try {
+                // assuming the first line is the recipe title
+                String title = reader.readTitle();
 
-            for (String paragraph : paragraphs) {
-                // Someday this tokenizer will be smarter and distinguish
+                // Someday the analyzer will be smarter and distinguish
                 // between ingredients and amounts. The index (or the search)
                 // should be able to perform quantity conversions and recognize
                 // common quantity abbreviations. This may be done with a custom
                 // Lucene tokenizer.
                 //
-                // For now we'll naively index each string that we come across
-
-                StringTokenizer t = new StringTokenizer(paragraph);
-                while (t.hasMoreTokens()) {
-                    doc.add(new Field("ingredient", t.nextToken().trim(), TextField.TYPE_STORED));
+                // For now we'll naively index all of the text that we come across
+                StringBuilder body = new StringBuilder();
+                char[] buffer = new char[4096];
+                int n;
+                while ((n = reader.read(buffer)) != -1) {
+                    body.append(buffer, 0, n);
                 }
+                return created(file, m_schema.createDocument(file, title, body.toString()));
             }
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Scanned file " + file);
-            }
-            if (LOG.isTraceEnabled()) {
-                LOG.trace("Created document " + doc);
+            finally {
+                reader.close();
             }
-            return doc;
         }
-        catch (Exception e) {
-            LOG.error("Error parsing file " + file, e);
-            return null;
+        catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Error parsing file " + file, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the channel is a {@link FileChannel}, the container is read
+     * through it and closing the body closes the channel; otherwise the
+     * file is opened again, read-only.
+     */
+    @Override
+    public Document scan(Path file, ReadableByteChannel channel, long size) throws IOException {
+        NPOIFSFileSystem fs = channel instanceof FileChannel
+                ? new NPOIFSFileSystem((FileChannel) channel)
+                : new NPOIFSFileSystem(file.toFile(), true);
+        WordTextReader reader = new WordTextReader(fs);
+        try {
+            String title = reader.readTitle();
+            String fileName = file.toString();
+            return created(fileName, m_schema.createDocument(fileName, title, reader));
+        }
+        catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Log the creation of a document.
+     *
+     * @param file  the scanned file
+     * @param doc   the created document
+     *
+     * @return the document
+     */
+    private static Document created(String file, Document doc) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Scanned file " + file);
+        }
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Created document " + doc);
         }
+        return doc;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,514 @@
+package org.blackbeanbag.recipe.scanners;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+
+/**
+ * Reader returning the text of the main document of a Word 97-2003 file.
+ * Only the file information block and the piece table are read up front;
+ * the text itself is decoded piece by piece from the
+ * {@code WordDocument} stream as it is read, so neither the document nor
+ * its paragraphs are ever held in memory as a whole, and embedded objects
+ * such as pictures are not read at all.
+ * <p>
+ * Paragraph marks, line breaks, page breaks and table cell marks are
+ * returned as line breaks. Field instructions, and other special
+ * characters such as picture anchors, are left out; field results are
+ * kept.
+ * <p>
+ * The file system is closed when the reader is closed, or as soon as the
+ * end of the text has been read.
+ */
+class WordTextReader extends Reader {
+    /**
+     * Magic number at the start of the file information block.
+     */
+    private static final int WORD_IDENT = 0xA5EC;
+
+    /**
+     * Oldest file format version supported (Word 97).
+     */
+    private static final int MIN_FORMAT_VERSION = 106;
+
+    /**
+     * Offset of the flags in the file information block.
+     */
+    private static final int FLAGS_OFFSET = 0x0A;
+
+    /**
+     * Flag set if the document is encrypted.
+     */
+    private static final int FLAG_ENCRYPTED = 0x0100;
+
+    /**
+     * Flag set if the piece table is in the {@code 1Table} stream rather
+     * than the {@code 0Table} stream.
+     */
+    private static final int FLAG_TABLE_1 = 0x0200;
+
+    /**
+     * Size of the fixed part of the file information block.
+     */
+    private static final int FIB_BASE_SIZE = 0x20;
+
+    /**
+     * Index of the main document length among the 32 bit values of the
+     * file information block.
+     */
+    private static final int CCP_TEXT_INDEX = 3;
+
+    /**
+     * Index of the location of the piece table among the offset and
+     * length pairs of the file information block.
+     */
+    private static final int CLX_INDEX = 33;
+
+    /**
+     * Largest piece table read, in bytes.
+     */
+    private static final int MAX_CLX_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Longest title returned by {@link #readTitle()}.
+     */
+    private static final int MAX_TITLE_LENGTH = 1024;
+
+    /**
+     * Characters of single byte (compressed) pieces.
+     */
+    private static final char[] CP1252 = new String(allBytes(), Charset.forName("windows-1252")).toCharArray();
+
+    /**
+     * The file system containing the document.
+     */
+    private final NPOIFSFileSystem m_fs;
+
+    /**
+     * Entry of the stream containing the text.
+     */
+    private final DocumentEntry m_text;
+
+    /**
+     * Character position at which each piece starts; the last element is
+     * where the last piece ends.
+     */
+    private final int[] m_pieceStarts;
+
+    /**
+     * Offset in the text stream at which each piece starts.
+     */
+    private final long[] m_pieceOffsets;
+
+    /**
+     * True for each piece stored with one byte per character.
+     */
+    private final boolean[] m_compressed;
+
+    /**
+     * Length of the main document in characters.
+     */
+    private final int m_textLength;
+
+    /**
+     * Index of the next piece to read.
+     */
+    private int m_piece;
+
+    /**
+     * Stream reading the current piece; null between pieces.
+     */
+    private DocumentInputStream m_in;
+
+    /**
+     * True if the current piece is stored with one byte per character.
+     */
+    private boolean m_inCompressed;
+
+    /**
+     * Number of characters of the current piece not read yet.
+     */
+    private int m_remaining;
+
+    /**
+     * Buffer for the bytes of the current piece.
+     */
+    private final byte[] m_bytes = new byte[4096];
+
+    /**
+     * For each field being read, true while its instructions are read.
+     */
+    private final Deque<Boolean> m_fields = new ArrayDeque<Boolean>();
+
+    /**
+     * Number of fields whose instructions are being read.
+     */
+    private int m_hidden;
+
+    /**
+     * True once the file system has been closed.
+     */
+    private boolean m_closed;
+
+    /**
+     * Text returned before the rest of the document; null if none.
+     */
+    private String m_pending;
+
+    /**
+     * Position in {@link #m_pending} of the next character to return.
+     */
+    private int m_pendingPosition;
+
+    /**
+     * Construct a WordTextReader. The file system is closed if the
+     * document cannot be read.
+     *
+     * @param fs the file system containing the document
+     *
+     * @throws IOException if the file is not a supported Word document
+     */
+    WordTextReader(NPOIFSFileSystem fs) throws IOException {
+        m_fs = fs;
+        boolean opened = false;
+        try {
+            DirectoryNode root = fs.getRoot();
+            if (!root.hasEntry("WordDocument")) {
+                throw new IOException("Not a Word document: no WordDocument stream");
+            }
+            m_text = (DocumentEntry) root.getEntry("WordDocument");
+
+            int flags;
+            int textLength;
+            int fcClx;
+            int lcbClx;
+            DocumentInputStream in = root.createDocumentInputStream(m_text);
+            try {
+                if (in.readUShort() != WORD_IDENT) {
+                    throw new IOException("Not a Word document: bad file information block");
+                }
+                int version = in.readUShort();
+                if (version < MIN_FORMAT_VERSION) {
+                    throw new IOException("Word 95 and earlier documents are not supported (format " + version + ")");
+                }
+                skip(in, FLAGS_OFFSET - 4);
+                flags = in.readUShort();
+                if ((flags & FLAG_ENCRYPTED) != 0) {
+                    throw new IOException("Encrypted Word documents are not supported");
+                }
+                skip(in, FIB_BASE_SIZE - FLAGS_OFFSET - 2);
+
+                int csw = in.readUShort();
+                skip(in, csw * 2);
+                int cslw = in.readUShort();
+                if (cslw <= CCP_TEXT_INDEX) {
+                    throw new IOException("Not a Word document: file information block too short");
+                }
+                skip(in, CCP_TEXT_INDEX * 4);
+                textLength = in.readInt();
+                skip(in, (cslw - CCP_TEXT_INDEX - 1) * 4);
+                int cbRgFcLcb = in.readUShort();
+                if (cbRgFcLcb <= CLX_INDEX) {
+                    throw new IOException("Not a Word document: file information block too short");
+                }
+                skip(in, CLX_INDEX * 8);
+                fcClx = in.readInt();
+                lcbClx = in.readInt();
+            }
+            finally {
+                in.close();
+            }
+
+            String table = (flags & FLAG_TABLE_1) != 0 ? "1Table" : "0Table";
+            if (!root.hasEntry(table) || lcbClx <= 0 || lcbClx > MAX_CLX_SIZE || fcClx < 0) {
+                throw new IOException("Not a Word document: no piece table");
+            }
+            byte[] clx = new byte[lcbClx];
+            in = root.createDocumentInputStream(table);
+            try {
+                skip(in, fcClx);
+                in.readFully(clx);
+            }
+            finally {
+                in.close();
+            }
+
+            // skip the property modifiers that precede the piece table
+            int pos = 0;
+            while (pos < clx.length && clx[pos] == 1) {
+                pos += 3 + uint16(clx, pos + 1);
+            }
+            if (pos + 5 > clx.length || clx[pos] != 2) {
+                throw new IOException("Not a Word document: bad piece table");
+            }
+            int lcb = int32(clx, pos + 1);
+            pos += 5;
+            int pieces = (lcb - 4) / 12;
+            if (lcb < 4 || pos + lcb > clx.length) {
+                throw new IOException("Not a Word document: bad piece table");
+            }
+
+            m_pieceStarts = new int[pieces + 1];
+            m_pieceOffsets = new long[pieces];
+            m_compressed = new boolean[pieces];
+            for (int i = 0; i <= pieces; i++) {
+                m_pieceStarts[i] = int32(clx, pos + i * 4);
+            }
+            int descriptors = pos + (pieces + 1) * 4;
+            for (int i = 0; i < pieces; i++) {
+                int fc = int32(clx, descriptors + i * 8 + 2);
+                m_compressed[i] = (fc & 0x40000000) != 0;
+                m_pieceOffsets[i] = m_compressed[i] ? (fc & 0x3FFFFFFF) / 2 : fc & 0x3FFFFFFF;
+            }
+            m_textLength = textLength;
+            opened = true;
+        }
+        finally {
+            if (!opened) {
+                fs.close();
+            }
+        }
+    }
+
+    /**
+     * Read up to and including the first line that is not blank. The
+     * lines remain available to be read. A title that does not end within
+     * {@value #MAX_TITLE_LENGTH} characters is cut off there.
+     *
+     * @return the trimmed text of the first line that is not blank, or
+     *         null if there is none
+     *
+     * @throws IOException if the document cannot be read
+     */
+    String readTitle() throws IOException {
+        StringBuilder read = new StringBuilder();
+        int lineStart = 0;
+        String title = null;
+        int c;
+        while (title == null && (c = read()) != -1) {
+            read.append((char) c);
+            if (c == '\n' || read.length() - lineStart >= MAX_TITLE_LENGTH) {
+                String line = read.substring(lineStart).trim();
+                if (!line.isEmpty()) {
+                    title = line;
+                }
+                lineStart = read.length();
+            }
+        }
+        if (title == null && lineStart < read.length()) {
+            String line = read.substring(lineStart).trim();
+            title = line.isEmpty() ? null : line;
+        }
+        m_pending = read.toString();
+        m_pendingPosition = 0;
+        return title;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (m_pending != null) {
+            int n = Math.min(len, m_pending.length() - m_pendingPosition);
+            m_pending.getChars(m_pendingPosition, m_pendingPosition + n, cbuf, off);
+            m_pendingPosition += n;
+            if (m_pendingPosition == m_pending.length()) {
+                m_pending = null;
+            }
+            if (n > 0) {
+                return n;
+            }
+        }
+
+        int n = 0;
+        while (n == 0) {
+            if (m_remaining == 0 && !nextPiece()) {
+                close();
+                return -1;
+            }
+            int width = m_inCompressed ? 1 : 2;
+            int chars = Math.min(Math.min(len, m_remaining), m_bytes.length / width);
+            m_in.readFully(m_bytes, 0, chars * width);
+            m_remaining -= chars;
+            for (int i = 0; i < chars; i++) {
+                char c = m_inCompressed
+                        ? CP1252[m_bytes[i] & 0xFF]
+                        : (char) ((m_bytes[2 * i] & 0xFF) | (m_bytes[2 * i + 1] & 0xFF) << 8);
+                c = filter(c);
+                if (c != 0) {
+                    cbuf[off + n++] = c;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        m_pending = null;
+        m_remaining = 0;
+        m_piece = m_compressed.length;
+        try {
+            if (m_in != null) {
+                m_in.close();
+                m_in = null;
+            }
+        }
+        finally {
+            m_fs.close();
+        }
+    }
+
+    /**
+     * Position the reader at the start of the next piece of the main
+     * document.
+     *
+     * @return false if there are no more pieces
+     *
+     * @throws IOException if the text stream cannot be read
+     */
+    private boolean nextPiece() throws IOException {
+        if (m_in != null) {
+            m_in.close();
+            m_in = null;
+        }
+        while (m_piece < m_compressed.length) {
+            int piece = m_piece++;
+            int start = Math.max(0, m_pieceStarts[piece]);
+            int end = Math.min(m_textLength, m_pieceStarts[piece + 1]);
+            if (end <= start) {
+                continue;
+            }
+            m_inCompressed = m_compressed[piece];
+            m_remaining = end - start;
+            m_in = new DocumentInputStream(m_text);
+            int width = m_inCompressed ? 1 : 2;
+            skip(m_in, m_pieceOffsets[piece] + (long) (start - m_pieceStarts[piece]) * width);
+            if ((long) m_remaining * width > m_in.available()) {
+                throw new IOException("Not a Word document: piece beyond the end of the text");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Map a character of the document to the character returned.
+     *
+     * @param c the character
+     *
+     * @return the character to return, or zero to leave it out
+     */
+    private char filter(char c) {
+        switch (c) {
+            case 0x13:
+                // field begin: instructions follow
+                m_fields.push(Boolean.TRUE);
+                m_hidden++;
+                return 0;
+            case 0x14:
+                // field separator: the result follows
+                if (!m_fields.isEmpty() && m_fields.peek()) {
+                    m_fields.pop();
+                    m_fields.push(Boolean.FALSE);
+                    m_hidden--;
+                }
+                return 0;
+            case 0x15:
+                // field end
+                if (!m_fields.isEmpty() && m_fields.pop()) {
+                    m_hidden--;
+                }
+                return 0;
+            default:
+                break;
+        }
+        if (m_hidden > 0) {
+            return 0;
+        }
+        switch (c) {
+            case '\r':
+            case 0x07:
+            case 0x0B:
+            case 0x0C:
+                // paragraph mark, table cell mark, line and page breaks
+                return '\n';
+            case '\t':
+                return c;
+            case 0x1E:
+                // non-breaking hyphen
+                return '-';
+            default:
+                return c < 0x20 ? 0 : c;
+        }
+    }
+
+    /**
+     * Skip bytes of a stream.
+     *
+     * @param in  the stream
+     * @param n   number of bytes to skip
+     *
+     * @throws IOException if the stream ends first
+     */
+    private static void skip(DocumentInputStream in, long n) throws IOException {
+        if (n < 0 || n > in.available() || in.skip(n) != n) {
+            throw new IOException("Not a Word document: unexpected end of stream");
+        }
+    }
+
+    /**
+     * Read an unsigned little endian 16 bit value.
+     *
+     * @param b    the bytes
+     * @param pos  position of the value
+     *
+     * @return the value
+     */
+    private static int uint16(byte[] b, int pos) {
+        return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8;
+    }
+
+    /**
+     * Read a little endian 32 bit value.
+     *
+     * @param b    the bytes
+     * @param pos  position of the value
+     *
+     * @return the value
+     */
+    private static int int32(byte[] b, int pos) {
+        return uint16(b, pos) | uint16(b, pos + 2) << 16;
+    }
+
+    /**
+     * Return all byte values in order.
+     *
+     * @return an array of 256 bytes
+     */
+    private static byte[] allBytes() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
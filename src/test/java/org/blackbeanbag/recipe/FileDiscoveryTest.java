@@ -0,0 +1,83 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileDiscoveryTest {
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testIncludeAndExclude() throws IOException {
+        Path root = m_folder.getRoot().toPath();
+        createFile(root.resolve("a.txt"));
+        createFile(root.resolve("b.doc"));
+        createFile(root.resolve("c.tmp"));
+        createFile(root.resolve("sub/d.txt"));
+        createFile(root.resolve("sub/deeper/e.txt"));
+        createFile(root.resolve("archive/f.txt"));
+
+        FileDiscovery discovery = new FileDiscovery(root)
+                .include(Arrays.asList("*.txt", "*.doc"))
+                .exclude(Arrays.asList("archive"));
+
+        assertEquals(new TreeSet<String>(Arrays.asList(
+                "a.txt", "b.doc", "sub/d.txt", "sub/deeper/e.txt")), walk(discovery));
+    }
+
+    @Test
+    public void testDeepTree() throws IOException {
+        Path root = m_folder.getRoot().toPath();
+        Path dir = root;
+        for (int i = 0; i < 200; i++) {
+            dir = dir.resolve("d");
+        }
+        createFile(dir.resolve("deep.txt"));
+
+        assertEquals(1, walk(new FileDiscovery(root)).size());
+    }
+
+    @Test
+    public void testSymbolicLinkLoop() throws IOException {
+        Path root = m_folder.getRoot().toPath();
+        createFile(root.resolve("sub/a.txt"));
+        try {
+            Files.createSymbolicLink(root.resolve("sub/loop"), root);
+        }
+        catch (UnsupportedOperationException e) {
+            return;
+        }
+
+        assertEquals(new TreeSet<String>(Arrays.asList("sub/a.txt")),
+                walk(new FileDiscovery(root)));
+    }
+
+    private static Set<String> walk(final FileDiscovery discovery) {
+        final Set<String> files = new TreeSet<String>();
+        discovery.walk(new FileDiscovery.Listener() {
+            @Override
+            public void onFile(Path file, BasicFileAttributes attrs) {
+                files.add(discovery.getRoot().relativize(file).toString()
+                        .replace(File.separatorChar, '/'));
+            }
+        });
+        return files;
+    }
+
+    private static void createFile(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, "title\nbody\n".getBytes("UTF-8"));
+    }
+}
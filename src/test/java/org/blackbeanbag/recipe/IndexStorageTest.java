@@ -0,0 +1,80 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexStorageTest {
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testStorageTypes() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        SearcherTest.writeRecipe(docDir, "rice.txt", "Rice", "1 cup basmati\n");
+
+        for (IndexStorage.Type type : IndexStorage.Type.values()) {
+            IndexStorage storage = new IndexStorage(type, true, IndexStorage.DEFAULT_PERSIST_INTERVAL);
+            String indexDir = new File(m_folder.getRoot(), type.name()).getPath();
+            new Indexer(docDir.getPath(), indexDir, storage).updateIndex();
+
+            Searcher searcher = new Searcher(indexDir, storage);
+            try {
+                assertEquals(storage.toString(), 1, searcher.search("basmati", 10).getTotalHits());
+            }
+            finally {
+                searcher.close();
+            }
+        }
+    }
+
+    @Test
+    public void testRamIndexIsPersisted() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        SearcherTest.writeRecipe(docDir, "rice.txt", "Rice", "1 cup basmati\n");
+
+        IndexStorage storage = new IndexStorage(IndexStorage.Type.RAM);
+        Indexer indexer = new Indexer(docDir.getPath(), indexDir, storage);
+        indexer.synchronize();
+        PersistentRAMDirectory directory = (PersistentRAMDirectory) indexer.getWriter().getDirectory();
+        assertTrue(directory.persist());
+        assertFalse(directory.persist());
+
+        File file = SearcherTest.writeRecipe(docDir, "miso.txt", "Miso", "1 tbsp miso\n");
+        indexer.indexFile(file.toPath());
+        indexer.commit();
+
+        // not persisted yet
+        Searcher searcher = new Searcher(indexDir);
+        assertEquals(1, searcher.search("basmati", 10).getTotalHits());
+        assertEquals(0, searcher.search("miso", 10).getTotalHits());
+
+        assertTrue(directory.persist());
+        searcher.refresh();
+        assertEquals(1, searcher.search("miso", 10).getTotalHits());
+        searcher.close();
+
+        // the last commit is persisted on close and loaded on open
+        assertTrue(file.delete());
+        indexer.removeFile(file.toPath());
+        indexer.commit();
+        indexer.close();
+
+        indexer = new Indexer(docDir.getPath(), indexDir, storage);
+        searcher = new Searcher(indexer.getWriter());
+        try {
+            assertEquals(1, searcher.search("basmati", 10).getTotalHits());
+            assertEquals(0, searcher.search("miso", 10).getTotalHits());
+        }
+        finally {
+            searcher.close();
+            indexer.close();
+        }
+    }
+}
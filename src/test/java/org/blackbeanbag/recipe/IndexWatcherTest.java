@@ -0,0 +1,142 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexWatcherTest {
+    private static final long TIMEOUT = 20000L;
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private File m_docDir;
+
+    private Indexer m_indexer;
+
+    private IndexWatcher m_watcher;
+
+    private Searcher m_searcher;
+
+    private final AtomicInteger m_rescans = new AtomicInteger();
+
+    @Before
+    public void startWatcher() throws IOException {
+        m_docDir = m_folder.newFolder("docs");
+        SearcherTest.writeRecipe(m_docDir, "rice.txt", "Rice", "2 cups basmati\n");
+
+        m_indexer = new Indexer(m_docDir.getPath(),
+                new File(m_folder.getRoot(), "index").getPath()) {
+            @Override
+            public void rescan(Path dir) {
+                m_rescans.incrementAndGet();
+                super.rescan(dir);
+            }
+        };
+        m_watcher = new IndexWatcher(m_indexer);
+        m_watcher.setQuietPeriod(100L);
+        m_watcher.start();
+
+        m_searcher = new Searcher(m_indexer.getWriter());
+        m_watcher.setListener(new IndexWatcher.Listener() {
+            @Override
+            public void indexChanged() {
+                m_searcher.refresh();
+            }
+        });
+    }
+
+    @After
+    public void stopWatcher() {
+        m_watcher.close();
+        m_searcher.close();
+        m_indexer.close();
+    }
+
+    @Test
+    public void testExistingFilesIndexedOnStart() {
+        assertEquals(1, m_searcher.search("basmati", 10).getTotalHits());
+    }
+
+    @Test
+    public void testFileChanges() throws Exception {
+        File file = SearcherTest.writeRecipe(m_docDir, "snack.txt", "Snack", "3 plantains\n");
+        awaitHits("plantain", 1);
+
+        SearcherTest.writeRecipe(m_docDir, "snack.txt", "Snack", "3 yams\n");
+        awaitHits("yam", 1);
+        awaitHits("plantain", 0);
+
+        assertTrue(file.delete());
+        awaitHits("yam", 0);
+    }
+
+    @Test
+    public void testNewDirectoryIsWatched() throws Exception {
+        File dir = new File(m_docDir, "soups");
+        assertTrue(dir.mkdir());
+        SearcherTest.writeRecipe(dir, "miso.txt", "Miso", "1 tbsp miso\n");
+        awaitHits("miso", 1);
+
+        // files added later are picked up through the new registration
+        File nested = new File(dir, "cold");
+        assertTrue(nested.mkdir());
+        SearcherTest.writeRecipe(nested, "gazpacho.txt", "Gazpacho", "4 tomatoes\n");
+        awaitHits("tomato", 1);
+    }
+
+    @Test
+    public void testModifiedDirectoryIsNotRescanned() throws Exception {
+        File dir = new File(m_docDir, "soups");
+        assertTrue(dir.mkdir());
+        SearcherTest.writeRecipe(dir, "miso.txt", "Miso", "1 tbsp miso\n");
+        awaitHits("miso", 1);
+        int rescans = m_rescans.get();
+
+        // watch services report attribute changes, and on some platforms
+        // changes to the contents, as modifications of the directory
+        Files.setLastModifiedTime(dir.toPath(), FileTime.fromMillis(dir.lastModified() + 2000));
+        SearcherTest.writeRecipe(dir, "dashi.txt", "Dashi", "1 piece kombu\n");
+        awaitHits("kombu", 1);
+        assertEquals(rescans, m_rescans.get());
+    }
+
+    @Test
+    public void testRescanRemovesDeletedFiles() throws Exception {
+        File dir = new File(m_docDir, "soups");
+        assertTrue(dir.mkdir());
+        File file = SearcherTest.writeRecipe(dir, "miso.txt", "Miso", "1 tbsp miso\n");
+        awaitHits("miso", 1);
+
+        // simulate lost events: delete behind the watcher's back and rescan
+        m_watcher.close();
+        assertTrue(file.delete());
+        m_indexer.rescan(dir.toPath());
+        m_indexer.commit();
+        m_searcher.refresh();
+        assertEquals(0, m_searcher.search("miso", 10).getTotalHits());
+        assertEquals(1, m_searcher.search("basmati", 10).getTotalHits());
+    }
+
+    private void awaitHits(String criteria, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        int hits = m_searcher.search(criteria, 10).getTotalHits();
+        while (hits != expected && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50L);
+            hits = m_searcher.search(criteria, 10).getTotalHits();
+        }
+        assertEquals("Hits for " + criteria, expected, hits);
+    }
+}
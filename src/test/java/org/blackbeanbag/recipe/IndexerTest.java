@@ -3,14 +3,43 @@ package org.blackbeanbag.recipe;
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
 import org.blackbeanbag.recipe.scanners.Scanner;
+import org.blackbeanbag.recipe.scanners.TextScanner;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class IndexerTest {
     public static final String DOC_DIR   = "data";
     public static final String INDEX_DIR = "index";
 
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
     @Test
     public void testScanWordDocument() {
         testScan("data/Arroz con Gandules Recipe.doc");
@@ -38,4 +67,387 @@ public class IndexerTest {
         }
 
     }
+
+    @Test
+    public void testIncrementalUpdate() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+
+        File rice = writeRecipe(docDir, "rice.txt", "Rice", "1 cup basmati");
+        File beans = writeRecipe(docDir, "beans.txt", "Beans", "2 cups beans");
+
+        new Indexer(docDir.getPath(), indexDir).updateIndex();
+        assertEquals(1, hits(indexDir, "basmati"));
+        assertEquals(1, hits(indexDir, "beans"));
+
+        // change one file, delete another and add a new one
+        writeRecipe(docDir, "rice.txt", "Rice", "1 cup saffron");
+        assertTrue(rice.setLastModified(rice.lastModified() + 2000));
+        assertTrue(beans.delete());
+        writeRecipe(docDir, "plantain.txt", "Plantain", "3 plantains");
+
+        new Indexer(docDir.getPath(), indexDir).updateIndex();
+        Searcher searcher = new Searcher(indexDir);
+        try {
+            assertEquals(0, searcher.doSearch("basmati").size());
+            assertEquals(1, searcher.doSearch("saffron").size());
+            assertEquals(0, searcher.doSearch("beans").size());
+            assertEquals(1, searcher.doSearch("plantain").size());
+        }
+        finally {
+            searcher.close();
+        }
+
+        IndexManifest manifest = IndexManifest.load(
+                new File(indexDir, IndexManifest.FILE_NAME));
+        assertEquals(2, manifest.size());
+        assertNotNull(manifest.get(rice.getAbsolutePath()));
+        assertNull(manifest.get(beans.getAbsolutePath()));
+    }
+
+    @Test
+    public void testUnchangedFilesAreNotScanned() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+
+        writeRecipe(docDir, "rice.txt", "Rice", "1 cup rice");
+        new Indexer(docDir.getPath(), indexDir).updateIndex();
+
+        CountingScanner scanner = new CountingScanner();
+        new Indexer(docDir.getPath(), indexDir,
+                Arrays.<Scanner>asList(scanner)).updateIndex();
+        assertEquals(0, scanner.m_count.get());
+        assertEquals(1, hits(indexDir, "rice"));
+    }
+
+    @Test
+    public void testStaleManifestRebuildsIndex() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+
+        writeRecipe(docDir, "rice.txt", "Rice", "1 cup rice");
+        new Indexer(docDir.getPath(), indexDir).updateIndex();
+
+        // a manifest stored for another commit does not describe the index
+        File manifestFile = new File(indexDir, IndexManifest.FILE_NAME);
+        IndexManifest.load(manifestFile).store(manifestFile, "stale");
+
+        CountingScanner scanner = new CountingScanner();
+        new Indexer(docDir.getPath(), indexDir,
+                Arrays.<Scanner>asList(scanner)).updateIndex();
+        assertEquals(1, scanner.m_count.get());
+        assertEquals(1, hits(indexDir, "rice"));
+    }
+
+    @Test
+    public void testParallelScanMatchesSerialScan() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        for (int i = 0; i < 100; i++) {
+            File dir = new File(docDir, "dir" + (i % 7));
+            dir.mkdirs();
+            writeRecipe(dir, "recipe" + i + ".txt", "Recipe " + i,
+                    "ingredient" + (i % 10) + " common");
+        }
+
+        String serialDir = new File(m_folder.getRoot(), "serial").getPath();
+        Indexer serial = new Indexer(docDir.getPath(), serialDir);
+        serial.setThreadCount(1);
+        serial.createIndex();
+
+        String parallelDir = new File(m_folder.getRoot(), "parallel").getPath();
+        Indexer parallel = new Indexer(docDir.getPath(), parallelDir);
+        parallel.setThreadCount(4);
+        parallel.createIndex();
+
+        Searcher serialSearcher = new Searcher(serialDir);
+        Searcher parallelSearcher = new Searcher(parallelDir);
+        try {
+            for (String criteria : Arrays.asList("common", "ingredient3", "ingredient9")) {
+                assertEquals(files(serialSearcher.doSearch(criteria)),
+                        files(parallelSearcher.doSearch(criteria)));
+            }
+            assertEquals(100, files(parallelSearcher.doSearch("common")).size());
+        }
+        finally {
+            serialSearcher.close();
+            parallelSearcher.close();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        for (int i = 0; i < 20; i++) {
+            writeRecipe(docDir, "recipe" + i + ".txt", "Recipe " + i, "1 cup rice");
+        }
+        writeRecipe(docDir, "broken.doc", "Not a Word document", "");
+
+        Indexer indexer = new Indexer(docDir.getPath(), new File(m_folder.getRoot(), "index").getPath());
+        indexer.setThreadCount(2);
+        IndexMetrics metrics = indexer.getMetrics();
+        indexer.createIndex();
+
+        assertEquals(20, metrics.getDocumentCount());
+        assertEquals(1, metrics.getFailureCount());
+        assertTrue(metrics.getByteCount() > 0);
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(20, metrics.getScanTimeMicros().get("TextScanner").getCount());
+        assertEquals(1, metrics.getScanTimeMicros().get("WordScanner").getCount());
+        assertEquals(1, metrics.getCommitTimeMillis().getCount());
+    }
+
+    @Test
+    public void testSchemaChangeRebuildsIndex() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        writeRecipe(docDir, "rice.txt", "Rice", "1 cup rice");
+
+        new Indexer(docDir.getPath(), indexDir).updateIndex();
+        assertNull(readFirstDocument(indexDir).get(DocumentSchema.FIELD_BODY));
+
+        DocumentSchema schema = new DocumentSchema(true, true, true);
+        new Indexer(docDir.getPath(), indexDir, schema).updateIndex();
+        Document doc = readFirstDocument(indexDir);
+        assertEquals("Rice", doc.get(DocumentSchema.FIELD_TITLE));
+        assertTrue(doc.get(DocumentSchema.FIELD_BODY).contains("1 cup rice"));
+    }
+
+    @Test
+    public void testBulkLoadProfile() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        for (int i = 0; i < 100; i++) {
+            writeRecipe(docDir, "recipe" + i + ".txt", "Recipe " + i, "1 cup rice");
+        }
+
+        Indexer indexer = new Indexer(docDir.getPath(), indexDir);
+        try {
+            indexer.setThreadCount(4);
+            indexer.setBulkProfile(new IndexProfile(1, 50, 2, false, 1));
+            indexer.rebuild();
+            try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(indexDir)))) {
+                assertEquals(100, reader.numDocs());
+                assertEquals(1, reader.leaves().size());
+            }
+
+            // back to the incremental profile for updates
+            IndexProfile incremental = indexer.getIncrementalProfile();
+            assertEquals(incremental.isCompoundFile(), indexer.getWriter().getConfig().getUseCompoundFile());
+            assertEquals(incremental.getRAMBufferSizeMB(),
+                    indexer.getWriter().getConfig().getRAMBufferSizeMB(), 0.0);
+        }
+        finally {
+            indexer.close();
+        }
+    }
+
+    private static Document readFirstDocument(String indexDir) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(indexDir)))) {
+            assertEquals(1, reader.numDocs());
+            return reader.document(0);
+        }
+    }
+
+    @Test
+    public void testQuarantine() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        writeRecipe(docDir, "rice.txt", "Rice", "1 cup basmati");
+        File bad = writeRecipe(docDir, "bad.txt", "Bad", "hang");
+
+        HangingScanner scanner = new HangingScanner();
+        CountingScanner counter = scanner;
+        try {
+            Indexer indexer = new Indexer(docDir.getPath(), indexDir, Arrays.<Scanner>asList(scanner));
+            indexer.getScanWatchdog().setTimeout(200, TimeUnit.MILLISECONDS);
+            indexer.updateIndex();
+            assertEquals(1, indexer.getMetrics().getQuarantineCount());
+            assertEquals(1, hits(indexDir, "basmati"));
+            assertTrue(new File(indexDir, Quarantine.FILE_NAME).exists());
+            assertEquals(2, counter.m_count.get());
+
+            // later runs skip the file until it changes
+            indexer = new Indexer(docDir.getPath(), indexDir, Arrays.<Scanner>asList(scanner));
+            Quarantine.Entry entry = indexer.getQuarantine().get(bad.getPath());
+            assertNotNull(entry);
+            assertTrue(entry.getReason(), entry.getReason().contains("timed out"));
+            indexer.updateIndex();
+            assertEquals(2, counter.m_count.get());
+
+            writeRecipe(docDir, "bad.txt", "Bad", "2 cups beans");
+            assertTrue(bad.setLastModified(bad.lastModified() + 2000));
+            indexer = new Indexer(docDir.getPath(), indexDir, Arrays.<Scanner>asList(scanner));
+            indexer.updateIndex();
+            assertEquals(3, counter.m_count.get());
+            assertEquals(0, indexer.getQuarantine().size());
+            assertFalse(new File(indexDir, Quarantine.FILE_NAME).exists());
+            assertEquals(1, hits(indexDir, "beans"));
+        }
+        finally {
+            scanner.m_released = true;
+        }
+    }
+
+    @Test
+    public void testQuarantineBody() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        writeRecipe(docDir, "rice.txt", "Rice", "1 cup basmati");
+        File bad = writeRecipe(docDir, "bad.txt", "Bad", "endless");
+
+        Indexer indexer = new Indexer(docDir.getPath(), indexDir,
+                Arrays.<Scanner>asList(new EndlessBodyScanner()));
+        try {
+            indexer.getScanWatchdog().setTimeout(200, TimeUnit.MILLISECONDS);
+            indexer.updateIndex();
+            assertEquals(1, indexer.getMetrics().getQuarantineCount());
+            Quarantine.Entry entry = indexer.getQuarantine().get(bad.getPath());
+            assertNotNull(entry);
+            assertTrue(entry.getReason(), entry.getReason().contains("timed out"));
+        }
+        finally {
+            indexer.close();
+        }
+
+        // the index was committed without the file
+        assertEquals(1, hits(indexDir, "basmati"));
+        assertEquals(0, hits(indexDir, "endless"));
+    }
+
+    @Test
+    public void testFlushDuringSupervisedAdd() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        for (int i = 0; i < 6; i++) {
+            writeRecipe(docDir, "rice" + i + ".txt", "Rice " + i, "1 cup basmati");
+        }
+
+        // every flush takes longer than the scan budget
+        IndexStorage storage = new IndexStorage(IndexStorage.Type.DEFAULT) {
+            @Override
+            public Directory open(File dir) throws IOException {
+                return new FilterDirectory(super.open(dir)) {
+                    @Override
+                    public IndexOutput createOutput(String name, IOContext context) throws IOException {
+                        if (context.context == IOContext.Context.FLUSH) {
+                            try {
+                                Thread.sleep(100);
+                            }
+                            catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                        return super.createOutput(name, context);
+                    }
+                };
+            }
+        };
+        Indexer indexer = new Indexer(docDir.getPath(), indexDir, storage);
+        try {
+            indexer.getScanWatchdog().setTimeout(100, TimeUnit.MILLISECONDS);
+            indexer.getScanWatchdog().setMemoryLimit(4 * 1024 * 1024);
+            indexer.getWriter().getConfig().setMaxBufferedDocs(2);
+            indexer.updateIndex();
+            assertEquals(0, indexer.getMetrics().getQuarantineCount());
+            assertEquals(0, indexer.getQuarantine().size());
+        }
+        finally {
+            indexer.close();
+        }
+        assertEquals(6, hits(indexDir, "basmati"));
+    }
+
+    private static int hits(String indexDir, String criteria) {
+        Searcher searcher = new Searcher(indexDir);
+        try {
+            return searcher.doSearch(criteria).size();
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    private static Set<String> files(List<SearchResult> results) {
+        Set<String> files = new HashSet<String>();
+        for (SearchResult result : results) {
+            files.add(result.getFile());
+        }
+        return files;
+    }
+
+    private static File writeRecipe(File dir, String name, String title, String body)
+            throws IOException {
+        File file = new File(dir, name);
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(title + "\n" + body + "\n");
+        }
+        return file;
+    }
+
+    private static class CountingScanner extends TextScanner {
+        private final AtomicInteger m_count = new AtomicInteger();
+
+        @Override
+        public Document scan(String file) {
+            m_count.incrementAndGet();
+            return super.scan(file);
+        }
+
+        @Override
+        public Document scan(Path file, ReadableByteChannel channel, long size) throws IOException {
+            m_count.incrementAndGet();
+            return super.scan(file, channel, size);
+        }
+    }
+
+    private static class HangingScanner extends CountingScanner {
+        private volatile boolean m_released;
+
+        @Override
+        public Document scan(Path file, ReadableByteChannel channel, long size) throws IOException {
+            Document doc = super.scan(file, channel, size);
+            if (new String(Files.readAllBytes(file), "UTF-8").contains("hang")) {
+                // ignore interrupts, as a scanner stuck in a loop would
+                while (!m_released) {
+                    try {
+                        Thread.sleep(10);
+                    }
+                    catch (InterruptedException e) {
+                        // keep going
+                    }
+                }
+            }
+            return doc;
+        }
+    }
+
+    private static class EndlessBodyScanner extends TextScanner {
+        @Override
+        public Document scan(Path file, ReadableByteChannel channel, long size) throws IOException {
+            Document doc = super.scan(file, channel, size);
+            if (new String(Files.readAllBytes(file), "UTF-8").contains("endless")) {
+                // the body is parsed while the document is indexed, and
+                // slowly produces text without end
+                ((Field) doc.getField(DocumentSchema.FIELD_BODY)).setReaderValue(new Reader() {
+                    @Override
+                    public int read(char[] cbuf, int off, int len) throws IOException {
+                        try {
+                            Thread.sleep(10);
+                        }
+                        catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                        Arrays.fill(cbuf, off, off + len, 'x');
+                        cbuf[off] = ' ';
+                        return len;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+            }
+            return doc;
+        }
+    }
 }
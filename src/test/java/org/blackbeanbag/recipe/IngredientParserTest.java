@@ -0,0 +1,29 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class IngredientParserTest {
+    @Test
+    public void testParseLine() {
+        assertEquals("long or short grain rice", IngredientParser.parseLine("2 cups long or short grain rice (rinsed)"));
+        assertEquals("boiling water", IngredientParser.parseLine("3 1/2 cups of boiling water"));
+        assertEquals("red pepper flakes", IngredientParser.parseLine("1 1/2 pound Red Pepper Flakes, crushed"));
+        assertEquals("garlic", IngredientParser.parseLine("- 4 cloves garlic."));
+        assertEquals("sugar", IngredientParser.parseLine("½ tsp. sugar"));
+        assertEquals("eggs", IngredientParser.parseLine("2-3 eggs"));
+        assertNull(IngredientParser.parseLine("Arroz con Gandules"));
+        assertNull(IngredientParser.parseLine("2 Heat the oil in a large pot and add the onions until soft"));
+        assertNull(IngredientParser.parseLine(""));
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(Arrays.asList("rice", "water", "salt"), new ArrayList<String>(IngredientParser.parse(
+                "Rice\r\n2 cups rice\u000B3 cups water\n\nCook it.\n1 tsp salt\n1 cup rice")));
+    }
+}
@@ -0,0 +1,54 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class QueryCacheTest {
+    @Test
+    public void testNormalize() {
+        assertEquals("salt AND pepper", QueryCache.normalize("  salt \t AND\npepper "));
+    }
+
+    @Test
+    public void testEviction() {
+        long generation = 1;
+        QueryCache<String> cache = new QueryCache<String>(2);
+        cache.put(generation, "a", "A");
+        cache.put(generation, "b", "B");
+        assertEquals("A", cache.get(generation, "a"));
+
+        // "b" is the least recently used entry
+        cache.put(generation, "c", "C");
+        assertNull(cache.get(generation, "b"));
+        assertEquals("A", cache.get(generation, "a"));
+        assertEquals("C", cache.get(generation, "c"));
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testNewGenerationClearsCache() {
+        QueryCache<String> cache = new QueryCache<String>(10);
+        cache.put(1, "a", "A");
+        assertEquals("A", cache.get(1, "a"));
+        assertNull(cache.get(2, "a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void testOldGenerationIsIgnored() {
+        QueryCache<String> cache = new QueryCache<String>(10);
+        cache.put(2, "a", "A");
+
+        // a search that started before the reader was reopened
+        cache.put(1, "b", "B");
+        assertNull(cache.get(1, "a"));
+        assertEquals("A", cache.get(2, "a"));
+        assertNull(cache.get(2, "b"));
+        assertEquals(0, cache.getInvalidations());
+    }
+}
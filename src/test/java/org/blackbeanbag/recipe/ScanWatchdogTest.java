@@ -0,0 +1,258 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ScanWatchdogTest {
+    private final ScanWatchdog m_watchdog = new ScanWatchdog(0, 0);
+
+    private final Source m_source = new Source();
+
+    @After
+    public void close() {
+        m_watchdog.close();
+    }
+
+    @Test
+    public void testWithinBudget() throws Exception {
+        m_watchdog.setTimeout(10, TimeUnit.SECONDS);
+        ScanWatchdog.Scan scan = m_watchdog.start("rice.txt", m_source);
+        try {
+            assertEquals("rice", scan.call(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "rice";
+                }
+            }));
+        }
+        finally {
+            scan.finish();
+        }
+        assertNull(scan.getReason());
+        assertFalse(m_source.m_closed.get());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        m_watchdog.setTimeout(100, TimeUnit.MILLISECONDS);
+        final AtomicBoolean released = new AtomicBoolean();
+        ScanWatchdog.Scan scan = m_watchdog.start("hang.doc", m_source);
+        long start = System.nanoTime();
+        try {
+            scan.call(new Callable<String>() {
+                @Override
+                public String call() {
+                    // ignore interrupts, as a scanner stuck in a loop would
+                    while (!released.get()) {
+                        Thread.yield();
+                    }
+                    return null;
+                }
+            });
+            fail("Expected ScanAbortedException");
+        }
+        catch (ScanAbortedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+        }
+        finally {
+            released.set(true);
+            scan.finish();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertTrue(m_source.m_closed.get());
+    }
+
+    @Test
+    public void testIndexingIsNotSupervised() throws Exception {
+        m_watchdog.setTimeout(100, TimeUnit.MILLISECONDS);
+        m_watchdog.setMemoryLimit(1024 * 1024);
+        ScanWatchdog.Scan scan = m_watchdog.start("slow.doc", m_source);
+        try {
+            scan.call(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "slow";
+                }
+            });
+            // indexing the result may take longer and allocate more than
+            // the budget allows
+            List<byte[]> blocks = new ArrayList<byte[]>();
+            for (int i = 0; i < 30; i++) {
+                blocks.add(new byte[1024 * 1024]);
+                blocks.remove(0);
+                Thread.sleep(10);
+            }
+            assertNull(scan.getReason());
+            assertFalse(m_source.m_closed.get());
+        }
+        finally {
+            scan.finish();
+        }
+    }
+
+    @Test
+    public void testBodyTimeout() throws Exception {
+        m_watchdog.setTimeout(100, TimeUnit.MILLISECONDS);
+        ScanWatchdog.Scan scan = m_watchdog.start("hang.docx", m_source);
+        long start = System.nanoTime();
+        try {
+            // the body blocks on the file until the watchdog closes it
+            Reader body = scan.supervise(new Reader() {
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    while (!m_source.m_closed.get()) {
+                        Thread.yield();
+                    }
+                    throw new IOException("closed");
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            body.read(new char[16]);
+            fail("Expected ScanAbortedException");
+        }
+        catch (ScanAbortedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+        }
+        finally {
+            scan.finish();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertTrue(m_source.m_closed.get());
+    }
+
+    @Test
+    public void testBodyMemoryLimit() throws Exception {
+        m_watchdog.setMemoryLimit(16 * 1024 * 1024);
+        Assume.assumeTrue(m_watchdog.isEnabled());
+        ScanWatchdog.Scan scan = m_watchdog.start("bomb.docx", m_source);
+        try {
+            // every read inflates another block of the body
+            Reader body = scan.supervise(new Reader() {
+                private final List<char[]> m_blocks = new ArrayList<char[]>();
+
+                @Override
+                public int read(char[] cbuf, int off, int len) {
+                    m_blocks.add(new char[512 * 1024]);
+                    if (m_blocks.size() > 8) {
+                        m_blocks.remove(0);
+                    }
+                    return len;
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            char[] buffer = new char[4096];
+            for (int i = 0; i < 1024; i++) {
+                body.read(buffer);
+            }
+            fail("Expected ScanAbortedException");
+        }
+        catch (ScanAbortedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("allocated more than 16MB"));
+        }
+        finally {
+            scan.finish();
+        }
+        assertTrue(m_source.m_closed.get());
+    }
+
+    @Test
+    public void testMemoryLimit() throws Exception {
+        m_watchdog.setMemoryLimit(16 * 1024 * 1024);
+        Assume.assumeTrue(m_watchdog.isEnabled());
+        ScanWatchdog.Scan scan = m_watchdog.start("photos.doc", m_source);
+        try {
+            scan.call(new Callable<Integer>() {
+                @Override
+                public Integer call() throws InterruptedException {
+                    List<byte[]> blocks = new ArrayList<byte[]>();
+                    for (int i = 0; i < 1024; i++) {
+                        blocks.add(new byte[1024 * 1024]);
+                        if (blocks.size() > 8) {
+                            blocks.remove(0);
+                        }
+                        Thread.sleep(5);
+                    }
+                    return blocks.size();
+                }
+            });
+            fail("Expected ScanAbortedException");
+        }
+        catch (ScanAbortedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("allocated more than 16MB"));
+        }
+        finally {
+            scan.finish();
+        }
+        assertTrue(m_source.m_closed.get());
+    }
+
+    @Test
+    public void testErrorAbortsScan() throws Exception {
+        m_watchdog.setTimeout(10, TimeUnit.SECONDS);
+        ScanWatchdog.Scan scan = m_watchdog.start("deep.doc", m_source);
+        try {
+            scan.call(new Callable<String>() {
+                @Override
+                public String call() {
+                    throw new StackOverflowError();
+                }
+            });
+            fail("Expected ScanAbortedException");
+        }
+        catch (ScanAbortedException e) {
+            assertTrue(e.getCause() instanceof StackOverflowError);
+        }
+        finally {
+            scan.finish();
+        }
+    }
+
+    @Test
+    public void testExceptionIsRethrown() throws Exception {
+        m_watchdog.setTimeout(10, TimeUnit.SECONDS);
+        ScanWatchdog.Scan scan = m_watchdog.start("corrupt.doc", m_source);
+        try {
+            scan.call(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    throw new IOException("corrupt");
+                }
+            });
+            fail("Expected IOException");
+        }
+        catch (IOException e) {
+            assertEquals("corrupt", e.getMessage());
+        }
+        finally {
+            scan.finish();
+        }
+        assertNull(scan.getReason());
+    }
+
+    private static class Source implements Closeable {
+        private final AtomicBoolean m_closed = new AtomicBoolean();
+
+        @Override
+        public void close() {
+            m_closed.set(true);
+        }
+    }
+}
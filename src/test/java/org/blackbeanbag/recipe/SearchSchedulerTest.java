@@ -0,0 +1,100 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SearchSchedulerTest {
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private Searcher m_searcher;
+
+    private SearchScheduler m_scheduler;
+
+    private final List<String> m_completed = new CopyOnWriteArrayList<String>();
+
+    private final CountDownLatch m_latch = new CountDownLatch(1);
+
+    private final SearchScheduler.Callback m_callback = new SearchScheduler.Callback() {
+        @Override
+        public void searchCompleted(long sequence, String criteria, SearchPage page) {
+            m_completed.add(sequence + ":" + criteria + ":" + page.getTotalHits());
+            m_latch.countDown();
+        }
+
+        @Override
+        public void searchFailed(long sequence, String criteria, Exception e) {
+            m_completed.add(sequence + ":" + criteria + ":failed");
+            m_latch.countDown();
+        }
+    };
+
+    @Before
+    public void createScheduler() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        for (int i = 0; i < 10; i++) {
+            SearcherTest.writeRecipe(docDir, "recipe" + i + ".txt", "Recipe " + i,
+                    i % 2 == 0 ? "2 cups sugar\n" : "1 cup vinegar\n");
+        }
+        new Indexer(docDir.getPath(), indexDir).createIndex();
+        m_searcher = new Searcher(indexDir);
+        m_scheduler = new SearchScheduler(m_searcher, 10, 200L, 2);
+    }
+
+    @After
+    public void closeScheduler() {
+        m_scheduler.close();
+        m_searcher.close();
+    }
+
+    @Test
+    public void testOnlyLatestSearchCompletes() throws InterruptedException {
+        m_scheduler.schedule("su", m_callback);
+        m_scheduler.schedule("sug", m_callback);
+        long sequence = m_scheduler.schedule("vinegar", m_callback);
+
+        assertTrue(m_latch.await(10, TimeUnit.SECONDS));
+        Thread.sleep(400L);
+        assertEquals(1, m_completed.size());
+        assertEquals(sequence + ":vinegar:5", m_completed.get(0));
+        assertTrue(m_scheduler.isCurrent(sequence));
+        assertEquals(2, m_scheduler.getSupersededCount());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        long sequence = m_scheduler.schedule("sugar", m_callback);
+        m_scheduler.cancel();
+        assertFalse(m_scheduler.isCurrent(sequence));
+
+        assertFalse(m_latch.await(500L, TimeUnit.MILLISECONDS));
+        assertTrue(m_completed.isEmpty());
+    }
+
+    @Test
+    public void testSearchNowSkipsDelay() throws InterruptedException {
+        long sequence = m_scheduler.searchNow("sugar", m_callback);
+        assertTrue(m_latch.await(10, TimeUnit.SECONDS));
+        assertEquals(sequence + ":sugar:5", m_completed.get(0));
+    }
+
+    @Test
+    public void testInvalidCriteria() throws InterruptedException {
+        long sequence = m_scheduler.searchNow("sugar AND", m_callback);
+        assertTrue(m_latch.await(10, TimeUnit.SECONDS));
+        assertEquals(sequence + ":sugar AND:failed", m_completed.get(0));
+    }
+}
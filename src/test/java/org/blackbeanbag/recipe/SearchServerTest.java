@@ -0,0 +1,205 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SearchServerTest {
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private Searcher m_searcher;
+
+    private SearchServer m_server;
+
+    @Before
+    public void startServer() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        for (int i = 0; i < 30; i++) {
+            SearcherTest.writeRecipe(docDir, "recipe" + i + ".txt", "Recipe \"" + i + "\"",
+                    "1 tsp salt\n" + (i % 3 == 0 ? "2 cups sugar\n" : "1 cup vinegar\n"));
+        }
+        new Indexer(docDir.getPath(), indexDir).createIndex();
+
+        m_searcher = new Searcher(indexDir);
+        m_server = new SearchServer(m_searcher);
+        m_server.setSuggester(new Suggester(m_searcher));
+    }
+
+    @After
+    public void stopServer() {
+        m_server.close();
+        m_searcher.close();
+    }
+
+    @Test
+    public void testSearch() throws IOException {
+        start();
+        Response response = get("/search?q=sugar&size=4");
+        assertEquals(200, response.m_status);
+        assertTrue(response.m_body, response.m_body.startsWith("{\"query\":\"sugar\",\"totalHits\":10,"));
+        assertTrue(response.m_body, response.m_body.contains("\"title\":\"Recipe \\\""));
+
+        // follow the cursors through all pages
+        int pages = 1;
+        String body = response.m_body;
+        while (body.contains("\"next\":\"")) {
+            int i = body.indexOf("\"next\":\"") + 8;
+            body = get("/search?q=sugar&size=4&after=" + body.substring(i, body.indexOf('"', i))).m_body;
+            pages++;
+        }
+        assertEquals(3, pages);
+
+        response = get("/search?q=&facets=2&category=none");
+        assertEquals(200, response.m_status);
+        assertTrue(response.m_body, response.m_body.contains("\"totalHits\":0"));
+        response = get("/search?q=&facets=2");
+        assertTrue(response.m_body, response.m_body.contains(
+                "\"facets\":{\"ingredient\":[{\"value\":\"salt\",\"count\":30},"));
+    }
+
+    @Test
+    public void testBadRequests() throws IOException {
+        start();
+        assertEquals(400, get("/search").m_status);
+        assertEquals(400, get("/search?q=sugar&size=-1").m_status);
+        assertEquals(400, get("/search?q=sugar&after=x").m_status);
+        assertEquals(400, get("/search?q=%22unbalanced").m_status);
+        assertEquals(404, get("/nothing").m_status);
+    }
+
+    @Test
+    public void testInternalError() throws IOException {
+        start();
+        m_searcher.close();
+        Response response = get("/search?q=sugar");
+        assertEquals(500, response.m_status);
+        assertEquals("{\"error\":\"Internal error\"}", response.m_body);
+    }
+
+    @Test
+    public void testSuggestAndStatus() throws IOException {
+        start();
+        Response response = get("/suggest?q=vin");
+        assertEquals(200, response.m_status);
+        assertEquals("{\"prefix\":\"vin\",\"suggestions\":[\"vinegar\"]}", response.m_body);
+
+        response = get("/status");
+        assertEquals(200, response.m_status);
+        assertTrue(response.m_body, response.m_body.startsWith("{\"index\":{\"documents\":30,"));
+        assertTrue(response.m_body, response.m_body.contains("\"requests\":2"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        m_server.addEndpoint("/slow", new SearchServer.Endpoint() {
+            @Override
+            public String handle(Map<String, List<String>> params, AtomicBoolean flag) throws Exception {
+                while (!flag.get()) {
+                    Thread.sleep(5);
+                }
+                cancelled.countDown();
+                throw new SearchCancelledException();
+            }
+        });
+        m_server.setTimeout(100, TimeUnit.MILLISECONDS);
+        start();
+
+        assertEquals(504, get("/slow").m_status);
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, m_server.getTimedOutCount());
+        assertEquals(200, get("/search?q=salt").m_status);
+    }
+
+    @Test
+    public void testLoadShedding() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        m_server.addEndpoint("/block", new SearchServer.Endpoint() {
+            @Override
+            public String handle(Map<String, List<String>> params, AtomicBoolean flag) throws Exception {
+                started.countDown();
+                release.await();
+                return "{}";
+            }
+        });
+        m_server.setThreadCount(1);
+        m_server.setQueueCapacity(0);
+        start();
+
+        Thread blocked = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    get("/block");
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        blocked.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Response response = get("/search?q=salt");
+        assertEquals(503, response.m_status);
+        assertEquals(1, m_server.getRejectedCount());
+
+        // the worker may still be finishing the blocked request
+        release.countDown();
+        blocked.join(5000);
+        int status = 503;
+        for (int i = 0; i < 100 && status == 503; i++) {
+            Thread.sleep(10);
+            status = get("/search?q=salt").m_status;
+        }
+        assertEquals(200, status);
+    }
+
+    private void start() throws IOException {
+        m_server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    private Response get(String path) throws IOException {
+        URL url = new URL("http", "127.0.0.1", m_server.getAddress().getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            Response response = new Response();
+            response.m_status = connection.getResponseCode();
+            InputStream in = response.m_status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            try (Scanner scanner = new Scanner(in, "UTF-8")) {
+                response.m_body = scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+            }
+            return response;
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    private static class Response {
+        private int m_status;
+
+        private String m_body;
+    }
+}
@@ -0,0 +1,426 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.blackbeanbag.recipe.metrics.Metrics;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SearcherTest {
+    public static final int RECIPES = 50;
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private File m_docDir;
+
+    private String m_indexDir;
+
+    @Before
+    public void createIndex() throws IOException {
+        m_docDir = m_folder.newFolder("docs");
+        m_indexDir = new File(m_folder.getRoot(), "index").getPath();
+        for (int i = 0; i < RECIPES; i++) {
+            writeRecipe(m_docDir, "recipe" + i + ".txt", "Recipe " + i,
+                    "1 tsp salt\n" + (i % 2 == 0 ? "2 cups sugar\n" : "1 cup vinegar\n"));
+        }
+        new Indexer(m_docDir.getPath(), m_indexDir).createIndex();
+    }
+
+    @Test
+    public void testResultFields() {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            List<SearchResult> results = searcher.doSearch("vinegar");
+            assertEquals(RECIPES / 2, results.size());
+            for (SearchResult result : results) {
+                assertTrue(result.getTitle().startsWith("Recipe "));
+                assertTrue(new File(result.getFile()).getName().startsWith("recipe"));
+                assertTrue(result.getScore() > 0);
+            }
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testPaging() {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            Set<String> files = new HashSet<String>();
+
+            SearchPage page = searcher.search("salt", 7);
+            assertEquals(RECIPES, page.getTotalHits());
+            while (!page.getResults().isEmpty()) {
+                assertTrue(page.getResults().size() <= 7);
+                for (SearchResult result : page.getResults()) {
+                    assertTrue("Duplicate result " + result, files.add(result.getFile()));
+                }
+                page = searcher.search("salt", 7, page.getCursor());
+            }
+            assertEquals(RECIPES, files.size());
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testIterate() {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            Iterator<SearchResult> iterator = searcher.iterate("sugar");
+            int count = 0;
+            while (iterator.hasNext()) {
+                assertNotNull(iterator.next().getFile());
+                count++;
+            }
+            assertEquals(RECIPES / 2, count);
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testRepeatedSearchIsCached() {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            SearchPage page = searcher.search("vinegar", 10);
+            assertSame(page, searcher.search("  vinegar ", 10));
+            assertNotSame(page, searcher.search("vinegar", 20));
+
+            QueryCache<SearchPage> cache = searcher.getQueryCache();
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getMisses());
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testRefreshAfterCommit() throws IOException {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            assertEquals(0, searcher.search("plantain", 10).getTotalHits());
+
+            writeRecipe(m_docDir, "plantain.txt", "Plantain", "3 plantains\n");
+            new Indexer(m_docDir.getPath(), m_indexDir).updateIndex();
+
+            // the searcher keeps using its reader until it is refreshed
+            assertEquals(0, searcher.search("plantain", 10).getTotalHits());
+            assertTrue(searcher.refresh());
+            assertEquals(1, searcher.search("plantain", 10).getTotalHits());
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testSearchFinishingAfterRefresh() throws IOException {
+        final AtomicBoolean refresh = new AtomicBoolean(true);
+        Searcher searcher = new Searcher(m_indexDir) {
+            @Override
+            protected SearchPage search(IndexSearcher searcher, Query query, int pageSize, ScoreDoc after,
+                    AtomicBoolean cancelled) throws IOException {
+                if (refresh.getAndSet(false)) {
+                    // the index changes while the search runs
+                    writeRecipe(m_docDir, "plantain.txt", "Plantain", "3 plantains\n1 tsp salt\n");
+                    new Indexer(m_docDir.getPath(), m_indexDir).updateIndex();
+                    assertTrue(refresh());
+                    assertEquals(1, search("plantain", 10).getTotalHits());
+                }
+                return super.search(searcher, query, pageSize, after, cancelled);
+            }
+        };
+        try {
+            assertEquals(RECIPES, searcher.search("salt", 10).getTotalHits());
+
+            // the page of the old reader neither replaced the cached page
+            // of the new reader nor was cached itself
+            QueryCache<SearchPage> cache = searcher.getQueryCache();
+            assertEquals(1, searcher.search("plantain", 10).getTotalHits());
+            assertEquals(RECIPES + 1, searcher.search("salt", 10).getTotalHits());
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.getInvalidations());
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testNearRealTimeRefresh() throws IOException {
+        IndexWriter writer = new IndexWriter(FSDirectory.open(new File(m_indexDir)),
+                new IndexWriterConfig(Version.LUCENE_47, new EnglishAnalyzer(Version.LUCENE_47)));
+        Searcher searcher = new Searcher(writer);
+        try {
+            writer.addDocument(DocumentSchema.DEFAULT.createDocument(
+                    "plantain.txt", "Plantain", "3 plantains"));
+            assertEquals(0, searcher.search("plantain", 10).getTotalHits());
+            searcher.refresh();
+            assertEquals(1, searcher.search("plantain", 10).getTotalHits());
+        }
+        finally {
+            searcher.close();
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testIteratorHoldsReader() throws IOException {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            Searcher.ResultIterator iterator = searcher.iterate("salt");
+            assertTrue(iterator.hasNext());
+
+            writeRecipe(m_docDir, "extra.txt", "Extra", "1 tsp salt\n");
+            new Indexer(m_docDir.getPath(), m_indexDir).updateIndex();
+            searcher.refresh();
+            assertEquals(RECIPES + 1, searcher.search("salt", 10).getTotalHits());
+
+            int count = 0;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            assertEquals(RECIPES, count);
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testCancelledSearch() {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            searcher.search("salt", 10, null, new AtomicBoolean(true));
+            fail("Expected search to be cancelled");
+        }
+        catch (SearchCancelledException e) {
+            // expected
+        }
+
+        // a cancelled search is not cached
+        SearchPage page = searcher.search("salt", 10, null, new AtomicBoolean(false));
+        assertEquals(RECIPES, page.getTotalHits());
+        assertEquals(10, page.getResults().size());
+        assertEquals(page.getTotalHits(), searcher.search("salt", 10).getTotalHits());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            searcher.search("vinegar", 10);
+            searcher.search("vinegar", 10);
+            try {
+                searcher.search("salt", 10, null, new AtomicBoolean(true));
+                fail("Expected search to be cancelled");
+            }
+            catch (SearchCancelledException e) {
+                // expected
+            }
+
+            SearchMetrics metrics = searcher.getMetrics();
+            assertEquals(2, metrics.getSearchCount());
+            assertEquals(1, metrics.getCacheHitCount());
+            assertEquals(1, metrics.getCacheMissCount());
+            assertEquals(1, metrics.getCancelledCount());
+            assertEquals(1, metrics.getHitsPerQuery().getCount());
+            assertEquals(RECIPES / 2, metrics.getHitsPerQuery().getMax());
+            assertEquals(2, metrics.getLatencyMicros().getCount());
+            assertNotNull(metrics.report());
+            assertNull("Nothing to report after an idle period", metrics.report());
+
+            ObjectName name = Metrics.register("Searcher", "test", metrics);
+            try {
+                CompositeData latency = (CompositeData) ManagementFactory.getPlatformMBeanServer()
+                        .getAttribute(name, "LatencyMicros");
+                assertEquals(2L, latency.get("count"));
+            }
+            finally {
+                Metrics.unregister(name);
+            }
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testFacetedSearch() throws IOException {
+        File docDir = m_folder.newFolder("categories");
+        String indexDir = new File(m_folder.getRoot(), "faceted").getPath();
+        for (String category : new String[] {"rice", "beans"}) {
+            File dir = new File(docDir, category);
+            assertTrue(dir.mkdir());
+            for (int i = 0; i < 3; i++) {
+                writeRecipe(dir, category + i + ".txt", "Recipe " + i,
+                        "- 2 cups " + category + " (rinsed)\n1 tsp salt\n" + (i == 0 ? "3 cloves garlic, minced\n" : ""));
+            }
+        }
+        writeRecipe(docDir, "water.txt", "Water", "4 cups of water");
+        new Indexer(docDir.getPath(), indexDir).createIndex();
+
+        Searcher searcher = new Searcher(indexDir);
+        try {
+            FacetedSearchPage page = searcher.facetedSearch("", null, 10, 10);
+            assertEquals(7, page.getTotalHits());
+            assertEquals("salt (6)", page.getFacet(DocumentSchema.FACET_INGREDIENT).get(0).toString());
+            assertEquals(5, page.getFacet(DocumentSchema.FACET_INGREDIENT).size());
+            assertEquals(2, page.getFacet(DocumentSchema.FACET_CATEGORY).size());
+
+            page = searcher.facetedSearch("salt", null, 10, 1);
+            assertEquals(6, page.getTotalHits());
+            assertEquals(1, page.getFacet(DocumentSchema.FACET_INGREDIENT).size());
+
+            // drill down on one category; sibling categories keep their counts
+            Map<String, List<String>> filters = Collections.singletonMap(
+                    DocumentSchema.FACET_CATEGORY, Arrays.asList("rice"));
+            page = searcher.facetedSearch("salt", filters, 10, 10);
+            assertEquals(3, page.getTotalHits());
+            for (SearchResult result : page.getResults()) {
+                assertEquals("rice", new File(result.getFile()).getParentFile().getName());
+            }
+            assertEquals("[beans (3), rice (3)]", sortedCounts(page.getFacet(DocumentSchema.FACET_CATEGORY)));
+            assertEquals("[garlic (1), rice (3), salt (3)]",
+                    sortedCounts(page.getFacet(DocumentSchema.FACET_INGREDIENT)));
+
+            // values of one dimension are alternatives, dimensions are combined
+            filters = Collections.singletonMap(DocumentSchema.FACET_CATEGORY, Arrays.asList("rice", "beans"));
+            assertEquals(6, searcher.facetedSearch("", filters, 10, 10).getTotalHits());
+            filters = Collections.singletonMap(DocumentSchema.FACET_INGREDIENT, Arrays.asList("garlic"));
+            page = searcher.facetedSearch("", filters, 10, 10);
+            assertEquals(2, page.getTotalHits());
+            assertEquals("[beans (1), rice (1)]", sortedCounts(page.getFacet(DocumentSchema.FACET_CATEGORY)));
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testFacetedPaging() {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            Set<String> files = new HashSet<String>();
+            FacetedSearchPage page = searcher.facetedSearch("salt", null, 7, 5);
+            assertEquals("[salt (50), sugar (25), vinegar (25)]",
+                    sortedCounts(page.getFacet(DocumentSchema.FACET_INGREDIENT)));
+            assertTrue(page.getFacet(DocumentSchema.FACET_CATEGORY).isEmpty());
+            while (!page.getResults().isEmpty()) {
+                for (SearchResult result : page.getResults()) {
+                    assertTrue("Duplicate result " + result, files.add(result.getFile()));
+                }
+                page = searcher.facetedSearch("salt", null, 7, page.getCursor(), 5);
+            }
+            assertEquals(RECIPES, files.size());
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testPlainAndFacetedPagesDoNotShareKeys() {
+        Searcher searcher = new Searcher(m_indexDir);
+        try {
+            // criteria that mimic the key of a faceted page
+            searcher.search("salt\u000020\u0000facets", 5);
+            FacetedSearchPage page = searcher.facetedSearch("salt", null, 20, 5);
+            assertEquals(3, page.getFacet(DocumentSchema.FACET_INGREDIENT).size());
+            assertEquals(0, searcher.getQueryCache().getHits());
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testCancelledFacetedSearch() {
+        // cancel once the search has started
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        Searcher searcher = new Searcher(m_indexDir) {
+            @Override
+            protected SortedSetDocValuesReaderState facetState(IndexReader reader) throws IOException {
+                cancelled.set(true);
+                return super.facetState(reader);
+            }
+        };
+        try {
+            Map<String, List<String>> filters = Collections.singletonMap(
+                    DocumentSchema.FACET_INGREDIENT, Arrays.asList("sugar"));
+            for (Map<String, List<String>> filter : Arrays.asList(null, filters)) {
+                cancelled.set(false);
+                try {
+                    searcher.facetedSearch("", filter, 10, null, 5, cancelled);
+                    fail("Expected search to be cancelled");
+                }
+                catch (SearchCancelledException e) {
+                    // expected
+                }
+            }
+            assertEquals(2, searcher.getMetrics().getCancelledCount());
+
+            // a cancelled search is not cached
+            assertEquals(RECIPES,
+                    searcher.facetedSearch("", null, 10, null, 5, new AtomicBoolean()).getTotalHits());
+            assertEquals(RECIPES / 2, searcher.facetedSearch("", filters, 10, 5).getTotalHits());
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    private static String sortedCounts(List<FacetCount> counts) {
+        Set<String> sorted = new TreeSet<String>();
+        for (FacetCount count : counts) {
+            sorted.add(count.toString());
+        }
+        return sorted.toString();
+    }
+
+    public static File writeRecipe(File dir, String name, String title, String body)
+            throws IOException {
+        File file = new File(dir, name);
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(title + "\n" + body);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,222 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardedIndexerTest {
+    private static final String[] CATEGORIES = {"soups", "salads", "desserts", "breads", "sauces"};
+
+    private static final int RECIPES = 8;
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private File m_docDir;
+
+    private String m_indexDir;
+
+    @Before
+    public void createDocs() throws IOException {
+        m_docDir = m_folder.newFolder("docs");
+        for (String category : CATEGORIES) {
+            File dir = new File(m_docDir, category);
+            assertTrue(dir.mkdir());
+            for (int i = 0; i < RECIPES; i++) {
+                SearcherTest.writeRecipe(dir, category + i + ".txt", "Recipe " + i, "1 tsp salt\n"
+                        + (i % 2 == 0 ? "2 cups sugar\n" : "1 cup vinegar\n") + (i == 0 ? "1 pinch saffron\n" : ""));
+            }
+        }
+        m_indexDir = new File(m_folder.getRoot(), "index").getPath();
+    }
+
+    @Test
+    public void testSameResultsAsSingleIndex() throws IOException {
+        String single = new File(m_folder.getRoot(), "single").getPath();
+        new Indexer(m_docDir.getPath(), single).createIndex();
+        Searcher searcher = new Searcher(single);
+        Map<String, Float> expected;
+        try {
+            expected = scores(searcher, "sugar saffron");
+        }
+        finally {
+            searcher.close();
+        }
+
+        for (ShardPolicy policy : ShardPolicy.values()) {
+            String indexDir = new File(m_folder.getRoot(), policy.name()).getPath();
+            new ShardedIndexer(m_docDir.getPath(), indexDir, 3, policy, IndexStorage.DEFAULT).createIndex();
+            searcher = new Searcher(shardDirs(indexDir, 3));
+            try {
+                assertEquals(policy.name(), expected, scores(searcher, "sugar saffron"));
+            }
+            finally {
+                searcher.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFolderPolicy() throws IOException {
+        ShardedIndexer indexer = new ShardedIndexer(m_docDir.getPath(), m_indexDir, 3, ShardPolicy.FOLDER,
+                IndexStorage.DEFAULT);
+        indexer.createIndex();
+
+        for (String category : CATEGORIES) {
+            int shard = indexer.getShardOf(new File(m_docDir, category + "/" + category + "0.txt").toPath());
+            for (int i = 1; i < RECIPES; i++) {
+                assertEquals(shard, indexer.getShardOf(
+                        new File(m_docDir, category + "/" + category + i + ".txt").toPath()));
+            }
+        }
+
+        Searcher searcher = new Searcher(shardDirs(m_indexDir, 3));
+        IndexSearcher s = searcher.acquire();
+        try {
+            assertEquals(3, s.getTopReaderContext().children().size());
+            assertEquals(CATEGORIES.length * RECIPES, s.getIndexReader().numDocs());
+        }
+        finally {
+            searcher.release(s);
+            searcher.close();
+        }
+    }
+
+    @Test
+    public void testParsePolicy() {
+        assertEquals(ShardPolicy.HASH, ShardPolicy.parse(null));
+        assertEquals(ShardPolicy.HASH, ShardPolicy.parse(" "));
+        assertEquals(ShardPolicy.FOLDER, ShardPolicy.parse(" Folder "));
+        try {
+            ShardPolicy.parse("random");
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPagingAndFacets() {
+        ShardedIndexer indexer = new ShardedIndexer(m_docDir.getPath(), m_indexDir, 4);
+        indexer.synchronize();
+        Searcher searcher = new Searcher(indexer);
+        try {
+            Set<String> files = new HashSet<String>();
+            SearchPage page = searcher.search("salt", 7, null, new AtomicBoolean());
+            assertEquals(CATEGORIES.length * RECIPES, page.getTotalHits());
+            while (!page.getResults().isEmpty()) {
+                for (SearchResult result : page.getResults()) {
+                    assertTrue("Duplicate result " + result, files.add(result.getFile()));
+                }
+                page = searcher.search("salt", 7, page.getCursor(), new AtomicBoolean());
+            }
+            assertEquals(CATEGORIES.length * RECIPES, files.size());
+
+            Map<String, List<String>> filters = new HashMap<String, List<String>>();
+            filters.put(DocumentSchema.FACET_CATEGORY, Arrays.asList("soups"));
+            FacetedSearchPage faceted = searcher.facetedSearch("sugar", filters, 10, 10);
+            assertEquals(RECIPES / 2, faceted.getTotalHits());
+            assertEquals(CATEGORIES.length, faceted.getFacet(DocumentSchema.FACET_CATEGORY).size());
+        }
+        finally {
+            searcher.close();
+            indexer.close();
+        }
+    }
+
+    @Test
+    public void testRebuildShard() throws IOException {
+        ShardedIndexer indexer = new ShardedIndexer(m_docDir.getPath(), m_indexDir, 3);
+        indexer.synchronize();
+        Searcher searcher = new Searcher(indexer);
+        try {
+            Map<String, Float> before = scores(searcher, "vinegar");
+            assertEquals(CATEGORIES.length * RECIPES / 2, before.size());
+
+            SearcherTest.writeRecipe(new File(m_docDir, "soups"), "soups99.txt", "Recipe 99", "1 cup vinegar\n");
+            int shard = indexer.getShardOf(new File(m_docDir, "soups/soups99.txt").toPath());
+            indexer.rebuildShard(shard);
+            assertTrue(searcher.refresh());
+            assertEquals(before.size() + 1, scores(searcher, "vinegar").size());
+        }
+        finally {
+            searcher.close();
+            indexer.close();
+        }
+    }
+
+    @Test
+    public void testWatcher() throws Exception {
+        ShardedIndexer indexer = new ShardedIndexer(m_docDir.getPath(), m_indexDir, 3);
+        IndexWatcher watcher = new IndexWatcher(indexer);
+        watcher.setQuietPeriod(100L);
+        watcher.start();
+        final Searcher searcher = new Searcher(indexer);
+        final CountDownLatch changed = new CountDownLatch(1);
+        watcher.setListener(new IndexWatcher.Listener() {
+            @Override
+            public void indexChanged() {
+                searcher.refresh();
+                changed.countDown();
+            }
+        });
+        try {
+            List<Map<String, String>> commits = new ArrayList<Map<String, String>>();
+            for (Indexer shard : indexer.getShards()) {
+                commits.add(shard.getWriter().getCommitData());
+            }
+
+            SearcherTest.writeRecipe(new File(m_docDir, "soups"), "soups99.txt", "Recipe 99", "1 cup chervil\n");
+            assertTrue(changed.await(20, TimeUnit.SECONDS));
+            assertEquals(1, searcher.search("chervil", 10).getTotalHits());
+
+            // only the shard owning the file is committed
+            int owner = indexer.getShardOf(new File(m_docDir, "soups/soups99.txt").toPath());
+            for (int i = 0; i < commits.size(); i++) {
+                assertEquals("Shard " + i, i != owner,
+                        commits.get(i).equals(indexer.getShard(i).getWriter().getCommitData()));
+            }
+        }
+        finally {
+            watcher.close();
+            searcher.close();
+            indexer.close();
+        }
+    }
+
+    private static List<Directory> shardDirs(String indexDir, int count) throws IOException {
+        Directory[] dirs = new Directory[count];
+        for (int i = 0; i < count; i++) {
+            dirs[i] = FSDirectory.open(ShardedIndexer.getShardDir(indexDir, i));
+        }
+        return Arrays.asList(dirs);
+    }
+
+    private static Map<String, Float> scores(Searcher searcher, String criteria) {
+        Map<String, Float> scores = new HashMap<String, Float>();
+        for (SearchResult result : searcher.search(criteria, 1000).getResults()) {
+            scores.put(result.getFile(), result.getScore());
+        }
+        return scores;
+    }
+}
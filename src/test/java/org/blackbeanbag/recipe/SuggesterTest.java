@@ -0,0 +1,62 @@
+package org.blackbeanbag.recipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SuggesterTest {
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testSuggestTermsAndTitles() throws IOException, InterruptedException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        SearcherTest.writeRecipe(docDir, "a.txt", "Vinaigrette", "3 tbsp vinegar\n1 tsp mustard\n");
+        SearcherTest.writeRecipe(docDir, "b.txt", "Pickles", "2 cups vinegar\n1 tsp dill\n");
+        SearcherTest.writeRecipe(docDir, "c.txt", "Vindaloo", "2 lbs pork\n");
+        new Indexer(docDir.getPath(), indexDir).createIndex();
+
+        Searcher searcher = new Searcher(indexDir);
+        try {
+            Suggester suggester = new Suggester(searcher);
+            List<String> suggestions = suggester.suggest("Vin", 10);
+
+            // vinegar appears in two documents, so it is suggested first
+            assertEquals("vinegar", suggestions.get(0));
+            // stems are suggested as the words they were indexed from
+            assertTrue(suggestions.contains("vinaigrette"));
+            assertFalse(suggestions.contains("vinaigrett"));
+            assertTrue(suggestions.contains("vindaloo"));
+            assertEquals(2, suggester.suggest("vin", 2).size());
+
+            // quantities are not suggested
+            assertTrue(suggester.suggest("2", 10).isEmpty());
+            assertTrue(suggester.suggest("xyz", 10).isEmpty());
+
+            // suggestions follow index changes
+            SearcherTest.writeRecipe(docDir, "d.txt", "Xacuti", "1 tbsp poppy seeds\n");
+            new Indexer(docDir.getPath(), indexDir).updateIndex();
+            searcher.refresh();
+
+            // the suggestions are rebuilt in the background
+            long deadline = System.currentTimeMillis() + 10000;
+            while (suggester.suggest("xa", 10).isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("xacuti", suggester.suggest("xa", 10).get(0));
+            assertTrue(suggester.suggest("pop", 10).contains("poppy"));
+            assertFalse(suggester.suggest("pop", 10).contains("poppi"));
+            suggester.close();
+        }
+        finally {
+            searcher.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.blackbeanbag.recipe.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucket(value);
+            assertTrue(value <= Histogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value > Histogram.upperBound(bucket - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.update(i);
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        assertEquals(500, snapshot.getP50(), 500 * 0.07);
+        assertEquals(990, snapshot.getP99(), 990 * 0.07);
+        assertEquals(1000, snapshot.getMax(), 1000 * 0.07);
+        assertTrue(snapshot.getMax() >= 1000);
+    }
+
+    @Test
+    public void testSnapshotDifference() {
+        Histogram histogram = new Histogram();
+        histogram.update(1000);
+        Histogram.Snapshot earlier = histogram.snapshot();
+        histogram.update(3);
+        histogram.update(5);
+
+        Histogram.Snapshot difference = histogram.snapshot().minus(earlier);
+        assertEquals(2, difference.getCount());
+        assertEquals(4.0, difference.getMean(), 0.001);
+        assertEquals(5, difference.getMax());
+        assertEquals(0, new Histogram().snapshot().getP99());
+    }
+}
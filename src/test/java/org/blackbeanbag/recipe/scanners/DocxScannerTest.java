@@ -0,0 +1,164 @@
+package org.blackbeanbag.recipe.scanners;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.lucene.document.Document;
+import org.blackbeanbag.recipe.DocumentSchema;
+import org.blackbeanbag.recipe.Indexer;
+import org.blackbeanbag.recipe.Searcher;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DocxScannerTest {
+    private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"><w:body>"
+            + "<w:p/>"
+            + "<w:p><w:r><w:t>Arroz con </w:t></w:r><w:r><w:rPr><w:b/></w:rPr><w:t>Pollo</w:t></w:r></w:p>"
+            + "<w:p><w:pPr><w:tabs><w:tab w:val=\"left\" w:pos=\"2880\"/></w:tabs></w:pPr>"
+            + "<w:r><w:t>2 cups rice</w:t><w:tab/><w:t>(rinsed)</w:t></w:r></w:p>"
+            + "<w:p><w:r><w:t>1 chicken</w:t><w:br/><w:t>cut in pieces</w:t></w:r>"
+            + "<w:del><w:r><w:delText>saffron</w:delText></w:r></w:del></w:p>"
+            + "<w:p><w:r><w:t xml:space=\"preserve\">Cook &amp; serve</w:t></w:r></w:p>"
+            + "</w:body></w:document>";
+
+    private static final String TEXT = "\nArroz con Pollo\n2 cups rice\t(rinsed)\n1 chicken\ncut in pieces\n"
+            + "Cook & serve\n";
+
+    private static final String NAMESPACE = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testScan() throws IOException {
+        File file = writeDocx(m_folder.newFile("pollo.docx"), DOCUMENT);
+        Document doc = new DocxScanner().scan(file.getPath());
+        assertEquals("Arroz con Pollo", doc.get(DocumentSchema.FIELD_TITLE));
+        assertEquals(TEXT, new DocxScanner(new DocumentSchema(true, true, false))
+                .scan(file.getPath()).get(DocumentSchema.FIELD_BODY));
+    }
+
+    @Test
+    public void testStreamingScan() throws IOException {
+        Path file = writeDocx(m_folder.newFile("pollo.docx"), DOCUMENT).toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Document doc = new DocxScanner().scan(file, channel, channel.size());
+            assertEquals("Arroz con Pollo", doc.get(DocumentSchema.FIELD_TITLE));
+            assertEquals(TEXT, read(doc.getField(DocumentSchema.FIELD_BODY).readerValue()));
+        }
+    }
+
+    @Test
+    public void testLongParagraph() throws IOException {
+        StringBuilder text = new StringBuilder();
+        StringBuilder document = new StringBuilder("<w:document xmlns:w=\"" + NAMESPACE + "\"><w:body>"
+                + "<w:p><w:r><w:t>Paella</w:t></w:r></w:p><w:p>");
+        for (int i = 0; i < 10000; i++) {
+            String run = "rice" + i + " ";
+            text.append(run);
+            document.append("<w:r><w:t xml:space=\"preserve\">").append(run).append("</w:t></w:r>");
+        }
+        document.append("</w:p></w:body></w:document>");
+
+        Path file = writeDocx(m_folder.newFile("paella.docx"), document.toString()).toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Document doc = new DocxScanner().scan(file, channel, channel.size());
+            assertEquals("Paella", doc.get(DocumentSchema.FIELD_TITLE));
+
+            // past the text read ahead for the ingredients, the paragraph
+            // is returned in chunks rather than all at once
+            Reader reader = doc.getField(DocumentSchema.FIELD_BODY).readerValue();
+            StringBuilder body = new StringBuilder();
+            char[] buffer = new char[1024 * 1024];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                if (body.length() > 0) {
+                    assertTrue(String.valueOf(n), n < 2 * DocxScanner.CHUNK_SIZE);
+                }
+                body.append(buffer, 0, n);
+            }
+            assertEquals("Paella\n" + text + "\n", body.toString());
+        }
+    }
+
+    @Test
+    public void testNotADocument() throws IOException {
+        File file = m_folder.newFile("empty.docx");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
+            zip.write("<Types/>".getBytes(Charset.forName("UTF-8")));
+        }
+        try {
+            new DocxScanner().scan(file.getPath());
+            fail("Expected RuntimeException");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            new DocxScanner().scan(file.toPath(), channel, channel.size());
+            fail("Expected IOException");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIndexDocx() throws IOException {
+        File docDir = m_folder.newFolder("docs");
+        String indexDir = new File(m_folder.getRoot(), "index").getPath();
+        writeDocx(new File(docDir, "pollo.docx"), DOCUMENT);
+
+        new Indexer(docDir.getPath(), indexDir).createIndex();
+        Searcher searcher = new Searcher(indexDir);
+        try {
+            assertEquals(1, searcher.doSearch("chicken").size());
+            assertEquals("Arroz con Pollo", searcher.doSearch("rice").get(0).getTitle());
+            assertEquals(0, searcher.doSearch("saffron").size());
+        }
+        finally {
+            searcher.close();
+        }
+    }
+
+    private static File writeDocx(File file, String document) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
+            zip.write("<Types/>".getBytes(Charset.forName("UTF-8")));
+
+            // a large image before the document, which must be skipped
+            byte[] image = new byte[4 * 1024 * 1024];
+            new Random(42).nextBytes(image);
+            zip.putNextEntry(new ZipEntry("word/media/image1.png"));
+            zip.write(image);
+
+            zip.putNextEntry(new ZipEntry("word/document.xml"));
+            zip.write(document.getBytes(Charset.forName("UTF-8")));
+        }
+        return file;
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[16];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, n);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package org.blackbeanbag.recipe.scanners;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.lucene.document.Document;
+import org.blackbeanbag.recipe.DocumentSchema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScannerRegistryTest {
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testExtensionDispatch() {
+        ScannerRegistry registry = ScannerRegistry.createDefault(DocumentSchema.DEFAULT);
+        assertEquals("WordScanner", registry.find(Paths.get("/recipes/Rice.DOC")).getName());
+        assertEquals("TextScanner", registry.find(Paths.get("/recipes.doc/rice.txt")).getName());
+        assertNull(registry.find(Paths.get("/recipes/rice.xdoc")));
+        assertNull(registry.find(Paths.get("/recipes/ricedoc")));
+        assertEquals("DocxScanner", registry.find(Paths.get("/recipes/rice.docx")).getName());
+        assertEquals("", ScannerRegistry.extension(Paths.get("/recipes.d/rice")));
+    }
+
+    @Test
+    public void testServiceLoader() {
+        ScannerRegistry registry = ScannerRegistry.createDefault(DocumentSchema.DEFAULT);
+        ScannerRegistry.Registration registration = registry.find(Paths.get("rice.md"));
+        assertEquals("MarkdownScanner", registration.getName());
+        assertEquals(1, registration.getPriority());
+        assertEquals(4, registry.getScanners().size());
+    }
+
+    @Test
+    public void testPriorities() {
+        ScannerRegistry registry = new ScannerRegistry();
+        TextScanner first = new TextScanner();
+        TextScanner second = new TextScanner();
+        registry.register(first, 0);
+        registry.register(second, 0);
+        assertSame(first, registry.find(Paths.get("rice.txt")).getScanner());
+
+        TextScanner preferred = new TextScanner();
+        registry.register(preferred, 5);
+        registry.register(new TextScanner(), 1);
+        assertSame(preferred, registry.find(Paths.get("rice.txt")).getScanner());
+    }
+
+    @Test
+    public void testUndeclaredScanners() {
+        Scanner any = new ProbeScanner("");
+        Scanner recipe = new ProbeScanner(".recipe");
+        ScannerRegistry registry = new ScannerRegistry();
+        registry.register(new TextScanner(), 0);
+        registry.register(any, 0);
+        registry.register(recipe, 1);
+
+        // declared types come first; undeclared ones by priority
+        assertEquals("TextScanner", registry.find(Paths.get("rice.txt")).getName());
+        assertSame(recipe, registry.find(Paths.get("rice.recipe")).getScanner());
+        assertSame(any, registry.find(Paths.get("rice.doc")).getScanner());
+    }
+
+    @Test
+    public void testSniffing() throws IOException {
+        File file = m_folder.newFile("rice");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0,
+                    (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1, 0, 0});
+        }
+        Path path = file.toPath();
+
+        ScannerRegistry registry = ScannerRegistry.createDefault(DocumentSchema.DEFAULT);
+        assertNull(registry.find(path));
+        registry.setSniffing(true);
+        assertEquals(ScannerRegistry.OLE2_MIME_TYPE, ScannerRegistry.sniff(path));
+        assertEquals("WordScanner", registry.find(path).getName());
+    }
+
+    public static class MarkdownProvider implements ScannerProvider {
+        @Override
+        public Scanner createScanner(DocumentSchema schema) {
+            return new MarkdownScanner(schema);
+        }
+
+        @Override
+        public int getPriority() {
+            return 1;
+        }
+    }
+
+    private static class MarkdownScanner extends TextScanner {
+        MarkdownScanner(DocumentSchema schema) {
+            super(schema);
+        }
+
+        @Override
+        public Collection<String> getExtensions() {
+            return Arrays.asList("md", "markdown");
+        }
+
+        @Override
+        public Collection<String> getMimeTypes() {
+            return Collections.singletonList("text/markdown");
+        }
+    }
+
+    private static class ProbeScanner implements Scanner {
+        private final String m_suffix;
+
+        ProbeScanner(String suffix) {
+            m_suffix = suffix;
+        }
+
+        @Override
+        public boolean supportsFile(String file) {
+            return file.endsWith(m_suffix);
+        }
+
+        @Override
+        public Document scan(String file) {
+            return null;
+        }
+    }
+}
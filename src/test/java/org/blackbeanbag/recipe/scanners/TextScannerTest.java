@@ -0,0 +1,100 @@
+package org.blackbeanbag.recipe.scanners;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.lucene.document.Document;
+import org.blackbeanbag.recipe.DocumentSchema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TextScannerTest {
+    private static final String TITLE = "Cr\u00e8me br\u00fbl\u00e9e";
+
+    private static final String TEXT = "Cr\u00e8me br\u00fbl\u00e9e\n2 cups cr\u00e8me fra\u00eeche\n";
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testDetectCharset() {
+        assertEquals("UTF-8", detect("plain ascii".getBytes(Charset.forName("US-ASCII"))));
+        assertEquals("UTF-8", detect(TEXT.getBytes(Charset.forName("UTF-8"))));
+        assertEquals(CharsetDetector.FALLBACK.name(), detect(TEXT.getBytes(Charset.forName("windows-1252"))));
+
+        ByteBuffer bom = ByteBuffer.wrap(new byte[] {(byte) 0xFF, (byte) 0xFE, 'a', 0});
+        assertEquals("UTF-16LE", CharsetDetector.detect(bom).name());
+        assertEquals(2, bom.position());
+    }
+
+    @Test
+    public void testStreamingScan() throws IOException {
+        for (String charset : new String[] {"UTF-8", "windows-1252", "UTF-16"}) {
+            Path file = write("recipe.txt", TEXT, charset);
+            assertEquals(charset, TEXT, scanBody(new TextScanner(), file));
+        }
+    }
+
+    @Test
+    public void testMappedScan() throws IOException {
+        Path file = write("recipe.txt", TEXT, "UTF-8");
+        TextScanner scanner = new TextScanner();
+        scanner.setMapThreshold(1);
+        assertEquals(TEXT, scanBody(scanner, file));
+    }
+
+    @Test
+    public void testStoredBody() throws IOException {
+        Path file = write("recipe.txt", TEXT, "UTF-8");
+        TextScanner scanner = new TextScanner(new DocumentSchema(true, true, false));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Document doc = scanner.scan(file, channel, channel.size());
+            assertEquals(TEXT, doc.get(DocumentSchema.FIELD_BODY));
+        }
+    }
+
+    @Test
+    public void testLegacyScan() throws IOException {
+        Path file = write("recipe.txt", TEXT, "windows-1252");
+        Document doc = new TextScanner(new DocumentSchema(true, true, false)).scan(file.toString());
+        assertEquals(TITLE, doc.get(DocumentSchema.FIELD_TITLE));
+        assertEquals(TEXT, doc.get(DocumentSchema.FIELD_BODY));
+    }
+
+    private String detect(byte[] bytes) {
+        return CharsetDetector.detect(ByteBuffer.wrap(bytes)).name();
+    }
+
+    private Path write(String name, String text, String charset) throws IOException {
+        Path file = new File(m_folder.getRoot(), name).toPath();
+        Files.write(file, text.getBytes(Charset.forName(charset)));
+        return file;
+    }
+
+    private String scanBody(TextScanner scanner, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Document doc = scanner.scan(file, channel, channel.size());
+            assertEquals(TITLE, doc.get(DocumentSchema.FIELD_TITLE));
+
+            Reader reader = doc.getField(DocumentSchema.FIELD_BODY).readerValue();
+            assertNotNull(reader);
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[3];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.blackbeanbag.recipe.scanners;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.lucene.document.Document;
+import org.apache.poi.hwpf.extractor.WordExtractor;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.blackbeanbag.recipe.DocumentSchema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WordScannerTest {
+    private static final String RECIPE = "data/Arroz con Gandules Recipe.doc";
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testScan() throws IOException {
+        Document doc = new WordScanner(new DocumentSchema(true, true, false)).scan(RECIPE);
+        assertEquals("Arroz con Gandules Recipe", doc.get(DocumentSchema.FIELD_TITLE));
+
+        WordExtractor extractor = new WordExtractor(new FileInputStream(RECIPE));
+        assertEquals(words(extractor.getText()), words(doc.get(DocumentSchema.FIELD_BODY)));
+    }
+
+    @Test
+    public void testStreamingScan() throws IOException {
+        String expected = new WordScanner(new DocumentSchema(true, true, false)).scan(RECIPE)
+                .get(DocumentSchema.FIELD_BODY);
+        Path file = Paths.get(RECIPE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Document doc = new WordScanner().scan(file, channel, channel.size());
+            assertEquals("Arroz con Gandules Recipe", doc.get(DocumentSchema.FIELD_TITLE));
+            assertEquals(expected, read(doc.getField(DocumentSchema.FIELD_BODY).readerValue()));
+            // the container is released as soon as the text has been read
+            assertFalse(channel.isOpen());
+        }
+    }
+
+    @Test
+    public void testNotADocument() throws IOException {
+        File text = m_folder.newFile("text.doc");
+        try (OutputStream out = new FileOutputStream(text)) {
+            out.write("Arroz con Gandules\n".getBytes("UTF-8"));
+        }
+        assertScanFails(text);
+
+        // an OLE2 container without a WordDocument stream
+        File empty = m_folder.newFile("empty.doc");
+        try (OutputStream out = new FileOutputStream(empty)) {
+            new POIFSFileSystem().writeFilesystem(out);
+        }
+        assertScanFails(empty);
+    }
+
+    private static void assertScanFails(File file) throws IOException {
+        try {
+            new WordScanner().scan(file.getPath());
+            fail("Expected RuntimeException");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            new WordScanner().scan(file.toPath(), channel, channel.size());
+            fail("Expected IOException");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static String words(String text) {
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[1024];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, n);
+        }
+        return sb.toString();
+    }
+}